@@ -0,0 +1,175 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import com.persistit.Exchange;
+import com.persistit.Key;
+import com.persistit.Persistit;
+import com.persistit.Value;
+import com.persistit.Volume;
+import com.persistit.logging.Slf4jAdapter;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.internal.DefaultTempFolder;
+import org.sonar.batch.analysis.AnalysisProperties;
+import org.sonar.batch.index.Cache;
+import org.sonar.batch.index.Caches;
+import org.sonar.batch.issue.tracking.TrackedIssue;
+
+/**
+ * Compares the in-heap batch {@link Cache} with the Persistit storage it replaces, configured as it was in the batch.
+ * Issues are put then read by component, as done by the issue cache.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 3)
+@BenchmarkMode(Mode.Throughput)
+public class BatchCacheBenchmark {
+
+  private static final int NB_COMPONENTS = 100;
+  private static final int NB_ISSUES_PER_COMPONENT = 100;
+
+  List<TrackedIssue> issues = new ArrayList<>();
+  File persistitDir;
+  Persistit persistit;
+  Exchange exchange;
+  Caches caches;
+  Cache<TrackedIssue> cache;
+
+  @Setup
+  public void setup() throws Exception {
+    for (int i = 0; i < NB_COMPONENTS; i++) {
+      for (int j = 0; j < NB_ISSUES_PER_COMPONENT; j++) {
+        issues.add(new TrackedIssue()
+          .setKey("AV" + i + "_" + j)
+          .setComponentKey("project:src/main/java/Foo" + i + ".java")
+          .setRuleKey(RuleKey.of("squid", "S" + j))
+          .setSeverity(Severity.MAJOR)
+          .setMessage("message of issue " + j)
+          .setStartLine(j)
+          .setEndLine(j)
+          .setStatus("OPEN")
+          .setNew(true)
+          .setCreationDate(new Date()));
+      }
+    }
+
+    persistitDir = Files.createTempDirectory("persistit").toFile();
+    persistit = new Persistit();
+    persistit.setPersistitLogger(new Slf4jAdapter(LoggerFactory.getLogger("PERSISTIT")));
+    Properties props = new Properties();
+    props.setProperty("datapath", persistitDir.getAbsolutePath());
+    props.setProperty("logpath", "${datapath}/log");
+    props.setProperty("logfile", "${logpath}/persistit_${timestamp}.log");
+    props.setProperty("buffer.count.8192", "10");
+    props.setProperty("journalpath", "${datapath}/journal");
+    props.setProperty("tmpvoldir", "${datapath}");
+    props.setProperty("volume.1", "${datapath}/persistit,create,pageSize:8192,initialPages:10,extensionPages:100,maximumPages:25000");
+    props.setProperty("jmx", "false");
+    persistit.setProperties(props);
+    persistit.initialize();
+    Volume volume = persistit.createTemporaryVolume();
+    exchange = persistit.getExchange(volume, "issues", true);
+    exchange.setMaximumValueSize(Value.MAXIMUM_SIZE);
+
+    caches = new Caches(new AnalysisProperties(Collections.<String, String>emptyMap()), new DefaultTempFolder(persistitDir));
+    cache = caches.createCache("issues");
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    caches.stop();
+    persistit.releaseExchange(exchange);
+    persistit.close(false);
+    FileUtils.deleteQuietly(persistitDir);
+  }
+
+  @Benchmark
+  public int persistit() throws Exception {
+    exchange.removeAll();
+    for (TrackedIssue issue : issues) {
+      exchange.clear().append(issue.componentKey()).append(issue.key());
+      exchange.getValue().put(issue);
+      exchange.store();
+    }
+    int count = 0;
+    for (int i = 0; i < NB_COMPONENTS; i++) {
+      exchange.clear().append("project:src/main/java/Foo" + i + ".java").append(Key.BEFORE);
+      while (exchange.next()) {
+        TrackedIssue issue = (TrackedIssue) exchange.getValue().get();
+        count += issue.startLine();
+      }
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int heap() {
+    cache.clear();
+    for (TrackedIssue issue : issues) {
+      cache.put(issue.componentKey(), issue.key(), issue);
+    }
+    int count = 0;
+    for (int i = 0; i < NB_COMPONENTS; i++) {
+      for (TrackedIssue issue : cache.values("project:src/main/java/Foo" + i + ".java")) {
+        count += issue.startLine();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BatchCacheBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
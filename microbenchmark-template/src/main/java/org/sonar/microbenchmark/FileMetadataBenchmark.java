@@ -0,0 +1,120 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.RandomStringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.fs.internal.FileMetadata;
+
+/**
+ * Computation of metadata and line hashes of source files, executed by the batch for each indexed file.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 3)
+@BenchmarkMode(Mode.Throughput)
+public class FileMetadataBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int linesNumber;
+
+  String content;
+  File file;
+  DefaultInputFile inputFile;
+  FileMetadata fileMetadata = new FileMetadata();
+
+  @Setup
+  public void setup() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < linesNumber; i++) {
+      // indented code with non-ASCII chars and Windows line ends
+      sb.append("    ").append(RandomStringUtils.randomAlphanumeric(40)).append(" = \"\u00e9\"; // ").append(RandomStringUtils.randomAlphanumeric(20)).append("\r\n");
+    }
+    content = sb.toString();
+    file = File.createTempFile("metadata", ".java");
+    FileUtils.write(file, content, StandardCharsets.UTF_8);
+    inputFile = new DefaultInputFile("foo", file.getName()).setModuleBaseDir(file.getParentFile().toPath()).setCharset(StandardCharsets.UTF_8);
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtils.deleteQuietly(file);
+  }
+
+  @Benchmark
+  public FileMetadata.Metadata readMetadataOfDecodedContent() {
+    return fileMetadata.readMetadata(file, StandardCharsets.UTF_8, new StringReader(content));
+  }
+
+  @Benchmark
+  public FileMetadata.Metadata readMetadataOfFile() {
+    return fileMetadata.readMetadata(file, StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public int computeLineHashes() {
+    LineHashCounter counter = new LineHashCounter();
+    FileMetadata.computeLineHashesForIssueTracking(inputFile, new StringReader(content), counter);
+    return counter.count;
+  }
+
+  private static class LineHashCounter implements FileMetadata.LineHashConsumer {
+    int count = 0;
+
+    @Override
+    public void consume(int lineIdx, byte[] hash) {
+      count++;
+    }
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(FileMetadataBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.Duration;
+import org.sonar.api.utils.System2;
+import org.sonar.core.issue.DefaultIssue;
+import org.sonar.core.issue.FieldDiffs;
+import org.sonar.core.util.CloseableIterator;
+import org.sonar.db.protobuf.DbCommons;
+import org.sonar.db.protobuf.DbIssues;
+import org.sonar.server.computation.issue.DefaultIssueCodec;
+import org.sonar.server.util.ObjectInputStreamIterator;
+import org.sonar.server.util.cache.DiskCache;
+
+/**
+ * Compares the format of the Compute Engine issue cache (Java serialization of each issue) with the binary
+ * encoding of {@link DefaultIssueCodec}, raw or compressed with LZ4. Sizes of files are logged on tear down.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+public class IssueCacheBenchmark {
+
+  private static final int NB_ISSUES = 10000;
+
+  File serializationFile;
+  File codecFile;
+  File compressedCodecFile;
+  List<DefaultIssue> issues = new ArrayList<>();
+
+  @Setup
+  public void setup() throws Exception {
+    serializationFile = File.createTempFile("microbenchmark", ".ser");
+    codecFile = File.createTempFile("microbenchmark", ".dat");
+    compressedCodecFile = File.createTempFile("microbenchmark", ".lz4");
+    for (int i = 0; i < NB_ISSUES; i++) {
+      issues.add(newIssue(i));
+    }
+    write_serialization();
+    write_codec();
+    write_codec_lz4();
+  }
+
+  @TearDown
+  public void tearDown() {
+    System.out.printf("%nSerialization: %d bytes, codec: %d bytes, codec + LZ4: %d bytes%n",
+      serializationFile.length(), codecFile.length(), compressedCodecFile.length());
+    FileUtils.deleteQuietly(serializationFile);
+    FileUtils.deleteQuietly(codecFile);
+    FileUtils.deleteQuietly(compressedCodecFile);
+  }
+
+  @Benchmark
+  public void write_serialization() throws Exception {
+    // format of DiskCache before introduction of ObjectCodec: stream is reset after each object
+    try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(serializationFile, false))) {
+      for (DefaultIssue issue : issues) {
+        out.writeObject(issue);
+        out.reset();
+      }
+    }
+  }
+
+  @Benchmark
+  public void write_codec() throws Exception {
+    write(new DiskCache<>(codecFile, System2.INSTANCE, new DefaultIssueCodec(), false));
+  }
+
+  @Benchmark
+  public void write_codec_lz4() throws Exception {
+    write(new DiskCache<>(compressedCodecFile, System2.INSTANCE, new DefaultIssueCodec(), true));
+  }
+
+  @Benchmark
+  public void read_serialization(Blackhole blackhole) throws Exception {
+    try (CloseableIterator<DefaultIssue> it = new ObjectInputStreamIterator<>(FileUtils.openInputStream(serializationFile))) {
+      consume(it, blackhole);
+    }
+  }
+
+  @Benchmark
+  public void read_codec(Blackhole blackhole) throws Exception {
+    read(codecFile, false, blackhole);
+  }
+
+  @Benchmark
+  public void read_codec_lz4(Blackhole blackhole) throws Exception {
+    read(compressedCodecFile, true, blackhole);
+  }
+
+  private void write(DiskCache<DefaultIssue> cache) {
+    DiskCache<DefaultIssue>.DiskAppender appender = cache.newAppender();
+    for (DefaultIssue issue : issues) {
+      appender.append(issue);
+    }
+    appender.close();
+  }
+
+  private static void read(File file, boolean compressed, Blackhole blackhole) throws IOException {
+    // do not use constructor of DiskCache as it truncates file
+    File copy = File.createTempFile("microbenchmark", ".copy");
+    try {
+      DiskCache<DefaultIssue> cache = new DiskCache<>(copy, System2.INSTANCE, new DefaultIssueCodec(), compressed);
+      FileUtils.copyFile(file, copy);
+      try (CloseableIterator<DefaultIssue> it = cache.traverse()) {
+        consume(it, blackhole);
+      }
+    } finally {
+      FileUtils.deleteQuietly(copy);
+    }
+  }
+
+  private static void consume(CloseableIterator<DefaultIssue> it, Blackhole blackhole) {
+    while (it.hasNext()) {
+      blackhole.consume(it.next());
+    }
+  }
+
+  private static DefaultIssue newIssue(int i) {
+    Date date = new Date(1_450_000_000_000L + i);
+    return new DefaultIssue()
+      .setKey("AVH3dpu8l8yFGIG9rcL" + i)
+      .setComponentUuid("AVH3dpE4l8yFGIG9rcHG")
+      .setComponentKey("org.codehaus.sonar:sonar-core:src/main/java/org/sonar/core/issue/DefaultIssue.java")
+      .setModuleUuid("AVH3dpE4l8yFGIG9rcHF")
+      .setModuleUuidPath(".AVH3dpE4l8yFGIG9rcHE.AVH3dpE4l8yFGIG9rcHF.")
+      .setProjectUuid("AVH3dpE4l8yFGIG9rcHE")
+      .setProjectKey("org.codehaus.sonar:sonar")
+      .setLanguage("java")
+      .setRuleKey(RuleKey.of("squid", "S00" + (i % 10)))
+      .setSeverity(Severity.MAJOR)
+      .setMessage("Remove this unused private field " + i)
+      .setLine(1 + i % 500)
+      .setDebt(Duration.create(10L))
+      .setStatus("OPEN")
+      .setChecksum("c7b5db46591806455cf082bb348631e8")
+      .setAuthorLogin("someone")
+      .setCreationDate(date)
+      .setUpdateDate(date)
+      .setTags(Arrays.asList("tag" + i, "othertag" + i))
+      .setNew(false)
+      .setCurrentChange(new FieldDiffs().setIssueKey("AVH3dpu8l8yFGIG9rcL" + i).setDiff("line", i, i + 1))
+      .setLocations(DbIssues.Locations.newBuilder()
+        .setTextRange(DbCommons.TextRange.newBuilder().setStartLine(1 + i % 500).setEndLine(1 + i % 500).setStartOffset(4).setEndOffset(20))
+        .build());
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(IssueCacheBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
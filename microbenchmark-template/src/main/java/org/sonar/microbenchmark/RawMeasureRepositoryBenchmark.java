@@ -0,0 +1,149 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import com.google.common.base.Function;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.batch.protocol.Constants;
+import org.sonar.batch.protocol.output.BatchReport;
+import org.sonar.server.computation.component.Component;
+import org.sonar.server.computation.component.ComponentImpl;
+import org.sonar.server.computation.measure.ArrayBasedRawMeasureRepository;
+import org.sonar.server.computation.measure.MapBasedRawMeasureRepository;
+import org.sonar.server.computation.measure.Measure;
+import org.sonar.server.computation.measure.MeasureRepository;
+import org.sonar.server.computation.metric.Metric;
+import org.sonar.server.computation.metric.MetricImpl;
+
+/**
+ * Compares the raw measure repositories of the Compute Engine when storing the numeric measures of a large project.
+ * Besides throughput, the heap retained by a fully loaded repository is logged on tear down. Run with
+ * "-prof gc" to compare allocation rates.
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = "-Xmx4G")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+public class RawMeasureRepositoryBenchmark {
+
+  private static final int NB_COMPONENTS = 60_000;
+  private static final int NB_METRICS = 40;
+
+  @Param({"map", "array"})
+  String implementation;
+
+  List<Component> components = new ArrayList<>();
+  List<Metric> metrics = new ArrayList<>();
+
+  @Setup
+  public void setup() {
+    for (int ref = 1; ref <= NB_COMPONENTS; ref++) {
+      BatchReport.Component reportComponent = BatchReport.Component.newBuilder()
+        .setRef(ref)
+        .setType(Constants.ComponentType.FILE)
+        .setName("File" + ref + ".java")
+        .build();
+      components.add(ComponentImpl.builder(reportComponent).setUuid("UUID_" + ref).setKey("KEY_" + ref).build());
+    }
+    for (int i = 0; i < NB_METRICS; i++) {
+      Metric.MetricType type = i % 4 == 0 ? Metric.MetricType.FLOAT : Metric.MetricType.INT;
+      metrics.add(new MetricImpl(i, "metric" + i, "Metric " + i, type, 1, null, false));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void logRetainedHeap() {
+    long before = usedHeap();
+    MeasureRepository repository = populate();
+    long after = usedHeap();
+    // reading a measure after the heap is measured keeps the repository reachable until then
+    System.out.printf("%n%s: %d measures retain %d MB (first measure present: %b)%n", implementation, NB_COMPONENTS * NB_METRICS,
+      (after - before) / (1024 * 1024), repository.getRawMeasure(components.get(0), metrics.get(0)).isPresent());
+  }
+
+  @Benchmark
+  public MeasureRepository populate() {
+    MeasureRepository repository = newRepository();
+    for (Component component : components) {
+      for (Metric metric : metrics) {
+        Measure measure;
+        if (metric.getType() == Metric.MetricType.FLOAT) {
+          measure = Measure.newMeasureBuilder().create(component.getReportAttributes().getRef() / 3d, 1);
+        } else {
+          measure = Measure.newMeasureBuilder().create(component.getReportAttributes().getRef() + metric.getId());
+        }
+        repository.add(component, metric, measure);
+      }
+    }
+    return repository;
+  }
+
+  private MeasureRepository newRepository() {
+    if ("array".equals(implementation)) {
+      return new ArrayBasedRawMeasureRepository();
+    }
+    return new MapBasedRawMeasureRepository<>(new Function<Component, Integer>() {
+      @Override
+      public Integer apply(Component component) {
+        return component.getReportAttributes().getRef();
+      }
+    });
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(RawMeasureRepositoryBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.core.issue.tracking.BlockHashSequence;
+import org.sonar.core.issue.tracking.Input;
+import org.sonar.core.issue.tracking.LineHashSequence;
+import org.sonar.core.issue.tracking.Trackable;
+import org.sonar.core.issue.tracking.Tracker;
+import org.sonar.core.issue.tracking.Tracking;
+
+/**
+ * Tracks the issues of a generated file, with many similar lines and issues, against its previous version.
+ * Some lines are inserted and changed, some issues are fixed and some are new, so that all the passes of
+ * the tracker are executed.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 3)
+@BenchmarkMode(Mode.AverageTime)
+public class TrackerBenchmark {
+
+  private static final int NB_RULES = 20;
+  private static final int NB_MESSAGES = 50;
+  private static final int NB_DISTINCT_LINES = 500;
+  private static final int NB_INSERTED_LINES = 30;
+
+  @Param({"1000", "10000", "50000"})
+  int nbIssues;
+
+  Tracker<Issue, Issue> tracker = new Tracker<>();
+  FakeInput rawInput;
+  FakeInput baseInput;
+
+  @Setup
+  public void setUp() throws Exception {
+    Random random = new Random(42L);
+    int nbLines = nbIssues * 2;
+
+    List<String> baseHashes = new ArrayList<>();
+    for (int line = 0; line < nbLines; line++) {
+      baseHashes.add(DigestUtils.md5Hex("line " + random.nextInt(NB_DISTINCT_LINES)));
+    }
+    // lines are inserted at the top of file and some lines are changed
+    List<String> rawHashes = new ArrayList<>();
+    for (int line = 0; line < NB_INSERTED_LINES; line++) {
+      rawHashes.add(DigestUtils.md5Hex("inserted " + line));
+    }
+    for (String hash : baseHashes) {
+      rawHashes.add(random.nextInt(20) == 0 ? DigestUtils.md5Hex("changed " + random.nextInt()) : hash);
+    }
+
+    baseInput = new FakeInput(baseHashes);
+    rawInput = new FakeInput(rawHashes);
+    for (int i = 0; i < nbIssues; i++) {
+      int line = 1 + random.nextInt(nbLines);
+      RuleKey ruleKey = RuleKey.of("squid", "S" + random.nextInt(NB_RULES));
+      String message = "Message " + random.nextInt(NB_MESSAGES);
+      int fate = random.nextInt(20);
+      if (fate != 0) {
+        baseInput.addIssue(new Issue(line, baseHashes.get(line - 1), ruleKey, message));
+      }
+      if (fate != 1) {
+        int rawLine = line + NB_INSERTED_LINES;
+        // some messages change, for example because they contain a counter
+        String rawMessage = fate == 2 ? message + " (changed)" : message;
+        rawInput.addIssue(new Issue(rawLine, rawHashes.get(rawLine - 1), ruleKey, rawMessage));
+      }
+    }
+  }
+
+  @Benchmark
+  public int track() throws Exception {
+    Tracking<Issue, Issue> tracking = tracker.track(rawInput, baseInput);
+    return tracking.getMatchedRaws().size();
+  }
+
+  static class Issue implements Trackable {
+    private final Integer line;
+    private final String lineHash;
+    private final RuleKey ruleKey;
+    private final String message;
+
+    Issue(Integer line, String lineHash, RuleKey ruleKey, String message) {
+      this.line = line;
+      this.lineHash = lineHash;
+      this.ruleKey = ruleKey;
+      this.message = message;
+    }
+
+    @Override
+    public Integer getLine() {
+      return line;
+    }
+
+    @Override
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public String getLineHash() {
+      return lineHash;
+    }
+
+    @Override
+    public RuleKey getRuleKey() {
+      return ruleKey;
+    }
+  }
+
+  static class FakeInput implements Input<Issue> {
+    private final List<Issue> issues = new ArrayList<>();
+    private final LineHashSequence lineHashes;
+    private final BlockHashSequence blockHashes;
+
+    FakeInput(List<String> hashes) {
+      this.lineHashes = new LineHashSequence(hashes);
+      this.blockHashes = BlockHashSequence.create(lineHashes);
+    }
+
+    void addIssue(Issue issue) {
+      issues.add(issue);
+    }
+
+    @Override
+    public LineHashSequence getLineHashSequence() {
+      return lineHashes;
+    }
+
+    @Override
+    public BlockHashSequence getBlockHashSequence() {
+      return blockHashes;
+    }
+
+    @Override
+    public Collection<Issue> getIssues() {
+      return issues;
+    }
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(TrackerBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
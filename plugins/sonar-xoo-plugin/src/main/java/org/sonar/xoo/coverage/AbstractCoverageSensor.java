@@ -87,7 +87,8 @@ public abstract class AbstractCoverageSensor implements Sensor {
   public void describe(SensorDescriptor descriptor) {
     descriptor
       .name(getSensorName())
-      .onlyOnLanguages(Xoo.KEY);
+      .onlyOnLanguages(Xoo.KEY)
+      .threadSafe();
   }
 
   protected abstract String getSensorName();
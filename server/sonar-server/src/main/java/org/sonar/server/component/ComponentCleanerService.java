@@ -29,6 +29,7 @@ import org.sonar.db.DbClient;
 import org.sonar.db.DbSession;
 import org.sonar.db.MyBatis;
 import org.sonar.db.component.ComponentDto;
+import org.sonar.server.computation.duplication.CrossProjectDuplicationIndex;
 import org.sonar.server.issue.index.IssueAuthorizationIndexer;
 import org.sonar.server.issue.index.IssueIndexer;
 import org.sonar.server.test.index.TestIndexer;
@@ -42,15 +43,17 @@ public class ComponentCleanerService {
   private final TestIndexer testIndexer;
   private final ResourceTypes resourceTypes;
   private final ComponentFinder componentFinder;
+  private final CrossProjectDuplicationIndex crossProjectDuplicationIndex;
 
   public ComponentCleanerService(DbClient dbClient, IssueAuthorizationIndexer issueAuthorizationIndexer, IssueIndexer issueIndexer,
-    TestIndexer testIndexer, ResourceTypes resourceTypes, ComponentFinder componentFinder) {
+    TestIndexer testIndexer, ResourceTypes resourceTypes, ComponentFinder componentFinder, CrossProjectDuplicationIndex crossProjectDuplicationIndex) {
     this.dbClient = dbClient;
     this.issueAuthorizationIndexer = issueAuthorizationIndexer;
     this.issueIndexer = issueIndexer;
     this.testIndexer = testIndexer;
     this.resourceTypes = resourceTypes;
     this.componentFinder = componentFinder;
+    this.crossProjectDuplicationIndex = crossProjectDuplicationIndex;
   }
 
   public void delete(DbSession dbSession, List<ComponentDto> projects) {
@@ -84,6 +87,7 @@ public class ComponentCleanerService {
     issueAuthorizationIndexer.deleteProject(projectUuid, false);
     issueIndexer.deleteProject(projectUuid, true);
     testIndexer.deleteByProject(projectUuid);
+    crossProjectDuplicationIndex.deleteProject(projectUuid);
   }
 
   private static boolean hasNotProjectScope(ComponentDto project) {
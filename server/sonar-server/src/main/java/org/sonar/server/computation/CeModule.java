@@ -23,7 +23,9 @@ import org.sonar.core.platform.Module;
 import org.sonar.db.purge.period.DefaultPeriodCleaner;
 import org.sonar.server.computation.dbcleaner.IndexPurgeListener;
 import org.sonar.server.computation.dbcleaner.ProjectCleaner;
+import org.sonar.server.computation.duplication.CrossProjectDuplicationIndex;
 import org.sonar.server.computation.log.CeLogging;
+import org.sonar.server.computation.taskprocessor.purge.PurgeTaskProcessor;
 import org.sonar.server.properties.ProjectSettingsFactory;
 
 /**
@@ -34,9 +36,11 @@ public class CeModule extends Module {
   protected void configureModule() {
     add(
       CeLogging.class,
+      CrossProjectDuplicationIndex.class,
 
       DefaultPeriodCleaner.class,
       ProjectCleaner.class,
+      PurgeTaskProcessor.class,
       ProjectSettingsFactory.class,
       IndexPurgeListener.class);
   }
@@ -55,6 +55,12 @@ public interface BatchReportReader {
    */
   Optional<CloseableIterator<String>> readFileSource(int fileRef);
 
+  /**
+   * MD5 digest of the data of the report from which the sources of a file are computed: number of lines, source,
+   * coverage, syntax highlighting, symbols and changesets. Apart from the component, data is not parsed.
+   */
+  String readSourceDataDigest(int fileRef);
+
   CloseableIterator<BatchReport.Test> readTests(int testFileRef);
 
   CloseableIterator<BatchReport.CoverageDetail> readCoverageDetails(int testFileRef);
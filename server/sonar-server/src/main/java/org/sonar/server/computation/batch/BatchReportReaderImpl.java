@@ -21,6 +21,8 @@ package org.sonar.server.computation.batch;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Parser;
 import java.io.File;
@@ -28,19 +30,28 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.NoSuchElementException;
 import javax.annotation.CheckForNull;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
 import org.sonar.batch.protocol.output.BatchReport;
+import org.sonar.batch.protocol.output.FileStructure;
 import org.sonar.core.util.CloseableIterator;
 import org.sonar.core.util.LineReaderIterator;
 
 public class BatchReportReaderImpl implements BatchReportReader {
+  private static final FileStructure.Domain[] SOURCE_DATA_DOMAINS = {
+    FileStructure.Domain.SOURCE, FileStructure.Domain.COVERAGES,
+    FileStructure.Domain.SYNTAX_HIGHLIGHTINGS, FileStructure.Domain.SYMBOLS, FileStructure.Domain.CHANGESETS
+  };
+
   private final org.sonar.batch.protocol.output.BatchReportReader delegate;
   // caching of metadata which are read often
-  private BatchReport.Metadata metadata;
+  private volatile BatchReport.Metadata metadata;
 
   public BatchReportReaderImpl(BatchReportDirectoryHolder batchReportDirectoryHolder) {
     this.delegate = new org.sonar.batch.protocol.output.BatchReportReader(batchReportDirectoryHolder.getDirectory());
@@ -133,6 +144,28 @@ public class BatchReportReaderImpl implements BatchReportReader {
     }
   }
 
+  @Override
+  public String readSourceDataDigest(int fileRef) {
+    MessageDigest digest = DigestUtils.getMd5Digest();
+    // the number of lines is the only field of the component which is used to compute sources
+    digest.update(Ints.toByteArray(readComponent(fileRef).getLines()));
+    for (FileStructure.Domain domain : SOURCE_DATA_DOMAINS) {
+      File file = delegate.getFileStructure().fileFor(domain, fileRef);
+      // length of each file, -1 if it does not exist, is digested so that data of a domain can not be confused with another
+      if (file.isFile()) {
+        digest.update(Longs.toByteArray(file.length()));
+        try {
+          digest.update(FileUtils.readFileToByteArray(file));
+        } catch (IOException e) {
+          throw new IllegalStateException("Fail to read file " + file, e);
+        }
+      } else {
+        digest.update(Longs.toByteArray(-1L));
+      }
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
   private static class CloseableLineIterator extends CloseableIterator<String> {
     private final LineIterator lineIterator;
 
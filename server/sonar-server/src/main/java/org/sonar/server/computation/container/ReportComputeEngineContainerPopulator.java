@@ -48,6 +48,7 @@ import org.sonar.server.computation.issue.IssueAssigner;
 import org.sonar.server.computation.issue.IssueCache;
 import org.sonar.server.computation.issue.IssueCounter;
 import org.sonar.server.computation.issue.IssueLifecycle;
+import org.sonar.server.computation.issue.IssuePersistenceDateHolder;
 import org.sonar.server.computation.issue.IssueVisitors;
 import org.sonar.server.computation.issue.LoadComponentUuidsHavingOpenIssuesVisitor;
 import org.sonar.server.computation.issue.NewDebtAggregator;
@@ -192,6 +193,7 @@ public final class ReportComputeEngineContainerPopulator implements ContainerPop
       MeasureComputersVisitor.class,
 
       UpdateConflictResolver.class,
+      IssuePersistenceDateHolder.class,
       TrackerBaseInputFactory.class,
       TrackerRawInputFactory.class,
       Tracker.class,
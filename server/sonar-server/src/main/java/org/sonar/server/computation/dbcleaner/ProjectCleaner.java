@@ -41,36 +41,43 @@ import static org.sonar.db.purge.PurgeConfiguration.newDefaultPurgeConfiguration
 
 @ServerSide
 public class ProjectCleaner {
+  /**
+   * When true, the purge is not part of the Compute Engine task of the analysis report, but is executed
+   * by a dedicated task of the queue (see {@link org.sonar.db.ce.CeTaskTypes#PURGE}).
+   */
+  public static final String ASYNCHRONOUS_PROPERTY = "sonar.dbcleaner.asynchronous";
+
   private static final Logger LOG = Loggers.get(ProjectCleaner.class);
 
-  private final PurgeProfiler profiler;
   private final PurgeListener purgeListener;
   private final PurgeDao purgeDao;
   private final DefaultPeriodCleaner periodCleaner;
   private final IssueIndex issueIndex;
 
-  public ProjectCleaner(PurgeDao purgeDao, DefaultPeriodCleaner periodCleaner, PurgeProfiler profiler, PurgeListener purgeListener,
-    IssueIndex issueIndex) {
+  public ProjectCleaner(PurgeDao purgeDao, DefaultPeriodCleaner periodCleaner, PurgeListener purgeListener, IssueIndex issueIndex) {
     this.purgeDao = purgeDao;
     this.periodCleaner = periodCleaner;
-    this.profiler = profiler;
     this.purgeListener = purgeListener;
     this.issueIndex = issueIndex;
   }
 
+  /**
+   * Purges of different projects can be executed concurrently by the workers of Compute Engine, so
+   * each purge is profiled by its own {@link PurgeProfiler}.
+   */
   public ProjectCleaner purge(DbSession session, IdUuidPair idUuidPair, Settings projectSettings) {
     long start = System.currentTimeMillis();
-    profiler.reset();
+    PurgeProfiler profiler = new PurgeProfiler();
 
     PurgeConfiguration configuration = newDefaultPurgeConfiguration(projectSettings, idUuidPair);
 
-    cleanHistoricalData(session, configuration.rootProjectIdUuid().getId(), projectSettings);
-    doPurge(session, configuration);
+    cleanHistoricalData(session, configuration.rootProjectIdUuid().getId(), projectSettings, profiler);
+    doPurge(session, configuration, profiler);
 
     deleteIndexedIssuesBefore(idUuidPair.getUuid(), configuration.maxLiveDateOfClosedIssues());
 
     session.commit();
-    logProfiling(start, projectSettings);
+    logProfiling(start, projectSettings, profiler);
     return this;
   }
 
@@ -80,7 +87,7 @@ public class ProjectCleaner {
     }
   }
 
-  private void logProfiling(long start, Settings settings) {
+  private static void logProfiling(long start, Settings settings, PurgeProfiler profiler) {
     if (settings.getBoolean(CoreProperties.PROFILING_LOG_PROPERTY)) {
       long duration = System.currentTimeMillis() - start;
       LOG.info("\n -------- Profiling for purge: " + TimeUtils.formatDuration(duration) + " --------\n");
@@ -89,16 +96,16 @@ public class ProjectCleaner {
     }
   }
 
-  private void cleanHistoricalData(DbSession session, long resourceId, Settings settings) {
+  private void cleanHistoricalData(DbSession session, long resourceId, Settings settings, PurgeProfiler profiler) {
     try {
-      periodCleaner.clean(session, resourceId, settings);
+      periodCleaner.clean(session, resourceId, settings, profiler);
     } catch (Exception e) {
       // purge errors must no fail the batch
       LOG.error("Fail to clean historical data [id=" + resourceId + "]", e);
     }
   }
 
-  private void doPurge(DbSession session, PurgeConfiguration configuration) {
+  private void doPurge(DbSession session, PurgeConfiguration configuration, PurgeProfiler profiler) {
     try {
       purgeDao.purge(session, configuration, purgeListener, profiler);
     } catch (Exception e) {
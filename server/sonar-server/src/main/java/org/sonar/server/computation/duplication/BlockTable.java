@@ -0,0 +1,243 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.duplication;
+
+import java.util.Arrays;
+
+/**
+ * Multimap of {@code long} keys to positive {@code long} references, stored in primitive arrays.
+ * <p>
+ * Distinct keys are stored in an open-addressing table with linear probing. Each of them refers to the doubly linked
+ * list of its entries, so that the many entries of a common key neither slow down insertions nor removals. An entry
+ * is removed by the id returned when it was put.
+ * </p>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+class BlockTable {
+  private static final int NONE = -1;
+  // values of a key slot which does not refer to entries
+  private static final int FREE = -1;
+  private static final int REMOVED = -2;
+  private static final int MIN_CAPACITY = 1024;
+  private static final int MIN_ENTRIES = 16;
+  private static final double MAX_LOAD = 0.5;
+
+  // table of distinct keys, each slot referring to the first entry of its key
+  private long[] keys;
+  private int[] heads;
+  // slots which are not free, including the removed ones
+  private int usedSlots = 0;
+  private int keyCount = 0;
+
+  // entries, chained by key. The previous entry of the first one is the encoded slot of its key.
+  private long[] refs = new long[MIN_ENTRIES];
+  private int[] next = new int[MIN_ENTRIES];
+  private int[] previous = new int[MIN_ENTRIES];
+  // entries which have never been used are after this one
+  private int entryCount = 0;
+  private int firstFreeEntry = NONE;
+  private int size = 0;
+
+  BlockTable() {
+    allocateSlots(MIN_CAPACITY);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the id of the new entry
+   */
+  int put(long key, long ref) {
+    int slot = findSlot(key);
+    int head = NONE;
+    if (slot < 0) {
+      slot = insertKey(key);
+    } else {
+      head = heads[slot];
+    }
+    int entry = allocateEntry();
+    refs[entry] = ref;
+    next[entry] = head;
+    previous[entry] = encodeSlot(slot);
+    if (head != NONE) {
+      previous[head] = entry;
+    }
+    heads[slot] = entry;
+    size++;
+    return entry;
+  }
+
+  void remove(int entry) {
+    int before = previous[entry];
+    int after = next[entry];
+    if (after != NONE) {
+      previous[after] = before;
+    }
+    if (before >= 0) {
+      next[before] = after;
+    } else if (after != NONE) {
+      heads[decodeSlot(before)] = after;
+    } else {
+      heads[decodeSlot(before)] = REMOVED;
+      keyCount--;
+    }
+    next[entry] = firstFreeEntry;
+    firstFreeEntry = entry;
+    size--;
+  }
+
+  Cursor find(long key) {
+    int slot = findSlot(key);
+    return new Cursor(slot < 0 ? NONE : heads[slot]);
+  }
+
+  /**
+   * Iterates over the references associated to a key
+   */
+  final class Cursor {
+    private int entry;
+    private long ref;
+
+    private Cursor(int firstEntry) {
+      this.entry = firstEntry;
+    }
+
+    boolean next() {
+      if (entry == NONE) {
+        return false;
+      }
+      ref = refs[entry];
+      entry = next[entry];
+      return true;
+    }
+
+    long ref() {
+      return ref;
+    }
+  }
+
+  private int findSlot(long key) {
+    int mask = keys.length - 1;
+    int i = mix(key) & mask;
+    while (heads[i] != FREE) {
+      if (heads[i] >= 0 && keys[i] == key) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return NONE;
+  }
+
+  /**
+   * Adds a key which is not in the table yet. Its slot must then refer to an entry.
+   */
+  private int insertKey(long key) {
+    if (usedSlots + 1 > keys.length * MAX_LOAD) {
+      rebuildSlots();
+    }
+    int mask = keys.length - 1;
+    int i = mix(key) & mask;
+    while (heads[i] >= 0) {
+      i = (i + 1) & mask;
+    }
+    if (heads[i] == FREE) {
+      usedSlots++;
+    }
+    keys[i] = key;
+    keyCount++;
+    return i;
+  }
+
+  /**
+   * Drops removed keys and grows the table if needed, so that it is at most half full. Entries are not copied.
+   */
+  private void rebuildSlots() {
+    long[] oldKeys = keys;
+    int[] oldHeads = heads;
+    int capacity = MIN_CAPACITY;
+    while (capacity * MAX_LOAD < keyCount + 1) {
+      capacity <<= 1;
+    }
+    allocateSlots(capacity);
+    usedSlots = 0;
+    int mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      int head = oldHeads[j];
+      if (head >= 0) {
+        int i = mix(oldKeys[j]) & mask;
+        while (heads[i] != FREE) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        heads[i] = head;
+        previous[head] = encodeSlot(i);
+        usedSlots++;
+      }
+    }
+  }
+
+  private void allocateSlots(int capacity) {
+    keys = new long[capacity];
+    heads = new int[capacity];
+    Arrays.fill(heads, FREE);
+  }
+
+  private int allocateEntry() {
+    if (firstFreeEntry != NONE) {
+      int entry = firstFreeEntry;
+      firstFreeEntry = next[entry];
+      return entry;
+    }
+    if (entryCount == refs.length) {
+      int capacity = entryCount + (entryCount >> 1);
+      refs = Arrays.copyOf(refs, capacity);
+      next = Arrays.copyOf(next, capacity);
+      previous = Arrays.copyOf(previous, capacity);
+    }
+    int entry = entryCount;
+    entryCount++;
+    return entry;
+  }
+
+  private static int encodeSlot(int slot) {
+    return -slot - 1;
+  }
+
+  private static int decodeSlot(int encodedSlot) {
+    return -encodedSlot - 1;
+  }
+
+  /**
+   * Finalization step of MurmurHash3, as the low bits of keys are used to find their position.
+   */
+  private static int mix(long key) {
+    long h = key;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+}
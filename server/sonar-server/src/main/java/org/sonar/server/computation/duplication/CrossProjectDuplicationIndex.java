@@ -0,0 +1,455 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.duplication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.picocontainer.Startable;
+import org.sonar.api.config.Settings;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.core.util.logs.Profiler;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.duplication.DuplicationUnitDto;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.String.format;
+
+/**
+ * Optional in-memory index of the duplication blocks of the last analysis of every project, loaded at startup from
+ * table DUPLICATIONS_INDEX and updated after each analysis, so that cross project duplications can be searched
+ * without requesting the database.
+ * <p>
+ * Hashes of blocks are stored in an open-addressing table of primitive arrays, which refers to the blocks of each
+ * project, also stored in primitive arrays. The number of blocks in memory is bounded by {@link #MAX_BLOCKS_PROPERTY},
+ * which defaults to a tenth of the heap: when this limit is reached, the projects which have been analyzed the longest time ago are evicted and their blocks
+ * are searched in database.
+ * </p>
+ * <p>
+ * Files are referenced by uuid. Their keys, which change when the key of their project or module is updated, are
+ * loaded from database when candidates are selected.
+ * </p>
+ */
+@ServerSide
+public class CrossProjectDuplicationIndex implements Startable {
+
+  public static final String ENABLED_PROPERTY = "sonar.ce.duplicationIndex.enabled";
+  public static final String MAX_BLOCKS_PROPERTY = "sonar.ce.duplicationIndex.maxBlocks";
+  private static final int DEFAULT_MAX_BLOCKS = 5_000_000;
+  // approximate heap retained by a block: its attributes and its entry in the block table
+  private static final int BYTES_PER_BLOCK = 100;
+
+  private static final Logger LOG = Loggers.get(CrossProjectDuplicationIndex.class);
+
+  private final DbClient dbClient;
+  private final boolean enabled;
+  private final int maxBlocks;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // projects in memory, by uuid, from the least to the most recently analyzed
+  private final LinkedHashMap<String, ProjectBlocks> projectsByUuid = new LinkedHashMap<>();
+  // snapshot id of the projects which blocks are only in database, by uuid
+  private final Map<String, Long> evictedSnapshotIdsByUuid = new HashMap<>();
+  private final List<ProjectBlocks> projectsBySlot = new ArrayList<>();
+  private final BlockTable blockTable = new BlockTable();
+  private int blockCount = 0;
+
+  public CrossProjectDuplicationIndex(Settings settings, DbClient dbClient) {
+    this.dbClient = dbClient;
+    this.enabled = settings.getBoolean(ENABLED_PROPERTY);
+    this.maxBlocks = readMaxBlocks(settings);
+  }
+
+  private static int readMaxBlocks(Settings settings) {
+    String value = settings.getString(MAX_BLOCKS_PROPERTY);
+    if (value == null) {
+      return defaultMaxBlocks(Runtime.getRuntime().maxMemory());
+    }
+    try {
+      int res = Integer.parseInt(value);
+      if (res > 0) {
+        return res;
+      }
+    } catch (NumberFormatException e) {
+      // error reported below
+    }
+    throw MessageException.of(format("value '%s' of property %s is invalid. It must be an integer strictly greater than 0.", value, MAX_BLOCKS_PROPERTY));
+  }
+
+  /**
+   * By default, the index retains at most a tenth of the heap, and no more than {@link #DEFAULT_MAX_BLOCKS} blocks.
+   */
+  static int defaultMaxBlocks(long maxHeapBytes) {
+    return (int) Math.min(DEFAULT_MAX_BLOCKS, maxHeapBytes / 10 / BYTES_PER_BLOCK);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    Profiler profiler = Profiler.create(LOG).startInfo("Load cross project duplication index");
+    DbSession dbSession = dbClient.openSession(false);
+    try {
+      LoadingHandler handler = new LoadingHandler();
+      dbClient.duplicationDao().selectLastUnits(dbSession, handler);
+      handler.commitCurrent();
+    } finally {
+      dbClient.closeSession(dbSession);
+    }
+    profiler.stopInfo(format("Cross project duplication index loaded with %d blocks of %d projects (%d projects searched in database)",
+      blockCount, projectsByUuid.size(), evictedSnapshotIdsByUuid.size()));
+  }
+
+  @Override
+  public void stop() {
+    // nothing to do
+  }
+
+  /**
+   * Starts the replacement of the blocks of a project, which is done when {@link ProjectBuilder#commit()} is called.
+   */
+  public ProjectBuilder newProject(String projectUuid, long projectSnapshotId) {
+    checkState(enabled, "Cross project duplication index is disabled");
+    return new ProjectBuilder(this, projectUuid, projectSnapshotId);
+  }
+
+  public void deleteProject(String projectUuid) {
+    if (!enabled) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      removeFromMemory(projectUuid);
+      evictedSnapshotIdsByUuid.remove(projectUuid);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Same as {@link org.sonar.db.duplication.DuplicationDao#selectCandidates(DbSession, Long, String, Collection)}: the
+   * blocks of the files of the specified language, in the last analysis of the projects other than the specified one,
+   * which hash is one of the specified hashes.
+   * <p>
+   * Only {@link DuplicationUnitDto#getComponentKey()}, hash, index in file, lines and project snapshot id are set
+   * on returned blocks.
+   * </p>
+   */
+  public List<DuplicationUnitDto> selectCandidates(DbSession dbSession, String excludedProjectUuid, @Nullable String language, Collection<String> hashes) {
+    checkState(enabled, "Cross project duplication index is disabled");
+    List<DuplicationUnitDto> res = new ArrayList<>();
+    List<DuplicationUnitDto> inMemory = new ArrayList<>();
+    List<String> fileUuids = new ArrayList<>();
+    List<Long> evictedSnapshotIds = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (String hash : new HashSet<>(hashes)) {
+        selectCandidates(excludedProjectUuid, language, hash, inMemory, fileUuids);
+      }
+      for (Map.Entry<String, Long> entry : evictedSnapshotIdsByUuid.entrySet()) {
+        if (!entry.getKey().equals(excludedProjectUuid)) {
+          evictedSnapshotIds.add(entry.getValue());
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    addWithFileKeys(dbSession, inMemory, fileUuids, res);
+    if (!evictedSnapshotIds.isEmpty() && language != null) {
+      res.addAll(dbClient.duplicationDao().selectCandidatesOfProjectSnapshots(dbSession, language, hashes, evictedSnapshotIds));
+    }
+    return res;
+  }
+
+  private void selectCandidates(String excludedProjectUuid, @Nullable String language, String hash, List<DuplicationUnitDto> res, List<String> fileUuids) {
+    long key = toKey(hash);
+    BlockTable.Cursor cursor = blockTable.find(key);
+    while (cursor.next()) {
+      long ref = cursor.ref();
+      ProjectBlocks project = projectsBySlot.get(slotOf(ref));
+      int block = offsetOf(ref);
+      String fileLanguage = project.fileLanguages[project.files[block]];
+      if (!project.uuid.equals(excludedProjectUuid) && language != null && language.equals(fileLanguage)) {
+        res.add(new DuplicationUnitDto()
+          .setProjectSnapshotId(project.snapshotId)
+          .setHash(hash)
+          .setIndexInFile(project.indexesInFile[block])
+          .setStartLine(project.startLines[block])
+          .setEndLine(project.endLines[block]));
+        fileUuids.add(project.fileUuids[project.files[block]]);
+      }
+    }
+  }
+
+  /**
+   * Sets the current key of the files of the blocks, blocks of files which are disabled being ignored
+   */
+  private void addWithFileKeys(DbSession dbSession, List<DuplicationUnitDto> blocks, List<String> fileUuids, List<DuplicationUnitDto> res) {
+    if (blocks.isEmpty()) {
+      return;
+    }
+    Map<String, String> keysByUuid = new HashMap<>();
+    for (ComponentDto file : dbClient.componentDao().selectByUuids(dbSession, new HashSet<>(fileUuids))) {
+      if (file.isEnabled()) {
+        keysByUuid.put(file.uuid(), file.key());
+      }
+    }
+    for (int i = 0; i < blocks.size(); i++) {
+      String key = keysByUuid.get(fileUuids.get(i));
+      if (key != null) {
+        res.add(blocks.get(i).setComponentKey(key));
+      }
+    }
+  }
+
+  int getBlockCount() {
+    lock.readLock().lock();
+    try {
+      return blockCount;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void put(ProjectBlocks project) {
+    lock.writeLock().lock();
+    try {
+      removeFromMemory(project.uuid);
+      evictedSnapshotIdsByUuid.remove(project.uuid);
+
+      project.slot = allocateSlot(project);
+      project.entries = new int[project.size];
+      for (int block = 0; block < project.size; block++) {
+        project.entries[block] = blockTable.put(project.hashes[block], toRef(project.slot, block));
+      }
+      projectsByUuid.put(project.uuid, project);
+      blockCount += project.size;
+
+      evictIfNeeded();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void evictIfNeeded() {
+    Iterator<ProjectBlocks> it = projectsByUuid.values().iterator();
+    while (blockCount > maxBlocks && it.hasNext()) {
+      ProjectBlocks eldest = it.next();
+      it.remove();
+      removeBlocks(eldest);
+      evictedSnapshotIdsByUuid.put(eldest.uuid, eldest.snapshotId);
+      LOG.debug("Blocks of project {} are evicted from cross project duplication index", eldest.uuid);
+    }
+  }
+
+  private void removeFromMemory(String projectUuid) {
+    ProjectBlocks existing = projectsByUuid.remove(projectUuid);
+    if (existing != null) {
+      removeBlocks(existing);
+    }
+  }
+
+  private void removeBlocks(ProjectBlocks project) {
+    for (int entry : project.entries) {
+      blockTable.remove(entry);
+    }
+    projectsBySlot.set(project.slot, null);
+    blockCount -= project.size;
+  }
+
+  private int allocateSlot(ProjectBlocks project) {
+    int slot = projectsBySlot.indexOf(null);
+    if (slot < 0) {
+      projectsBySlot.add(project);
+      return projectsBySlot.size() - 1;
+    }
+    projectsBySlot.set(slot, project);
+    return slot;
+  }
+
+  private static long toRef(int slot, int offset) {
+    return ((long) slot << 32) | offset;
+  }
+
+  private static int slotOf(long ref) {
+    return (int) (ref >>> 32);
+  }
+
+  private static int offsetOf(long ref) {
+    return (int) ref;
+  }
+
+  /**
+   * Hashes computed by the scanner are the hexadecimal representation of 64-bit values. Other hashes are reduced to
+   * 64 bits with FNV-1a, collisions being negligible.
+   */
+  static long toKey(String hash) {
+    if (hash.length() == 16) {
+      long res = 0L;
+      for (int i = 0; i < 16; i++) {
+        int digit = Character.digit(hash.charAt(i), 16);
+        if (digit < 0) {
+          return fnv(hash);
+        }
+        res = (res << 4) | digit;
+      }
+      return res;
+    }
+    return fnv(hash);
+  }
+
+  private static long fnv(String hash) {
+    long res = 0xcbf29ce484222325L;
+    for (int i = 0; i < hash.length(); i++) {
+      res ^= hash.charAt(i);
+      res *= 0x100000001b3L;
+    }
+    return res;
+  }
+
+  private class LoadingHandler implements ResultHandler {
+    @CheckForNull
+    private ProjectBuilder current;
+
+    @Override
+    public void handleResult(ResultContext context) {
+      DuplicationUnitDto dto = (DuplicationUnitDto) context.getResultObject();
+      if (current == null || !current.projectUuid.equals(dto.getProjectUuid())) {
+        commitCurrent();
+        current = newProject(dto.getProjectUuid(), dto.getProjectSnapshotId());
+      }
+      current.add(dto);
+    }
+
+    private void commitCurrent() {
+      if (current != null) {
+        current.commit();
+        current = null;
+      }
+    }
+  }
+
+  /**
+   * Collects the blocks of the last analysis of a project. Blocks must have a component uuid and a language.
+   */
+  public static final class ProjectBuilder {
+    private final CrossProjectDuplicationIndex index;
+    private final String projectUuid;
+    private final long projectSnapshotId;
+    private final Map<String, Integer> fileIndexesByUuid = new HashMap<>();
+    private final List<String> fileUuids = new ArrayList<>();
+    private final List<String> fileLanguages = new ArrayList<>();
+    private long[] hashes = new long[16];
+    private int[] files = new int[16];
+    private int[] indexesInFile = new int[16];
+    private int[] startLines = new int[16];
+    private int[] endLines = new int[16];
+    private int size = 0;
+
+    private ProjectBuilder(CrossProjectDuplicationIndex index, String projectUuid, long projectSnapshotId) {
+      this.index = index;
+      this.projectUuid = projectUuid;
+      this.projectSnapshotId = projectSnapshotId;
+    }
+
+    public ProjectBuilder add(DuplicationUnitDto dto) {
+      Integer file = fileIndexesByUuid.get(dto.getComponentUuid());
+      if (file == null) {
+        file = fileUuids.size();
+        fileIndexesByUuid.put(dto.getComponentUuid(), file);
+        fileUuids.add(dto.getComponentUuid());
+        fileLanguages.add(dto.getLanguage());
+      }
+      if (size == hashes.length) {
+        int capacity = size + (size >> 1);
+        hashes = Arrays.copyOf(hashes, capacity);
+        files = Arrays.copyOf(files, capacity);
+        indexesInFile = Arrays.copyOf(indexesInFile, capacity);
+        startLines = Arrays.copyOf(startLines, capacity);
+        endLines = Arrays.copyOf(endLines, capacity);
+      }
+      hashes[size] = toKey(dto.getHash());
+      files[size] = file;
+      indexesInFile[size] = dto.getIndexInFile();
+      startLines[size] = dto.getStartLine();
+      endLines[size] = dto.getEndLine();
+      size++;
+      return this;
+    }
+
+    /**
+     * Replaces the blocks of the project in the index
+     */
+    public void commit() {
+      index.put(new ProjectBlocks(this));
+    }
+  }
+
+  private static final class ProjectBlocks {
+    private final String uuid;
+    private final long snapshotId;
+    private final String[] fileUuids;
+    private final String[] fileLanguages;
+    private final int size;
+    private final long[] hashes;
+    private final int[] files;
+    private final int[] indexesInFile;
+    private final int[] startLines;
+    private final int[] endLines;
+    private int slot;
+    // ids of the entries of the blocks in the block table
+    private int[] entries;
+
+    private ProjectBlocks(ProjectBuilder builder) {
+      this.uuid = builder.projectUuid;
+      this.snapshotId = builder.projectSnapshotId;
+      this.fileUuids = builder.fileUuids.toArray(new String[builder.fileUuids.size()]);
+      this.fileLanguages = builder.fileLanguages.toArray(new String[builder.fileLanguages.size()]);
+      this.size = builder.size;
+      this.hashes = Arrays.copyOf(builder.hashes, size);
+      this.files = Arrays.copyOf(builder.files, size);
+      this.indexesInFile = Arrays.copyOf(builder.indexesInFile, size);
+      this.startLines = Arrays.copyOf(builder.startLines, size);
+      this.endLines = Arrays.copyOf(builder.endLines, size);
+    }
+  }
+}
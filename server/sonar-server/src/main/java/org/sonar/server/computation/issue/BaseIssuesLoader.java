@@ -19,14 +19,20 @@
  */
 package org.sonar.server.computation.issue;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import javax.annotation.Nonnull;
 import org.apache.ibatis.session.ResultContext;
 import org.apache.ibatis.session.ResultHandler;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.api.rule.RuleStatus;
 import org.sonar.core.issue.DefaultIssue;
+import org.sonar.db.DatabaseUtils;
 import org.sonar.db.DbClient;
 import org.sonar.db.DbSession;
 import org.sonar.db.MyBatis;
@@ -61,17 +67,33 @@ public class BaseIssuesLoader {
       session.getMapper(IssueMapper.class).selectNonClosedByComponentUuid(componentUuid, new ResultHandler() {
         @Override
         public void handleResult(ResultContext resultContext) {
-          DefaultIssue issue = ((IssueDto) resultContext.getResultObject()).toDefaultIssue();
+          result.add(toDefaultIssue((IssueDto) resultContext.getResultObject()));
+        }
+      });
+      return result;
+    } finally {
+      MyBatis.closeQuietly(session);
+    }
+  }
 
-          // TODO this field should be set outside this class
-          if (!isActive(issue.ruleKey()) || ruleRepository.getByKey(issue.ruleKey()).getStatus() == RuleStatus.REMOVED) {
-            issue.setOnDisabledRule(true);
-            // TODO to be improved, why setOnDisabledRule(true) is not enough ?
-            issue.setBeingClosed(true);
-          }
-          // FIXME
-          issue.setSelectedAt(System.currentTimeMillis());
-          result.add(issue);
+  /**
+   * Same as {@link #loadForComponentUuid(String)} for several components at once. Issues are grouped by component uuid.
+   */
+  public ListMultimap<String, DefaultIssue> loadForComponentUuids(Collection<String> componentUuids) {
+    final DbSession session = dbClient.openSession(false);
+    final ListMultimap<String, DefaultIssue> result = ArrayListMultimap.create();
+    try {
+      DatabaseUtils.executeLargeInputsWithoutOutput(componentUuids, new Function<List<String>, Void>() {
+        @Override
+        public Void apply(@Nonnull List<String> partition) {
+          session.getMapper(IssueMapper.class).selectNonClosedByComponentUuids(partition, new ResultHandler() {
+            @Override
+            public void handleResult(ResultContext resultContext) {
+              DefaultIssue issue = toDefaultIssue((IssueDto) resultContext.getResultObject());
+              result.put(issue.componentUuid(), issue);
+            }
+          });
+          return null;
         }
       });
       return result;
@@ -80,6 +102,20 @@ public class BaseIssuesLoader {
     }
   }
 
+  private DefaultIssue toDefaultIssue(IssueDto dto) {
+    DefaultIssue issue = dto.toDefaultIssue();
+
+    // TODO this field should be set outside this class
+    if (!isActive(issue.ruleKey()) || ruleRepository.getByKey(issue.ruleKey()).getStatus() == RuleStatus.REMOVED) {
+      issue.setOnDisabledRule(true);
+      // TODO to be improved, why setOnDisabledRule(true) is not enough ?
+      issue.setBeingClosed(true);
+    }
+    // FIXME
+    issue.setSelectedAt(System.currentTimeMillis());
+    return issue;
+  }
+
   private boolean isActive(RuleKey ruleKey) {
     return ruleKey.isManual() || activeRulesHolder.get(ruleKey).isPresent();
   }
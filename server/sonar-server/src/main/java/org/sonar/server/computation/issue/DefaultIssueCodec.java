@@ -0,0 +1,450 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.issue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.issue.IssueComment;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.utils.Duration;
+import org.sonar.core.issue.DefaultIssue;
+import org.sonar.core.issue.DefaultIssueComment;
+import org.sonar.core.issue.FieldDiffs;
+import org.sonar.db.protobuf.DbIssues;
+import org.sonar.server.util.cache.ObjectCodec;
+
+import static org.sonar.server.util.cache.CodecUtils.readBytes;
+import static org.sonar.server.util.cache.CodecUtils.readDate;
+import static org.sonar.server.util.cache.CodecUtils.readSerializable;
+import static org.sonar.server.util.cache.CodecUtils.readString;
+import static org.sonar.server.util.cache.CodecUtils.readVarInt;
+import static org.sonar.server.util.cache.CodecUtils.readVarLong;
+import static org.sonar.server.util.cache.CodecUtils.writeBytes;
+import static org.sonar.server.util.cache.CodecUtils.writeDate;
+import static org.sonar.server.util.cache.CodecUtils.writeSerializable;
+import static org.sonar.server.util.cache.CodecUtils.writeString;
+import static org.sonar.server.util.cache.CodecUtils.writeVarInt;
+import static org.sonar.server.util.cache.CodecUtils.writeVarLong;
+
+/**
+ * Compact binary encoding of {@link DefaultIssue} for {@link IssueCache}.
+ * <p>
+ * Each issue starts with a bit field holding the boolean properties and the presence of the optional ones, followed
+ * by the values of the string properties and of the optional properties which are present.
+ * </p>
+ */
+public class DefaultIssueCodec implements ObjectCodec<DefaultIssue> {
+
+  private static final int MANUAL_SEVERITY = 1;
+  private static final int NEW = 1 << 1;
+  private static final int BEING_CLOSED = 1 << 2;
+  private static final int ON_DISABLED_RULE = 1 << 3;
+  private static final int CHANGED = 1 << 4;
+  private static final int SEND_NOTIFICATIONS = 1 << 5;
+  private static final int HAS_RULE_KEY = 1 << 6;
+  private static final int HAS_LINE = 1 << 7;
+  private static final int HAS_EFFORT_TO_FIX = 1 << 8;
+  private static final int HAS_DEBT = 1 << 9;
+  private static final int HAS_CREATION_DATE = 1 << 10;
+  private static final int HAS_UPDATE_DATE = 1 << 11;
+  private static final int HAS_CLOSE_DATE = 1 << 12;
+  private static final int HAS_SELECTED_AT = 1 << 13;
+  private static final int HAS_ATTRIBUTES = 1 << 14;
+  private static final int HAS_TAGS = 1 << 15;
+  private static final int HAS_CHANGES = 1 << 16;
+  private static final int HAS_CURRENT_CHANGE = 1 << 17;
+  private static final int HAS_LOCATIONS = 1 << 18;
+
+  private static final int VALUE_NULL = 0;
+  private static final int VALUE_STRING = 1;
+  private static final int VALUE_LONG = 2;
+  private static final int VALUE_SERIALIZABLE = 3;
+
+  private static final int LOCATIONS_PROTOBUF = 1;
+  private static final int LOCATIONS_SERIALIZABLE = 2;
+
+  private static final int NEW_CHANGE = 0;
+
+  @Override
+  public void write(DefaultIssue issue, DataOutput output) throws IOException {
+    List<FieldDiffs> changes = issue.changes().isEmpty() && issue.currentChange() == null ? null : issue.changes();
+    writeVarInt(output, flags(issue, changes));
+
+    writeString(output, issue.key());
+    writeString(output, issue.componentUuid());
+    writeString(output, issue.componentKey());
+    writeString(output, issue.moduleUuid());
+    writeString(output, issue.moduleUuidPath());
+    writeString(output, issue.projectUuid());
+    writeString(output, issue.projectKey());
+    writeString(output, issue.language());
+    writeString(output, issue.severity());
+    writeString(output, issue.message());
+    writeString(output, issue.status());
+    writeString(output, issue.resolution());
+    writeString(output, issue.reporter());
+    writeString(output, issue.assignee());
+    writeString(output, issue.checksum());
+    writeString(output, issue.authorLogin());
+    writeString(output, issue.actionPlanKey());
+
+    RuleKey ruleKey = issue.ruleKey();
+    if (ruleKey != null) {
+      writeString(output, ruleKey.repository());
+      writeString(output, ruleKey.rule());
+    }
+    if (issue.line() != null) {
+      writeVarInt(output, issue.line());
+    }
+    if (issue.effortToFix() != null) {
+      output.writeDouble(issue.effortToFix());
+    }
+    if (issue.debt() != null) {
+      writeVarLong(output, issue.debt().toMinutes());
+    }
+    writeNullableDate(output, issue.creationDate());
+    writeNullableDate(output, issue.updateDate());
+    writeNullableDate(output, issue.closeDate());
+    if (issue.selectedAt() != null) {
+      writeVarLong(output, issue.selectedAt());
+    }
+    if (issue.attributes().size() > 0) {
+      writeAttributes(output, issue.attributes());
+    }
+    if (!issue.tags().isEmpty()) {
+      writeTags(output, issue.tags());
+    }
+    writeComments(output, issue.comments());
+    if (changes != null) {
+      writeChanges(output, changes, issue.currentChange());
+    }
+    if (issue.getLocations() != null) {
+      writeLocations(output, issue.getLocations());
+    }
+  }
+
+  private static int flags(DefaultIssue issue, @Nullable List<FieldDiffs> changes) {
+    int flags = 0;
+    flags |= issue.manualSeverity() ? MANUAL_SEVERITY : 0;
+    flags |= issue.isNew() ? NEW : 0;
+    flags |= issue.isBeingClosed() ? BEING_CLOSED : 0;
+    flags |= issue.isOnDisabledRule() ? ON_DISABLED_RULE : 0;
+    flags |= issue.isChanged() ? CHANGED : 0;
+    flags |= issue.mustSendNotifications() ? SEND_NOTIFICATIONS : 0;
+    flags |= issue.ruleKey() != null ? HAS_RULE_KEY : 0;
+    flags |= issue.line() != null ? HAS_LINE : 0;
+    flags |= issue.effortToFix() != null ? HAS_EFFORT_TO_FIX : 0;
+    flags |= issue.debt() != null ? HAS_DEBT : 0;
+    flags |= issue.creationDate() != null ? HAS_CREATION_DATE : 0;
+    flags |= issue.updateDate() != null ? HAS_UPDATE_DATE : 0;
+    flags |= issue.closeDate() != null ? HAS_CLOSE_DATE : 0;
+    flags |= issue.selectedAt() != null ? HAS_SELECTED_AT : 0;
+    flags |= issue.attributes().size() > 0 ? HAS_ATTRIBUTES : 0;
+    flags |= !issue.tags().isEmpty() ? HAS_TAGS : 0;
+    flags |= changes != null ? HAS_CHANGES : 0;
+    flags |= issue.currentChange() != null ? HAS_CURRENT_CHANGE : 0;
+    flags |= issue.getLocations() != null ? HAS_LOCATIONS : 0;
+    return flags;
+  }
+
+  @Override
+  public DefaultIssue read(DataInput input) throws IOException {
+    int flags = readVarInt(input);
+    DefaultIssue issue = new DefaultIssue();
+    issue.setManualSeverity(isSet(flags, MANUAL_SEVERITY));
+    issue.setNew(isSet(flags, NEW));
+    issue.setBeingClosed(isSet(flags, BEING_CLOSED));
+    issue.setOnDisabledRule(isSet(flags, ON_DISABLED_RULE));
+    issue.setChanged(isSet(flags, CHANGED));
+    issue.setSendNotifications(isSet(flags, SEND_NOTIFICATIONS));
+
+    issue.setKey(readString(input));
+    issue.setComponentUuid(readString(input));
+    issue.setComponentKey(readString(input));
+    issue.setModuleUuid(readString(input));
+    issue.setModuleUuidPath(readString(input));
+    issue.setProjectUuid(readString(input));
+    issue.setProjectKey(readString(input));
+    issue.setLanguage(readString(input));
+    issue.setSeverity(readString(input));
+    issue.setMessage(readString(input));
+    String status = readString(input);
+    if (status != null) {
+      issue.setStatus(status);
+    }
+    issue.setResolution(readString(input));
+    issue.setReporter(readString(input));
+    issue.setAssignee(readString(input));
+    issue.setChecksum(readString(input));
+    issue.setAuthorLogin(readString(input));
+    issue.setActionPlanKey(readString(input));
+
+    if (isSet(flags, HAS_RULE_KEY)) {
+      issue.setRuleKey(RuleKey.of(readString(input), readString(input)));
+    }
+    if (isSet(flags, HAS_LINE)) {
+      issue.setLine(readVarInt(input));
+    }
+    if (isSet(flags, HAS_EFFORT_TO_FIX)) {
+      issue.setEffortToFix(input.readDouble());
+    }
+    if (isSet(flags, HAS_DEBT)) {
+      issue.setDebt(Duration.create(readVarLong(input)));
+    }
+    if (isSet(flags, HAS_CREATION_DATE)) {
+      issue.setCreationDate(readDate(input));
+    }
+    if (isSet(flags, HAS_UPDATE_DATE)) {
+      issue.setUpdateDate(readDate(input));
+    }
+    if (isSet(flags, HAS_CLOSE_DATE)) {
+      issue.setCloseDate(readDate(input));
+    }
+    if (isSet(flags, HAS_SELECTED_AT)) {
+      issue.setSelectedAt(readVarLong(input));
+    }
+    if (isSet(flags, HAS_ATTRIBUTES)) {
+      issue.setAttributes(readAttributes(input));
+    }
+    if (isSet(flags, HAS_TAGS)) {
+      issue.setTags(readTags(input));
+    }
+    readComments(input, issue);
+    if (isSet(flags, HAS_CHANGES)) {
+      readChanges(input, issue, isSet(flags, HAS_CURRENT_CHANGE));
+    }
+    if (isSet(flags, HAS_LOCATIONS)) {
+      issue.setLocations(readLocations(input));
+    }
+    return issue;
+  }
+
+  private static boolean isSet(int flags, int flag) {
+    return (flags & flag) != 0;
+  }
+
+  private static void writeNullableDate(DataOutput output, @Nullable Date date) throws IOException {
+    if (date != null) {
+      writeDate(output, date);
+    }
+  }
+
+  private static void writeAttributes(DataOutput output, Map<String, String> attributes) throws IOException {
+    writeVarInt(output, attributes.size());
+    for (Map.Entry<String, String> entry : attributes.entrySet()) {
+      writeString(output, entry.getKey());
+      writeString(output, entry.getValue());
+    }
+  }
+
+  private static Map<String, String> readAttributes(DataInput input) throws IOException {
+    int size = readVarInt(input);
+    Map<String, String> attributes = new HashMap<>(size);
+    for (int i = 0; i < size; i++) {
+      attributes.put(readString(input), readString(input));
+    }
+    return attributes;
+  }
+
+  private static void writeTags(DataOutput output, Set<String> tags) throws IOException {
+    writeVarInt(output, tags.size());
+    for (String tag : tags) {
+      writeString(output, tag);
+    }
+  }
+
+  private static List<String> readTags(DataInput input) throws IOException {
+    int size = readVarInt(input);
+    List<String> tags = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      tags.add(readString(input));
+    }
+    return tags;
+  }
+
+  private static void writeComments(DataOutput output, List<IssueComment> comments) throws IOException {
+    writeVarInt(output, comments.size());
+    for (IssueComment comment : comments) {
+      DefaultIssueComment defaultComment = (DefaultIssueComment) comment;
+      writeString(output, defaultComment.issueKey());
+      writeString(output, defaultComment.key());
+      writeString(output, defaultComment.userLogin());
+      writeString(output, defaultComment.markdownText());
+      writeNullableDateWithFlag(output, defaultComment.createdAt());
+      writeNullableDateWithFlag(output, defaultComment.updatedAt());
+      output.writeBoolean(defaultComment.isNew());
+    }
+  }
+
+  private static void readComments(DataInput input, DefaultIssue issue) throws IOException {
+    int size = readVarInt(input);
+    for (int i = 0; i < size; i++) {
+      DefaultIssueComment comment = new DefaultIssueComment();
+      comment.setIssueKey(readString(input));
+      comment.setKey(readString(input));
+      comment.setUserLogin(readString(input));
+      comment.setMarkdownText(readString(input));
+      comment.setCreatedAt(readNullableDateWithFlag(input));
+      comment.setUpdatedAt(readNullableDateWithFlag(input));
+      comment.setNew(input.readBoolean());
+      issue.addComment(comment);
+    }
+  }
+
+  /**
+   * The current change of an issue is usually also one of its changes, and the same change can be referenced
+   * several times in its changes: identity of {@link FieldDiffs} objects is preserved by writing only the index of
+   * the first occurrence of a change which has already been written.
+   */
+  private static void writeChanges(DataOutput output, List<FieldDiffs> changes, @Nullable FieldDiffs currentChange) throws IOException {
+    Map<FieldDiffs, Integer> indexes = new IdentityHashMap<>();
+    writeVarInt(output, changes.size());
+    for (FieldDiffs change : changes) {
+      writeChange(output, change, indexes);
+    }
+    if (currentChange != null) {
+      writeChange(output, currentChange, indexes);
+    }
+  }
+
+  private static void writeChange(DataOutput output, FieldDiffs change, Map<FieldDiffs, Integer> indexes) throws IOException {
+    Integer index = indexes.get(change);
+    if (index != null) {
+      writeVarInt(output, index + 1);
+      return;
+    }
+    indexes.put(change, indexes.size());
+    writeVarInt(output, NEW_CHANGE);
+    writeString(output, change.issueKey());
+    writeString(output, change.userLogin());
+    writeNullableDateWithFlag(output, change.creationDate());
+    writeVarInt(output, change.diffs().size());
+    for (Map.Entry<String, FieldDiffs.Diff> entry : change.diffs().entrySet()) {
+      writeString(output, entry.getKey());
+      writeDiffValue(output, entry.getValue().oldValue());
+      writeDiffValue(output, entry.getValue().newValue());
+    }
+  }
+
+  private static void readChanges(DataInput input, DefaultIssue issue, boolean hasCurrentChange) throws IOException {
+    List<FieldDiffs> distinctChanges = new ArrayList<>();
+    int size = readVarInt(input);
+    List<FieldDiffs> changes = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      changes.add(readChange(input, distinctChanges));
+    }
+    if (hasCurrentChange) {
+      // also adds the current change to the changes, which are replaced just after
+      issue.setCurrentChange(readChange(input, distinctChanges));
+    }
+    issue.setChanges(changes);
+  }
+
+  private static FieldDiffs readChange(DataInput input, List<FieldDiffs> distinctChanges) throws IOException {
+    int index = readVarInt(input);
+    if (index != NEW_CHANGE) {
+      return distinctChanges.get(index - 1);
+    }
+    FieldDiffs change = new FieldDiffs();
+    change.setIssueKey(readString(input));
+    change.setUserLogin(readString(input));
+    change.setCreationDate(readNullableDateWithFlag(input));
+    int diffCount = readVarInt(input);
+    for (int i = 0; i < diffCount; i++) {
+      change.setDiff(readString(input), readDiffValue(input), readDiffValue(input));
+    }
+    distinctChanges.add(change);
+    return change;
+  }
+
+  private static void writeDiffValue(DataOutput output, @Nullable Serializable value) throws IOException {
+    if (value == null) {
+      writeVarInt(output, VALUE_NULL);
+    } else if (value instanceof String) {
+      writeVarInt(output, VALUE_STRING);
+      writeString(output, (String) value);
+    } else if (value instanceof Long) {
+      writeVarInt(output, VALUE_LONG);
+      writeVarLong(output, (Long) value);
+    } else {
+      writeVarInt(output, VALUE_SERIALIZABLE);
+      writeSerializable(output, value);
+    }
+  }
+
+  @CheckForNull
+  private static Serializable readDiffValue(DataInput input) throws IOException {
+    int type = readVarInt(input);
+    switch (type) {
+      case VALUE_NULL:
+        return null;
+      case VALUE_STRING:
+        return readString(input);
+      case VALUE_LONG:
+        return readVarLong(input);
+      case VALUE_SERIALIZABLE:
+        return readSerializable(input);
+      default:
+        throw new IOException("Unsupported type of diff value: " + type);
+    }
+  }
+
+  private static void writeLocations(DataOutput output, Object locations) throws IOException {
+    if (locations instanceof DbIssues.Locations) {
+      writeVarInt(output, LOCATIONS_PROTOBUF);
+      writeBytes(output, ((DbIssues.Locations) locations).toByteArray());
+    } else {
+      writeVarInt(output, LOCATIONS_SERIALIZABLE);
+      writeSerializable(output, (Serializable) locations);
+    }
+  }
+
+  private static Object readLocations(DataInput input) throws IOException {
+    int type = readVarInt(input);
+    if (type == LOCATIONS_PROTOBUF) {
+      return DbIssues.Locations.parseFrom(readBytes(input));
+    }
+    return readSerializable(input);
+  }
+
+  private static void writeNullableDateWithFlag(DataOutput output, @Nullable Date date) throws IOException {
+    output.writeBoolean(date != null);
+    writeNullableDate(output, date);
+  }
+
+  @CheckForNull
+  private static Date readNullableDateWithFlag(DataInput input) throws IOException {
+    if (input.readBoolean()) {
+      return readDate(input);
+    }
+    return null;
+  }
+}
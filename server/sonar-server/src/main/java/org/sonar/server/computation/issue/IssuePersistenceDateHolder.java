@@ -0,0 +1,45 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.issue;
+
+import javax.annotation.CheckForNull;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Technical date at which the issues of the analysis are persisted, i.e. the value of column ISSUES.UPDATED_AT.
+ * It is set by {@link org.sonar.server.computation.step.PersistIssuesStep}, so that the issues indexed afterwards
+ * have the same date as in database.
+ */
+public class IssuePersistenceDateHolder {
+
+  @CheckForNull
+  private Long date;
+
+  public void setDate(long date) {
+    checkState(this.date == null, "Date of persistence of issues is already set");
+    this.date = date;
+  }
+
+  public long getDate() {
+    checkState(date != null, "Date of persistence of issues is not set");
+    return date;
+  }
+}
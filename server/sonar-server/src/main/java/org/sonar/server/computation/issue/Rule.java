@@ -35,6 +35,12 @@ public interface Rule {
 
   RuleStatus getStatus();
 
+  /**
+   * Null for manual rules
+   */
+  @CheckForNull
+  String getLanguage();
+
   /**
    * Get all tags, whatever system or user tags.
    */
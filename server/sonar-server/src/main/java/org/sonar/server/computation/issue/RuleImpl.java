@@ -39,6 +39,7 @@ public class RuleImpl implements Rule {
   private final RuleKey key;
   private final String name;
   private final RuleStatus status;
+  private final String language;
   private final Integer subCharacteristicId;
   private final Set<String> tags;
   private final DebtRemediationFunction remediationFunction;
@@ -48,6 +49,7 @@ public class RuleImpl implements Rule {
     this.key = dto.getKey();
     this.name = dto.getName();
     this.status = dto.getStatus();
+    this.language = dto.getLanguage();
     this.subCharacteristicId = dto.getEffectiveSubCharacteristicId();
     this.tags = union(dto.getSystemTags(), dto.getTags());
     this.remediationFunction = effectiveRemediationFunction(dto);
@@ -73,6 +75,12 @@ public class RuleImpl implements Rule {
     return status;
   }
 
+  @Override
+  @CheckForNull
+  public String getLanguage() {
+    return language;
+  }
+
   @Override
   public Set<String> getTags() {
     return tags;
@@ -112,6 +120,7 @@ public class RuleImpl implements Rule {
       .add("key", key)
       .add("name", name)
       .add("status", status)
+      .add("language", language)
       .add("subCharacteristicId", subCharacteristicId)
       .add("tags", tags)
       .toString();
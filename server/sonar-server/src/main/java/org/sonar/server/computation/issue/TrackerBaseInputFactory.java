@@ -22,6 +22,8 @@ package org.sonar.server.computation.issue;
 import com.google.common.base.Objects;
 import java.util.Collections;
 import java.util.List;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import org.sonar.core.issue.DefaultIssue;
 import org.sonar.core.issue.tracking.Input;
 import org.sonar.core.issue.tracking.LazyInput;
@@ -45,14 +47,25 @@ public class TrackerBaseInputFactory {
   }
 
   public Input<DefaultIssue> create(Component component) {
-    return new BaseLazyInput(component);
+    return new BaseLazyInput(component, null);
+  }
+
+  /**
+   * Same as {@link #create(Component)} but with base issues already loaded, for example by
+   * {@link BaseIssuesLoader#loadForComponentUuids(java.util.Collection)}.
+   */
+  public Input<DefaultIssue> create(Component component, List<DefaultIssue> issues) {
+    return new BaseLazyInput(component, issues);
   }
 
   private class BaseLazyInput extends LazyInput<DefaultIssue> {
     private final Component component;
+    @CheckForNull
+    private final List<DefaultIssue> loadedIssues;
 
-    private BaseLazyInput(Component component) {
+    private BaseLazyInput(Component component, @Nullable List<DefaultIssue> loadedIssues) {
       this.component = component;
+      this.loadedIssues = loadedIssues;
     }
 
     @Override
@@ -68,6 +81,9 @@ public class TrackerBaseInputFactory {
 
     @Override
     protected List<DefaultIssue> loadIssues() {
+      if (loadedIssues != null) {
+        return loadedIssues;
+      }
       return baseIssuesLoader.loadForComponentUuid(component.getUuid());
     }
   }
@@ -19,25 +19,191 @@
  */
 package org.sonar.server.computation.issue;
 
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.Futures;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.CheckForNull;
+import org.picocontainer.Startable;
 import org.sonar.core.issue.DefaultIssue;
+import org.sonar.core.issue.tracking.Input;
 import org.sonar.core.issue.tracking.Tracker;
 import org.sonar.core.issue.tracking.Tracking;
 import org.sonar.server.computation.component.Component;
+import org.sonar.server.computation.component.CrawlerDepthLimit;
+import org.sonar.server.computation.component.DepthTraversalTypeAwareCrawler;
+import org.sonar.server.computation.component.TreeRootHolder;
+import org.sonar.server.computation.component.TypeAwareVisitorAdapter;
+import org.sonar.server.computation.taskprocessor.CeConfiguration;
+import org.sonar.server.computation.util.StepWorkerPool;
 
-public class TrackerExecution {
+import static org.sonar.server.computation.component.ComponentVisitor.Order.POST_ORDER;
 
+/**
+ * Tracks the issues of components in the order they are visited by {@link IntegrateIssuesVisitor}.
+ * <p>
+ * Components are prefetched by batches: base issues of a batch are loaded by a single query, then the
+ * components are tracked concurrently by {@link CeConfiguration#getStepWorkerCount()} threads, ahead of
+ * the visitor. Raw issues are loaded in the calling thread, as common rules read the measure repository,
+ * which is not thread-safe. When there is a single step worker, only base issues are loaded by batches, and
+ * each component is tracked in the calling thread when it is visited.
+ * </p>
+ */
+public class TrackerExecution implements Startable {
+
+  private static final String THREAD_NAME_PREFIX = "ce-issue-tracking-";
+  static final int COMPONENTS_PER_BATCH = 100;
+
+  private final TreeRootHolder treeRootHolder;
+  private final BaseIssuesLoader baseIssuesLoader;
   private final TrackerBaseInputFactory baseInputFactory;
   private final TrackerRawInputFactory rawInputFactory;
   private final Tracker<DefaultIssue, DefaultIssue> tracker;
+  private final int workerCount;
 
-  public TrackerExecution(TrackerBaseInputFactory baseInputFactory, TrackerRawInputFactory rawInputFactory,
-    Tracker<DefaultIssue, DefaultIssue> tracker) {
+  // trackings computed ahead of the visitor, when there are several step workers
+  private final Map<String, Future<Tracking<DefaultIssue, DefaultIssue>>> pendingTrackings = new HashMap<>();
+  // base issues loaded ahead of the visitor, when there is a single step worker
+  private final Map<String, List<DefaultIssue>> pendingBaseIssues = new HashMap<>();
+  private List<Component> components;
+  private Map<String, Integer> indexesByUuid;
+  private int nextComponentIndex = 0;
+  private ExecutorService executorService;
+
+  public TrackerExecution(TreeRootHolder treeRootHolder, BaseIssuesLoader baseIssuesLoader, TrackerBaseInputFactory baseInputFactory,
+    TrackerRawInputFactory rawInputFactory, Tracker<DefaultIssue, DefaultIssue> tracker, CeConfiguration ceConfiguration) {
+    this.treeRootHolder = treeRootHolder;
+    this.baseIssuesLoader = baseIssuesLoader;
     this.baseInputFactory = baseInputFactory;
     this.rawInputFactory = rawInputFactory;
     this.tracker = tracker;
+    this.workerCount = ceConfiguration.getStepWorkerCount();
+  }
+
+  @Override
+  public void start() {
+    // nothing to do
+  }
+
+  @Override
+  public void stop() {
+    if (executorService != null) {
+      executorService.shutdownNow();
+    }
   }
 
   public Tracking<DefaultIssue, DefaultIssue> track(Component component) {
-    return tracker.track(rawInputFactory.create(component), baseInputFactory.create(component));
+    String uuid = component.getUuid();
+    if (!pendingTrackings.containsKey(uuid) && !pendingBaseIssues.containsKey(uuid)) {
+      Integer index = indexOf(component);
+      if (index == null || index < nextComponentIndex) {
+        // not visited in the expected order
+        return tracker.track(rawInputFactory.create(component), baseInputFactory.create(component));
+      }
+      nextComponentIndex = index;
+      prefetchNextBatch();
+    }
+    if (workerCount == 1) {
+      List<DefaultIssue> baseIssues = pendingBaseIssues.remove(uuid);
+      return tracker.track(rawInputFactory.create(component), baseInputFactory.create(component, baseIssues));
+    }
+    Future<Tracking<DefaultIssue, DefaultIssue>> tracking = pendingTrackings.remove(uuid);
+    if (pendingTrackings.size() < COMPONENTS_PER_BATCH) {
+      prefetchNextBatch();
+    }
+    return get(tracking);
+  }
+
+  @CheckForNull
+  private Integer indexOf(Component component) {
+    if (components == null) {
+      components = new ArrayList<>();
+      indexesByUuid = new HashMap<>();
+      new DepthTraversalTypeAwareCrawler(new TypeAwareVisitorAdapter(CrawlerDepthLimit.FILE, POST_ORDER) {
+        @Override
+        public void visitAny(Component any) {
+          indexesByUuid.put(any.getUuid(), components.size());
+          components.add(any);
+        }
+      }).visit(treeRootHolder.getRoot());
+    }
+    return indexesByUuid.get(component.getUuid());
+  }
+
+  private void prefetchNextBatch() {
+    List<Component> batch = components.subList(nextComponentIndex, Math.min(components.size(), nextComponentIndex + COMPONENTS_PER_BATCH));
+    if (batch.isEmpty()) {
+      return;
+    }
+    nextComponentIndex += batch.size();
+
+    List<String> uuids = new ArrayList<>(batch.size());
+    for (Component component : batch) {
+      uuids.add(component.getUuid());
+    }
+    ListMultimap<String, DefaultIssue> baseIssuesByUuid = baseIssuesLoader.loadForComponentUuids(uuids);
+    if (workerCount == 1) {
+      pendingBaseIssues.clear();
+      for (Component component : batch) {
+        pendingBaseIssues.put(component.getUuid(), baseIssuesByUuid.get(component.getUuid()));
+      }
+      return;
+    }
+    ExecutorService executor = executorService();
+    for (Component component : batch) {
+      pendingTrackings.put(component.getUuid(), submit(executor, component, baseIssuesByUuid.get(component.getUuid())));
+    }
+  }
+
+  private Future<Tracking<DefaultIssue, DefaultIssue>> submit(ExecutorService executor, Component component, List<DefaultIssue> baseIssues) {
+    Input<DefaultIssue> rawInput = rawInputFactory.create(component);
+    try {
+      // load raw issues in the calling thread
+      rawInput.getIssues();
+    } catch (RuntimeException e) {
+      // failure is raised when the component is visited
+      return Futures.immediateFailedFuture(e);
+    }
+    Input<DefaultIssue> baseInput = baseInputFactory.create(component, baseIssues);
+    return executor.submit(new TrackingTask(rawInput, baseInput));
+  }
+
+  private ExecutorService executorService() {
+    if (executorService == null) {
+      executorService = StepWorkerPool.create(THREAD_NAME_PREFIX, workerCount);
+    }
+    return executorService;
+  }
+
+  private static Tracking<DefaultIssue, DefaultIssue> get(Future<Tracking<DefaultIssue, DefaultIssue>> tracking) {
+    try {
+      return tracking.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while tracking issues", e);
+    }
+  }
+
+  private class TrackingTask implements Callable<Tracking<DefaultIssue, DefaultIssue>> {
+    private final Input<DefaultIssue> rawInput;
+    private final Input<DefaultIssue> baseInput;
+
+    private TrackingTask(Input<DefaultIssue> rawInput, Input<DefaultIssue> baseInput) {
+      this.rawInput = rawInput;
+      this.baseInput = baseInput;
+    }
+
+    @Override
+    public Tracking<DefaultIssue, DefaultIssue> call() {
+      return tracker.track(rawInput, baseInput);
+    }
   }
 }
@@ -20,6 +20,9 @@
 package org.sonar.server.computation.issue;
 
 import com.google.common.annotations.VisibleForTesting;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.CheckForNull;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.core.issue.DefaultIssue;
@@ -34,16 +37,28 @@ public class UpdateConflictResolver {
 
   private static final Logger LOG = Loggers.get(UpdateConflictResolver.class);
 
-  public void resolve(DefaultIssue issue, IssueMapper mapper) {
+  // issues as persisted after merge of conflicts, by key
+  private final Map<String, DefaultIssue> resolvedIssues = new HashMap<>();
+
+  public void resolve(DefaultIssue issue, IssueMapper mapper, long now) {
     LOG.debug("Resolve conflict on issue {}", issue.key());
 
     IssueDto dbIssue = mapper.selectByKey(issue.key());
     if (dbIssue != null) {
       mergeFields(dbIssue, issue);
-      mapper.update(IssueDto.toDtoForUpdate(issue, System.currentTimeMillis()));
+      mapper.update(IssueDto.toDtoForUpdate(issue, now));
+      resolvedIssues.put(issue.key(), issue);
     }
   }
 
+  /**
+   * The issue as it was persisted if a conflict was resolved on it, else {@code null}.
+   */
+  @CheckForNull
+  public DefaultIssue getResolved(String issueKey) {
+    return resolvedIssues.get(issueKey);
+  }
+
   @VisibleForTesting
   void mergeFields(IssueDto dbIssue, DefaultIssue issue) {
     resolveAssignee(dbIssue, issue);
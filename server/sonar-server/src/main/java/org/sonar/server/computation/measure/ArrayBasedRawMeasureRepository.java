@@ -0,0 +1,272 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.measure;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.server.computation.component.Component;
+import org.sonar.server.computation.component.Developer;
+import org.sonar.server.computation.measure.MapBasedRawMeasureRepository.OverridePolicy;
+import org.sonar.server.computation.metric.Metric;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Implementation of MeasureRepository which supports only raw measures of components of the analysis report, stored
+ * by metric in columns indexed by the report ref of the component.
+ * <p>
+ * The measures made of a value only (see {@link Measure#isPrimitive()}), which are the vast majority of them, are
+ * stored as a value type and a double in primitive arrays and are rebuilt when read. The other measures (strings, data,
+ * rule, characteristic, developer, variations, ...) are kept as is in a side table.
+ * </p>
+ *
+ * Intended to be used as a delegate of other MeasureRepository implementations (hence the final keyword).
+ */
+public final class ArrayBasedRawMeasureRepository implements MeasureRepository {
+  private static final int INITIAL_CAPACITY = 64;
+  private static final Measure.ValueType[] VALUE_TYPES = Measure.ValueType.values();
+
+  private final Map<String, MetricColumn> columns = new HashMap<>();
+  private final Map<Integer, Map<MeasureKey, Measure>> otherMeasures = new HashMap<>();
+
+  /**
+   * @throws UnsupportedOperationException all the time, not supported
+   */
+  @Override
+  public Optional<Measure> getBaseMeasure(Component component, Metric metric) {
+    throw new UnsupportedOperationException("This implementation of MeasureRepository supports only raw measures");
+  }
+
+  @Override
+  public Optional<Measure> getRawMeasure(Component component, Metric metric) {
+    // fail fast
+    requireNonNull(component);
+    requireNonNull(metric);
+
+    return Optional.fromNullable(find(toRef(component), metric.getKey(), null, null, null));
+  }
+
+  @Override
+  public void add(Component component, Metric metric, Measure measure) {
+    requireNonNull(component);
+    checkValueTypeConsistency(metric, measure);
+
+    if (find(toRef(component), metric, measure) != null) {
+      throw new UnsupportedOperationException(
+        format(
+          "a measure can be set only once for a specific Component (key=%s), Metric (key=%s)%s. Use update method",
+          component.getKey(),
+          metric.getKey(),
+          buildRuleOrCharacteristicMsgPart(measure)));
+    }
+    add(component, metric, measure, OverridePolicy.OVERRIDE);
+  }
+
+  @Override
+  public void update(Component component, Metric metric, Measure measure) {
+    requireNonNull(component);
+    checkValueTypeConsistency(metric, measure);
+
+    if (find(toRef(component), metric, measure) == null) {
+      throw new UnsupportedOperationException(
+        format(
+          "a measure can be updated only if one already exists for a specific Component (key=%s), Metric (key=%s)%s. Use add method",
+          component.getKey(),
+          metric.getKey(),
+          buildRuleOrCharacteristicMsgPart(measure)));
+    }
+    add(component, metric, measure, OverridePolicy.OVERRIDE);
+  }
+
+  private static void checkValueTypeConsistency(Metric metric, Measure measure) {
+    checkArgument(
+      measure.getValueType() == Measure.ValueType.NO_VALUE || measure.getValueType() == metric.getType().getValueType(),
+      format(
+        "Measure's ValueType (%s) is not consistent with the Metric's ValueType (%s)",
+        measure.getValueType(), metric.getType().getValueType()));
+  }
+
+  private static String buildRuleOrCharacteristicMsgPart(Measure measure) {
+    if (measure.getRuleId() != null) {
+      return " and rule (id=" + measure.getRuleId() + ")";
+    }
+    if (measure.getCharacteristicId() != null) {
+      return " and Characteristic (id=" + measure.getCharacteristicId() + ")";
+    }
+    return "";
+  }
+
+  @Override
+  public Set<Measure> getRawMeasures(Component component, Metric metric) {
+    requireNonNull(metric);
+    requireNonNull(component);
+    int ref = toRef(component);
+    ImmutableSet.Builder<Measure> builder = ImmutableSet.builder();
+    MetricColumn column = columns.get(metric.getKey());
+    if (column != null && column.contains(ref)) {
+      builder.add(column.get(ref));
+    }
+    Map<MeasureKey, Measure> measures = otherMeasures.get(ref);
+    if (measures != null) {
+      for (Map.Entry<MeasureKey, Measure> entry : measures.entrySet()) {
+        if (entry.getKey().getMetricKey().equals(metric.getKey())) {
+          builder.add(entry.getValue());
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public SetMultimap<String, Measure> getRawMeasures(Component component) {
+    int ref = toRef(component);
+    ImmutableSetMultimap.Builder<String, Measure> builder = ImmutableSetMultimap.builder();
+    for (Map.Entry<String, MetricColumn> entry : columns.entrySet()) {
+      MetricColumn column = entry.getValue();
+      if (column.contains(ref)) {
+        builder.put(entry.getKey(), column.get(ref));
+      }
+    }
+    Map<MeasureKey, Measure> measures = otherMeasures.get(ref);
+    if (measures != null) {
+      for (Map.Entry<MeasureKey, Measure> entry : measures.entrySet()) {
+        builder.put(entry.getKey().getMetricKey(), entry.getValue());
+      }
+    }
+    return builder.build();
+  }
+
+  public void add(Component component, Metric metric, Measure measure, OverridePolicy overridePolicy) {
+    requireNonNull(component);
+    requireNonNull(measure);
+    requireNonNull(overridePolicy);
+
+    int ref = toRef(component);
+    if (overridePolicy == OverridePolicy.DO_NOT_OVERRIDE && find(ref, metric, measure) != null) {
+      return;
+    }
+    MeasureKey key = new MeasureKey(metric.getKey(), measure.getRuleId(), measure.getCharacteristicId(), measure.getDeveloper());
+    if (measure.isPrimitive()) {
+      removeOtherMeasure(ref, key);
+      getOrCreateColumn(metric.getKey()).put(ref, measure);
+    } else {
+      if (isMetricOnly(measure.getRuleId(), measure.getCharacteristicId(), measure.getDeveloper())) {
+        MetricColumn column = columns.get(metric.getKey());
+        if (column != null) {
+          column.remove(ref);
+        }
+      }
+      Map<MeasureKey, Measure> measures = otherMeasures.get(ref);
+      if (measures == null) {
+        measures = new HashMap<>();
+        otherMeasures.put(ref, measures);
+      }
+      measures.put(key, measure);
+    }
+  }
+
+  @CheckForNull
+  private Measure find(int ref, Metric metric, Measure measure) {
+    return find(ref, metric.getKey(), measure.getRuleId(), measure.getCharacteristicId(), measure.getDeveloper());
+  }
+
+  @CheckForNull
+  private Measure find(int ref, String metricKey, @Nullable Integer ruleId, @Nullable Integer characteristicId, @Nullable Developer developer) {
+    if (isMetricOnly(ruleId, characteristicId, developer)) {
+      MetricColumn column = columns.get(metricKey);
+      if (column != null && column.contains(ref)) {
+        return column.get(ref);
+      }
+    }
+    Map<MeasureKey, Measure> measures = otherMeasures.get(ref);
+    return measures == null ? null : measures.get(new MeasureKey(metricKey, ruleId, characteristicId, developer));
+  }
+
+  private void removeOtherMeasure(int ref, MeasureKey key) {
+    Map<MeasureKey, Measure> measures = otherMeasures.get(ref);
+    if (measures != null) {
+      measures.remove(key);
+    }
+  }
+
+  private MetricColumn getOrCreateColumn(String metricKey) {
+    MetricColumn column = columns.get(metricKey);
+    if (column == null) {
+      column = new MetricColumn();
+      columns.put(metricKey, column);
+    }
+    return column;
+  }
+
+  private static int toRef(Component component) {
+    return component.getReportAttributes().getRef();
+  }
+
+  private static boolean isMetricOnly(@Nullable Integer ruleId, @Nullable Integer characteristicId, @Nullable Developer developer) {
+    return ruleId == null && characteristicId == null && developer == null;
+  }
+
+  /**
+   * Primitive measures of a metric, indexed by report ref. Value types are stored as their ordinal plus one, so that
+   * {@code 0} means that there is no measure.
+   */
+  private static final class MetricColumn {
+    private byte[] valueTypes = new byte[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+
+    boolean contains(int ref) {
+      return ref < valueTypes.length && valueTypes[ref] != 0;
+    }
+
+    Measure get(int ref) {
+      return Measure.fromPrimitiveValue(VALUE_TYPES[valueTypes[ref] - 1], values[ref]);
+    }
+
+    void put(int ref, Measure measure) {
+      ensureCapacity(ref);
+      valueTypes[ref] = (byte) (measure.getValueType().ordinal() + 1);
+      values[ref] = measure.getPrimitiveValue();
+    }
+
+    void remove(int ref) {
+      if (ref < valueTypes.length) {
+        valueTypes[ref] = 0;
+      }
+    }
+
+    private void ensureCapacity(int ref) {
+      if (ref >= valueTypes.length) {
+        int capacity = Math.max(ref + 1, valueTypes.length + (valueTypes.length >> 1));
+        valueTypes = Arrays.copyOf(valueTypes, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+    }
+  }
+}
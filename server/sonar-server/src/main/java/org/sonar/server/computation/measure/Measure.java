@@ -417,6 +417,50 @@ public final class Measure {
     return description;
   }
 
+  /**
+   * Whether this measure has no other property than its value, ie. no data, rule, characteristic, developer,
+   * description, QualityGate status nor variations, and its value is not a String.
+   * <p>
+   * Such a measure can be rebuilt from its value type and {@link #getPrimitiveValue()}.
+   * </p>
+   */
+  boolean isPrimitive() {
+    return valueType != ValueType.STRING
+      && ruleId == null && characteristicId == null && developer == null
+      && data == null && description == null && qualityGateStatus == null && variations == null;
+  }
+
+  /**
+   * The value as a double: the value itself for numeric types, the ordinal of the level for {@link ValueType#LEVEL}
+   * and {@code 0} for {@link ValueType#NO_VALUE}.
+   *
+   * @throws IllegalStateException if the value type of the measure is {@link ValueType#STRING}
+   */
+  double getPrimitiveValue() {
+    checkState(valueType != ValueType.STRING, "String value can not be converted to a primitive");
+    if (valueType == ValueType.LEVEL) {
+      return dataLevel.ordinal();
+    }
+    return value == null ? 0d : value;
+  }
+
+  /**
+   * Reverse operation of {@link #getPrimitiveValue()}. Unlike {@link NewMeasureBuilder#create(double, int)},
+   * double values are not rounded as they already were when the source measure was created.
+   */
+  static Measure fromPrimitiveValue(ValueType valueType, double primitiveValue) {
+    switch (valueType) {
+      case NO_VALUE:
+        return new Measure(valueType, null, null, null, null, null, null, null, null, null);
+      case LEVEL:
+        return new Measure(valueType, null, null, null, null, null, Level.values()[(int) primitiveValue], null, null, null);
+      case STRING:
+        throw new IllegalArgumentException("String value can not be converted from a primitive");
+      default:
+        return new Measure(valueType, null, null, null, primitiveValue, null, null, null, null, null);
+    }
+  }
+
   /**
    * a Metric is equal to another Metric if it has the same ruleId/characteristicId paar (both being potentially
    * {@code null} but only one of them can be non {@code null}).
@@ -86,8 +86,13 @@ public class CeQueueImpl implements CeQueue {
     }
   }
 
+  /**
+   * Synchronized so that concurrent Compute Engine workers do not race on the selection of the eligible tasks: the
+   * task peeked by a worker is flagged {@link CeQueueDto.Status#IN_PROGRESS} before any other worker looks for one,
+   * which guarantees that two tasks of the same component are never processed at the same time.
+   */
   @Override
-  public Optional<CeTask> peek() {
+  public synchronized Optional<CeTask> peek() {
     if (peekPaused.get()) {
       return Optional.absent();
     }
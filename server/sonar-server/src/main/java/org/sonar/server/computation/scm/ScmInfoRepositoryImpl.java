@@ -20,8 +20,8 @@
 package org.sonar.server.computation.scm;
 
 import com.google.common.base.Optional;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.batch.protocol.output.BatchReport;
@@ -44,7 +44,8 @@ public class ScmInfoRepositoryImpl implements ScmInfoRepository {
   private final DbClient dbClient;
   private final SourceHashRepository sourceHashRepository;
 
-  private final Map<Component, ScmInfo> scmInfoCache = new HashMap<>();
+  // accessed concurrently by the workers of PersistFileSourcesStep
+  private final Map<Component, Optional<ScmInfo>> scmInfoCache = new ConcurrentHashMap<>();
 
   public ScmInfoRepositoryImpl(BatchReportReader batchReportReader, AnalysisMetadataHolder analysisMetadataHolder, DbClient dbClient, SourceHashRepository sourceHashRepository) {
     this.batchReportReader = batchReportReader;
@@ -56,16 +57,12 @@ public class ScmInfoRepositoryImpl implements ScmInfoRepository {
   @Override
   public Optional<ScmInfo> getScmInfo(Component component) {
     checkNotNull(component, "Component cannot be bull");
-    initializeScmInfoForComponent(component);
-    return Optional.fromNullable(scmInfoCache.get(component));
-  }
-
-  private void initializeScmInfoForComponent(Component component) {
-    if (scmInfoCache.containsKey(component)) {
-      return;
+    Optional<ScmInfo> scmInfo = scmInfoCache.get(component);
+    if (scmInfo == null) {
+      scmInfo = getScmInfoForComponent(component);
+      scmInfoCache.put(component, scmInfo);
     }
-    Optional<ScmInfo> scmInfoOptional = getScmInfoForComponent(component);
-    scmInfoCache.put(component, scmInfoOptional.orNull());
+    return scmInfo;
   }
 
   private Optional<ScmInfo> getScmInfoForComponent(Component component) {
@@ -19,8 +19,8 @@
  */
 package org.sonar.server.computation.source;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 import org.sonar.core.hash.SourceHashComputer;
 import org.sonar.core.util.CloseableIterator;
@@ -34,7 +34,8 @@ public class SourceHashRepositoryImpl implements SourceHashRepository {
   private static final String SOURCE_OR_HASH_FAILURE_ERROR_MSG = "Failed to read source and compute hashes for component %s";
 
   private final SourceLinesRepository sourceLinesRepository;
-  private final Map<String, String> rawSourceHashesByKey = new HashMap<>();
+  // accessed concurrently by the workers of PersistFileSourcesStep
+  private final Map<String, String> rawSourceHashesByKey = new ConcurrentHashMap<>();
 
   public SourceHashRepositoryImpl(SourceLinesRepository sourceLinesRepository) {
     this.sourceLinesRepository = sourceLinesRepository;
@@ -43,13 +44,12 @@ public class SourceHashRepositoryImpl implements SourceHashRepository {
   @Override
   public String getRawSourceHash(Component file) {
     checkComponentArgument(file);
-    if (rawSourceHashesByKey.containsKey(file.getKey())) {
-      return checkSourceHash(file.getKey(), rawSourceHashesByKey.get(file.getKey()));
-    } else {
-      String newSourceHash = computeRawSourceHash(file);
-      rawSourceHashesByKey.put(file.getKey(), newSourceHash);
-      return checkSourceHash(file.getKey(), newSourceHash);
+    String sourceHash = rawSourceHashesByKey.get(file.getKey());
+    if (sourceHash == null) {
+      sourceHash = checkSourceHash(file.getKey(), computeRawSourceHash(file));
+      rawSourceHashesByKey.put(file.getKey(), sourceHash);
     }
+    return sourceHash;
   }
 
   private static void checkComponentArgument(Component file) {
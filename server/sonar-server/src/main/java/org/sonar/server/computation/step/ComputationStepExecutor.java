@@ -19,20 +19,41 @@
  */
 package org.sonar.server.computation.step;
 
+import com.google.common.base.Throwables;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.CheckForNull;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.core.util.logs.Profiler;
+import org.sonar.server.computation.taskprocessor.CeConfiguration;
+import org.sonar.server.computation.util.StepWorkerPool;
 
 public final class ComputationStepExecutor {
   private static final Logger LOGGER = Loggers.get(ComputationStepExecutor.class);
+  private static final String THREAD_NAME_PREFIX = "ce-step-";
 
   private final ComputationSteps steps;
+  private final int stepWorkerCount;
 
-  public ComputationStepExecutor(ComputationSteps steps) {
+  public ComputationStepExecutor(ComputationSteps steps, CeConfiguration ceConfiguration) {
     this.steps = steps;
+    this.stepWorkerCount = ceConfiguration.getStepWorkerCount();
   }
 
   public void execute() {
+    if (stepWorkerCount == 1) {
+      executeSequentially();
+    } else {
+      executeConcurrently();
+    }
+  }
+
+  private void executeSequentially() {
     Profiler stepProfiler = Profiler.create(LOGGER);
     for (ComputationStep step : steps.instances()) {
       stepProfiler.start();
@@ -40,4 +61,105 @@ public final class ComputationStepExecutor {
       stepProfiler.stopInfo(step.getDescription());
     }
   }
+
+  private void executeConcurrently() {
+    ExecutorService executorService = StepWorkerPool.create(THREAD_NAME_PREFIX, stepWorkerCount);
+    try {
+      new ConcurrentExecution(ComputationStepGraph.of(steps.instances()), executorService).run();
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * Executes the steps of a {@link ComputationStepGraph} as soon as all their predecessors are executed. Once a step
+   * failed, no other step is started and the failure is propagated when the steps being executed are over.
+   */
+  private static final class ConcurrentExecution {
+    private final ComputationStepGraph graph;
+    private final CompletionService<Integer> completionService;
+    private final int[] remainingPredecessors;
+    private int runningSteps = 0;
+    @CheckForNull
+    private Throwable failure;
+
+    private ConcurrentExecution(ComputationStepGraph graph, ExecutorService executorService) {
+      this.graph = graph;
+      this.completionService = new ExecutorCompletionService<>(executorService);
+      this.remainingPredecessors = new int[graph.size()];
+      for (int i = 0; i < graph.size(); i++) {
+        remainingPredecessors[i] = graph.getPredecessors(i).size();
+      }
+    }
+
+    void run() {
+      for (int i = 0; i < graph.size(); i++) {
+        if (remainingPredecessors[i] == 0) {
+          submit(i);
+        }
+      }
+      while (runningSteps > 0) {
+        onStepCompleted(takeCompletedStep());
+      }
+      if (failure != null) {
+        throw Throwables.propagate(failure);
+      }
+    }
+
+    private void submit(int index) {
+      completionService.submit(new StepCallable(graph.get(index), index));
+      runningSteps++;
+    }
+
+    private Future<Integer> takeCompletedStep() {
+      try {
+        Future<Integer> future = completionService.take();
+        runningSteps--;
+        return future;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while executing computation steps", e);
+      }
+    }
+
+    private void onStepCompleted(Future<Integer> future) {
+      try {
+        int index = future.get();
+        if (failure != null) {
+          return;
+        }
+        for (Integer successor : graph.getSuccessors(index)) {
+          remainingPredecessors[successor]--;
+          if (remainingPredecessors[successor] == 0) {
+            submit(successor);
+          }
+        }
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while executing computation steps", e);
+      }
+    }
+  }
+
+  private static final class StepCallable implements Callable<Integer> {
+    private final ComputationStep step;
+    private final int index;
+
+    private StepCallable(ComputationStep step, int index) {
+      this.step = step;
+      this.index = index;
+    }
+
+    @Override
+    public Integer call() {
+      Profiler stepProfiler = Profiler.create(LOGGER).start();
+      step.execute();
+      stepProfiler.stopInfo(step.getDescription());
+      return index;
+    }
+  }
 }
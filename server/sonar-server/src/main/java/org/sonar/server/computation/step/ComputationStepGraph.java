@@ -0,0 +1,115 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.step;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.collect.Sets.intersection;
+
+/**
+ * The dependency graph of a list of {@link ComputationStep}s, each step being identified by its index in the list.
+ * <p>
+ * A step which is not a {@link ConcurrentComputationStep} depends on every step before it and every step after it
+ * depends on it. A {@link ConcurrentComputationStep} depends on the {@link ConcurrentComputationStep}s before it which
+ * write data it reads or writes and on the ones which read data it writes.
+ * </p>
+ */
+final class ComputationStepGraph {
+  private final List<ComputationStep> steps;
+  private final List<List<Integer>> predecessors;
+  private final List<List<Integer>> successors;
+
+  private ComputationStepGraph(List<ComputationStep> steps) {
+    this.steps = ImmutableList.copyOf(steps);
+    this.predecessors = new ArrayList<>(steps.size());
+    this.successors = new ArrayList<>(steps.size());
+    for (int i = 0; i < steps.size(); i++) {
+      predecessors.add(new ArrayList<Integer>());
+      successors.add(new ArrayList<Integer>());
+    }
+    buildEdges();
+  }
+
+  static ComputationStepGraph of(Iterable<ComputationStep> steps) {
+    return new ComputationStepGraph(ImmutableList.copyOf(steps));
+  }
+
+  private void buildEdges() {
+    int lastBarrier = -1;
+    for (int i = 0; i < steps.size(); i++) {
+      ComputationStep step = steps.get(i);
+      if (step instanceof ConcurrentComputationStep) {
+        if (lastBarrier >= 0) {
+          addEdge(lastBarrier, i);
+        }
+        for (int j = lastBarrier + 1; j < i; j++) {
+          if (conflict((ConcurrentComputationStep) steps.get(j), (ConcurrentComputationStep) step)) {
+            addEdge(j, i);
+          }
+        }
+      } else {
+        // a barrier depends on all the steps since the previous barrier, and on the previous barrier itself
+        for (int j = Math.max(lastBarrier, 0); j < i; j++) {
+          addEdge(j, i);
+        }
+        lastBarrier = i;
+      }
+    }
+  }
+
+  private static boolean conflict(ConcurrentComputationStep before, ConcurrentComputationStep after) {
+    Set<Class<?>> beforeWrites = before.writtenDataTypes();
+    Set<Class<?>> afterWrites = after.writtenDataTypes();
+    return !intersection(beforeWrites, after.readDataTypes()).isEmpty()
+      || !intersection(beforeWrites, afterWrites).isEmpty()
+      || !intersection(before.readDataTypes(), afterWrites).isEmpty();
+  }
+
+  private void addEdge(int from, int to) {
+    successors.get(from).add(to);
+    predecessors.get(to).add(from);
+  }
+
+  int size() {
+    return steps.size();
+  }
+
+  ComputationStep get(int index) {
+    return steps.get(index);
+  }
+
+  /**
+   * Indexes of the steps which must be executed before the specified step.
+   */
+  List<Integer> getPredecessors(int index) {
+    return Collections.unmodifiableList(predecessors.get(index));
+  }
+
+  /**
+   * Indexes of the steps which can only be executed after the specified step.
+   */
+  List<Integer> getSuccessors(int index) {
+    return Collections.unmodifiableList(successors.get(index));
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.step;
+
+import java.util.Set;
+
+/**
+ * A {@link ComputationStep} which declares the data it reads and the data it writes.
+ * <p>
+ * Data is identified by its type: the interface of the holder or repository for data held in memory by the Compute
+ * Engine (eg. {@link org.sonar.server.computation.component.TreeRootHolder}) and the class of the DTO or document for
+ * data persisted in DB or Elasticsearch (eg. {@link org.sonar.db.component.SnapshotDto}).
+ * </p>
+ * <p>
+ * {@link ComputationStepExecutor} may execute such a step concurrently with the {@link ConcurrentComputationStep}s
+ * which surround it in {@link ComputationSteps#instances()} as long as none of them writes data the other reads or
+ * writes. A {@link ComputationStep} which does not implement this interface is never executed concurrently with any
+ * other step.
+ * </p>
+ */
+public interface ConcurrentComputationStep extends ComputationStep {
+
+  /**
+   * Types of the data read by this step and which can be written by another step.
+   */
+  Set<Class<?>> readDataTypes();
+
+  /**
+   * Types of the data written by this step.
+   */
+  Set<Class<?>> writtenDataTypes();
+}
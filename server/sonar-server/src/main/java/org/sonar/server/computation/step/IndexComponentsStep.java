@@ -20,14 +20,18 @@
 
 package org.sonar.server.computation.step;
 
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
 import org.sonar.db.component.ResourceIndexDao;
+import org.sonar.db.component.ResourceIndexDto;
+import org.sonar.db.component.SnapshotDto;
 import org.sonar.server.computation.component.DbIdsRepository;
 import org.sonar.server.computation.component.TreeRootHolder;
 
 /**
  * Components are currently indexed in db table RESOURCE_INDEX, not in Elasticsearch
  */
-public class IndexComponentsStep implements ComputationStep {
+public class IndexComponentsStep implements ConcurrentComputationStep {
 
   private final ResourceIndexDao resourceIndexDao;
   private final DbIdsRepository dbIdsRepository;
@@ -44,6 +48,16 @@ public class IndexComponentsStep implements ComputationStep {
     resourceIndexDao.indexProject(dbIdsRepository.getComponentId(treeRootHolder.getRoot()));
   }
 
+  @Override
+  public Set<Class<?>> readDataTypes() {
+    return ImmutableSet.<Class<?>>of(TreeRootHolder.class, DbIdsRepository.class, SnapshotDto.class);
+  }
+
+  @Override
+  public Set<Class<?>> writtenDataTypes() {
+    return ImmutableSet.<Class<?>>of(ResourceIndexDto.class);
+  }
+
   @Override
   public String getDescription() {
     return "Index components";
@@ -17,25 +17,133 @@
  * along with this program; if not, write to the Free Software Foundation,
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
  */
-
 package org.sonar.server.computation.step;
 
+import com.google.common.collect.ImmutableSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import org.sonar.core.issue.DefaultIssue;
+import org.sonar.core.util.CloseableIterator;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.issue.IssueDto;
 import org.sonar.server.computation.component.TreeRootHolder;
+import org.sonar.server.computation.issue.IssueCache;
+import org.sonar.server.computation.issue.IssuePersistenceDateHolder;
+import org.sonar.server.computation.issue.RuleRepository;
+import org.sonar.server.computation.issue.UpdateConflictResolver;
+import org.sonar.server.issue.index.IssueDoc;
+import org.sonar.server.issue.index.IssueDocFactory;
 import org.sonar.server.issue.index.IssueIndexer;
 
-public class IndexIssuesStep implements ComputationStep {
+/**
+ * Indexes the issues created or updated by the analysis. Documents are built from {@link IssueCache}
+ * instead of being read back from database.
+ */
+public class IndexIssuesStep implements ConcurrentComputationStep {
 
   private final IssueIndexer indexer;
   private final TreeRootHolder treeRootHolder;
+  private final IssueCache issueCache;
+  private final RuleRepository ruleRepository;
+  private final UpdateConflictResolver conflictResolver;
+  private final DbClient dbClient;
+  private final IssuePersistenceDateHolder persistenceDateHolder;
 
-  public IndexIssuesStep(IssueIndexer indexer, TreeRootHolder treeRootHolder) {
+  public IndexIssuesStep(IssueIndexer indexer, TreeRootHolder treeRootHolder, IssueCache issueCache, RuleRepository ruleRepository,
+    UpdateConflictResolver conflictResolver, DbClient dbClient, IssuePersistenceDateHolder persistenceDateHolder) {
     this.indexer = indexer;
     this.treeRootHolder = treeRootHolder;
+    this.issueCache = issueCache;
+    this.ruleRepository = ruleRepository;
+    this.conflictResolver = conflictResolver;
+    this.dbClient = dbClient;
+    this.persistenceDateHolder = persistenceDateHolder;
   }
 
   @Override
   public void execute() {
-    indexer.index(treeRootHolder.getRoot().getUuid());
+    String projectUuid = treeRootHolder.getRoot().getUuid();
+    IssueDocIterator docs = new IssueDocIterator(issueCache.traverse(), loadComponentsByUuid(projectUuid), projectUuid, new Date(persistenceDateHolder.getDate()));
+    try {
+      indexer.index(projectUuid, docs);
+    } finally {
+      docs.close();
+    }
+  }
+
+  /**
+   * Components are loaded from database rather than from the tree of the report, as issues
+   * of the components removed from the project are closed by the analysis and must be indexed too.
+   */
+  private Map<String, ComponentDto> loadComponentsByUuid(String projectUuid) {
+    DbSession session = dbClient.openSession(false);
+    try {
+      Map<String, ComponentDto> componentsByUuid = new HashMap<>();
+      for (ComponentDto component : dbClient.componentDao().selectByProjectUuid(projectUuid, session)) {
+        componentsByUuid.put(component.uuid(), component);
+      }
+      return componentsByUuid;
+    } finally {
+      dbClient.closeSession(session);
+    }
+  }
+
+  private class IssueDocIterator extends CloseableIterator<IssueDoc> {
+    private final CloseableIterator<DefaultIssue> issues;
+    private final Map<String, ComponentDto> componentsByUuid;
+    private final String projectUuid;
+    private final Date technicalUpdateDate;
+
+    private IssueDocIterator(CloseableIterator<DefaultIssue> issues, Map<String, ComponentDto> componentsByUuid, String projectUuid, Date technicalUpdateDate) {
+      this.issues = issues;
+      this.componentsByUuid = componentsByUuid;
+      this.projectUuid = projectUuid;
+      this.technicalUpdateDate = technicalUpdateDate;
+    }
+
+    @Override
+    @CheckForNull
+    protected IssueDoc doNext() {
+      while (issues.hasNext()) {
+        DefaultIssue issue = issues.next();
+        // issues which are neither new nor changed have not been persisted, so they are already up-to-date in index
+        if (issue.isNew() || issue.isChanged()) {
+          return toDoc(issue);
+        }
+      }
+      return null;
+    }
+
+    private IssueDoc toDoc(DefaultIssue issue) {
+      DefaultIssue resolved = conflictResolver.getResolved(issue.key());
+      DefaultIssue persisted = resolved == null ? issue : resolved;
+      ComponentDto component = componentsByUuid.get(persisted.componentUuid());
+      if (component == null) {
+        throw new IllegalStateException(String.format("Component with uuid '%s' of issue '%s' does not exist", persisted.componentUuid(), persisted.key()));
+      }
+      String language = ruleRepository.getByKey(persisted.ruleKey()).getLanguage();
+      return IssueDocFactory.create(persisted, component, projectUuid, language, technicalUpdateDate);
+    }
+
+    @Override
+    protected void doClose() {
+      issues.close();
+    }
+  }
+
+  @Override
+  public Set<Class<?>> readDataTypes() {
+    return ImmutableSet.<Class<?>>of(TreeRootHolder.class, IssueCache.class, RuleRepository.class, IssueDto.class);
+  }
+
+  @Override
+  public Set<Class<?>> writtenDataTypes() {
+    return ImmutableSet.<Class<?>>of(IssueDoc.class);
   }
 
   @Override
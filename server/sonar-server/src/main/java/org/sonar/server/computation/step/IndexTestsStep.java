@@ -20,10 +20,14 @@
 
 package org.sonar.server.computation.step;
 
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
+import org.sonar.db.protobuf.DbFileSources;
 import org.sonar.server.computation.component.TreeRootHolder;
+import org.sonar.server.test.index.TestDoc;
 import org.sonar.server.test.index.TestIndexer;
 
-public class IndexTestsStep implements ComputationStep {
+public class IndexTestsStep implements ConcurrentComputationStep {
 
   private final TestIndexer indexer;
   private final TreeRootHolder treeRootHolder;
@@ -38,6 +42,16 @@ public class IndexTestsStep implements ComputationStep {
     indexer.index(treeRootHolder.getRoot().getUuid());
   }
 
+  @Override
+  public Set<Class<?>> readDataTypes() {
+    return ImmutableSet.<Class<?>>of(TreeRootHolder.class, DbFileSources.Test.class);
+  }
+
+  @Override
+  public Set<Class<?>> writtenDataTypes() {
+    return ImmutableSet.<Class<?>>of(TestDoc.class);
+  }
+
   @Override
   public String getDescription() {
     return "Index tests";
@@ -21,14 +21,26 @@
 package org.sonar.server.computation.step;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.batch.protocol.output.BatchReport.CpdTextBlock;
 import org.sonar.db.DbClient;
 import org.sonar.db.DbSession;
+import org.sonar.db.duplication.DuplicationDao;
 import org.sonar.db.duplication.DuplicationUnitDto;
 import org.sonar.duplications.block.Block;
 import org.sonar.duplications.block.ByteArray;
@@ -39,6 +51,7 @@ import org.sonar.server.computation.component.CrawlerDepthLimit;
 import org.sonar.server.computation.component.DepthTraversalTypeAwareCrawler;
 import org.sonar.server.computation.component.TreeRootHolder;
 import org.sonar.server.computation.component.TypeAwareVisitorAdapter;
+import org.sonar.server.computation.duplication.CrossProjectDuplicationIndex;
 import org.sonar.server.computation.duplication.CrossProjectDuplicationStatusHolder;
 import org.sonar.server.computation.duplication.IntegrateCrossProjectDuplications;
 import org.sonar.server.computation.snapshot.Snapshot;
@@ -53,33 +66,49 @@ import static org.sonar.server.computation.component.ComponentVisitor.Order.PRE_
  * Blocks can be empty if :
  * - The file is excluded from the analysis using {@link org.sonar.api.CoreProperties#CPD_EXCLUSIONS}
  * - On Java, if the number of statements of the file is too small, nothing will be sent.
+ *
+ * Duplicates are searched in database for batches of files rather than file by file.
  */
 public class LoadCrossProjectDuplicationsRepositoryStep implements ComputationStep {
 
   private static final Logger LOGGER = Loggers.get(LoadCrossProjectDuplicationsRepositoryStep.class);
 
+  /**
+   * Number of distinct hashes of the files of a language above which duplicates are searched in database
+   */
+  private static final int HASHES_BATCH_SIZE = 10_000;
+
   private final TreeRootHolder treeRootHolder;
   private final BatchReportReader reportReader;
   private final AnalysisMetadataHolder analysisMetadataHolder;
   private final IntegrateCrossProjectDuplications integrateCrossProjectDuplications;
   private final CrossProjectDuplicationStatusHolder crossProjectDuplicationStatusHolder;
+  private final CrossProjectDuplicationIndex crossProjectDuplicationIndex;
   private final DbClient dbClient;
 
   public LoadCrossProjectDuplicationsRepositoryStep(TreeRootHolder treeRootHolder, BatchReportReader reportReader,
     AnalysisMetadataHolder analysisMetadataHolder, CrossProjectDuplicationStatusHolder crossProjectDuplicationStatusHolder,
-    IntegrateCrossProjectDuplications integrateCrossProjectDuplications, DbClient dbClient) {
+    IntegrateCrossProjectDuplications integrateCrossProjectDuplications, CrossProjectDuplicationIndex crossProjectDuplicationIndex, DbClient dbClient) {
     this.treeRootHolder = treeRootHolder;
     this.reportReader = reportReader;
     this.analysisMetadataHolder = analysisMetadataHolder;
     this.integrateCrossProjectDuplications = integrateCrossProjectDuplications;
     this.crossProjectDuplicationStatusHolder = crossProjectDuplicationStatusHolder;
+    this.crossProjectDuplicationIndex = crossProjectDuplicationIndex;
     this.dbClient = dbClient;
   }
 
   @Override
   public void execute() {
     if (crossProjectDuplicationStatusHolder.isEnabled()) {
-      new DepthTraversalTypeAwareCrawler(new CrossProjectDuplicationVisitor()).visit(treeRootHolder.getRoot());
+      DbSession dbSession = dbClient.openSession(false);
+      try {
+        CrossProjectDuplicationVisitor visitor = new CrossProjectDuplicationVisitor(dbSession);
+        new DepthTraversalTypeAwareCrawler(visitor).visit(treeRootHolder.getRoot());
+        visitor.flushAll();
+      } finally {
+        dbClient.closeSession(dbSession);
+      }
     }
   }
 
@@ -88,10 +117,19 @@ public class LoadCrossProjectDuplicationsRepositoryStep implements ComputationSt
     return "Compute cross project duplications";
   }
 
+  /**
+   * Blocks of files are grouped by language, as candidates are searched among files of the same language, and
+   * duplicates are requested in a single call to {@link DuplicationDao#selectCandidates} as soon as the files of a
+   * language have at least {@link #HASHES_BATCH_SIZE} distinct hashes.
+   * When enabled, {@link CrossProjectDuplicationIndex} is requested instead of the database.
+   */
   private class CrossProjectDuplicationVisitor extends TypeAwareVisitorAdapter {
+    private final DbSession dbSession;
+    private final Map<String, FilesBatch> batchesByLanguage = new LinkedHashMap<>();
 
-    private CrossProjectDuplicationVisitor() {
+    private CrossProjectDuplicationVisitor(DbSession dbSession) {
       super(CrawlerDepthLimit.FILE, PRE_ORDER);
+      this.dbSession = dbSession;
     }
 
     @Override
@@ -102,28 +140,86 @@ public class LoadCrossProjectDuplicationsRepositoryStep implements ComputationSt
         return;
       }
 
-      Collection<String> hashes = from(cpdTextBlocks).transform(CpdTextBlockToHash.INSTANCE).toList();
-      List<DuplicationUnitDto> dtos = selectDuplicates(file, hashes);
-      if (dtos.isEmpty()) {
+      String language = file.getFileAttributes().getLanguageKey();
+      FilesBatch batch = batchesByLanguage.get(language);
+      if (batch == null) {
+        batch = new FilesBatch(language);
+        batchesByLanguage.put(language, batch);
+      }
+      batch.add(file, cpdTextBlocks);
+      if (batch.hashes.size() >= HASHES_BATCH_SIZE) {
+        flush(batch);
+      }
+    }
+
+    private void flushAll() {
+      for (FilesBatch batch : batchesByLanguage.values()) {
+        flush(batch);
+      }
+      batchesByLanguage.clear();
+    }
+
+    private void flush(FilesBatch batch) {
+      if (batch.files.isEmpty()) {
+        return;
+      }
+      Multimap<String, DuplicationUnitDto> dtosByHash = selectDuplicates(batch);
+      for (Map.Entry<Component, List<CpdTextBlock>> entry : batch.files.entrySet()) {
+        integrate(entry.getKey(), entry.getValue(), dtosByHash);
+      }
+      batch.clear();
+    }
+
+    private void integrate(Component file, List<CpdTextBlock> cpdTextBlocks, Multimap<String, DuplicationUnitDto> dtosByHash) {
+      Set<String> fileHashes = from(cpdTextBlocks).transform(CpdTextBlockToHash.INSTANCE).toSet();
+      List<Block> duplicatedBlocks = new ArrayList<>();
+      for (String hash : fileHashes) {
+        // candidates are sorted so that duplications do not depend on the order in which they are loaded
+        List<DuplicationUnitDto> candidates = from(dtosByHash.get(hash)).toSortedList(DtoComparator.INSTANCE);
+        duplicatedBlocks.addAll(from(candidates).transform(DtoToBlock.INSTANCE).toList());
+      }
+      if (duplicatedBlocks.isEmpty()) {
         return;
       }
 
-      Collection<Block> duplicatedBlocks = from(dtos).transform(DtoToBlock.INSTANCE).toList();
       Collection<Block> originBlocks = from(cpdTextBlocks).transform(new CpdTextBlockToBlock(file.getKey())).toList();
       LOGGER.trace("Found {} duplicated cpd blocks on file {}", duplicatedBlocks.size(), file.getKey());
 
       integrateCrossProjectDuplications.computeCpd(file, originBlocks, duplicatedBlocks);
     }
 
-    private List<DuplicationUnitDto> selectDuplicates(Component file, Collection<String> hashes) {
-      DbSession dbSession = dbClient.openSession(false);
-      try {
-        Snapshot projectSnapshot = analysisMetadataHolder.getBaseProjectSnapshot();
-        Long projectSnapshotId = projectSnapshot == null ? null : projectSnapshot.getId();
-        return dbClient.duplicationDao().selectCandidates(dbSession, projectSnapshotId, file.getFileAttributes().getLanguageKey(), hashes);
-      } finally {
-        dbClient.closeSession(dbSession);
+    private Multimap<String, DuplicationUnitDto> selectDuplicates(FilesBatch batch) {
+      if (crossProjectDuplicationIndex.isEnabled()) {
+        String projectUuid = treeRootHolder.getRoot().getUuid();
+        return from(crossProjectDuplicationIndex.selectCandidates(dbSession, projectUuid, batch.language, batch.hashes)).index(DtoToHash.INSTANCE);
       }
+      Snapshot projectSnapshot = analysisMetadataHolder.getBaseProjectSnapshot();
+      Long projectSnapshotId = projectSnapshot == null ? null : projectSnapshot.getId();
+      List<DuplicationUnitDto> dtos = dbClient.duplicationDao().selectCandidates(dbSession, projectSnapshotId, batch.language, batch.hashes);
+      return from(dtos).index(DtoToHash.INSTANCE);
+    }
+  }
+
+  private static class FilesBatch {
+    @CheckForNull
+    private final String language;
+    private final Set<String> hashes = new LinkedHashSet<>();
+    private final Map<Component, List<CpdTextBlock>> files = new LinkedHashMap<>();
+
+    private FilesBatch(@Nullable String language) {
+      this.language = language;
+    }
+
+    private void add(Component file, List<CpdTextBlock> cpdTextBlocks) {
+      files.put(file, cpdTextBlocks);
+      for (CpdTextBlock cpdTextBlock : cpdTextBlocks) {
+        hashes.add(cpdTextBlock.getHash());
+      }
+    }
+
+    private void clear() {
+      hashes.clear();
+      files.clear();
     }
   }
 
@@ -136,6 +232,27 @@ public class LoadCrossProjectDuplicationsRepositoryStep implements ComputationSt
     }
   }
 
+  private enum DtoToHash implements Function<DuplicationUnitDto, String> {
+    INSTANCE;
+
+    @Override
+    public String apply(@Nonnull DuplicationUnitDto dto) {
+      return dto.getHash();
+    }
+  }
+
+  private enum DtoComparator implements Comparator<DuplicationUnitDto> {
+    INSTANCE;
+
+    @Override
+    public int compare(DuplicationUnitDto o1, DuplicationUnitDto o2) {
+      return ComparisonChain.start()
+        .compare(o1.getComponentKey(), o2.getComponentKey(), Ordering.<String>natural().nullsFirst())
+        .compare(o1.getIndexInFile(), o2.getIndexInFile())
+        .result();
+    }
+  }
+
   private enum DtoToBlock implements Function<DuplicationUnitDto, Block> {
     INSTANCE;
 
@@ -20,6 +20,8 @@
 
 package org.sonar.server.computation.step;
 
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
 import org.sonar.batch.protocol.output.BatchReport;
 import org.sonar.core.util.CloseableIterator;
 import org.sonar.db.DbClient;
@@ -39,7 +41,7 @@ import static org.sonar.server.computation.component.ComponentVisitor.Order.PRE_
 /**
  * Persist cross project duplications text blocks into DUPLICATIONS_INDEX table
  */
-public class PersistCrossProjectDuplicationIndexStep implements ComputationStep {
+public class PersistCrossProjectDuplicationIndexStep implements ConcurrentComputationStep {
 
   private final DbClient dbClient;
   private final TreeRootHolder treeRootHolder;
@@ -111,6 +113,16 @@ public class PersistCrossProjectDuplicationIndexStep implements ComputationStep
     }
   }
 
+  @Override
+  public Set<Class<?>> readDataTypes() {
+    return ImmutableSet.<Class<?>>of(TreeRootHolder.class, BatchReportReader.class, DbIdsRepository.class, CrossProjectDuplicationStatusHolder.class);
+  }
+
+  @Override
+  public Set<Class<?>> writtenDataTypes() {
+    return ImmutableSet.<Class<?>>of(DuplicationUnitDto.class);
+  }
+
   @Override
   public String getDescription() {
     return "Persist cross project duplications index";
@@ -21,13 +21,26 @@
 package org.sonar.server.computation.step;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.ibatis.session.ResultContext;
@@ -47,7 +60,10 @@ import org.sonar.server.computation.component.CrawlerDepthLimit;
 import org.sonar.server.computation.component.DepthTraversalTypeAwareCrawler;
 import org.sonar.server.computation.component.TreeRootHolder;
 import org.sonar.server.computation.component.TypeAwareVisitorAdapter;
+import org.sonar.server.computation.duplication.Duplication;
 import org.sonar.server.computation.duplication.DuplicationRepository;
+import org.sonar.server.computation.duplication.InnerDuplicate;
+import org.sonar.server.computation.duplication.TextBlock;
 import org.sonar.server.computation.scm.Changeset;
 import org.sonar.server.computation.scm.ScmInfo;
 import org.sonar.server.computation.scm.ScmInfoRepository;
@@ -60,10 +76,32 @@ import org.sonar.server.computation.source.RangeOffsetConverter;
 import org.sonar.server.computation.source.ScmLineReader;
 import org.sonar.server.computation.source.SourceLinesRepository;
 import org.sonar.server.computation.source.SymbolsLineReader;
+import org.sonar.server.computation.taskprocessor.CeConfiguration;
+import org.sonar.server.computation.util.StepWorkerPool;
+import org.sonar.server.source.SourceCache;
 
+import static com.google.common.collect.FluentIterable.from;
 import static org.sonar.server.computation.component.ComponentVisitor.Order.PRE_ORDER;
 
-public class PersistFileSourcesStep implements ComputationStep {
+/**
+ * Sources of files are computed and compressed by a pool of {@link CeConfiguration#getStepWorkerCount()} threads,
+ * while the thread executing the step persists them. The number of files computed in advance is bounded, so that
+ * memory does not depend on the number of files. When there is a single step worker, sources are computed and
+ * persisted in the thread executing the step.
+ * <p>
+ * Column DATA_HASH is the digest of the data from which sources are computed (see {@link #computeDataHash(Component)}).
+ * Sources of a file are neither computed nor persisted when this digest did not change since the previous analysis.
+ * </p>
+ */
+public class PersistFileSourcesStep implements ConcurrentComputationStep {
+
+  private static final String THREAD_NAME_PREFIX = "ce-sources-";
+  // number of computed files waiting to be persisted, by worker
+  private static final int PENDING_FILES_PER_WORKER = 4;
+  // number of files persisted in each transaction, which size is not bounded as sources of a single file may be big
+  private static final int FILES_PER_COMMIT = 50;
+  // to be incremented when the format of the computed data changes, so that sources of all files are computed again
+  private static final String DATA_VERSION = "1";
 
   private final DbClient dbClient;
   private final System2 system2;
@@ -72,9 +110,11 @@ public class PersistFileSourcesStep implements ComputationStep {
   private final SourceLinesRepository sourceLinesRepository;
   private final ScmInfoRepository scmInfoRepository;
   private final DuplicationRepository duplicationRepository;
+  private final SourceCache sourceCache;
+  private final int workerCount;
 
   public PersistFileSourcesStep(DbClient dbClient, System2 system2, TreeRootHolder treeRootHolder, BatchReportReader reportReader, SourceLinesRepository sourceLinesRepository,
-    ScmInfoRepository scmInfoRepository, DuplicationRepository duplicationRepository) {
+    ScmInfoRepository scmInfoRepository, DuplicationRepository duplicationRepository, SourceCache sourceCache, CeConfiguration ceConfiguration) {
     this.dbClient = dbClient;
     this.system2 = system2;
     this.treeRootHolder = treeRootHolder;
@@ -82,16 +122,24 @@ public class PersistFileSourcesStep implements ComputationStep {
     this.sourceLinesRepository = sourceLinesRepository;
     this.scmInfoRepository = scmInfoRepository;
     this.duplicationRepository = duplicationRepository;
+    this.sourceCache = sourceCache;
+    this.workerCount = ceConfiguration.getStepWorkerCount();
   }
 
   @Override
   public void execute() {
-    // Don't use batch insert for file_sources since keeping all data in memory can produce OOM for big files
-    DbSession session = dbClient.openSession(false);
+    // a single worker computes sources in the calling thread
+    ExecutorService executorService = workerCount > 1 ? StepWorkerPool.create(THREAD_NAME_PREFIX, workerCount) : null;
+    DbSession session = dbClient.openSession(true);
     try {
-      new DepthTraversalTypeAwareCrawler(new FileSourceVisitor(session))
+      FileSourceVisitor visitor = new FileSourceVisitor(session, executorService);
+      new DepthTraversalTypeAwareCrawler(visitor)
         .visit(treeRootHolder.getRoot());
+      visitor.persistPendingFiles();
     } finally {
+      if (executorService != null) {
+        executorService.shutdownNow();
+      }
       MyBatis.closeQuietly(session);
     }
   }
@@ -99,13 +147,19 @@ public class PersistFileSourcesStep implements ComputationStep {
   private class FileSourceVisitor extends TypeAwareVisitorAdapter {
 
     private final DbSession session;
+    // null when sources are computed in the calling thread
+    @CheckForNull
+    private final CompletionService<FileSourceData> completionService;
 
     private Map<String, FileSourceDto> previousFileSourcesByUuid = new HashMap<>();
     private String projectUuid;
+    private int pendingFiles = 0;
+    private int uncommittedFiles = 0;
 
-    private FileSourceVisitor(DbSession session) {
+    private FileSourceVisitor(DbSession session, @Nullable ExecutorService executorService) {
       super(CrawlerDepthLimit.FILE, PRE_ORDER);
       this.session = session;
+      this.completionService = executorService == null ? null : new ExecutorCompletionService<FileSourceData>(executorService);
     }
 
     @Override
@@ -123,29 +177,57 @@ public class PersistFileSourcesStep implements ComputationStep {
 
     @Override
     public void visitFile(Component file) {
-      int fileRef = file.getReportAttributes().getRef();
-      BatchReport.Component component = reportReader.readComponent(fileRef);
-      CloseableIterator<String> linesIterator = sourceLinesRepository.readLines(file);
-      LineReaders lineReaders = new LineReaders(reportReader, scmInfoRepository, duplicationRepository, file);
-      try {
-        ComputeFileSourceData computeFileSourceData = new ComputeFileSourceData(linesIterator, lineReaders.readers(), component.getLines());
-        ComputeFileSourceData.Data fileSourceData = computeFileSourceData.compute();
-        persistSource(fileSourceData, file.getUuid(), lineReaders.getLatestChange());
-      } catch (Exception e) {
-        throw new IllegalStateException(String.format("Cannot persist sources of %s", file.getKey()), e);
-      } finally {
-        linesIterator.close();
-        lineReaders.close();
+      FileSourceComputation computation = new FileSourceComputation(file, previousFileSourcesByUuid.get(file.getUuid()));
+      if (completionService == null) {
+        persist(computation.call());
+        return;
+      }
+      if (pendingFiles == PENDING_FILES_PER_WORKER * workerCount) {
+        persist(takeNextFile());
       }
+      completionService.submit(computation);
+      pendingFiles++;
     }
 
-    private void persistSource(ComputeFileSourceData.Data fileSourceData, String componentUuid, @Nullable Changeset latestChange) {
-      DbFileSources.Data fileData = fileSourceData.getFileSourceData();
+    private void persistPendingFiles() {
+      while (pendingFiles > 0) {
+        persist(takeNextFile());
+      }
+      session.commit();
+    }
 
-      byte[] data = FileSourceDto.encodeSourceData(fileData);
-      String dataHash = DigestUtils.md5Hex(data);
-      String srcHash = fileSourceData.getSrcHash();
-      String lineHashes = fileSourceData.getLineHashes();
+    private void persist(FileSourceData fileSourceData) {
+      persistSource(fileSourceData);
+      uncommittedFiles++;
+      if (uncommittedFiles == FILES_PER_COMMIT) {
+        session.commit();
+        uncommittedFiles = 0;
+      }
+    }
+
+    private FileSourceData takeNextFile() {
+      try {
+        Future<FileSourceData> future = completionService.take();
+        pendingFiles--;
+        return future.get();
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while persisting sources", e);
+      }
+    }
+
+    private void persistSource(FileSourceData fileSourceData) {
+      if (fileSourceData.isUnchanged()) {
+        return;
+      }
+      String componentUuid = fileSourceData.fileUuid;
+      byte[] data = fileSourceData.binaryData;
+      String dataHash = fileSourceData.dataHash;
+      String srcHash = fileSourceData.srcHash;
+      String lineHashes = fileSourceData.lineHashes;
+      Changeset latestChange = fileSourceData.latestChange;
       FileSourceDto previousDto = previousFileSourcesByUuid.get(componentUuid);
 
       if (previousDto == null) {
@@ -161,10 +243,12 @@ public class PersistFileSourcesStep implements ComputationStep {
           .setUpdatedAt(system2.now())
           .setRevision(computeRevision(latestChange));
         dbClient.fileSourceDao().insert(session, dto);
-        session.commit();
       } else {
-        // Update only if data_hash has changed or if src_hash is missing or revision is missing (progressive migration)
-        boolean binaryDataUpdated = !dataHash.equals(previousDto.getDataHash());
+        // Update only if data has changed or if src_hash is missing or revision is missing (progressive migration).
+        // Sources persisted by previous versions have the digest of their unchunked binary data instead of the digest of their input data.
+        String unchunkedDataHash = fileSourceData.unchunkedDataHash;
+        boolean binaryDataUpdated = !dataHash.equals(previousDto.getDataHash())
+          && (unchunkedDataHash == null || !unchunkedDataHash.equals(previousDto.getDataHash()));
         boolean srcHashUpdated = !srcHash.equals(previousDto.getSrcHash());
         String revision = computeRevision(previousDto, latestChange);
         boolean revisionUpdated = !ObjectUtils.equals(revision, previousDto.getRevision());
@@ -176,13 +260,132 @@ public class PersistFileSourcesStep implements ComputationStep {
             .setLineHashes(lineHashes)
             .setRevision(revision)
             .setUpdatedAt(system2.now());
-          dbClient.fileSourceDao().update(previousDto);
-          session.commit();
+          dbClient.fileSourceDao().update(session, previousDto);
+          if (binaryDataUpdated) {
+            sourceCache.invalidate(componentUuid);
+          }
+        } else if (!dataHash.equals(previousDto.getDataHash())) {
+          // same sources, only the digest of their input data is stored so that they are not computed again
+          previousDto.setDataHash(dataHash);
+          dbClient.fileSourceDao().updateDataHash(session, previousDto);
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes and compresses the sources of a file. Executed by the workers of the step, or by the calling thread when
+   * there is a single worker.
+   */
+  private class FileSourceComputation implements Callable<FileSourceData> {
+    private final Component file;
+    @CheckForNull
+    private final FileSourceDto previousDto;
+
+    private FileSourceComputation(Component file, @Nullable FileSourceDto previousDto) {
+      this.file = file;
+      this.previousDto = previousDto;
+    }
+
+    @Override
+    public FileSourceData call() {
+      Optional<ScmInfo> scmInfo = scmInfoRepository.getScmInfo(file);
+      String dataHash = computeDataHash(file, scmInfo);
+      if (isUpToDate(previousDto, dataHash, scmInfo)) {
+        return FileSourceData.unchanged(file.getUuid());
+      }
+      int fileRef = file.getReportAttributes().getRef();
+      BatchReport.Component component = reportReader.readComponent(fileRef);
+      CloseableIterator<String> linesIterator = sourceLinesRepository.readLines(file);
+      LineReaders lineReaders = new LineReaders(reportReader, scmInfoRepository, duplicationRepository, file);
+      try {
+        ComputeFileSourceData computeFileSourceData = new ComputeFileSourceData(linesIterator, lineReaders.readers(), component.getLines());
+        ComputeFileSourceData.Data fileSourceData = computeFileSourceData.compute();
+        DbFileSources.Data sourceData = fileSourceData.getFileSourceData();
+        byte[] data = FileSourceDto.encodeSourceData(sourceData);
+        String srcHash = fileSourceData.getSrcHash();
+        String unchunkedDataHash = null;
+        if (previousDto != null && srcHash.equals(previousDto.getSrcHash())) {
+          unchunkedDataHash = DigestUtils.md5Hex(FileSourceDto.encodeUnchunkedSourceData(sourceData));
         }
+        return new FileSourceData(file.getUuid(), data, dataHash, unchunkedDataHash, srcHash, fileSourceData.getLineHashes(),
+          lineReaders.getLatestChange());
+      } catch (Exception e) {
+        throw new IllegalStateException(String.format("Cannot persist sources of %s", file.getKey()), e);
+      } finally {
+        linesIterator.close();
+        lineReaders.close();
       }
     }
   }
 
+  /**
+   * Sources are up-to-date when the digest of their input data did not change, unless they miss the source hash or
+   * the revision (progressive migration), which are then computed again.
+   */
+  private static boolean isUpToDate(@Nullable FileSourceDto previousDto, String dataHash, Optional<ScmInfo> scmInfo) {
+    return previousDto != null
+      && dataHash.equals(previousDto.getDataHash())
+      && previousDto.getSrcHash() != null
+      && (previousDto.getRevision() != null || !scmInfo.isPresent());
+  }
+
+  /**
+   * Digest of the data of the report, of the SCM info and of the duplications from which sources of the file are
+   * computed. SCM info may be loaded from the previous sources of the file when the report has none. Only the
+   * duplicated blocks of the file are digested, as {@link DuplicationLineReader} does not use anything else.
+   */
+  private String computeDataHash(Component file, Optional<ScmInfo> scmInfo) {
+    List<TextBlock> duplicatedBlocks = new ArrayList<>();
+    for (Duplication duplication : duplicationRepository.getDuplications(file)) {
+      duplicatedBlocks.add(duplication.getOriginal());
+      for (InnerDuplicate duplicate : from(duplication.getDuplicates()).filter(InnerDuplicate.class)) {
+        duplicatedBlocks.add(duplicate.getTextBlock());
+      }
+    }
+    Collections.sort(duplicatedBlocks);
+    MessageDigest digest = DigestUtils.getMd5Digest();
+    digest.update((DATA_VERSION + reportReader.readSourceDataDigest(file.getReportAttributes().getRef()) + duplicatedBlocks).getBytes(StandardCharsets.UTF_8));
+    if (scmInfo.isPresent()) {
+      for (Changeset changeset : scmInfo.get().getAllChangesets()) {
+        digest.update((changeset.getRevision() + '|' + changeset.getAuthor() + '|' + changeset.getDate() + '\n').getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  private static final class FileSourceData {
+    private final String fileUuid;
+    @CheckForNull
+    private final byte[] binaryData;
+    private final String dataHash;
+    @CheckForNull
+    private final String unchunkedDataHash;
+    private final String srcHash;
+    private final String lineHashes;
+    @CheckForNull
+    private final Changeset latestChange;
+
+    private FileSourceData(String fileUuid, @Nullable byte[] binaryData, String dataHash, @Nullable String unchunkedDataHash, String srcHash, String lineHashes,
+      @Nullable Changeset latestChange) {
+      this.fileUuid = fileUuid;
+      this.binaryData = binaryData;
+      this.dataHash = dataHash;
+      this.unchunkedDataHash = unchunkedDataHash;
+      this.srcHash = srcHash;
+      this.lineHashes = lineHashes;
+      this.latestChange = latestChange;
+    }
+
+    private static FileSourceData unchanged(String fileUuid) {
+      return new FileSourceData(fileUuid, null, "", null, "", "", null);
+    }
+
+    private boolean isUnchanged() {
+      return binaryData == null;
+    }
+  }
+
   @CheckForNull
   private static String computeRevision(FileSourceDto previousDto, @Nullable Changeset latestChange) {
     if (latestChange == null) {
@@ -250,6 +453,16 @@ public class PersistFileSourcesStep implements ComputationStep {
     }
   }
 
+  @Override
+  public Set<Class<?>> readDataTypes() {
+    return ImmutableSet.<Class<?>>of(TreeRootHolder.class, BatchReportReader.class, SourceLinesRepository.class, DuplicationRepository.class);
+  }
+
+  @Override
+  public Set<Class<?>> writtenDataTypes() {
+    return ImmutableSet.<Class<?>>of(ScmInfoRepository.class, DbFileSources.Data.class);
+  }
+
   @Override
   public String getDescription() {
     return "Persist sources";
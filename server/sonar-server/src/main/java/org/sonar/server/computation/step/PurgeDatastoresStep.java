@@ -20,6 +20,8 @@
 
 package org.sonar.server.computation.step;
 
+import org.sonar.api.config.Settings;
+import org.sonar.db.ce.CeTaskTypes;
 import org.sonar.server.computation.dbcleaner.ProjectCleaner;
 import org.sonar.db.DbClient;
 import org.sonar.db.DbSession;
@@ -30,6 +32,8 @@ import org.sonar.server.computation.component.DepthTraversalTypeAwareCrawler;
 import org.sonar.server.computation.component.SettingsRepository;
 import org.sonar.server.computation.component.TreeRootHolder;
 import org.sonar.server.computation.component.TypeAwareVisitorAdapter;
+import org.sonar.server.computation.queue.CeQueue;
+import org.sonar.server.computation.queue.CeTaskSubmit;
 
 import static org.sonar.server.computation.component.Component.Type.PROJECT;
 import static org.sonar.server.computation.component.Component.Type.VIEW;
@@ -43,14 +47,16 @@ public class PurgeDatastoresStep implements ComputationStep {
   private final DbIdsRepository dbIdsRepository;
   private final TreeRootHolder treeRootHolder;
   private final SettingsRepository settingsRepository;
+  private final CeQueue ceQueue;
 
   public PurgeDatastoresStep(DbClient dbClient, ProjectCleaner projectCleaner, DbIdsRepository dbIdsRepository, TreeRootHolder treeRootHolder,
-    SettingsRepository settingsRepository) {
+    SettingsRepository settingsRepository, CeQueue ceQueue) {
     this.projectCleaner = projectCleaner;
     this.dbClient = dbClient;
     this.dbIdsRepository = dbIdsRepository;
     this.treeRootHolder = treeRootHolder;
     this.settingsRepository = settingsRepository;
+    this.ceQueue = ceQueue;
   }
 
   @Override
@@ -70,9 +76,19 @@ public class PurgeDatastoresStep implements ComputationStep {
   }
 
   private void execute(Component root) {
+    Settings settings = settingsRepository.getSettings(root);
+    if (settings.getBoolean(ProjectCleaner.ASYNCHRONOUS_PROPERTY)) {
+      // purge is queued after the task of this report, so that it never runs concurrently with another task of the project
+      CeTaskSubmit.Builder submit = ceQueue.prepareSubmit();
+      submit.setType(CeTaskTypes.PURGE);
+      submit.setComponentUuid(root.getUuid());
+      ceQueue.submit(submit.build());
+      return;
+    }
+    IdUuidPair idUuidPair = new IdUuidPair(dbIdsRepository.getComponentId(root), root.getUuid());
     DbSession session = dbClient.openSession(true);
     try {
-      projectCleaner.purge(session, new IdUuidPair(dbIdsRepository.getComponentId(root), root.getUuid()), settingsRepository.getSettings(root));
+      projectCleaner.purge(session, idUuidPair, settings);
       session.commit();
     } finally {
       dbClient.closeSession(session);
@@ -94,6 +94,7 @@ public class ReportComputationSteps extends AbstractComputationSteps {
 
     // Switch snapshot and purge
     SwitchSnapshotStep.class,
+    UpdateCrossProjectDuplicationIndexStep.class,
     IndexComponentsStep.class,
     PurgeDatastoresStep.class,
     ApplyPermissionsStep.class,
@@ -30,6 +30,7 @@ import org.sonar.server.computation.component.Component;
 import org.sonar.server.computation.component.TreeRootHolder;
 import org.sonar.server.computation.issue.IssueCache;
 import org.sonar.server.computation.issue.RuleRepository;
+import org.sonar.server.issue.index.IssueDoc;
 import org.sonar.server.issue.notification.IssueChangeNotification;
 import org.sonar.server.issue.notification.MyNewIssuesNotification;
 import org.sonar.server.issue.notification.NewIssuesNotification;
@@ -42,7 +43,7 @@ import org.sonar.server.notification.NotificationService;
  * the standard notification DB queue is not used as a temporary storage. Notifications
  * are directly processed by {@link NotificationService}.
  */
-public class SendIssueNotificationsStep implements ComputationStep {
+public class SendIssueNotificationsStep implements ConcurrentComputationStep {
   /**
    * Types of the notifications sent by this step
    */
@@ -137,6 +138,17 @@ public class SendIssueNotificationsStep implements ComputationStep {
     }
   }
 
+  @Override
+  public Set<Class<?>> readDataTypes() {
+    // notifications are sent once issues are indexed, so that webapp displays up-to-date information
+    return ImmutableSet.<Class<?>>of(IssueCache.class, RuleRepository.class, TreeRootHolder.class, AnalysisMetadataHolder.class, IssueDoc.class);
+  }
+
+  @Override
+  public Set<Class<?>> writtenDataTypes() {
+    return ImmutableSet.<Class<?>>of();
+  }
+
   @Override
   public String getDescription() {
     return "Send issue notifications";
@@ -20,19 +20,23 @@
 
 package org.sonar.server.computation.step;
 
+import com.google.common.collect.ImmutableSet;
 import java.util.List;
+import java.util.Set;
 import org.sonar.db.DbClient;
 import org.sonar.db.DbSession;
 import org.sonar.db.MyBatis;
 import org.sonar.db.component.SnapshotDao;
 import org.sonar.db.component.SnapshotDto;
+import org.sonar.db.duplication.DuplicationUnitDto;
+import org.sonar.db.protobuf.DbFileSources;
 import org.sonar.server.computation.component.Component;
 import org.sonar.server.computation.component.DbIdsRepository;
 import org.sonar.server.computation.component.TreeRootHolder;
 
 import static org.sonar.db.component.SnapshotDao.isLast;
 
-public class SwitchSnapshotStep implements ComputationStep {
+public class SwitchSnapshotStep implements ConcurrentComputationStep {
 
   private final DbClient dbClient;
   private final TreeRootHolder treeRootHolder;
@@ -57,6 +61,20 @@ public class SwitchSnapshotStep implements ComputationStep {
     }
   }
 
+  /**
+   * Data persisted by the other steps is read too, so that the snapshot is switched only once all of it is visible.
+   */
+  @Override
+  public Set<Class<?>> readDataTypes() {
+    return ImmutableSet.<Class<?>>of(TreeRootHolder.class, DbIdsRepository.class,
+      DbFileSources.Data.class, DbFileSources.Test.class, DuplicationUnitDto.class);
+  }
+
+  @Override
+  public Set<Class<?>> writtenDataTypes() {
+    return ImmutableSet.<Class<?>>of(SnapshotDto.class);
+  }
+
   @Override
   public String getDescription() {
     return "Enable snapshot";
@@ -0,0 +1,124 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.step;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
+import org.sonar.batch.protocol.output.BatchReport;
+import org.sonar.core.util.CloseableIterator;
+import org.sonar.db.component.SnapshotDto;
+import org.sonar.db.duplication.DuplicationUnitDto;
+import org.sonar.server.computation.batch.BatchReportReader;
+import org.sonar.server.computation.component.Component;
+import org.sonar.server.computation.component.CrawlerDepthLimit;
+import org.sonar.server.computation.component.DbIdsRepository;
+import org.sonar.server.computation.component.DepthTraversalTypeAwareCrawler;
+import org.sonar.server.computation.component.TreeRootHolder;
+import org.sonar.server.computation.component.TypeAwareVisitorAdapter;
+import org.sonar.server.computation.duplication.CrossProjectDuplicationIndex;
+import org.sonar.server.computation.duplication.CrossProjectDuplicationStatusHolder;
+
+import static org.sonar.server.computation.component.ComponentVisitor.Order.PRE_ORDER;
+
+/**
+ * Replaces the blocks of the project in {@link CrossProjectDuplicationIndex} by the ones persisted by
+ * {@link PersistCrossProjectDuplicationIndexStep}. It is executed once the snapshot is switched, so that the index
+ * stays consistent with table DUPLICATIONS_INDEX if the analysis fails before.
+ */
+public class UpdateCrossProjectDuplicationIndexStep implements ConcurrentComputationStep {
+
+  private final TreeRootHolder treeRootHolder;
+  private final BatchReportReader reportReader;
+  private final DbIdsRepository dbIdsRepository;
+  private final CrossProjectDuplicationStatusHolder crossProjectDuplicationStatusHolder;
+  private final CrossProjectDuplicationIndex crossProjectDuplicationIndex;
+
+  public UpdateCrossProjectDuplicationIndexStep(TreeRootHolder treeRootHolder, BatchReportReader reportReader, DbIdsRepository dbIdsRepository,
+    CrossProjectDuplicationStatusHolder crossProjectDuplicationStatusHolder, CrossProjectDuplicationIndex crossProjectDuplicationIndex) {
+    this.treeRootHolder = treeRootHolder;
+    this.reportReader = reportReader;
+    this.dbIdsRepository = dbIdsRepository;
+    this.crossProjectDuplicationStatusHolder = crossProjectDuplicationStatusHolder;
+    this.crossProjectDuplicationIndex = crossProjectDuplicationIndex;
+  }
+
+  @Override
+  public void execute() {
+    if (!crossProjectDuplicationIndex.isEnabled()) {
+      return;
+    }
+    Component project = treeRootHolder.getRoot();
+    if (crossProjectDuplicationStatusHolder.isEnabled()) {
+      CrossProjectDuplicationIndex.ProjectBuilder indexBuilder = crossProjectDuplicationIndex.newProject(project.getUuid(), dbIdsRepository.getSnapshotId(project));
+      new DepthTraversalTypeAwareCrawler(new DuplicationVisitor(indexBuilder)).visit(project);
+      indexBuilder.commit();
+    } else {
+      // no blocks are persisted for the new snapshot
+      crossProjectDuplicationIndex.deleteProject(project.getUuid());
+    }
+  }
+
+  private class DuplicationVisitor extends TypeAwareVisitorAdapter {
+
+    private final CrossProjectDuplicationIndex.ProjectBuilder indexBuilder;
+
+    private DuplicationVisitor(CrossProjectDuplicationIndex.ProjectBuilder indexBuilder) {
+      super(CrawlerDepthLimit.FILE, PRE_ORDER);
+      this.indexBuilder = indexBuilder;
+    }
+
+    @Override
+    public void visitFile(Component file) {
+      int indexInFile = 0;
+      CloseableIterator<BatchReport.CpdTextBlock> blocks = reportReader.readCpdTextBlocks(file.getReportAttributes().getRef());
+      try {
+        while (blocks.hasNext()) {
+          BatchReport.CpdTextBlock block = blocks.next();
+          indexBuilder.add(new DuplicationUnitDto()
+            .setHash(block.getHash())
+            .setStartLine(block.getStartLine())
+            .setEndLine(block.getEndLine())
+            .setIndexInFile(indexInFile)
+            .setComponentUuid(file.getUuid())
+            .setLanguage(file.getFileAttributes().getLanguageKey()));
+          indexInFile++;
+        }
+      } finally {
+        blocks.close();
+      }
+    }
+  }
+
+  @Override
+  public Set<Class<?>> readDataTypes() {
+    return ImmutableSet.<Class<?>>of(TreeRootHolder.class, BatchReportReader.class, DbIdsRepository.class, CrossProjectDuplicationStatusHolder.class,
+      SnapshotDto.class);
+  }
+
+  @Override
+  public Set<Class<?>> writtenDataTypes() {
+    return ImmutableSet.<Class<?>>of(CrossProjectDuplicationIndex.class);
+  }
+
+  @Override
+  public String getDescription() {
+    return "Update cross project duplication index";
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.taskprocessor;
+
+public interface CeConfiguration {
+
+  /**
+   * The maximum number of workers to process CeTasks concurrently, integer strictly greater than 0.
+   * <p>
+   * Two tasks related to the same component are never processed at the same time, whatever the number of workers
+   * (see {@link org.sonar.server.computation.queue.CeQueue#peek()}).
+   * </p>
+   */
+  int getWorkerCount();
+
+  /**
+   * The maximum number of threads used to execute the computation steps of a single CeTask concurrently, integer
+   * strictly greater than 0. When 1, computation steps are executed sequentially in the CeTask worker thread.
+   *
+   * @see org.sonar.server.computation.step.ConcurrentComputationStep
+   */
+  int getStepWorkerCount();
+
+}
@@ -0,0 +1,87 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.taskprocessor;
+
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import static java.lang.String.format;
+
+/**
+ * Immutable implementation of {@link CeConfiguration} initialized at startup from {@link Settings}.
+ */
+public class CeConfigurationImpl implements CeConfiguration {
+  private static final Logger LOG = Loggers.get(CeConfigurationImpl.class);
+
+  public static final String WORKER_COUNT_PROPERTY = "sonar.ce.workerCount";
+  public static final String STEP_WORKER_COUNT_PROPERTY = "sonar.ce.stepWorkerCount";
+  private static final int DEFAULT_WORKER_COUNT = 1;
+  private static final int DEFAULT_STEP_WORKER_COUNT = 1;
+
+  private final int workerCount;
+  private final int stepWorkerCount;
+
+  public CeConfigurationImpl(Settings settings) {
+    this.workerCount = readPositiveInt(settings, WORKER_COUNT_PROPERTY, DEFAULT_WORKER_COUNT);
+    this.stepWorkerCount = readPositiveInt(settings, STEP_WORKER_COUNT_PROPERTY, DEFAULT_STEP_WORKER_COUNT);
+    if (workerCount > 1) {
+      LOG.info("Compute Engine will use {} concurrent workers to process tasks", workerCount);
+    }
+    if (stepWorkerCount > 1) {
+      LOG.info("Compute Engine will use up to {} threads to execute the steps of a task", stepWorkerCount);
+    }
+  }
+
+  private static int readPositiveInt(Settings settings, String property, int defaultValue) {
+    String value = settings.getString(property);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    int res = parseInt(property, value);
+    if (res < 1) {
+      throw badValue(property, value);
+    }
+    return res;
+  }
+
+  private static int parseInt(String property, String value) {
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw badValue(property, value);
+    }
+  }
+
+  private static MessageException badValue(String property, String value) {
+    return MessageException.of(format("value '%s' of property %s is invalid. It must be an integer strictly greater than 0.", value, property));
+  }
+
+  @Override
+  public int getWorkerCount() {
+    return workerCount;
+  }
+
+  @Override
+  public int getStepWorkerCount() {
+    return stepWorkerCount;
+  }
+}
@@ -42,15 +42,24 @@ public class CeProcessingSchedulerImpl implements CeProcessingScheduler, Startab
 
   private final long delayBetweenTasks;
   private final TimeUnit timeUnit;
-  // warning: using a single ChainingCallback object for chaining works and is thread safe only because we use a single Thread in CeProcessingSchedulerExecutorService
-  private final ChainingCallback chainingCallback = new ChainingCallback();
+  // warning: each ChainingCallback object is used by a single chain of calls to the CeWorkerCallable. A chain never runs
+  // two calls concurrently, so a ChainingCallback is thread safe even though the chains are run by several Threads
+  // in CeProcessingSchedulerExecutorService
+  private final ChainingCallback[] chainingCallbacks;
 
-  public CeProcessingSchedulerImpl(CeProcessingSchedulerExecutorService processingExecutorService, CeWorkerCallable workerRunnable) {
+  public CeProcessingSchedulerImpl(CeConfiguration ceConfiguration,
+    CeProcessingSchedulerExecutorService processingExecutorService, CeWorkerCallable workerRunnable) {
     this.executorService = processingExecutorService;
     this.workerRunnable = workerRunnable;
 
     this.delayBetweenTasks = 2;
     this.timeUnit = SECONDS;
+
+    int workerCount = ceConfiguration.getWorkerCount();
+    this.chainingCallbacks = new ChainingCallback[workerCount];
+    for (int i = 0; i < workerCount; i++) {
+      chainingCallbacks[i] = new ChainingCallback();
+    }
   }
 
   @Override
@@ -60,20 +69,23 @@ public class CeProcessingSchedulerImpl implements CeProcessingScheduler, Startab
 
   @Override
   public void startScheduling() {
-    ListenableScheduledFuture<Boolean> future = executorService.schedule(workerRunnable, delayBetweenTasks, timeUnit);
-
-    addCallback(future, chainingCallback, executorService);
+    for (ChainingCallback chainingCallback : chainingCallbacks) {
+      ListenableScheduledFuture<Boolean> future = executorService.schedule(workerRunnable, delayBetweenTasks, timeUnit);
+      addCallback(future, chainingCallback, executorService);
+    }
   }
 
   @Override
   public void stop() {
-    this.chainingCallback.stop();
+    for (ChainingCallback chainingCallback : chainingCallbacks) {
+      chainingCallback.stop();
+    }
   }
 
   private class ChainingCallback implements FutureCallback<Boolean> {
     private final AtomicBoolean keepRunning = new AtomicBoolean(true);
     @CheckForNull
-    private ListenableFuture<Boolean> workerFuture;
+    private volatile ListenableFuture<Boolean> workerFuture;
 
     @Override
     public void onSuccess(@Nullable Boolean result) {
@@ -108,8 +120,9 @@ public class CeProcessingSchedulerImpl implements CeProcessingScheduler, Startab
     }
 
     private void addCallback() {
-      if (workerFuture != null && keepRunning()) {
-        Futures.addCallback(workerFuture, this, executorService);
+      ListenableFuture<Boolean> future = workerFuture;
+      if (future != null && keepRunning()) {
+        Futures.addCallback(future, this, executorService);
       }
     }
 
@@ -119,8 +132,9 @@ public class CeProcessingSchedulerImpl implements CeProcessingScheduler, Startab
 
     public void stop() {
       this.keepRunning.set(false);
-      if (workerFuture != null) {
-        workerFuture.cancel(false);
+      ListenableFuture<Boolean> future = workerFuture;
+      if (future != null) {
+        future.cancel(false);
       }
     }
   }
@@ -0,0 +1,82 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.taskprocessor.purge;
+
+import com.google.common.base.Optional;
+import java.util.Collections;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.ce.CeTaskTypes;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.purge.IdUuidPair;
+import org.sonar.server.computation.dbcleaner.ProjectCleaner;
+import org.sonar.server.computation.queue.CeTask;
+import org.sonar.server.computation.queue.CeTaskResult;
+import org.sonar.server.computation.taskprocessor.CeTaskProcessor;
+import org.sonar.server.properties.ProjectSettingsFactory;
+
+/**
+ * Purges the history of a project when {@link ProjectCleaner#ASYNCHRONOUS_PROPERTY} is enabled. As any task of the
+ * queue, it is never executed concurrently with the analysis reports of the same project.
+ */
+public class PurgeTaskProcessor implements CeTaskProcessor {
+
+  private static final Set<String> HANDLED_TYPES = Collections.singleton(CeTaskTypes.PURGE);
+  private static final Logger LOG = Loggers.get(PurgeTaskProcessor.class);
+
+  private final DbClient dbClient;
+  private final ProjectCleaner projectCleaner;
+  private final ProjectSettingsFactory projectSettingsFactory;
+
+  public PurgeTaskProcessor(DbClient dbClient, ProjectCleaner projectCleaner, ProjectSettingsFactory projectSettingsFactory) {
+    this.dbClient = dbClient;
+    this.projectCleaner = projectCleaner;
+    this.projectSettingsFactory = projectSettingsFactory;
+  }
+
+  @Override
+  public Set<String> getHandledCeTaskTypes() {
+    return HANDLED_TYPES;
+  }
+
+  @Override
+  @CheckForNull
+  public CeTaskResult process(CeTask task) {
+    DbSession session = dbClient.openSession(true);
+    try {
+      Optional<ComponentDto> component = dbClient.componentDao().selectByUuid(session, task.getComponentUuid());
+      if (component.isPresent()) {
+        ComponentDto project = component.get();
+        projectCleaner.purge(session, new IdUuidPair(project.getId(), project.uuid()), projectSettingsFactory.newProjectSettings(project.key()));
+        session.commit();
+      } else {
+        // project has been deleted in the meantime
+        LOG.info("Project {} does not exist anymore, nothing to purge", task.getComponentUuid());
+      }
+      return null;
+    } finally {
+      dbClient.closeSession(session);
+    }
+  }
+}
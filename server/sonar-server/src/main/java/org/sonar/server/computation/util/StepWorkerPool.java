@@ -0,0 +1,103 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.slf4j.MDC;
+
+/**
+ * Fixed pool of low priority threads executing the work of a computation step concurrently. Tasks are executed with
+ * the MDC of the thread which created the pool, as it holds the configuration of the logs of the current CE task
+ * (see {@link org.sonar.server.computation.log.CeLogging}).
+ * <p>
+ * Callers are expected to execute their work in the calling thread, rather than creating a pool, when there is a
+ * single step worker.
+ * </p>
+ */
+public final class StepWorkerPool extends AbstractExecutorService {
+
+  private final ExecutorService delegate;
+  @CheckForNull
+  private final Map<String, String> mdcContext;
+
+  private StepWorkerPool(ExecutorService delegate, @Nullable Map<String, String> mdcContext) {
+    this.delegate = delegate;
+    this.mdcContext = mdcContext;
+  }
+
+  public static StepWorkerPool create(String threadNamePrefix, int workerCount) {
+    ExecutorService delegate = Executors.newFixedThreadPool(workerCount,
+      new ThreadFactoryBuilder()
+        .setNameFormat(threadNamePrefix + "%d")
+        .setPriority(Thread.MIN_PRIORITY)
+        .build());
+    return new StepWorkerPool(delegate, MDC.getCopyOfContextMap());
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    delegate.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (mdcContext != null) {
+          MDC.setContextMap(mdcContext);
+        }
+        try {
+          command.run();
+        } finally {
+          MDC.clear();
+        }
+      }
+    });
+  }
+
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return delegate.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return delegate.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return delegate.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+}
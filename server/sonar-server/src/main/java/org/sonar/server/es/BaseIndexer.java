@@ -19,24 +19,48 @@
  */
 package org.sonar.server.es;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.Uninterruptibles;
-import org.picocontainer.Startable;
-import org.sonar.api.server.ServerSide;
-
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.picocontainer.Startable;
+import org.sonar.api.config.Settings;
+import org.sonar.api.server.ServerSide;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Indexing requests which are not related to a project (see {@link #index(IndexerTask)}) are executed
+ * sequentially by a dedicated thread, against the watermark of the whole index.
+ * <p/>
+ * Indexing requests of a project (see {@link #index(String, IndexerTask)}) are partitioned by project uuid among
+ * a configurable number of workers, so that projects are indexed concurrently while the requests of a given project
+ * remain sequential. Each project has its own watermark, so indexing a project never hides the changes
+ * of other projects. Requests on the whole index are never executed concurrently with the requests of projects,
+ * as both can write the same documents. The number of workers of an index can be set by the property
+ * <code>sonar.search.&lt;index&gt;.indexWorkerCount</code> (see {@link #readWorkerCount(Settings, String)}).
+ */
 @ServerSide
 public abstract class BaseIndexer implements Startable {
 
   private final ThreadPoolExecutor executor;
+  private final Partition[] partitions;
+  // fair, so that the requests on the whole index are not delayed by a continuous flow of requests of projects
+  private final ReadWriteLock partitionsLock = new ReentrantReadWriteLock(true);
   private final String indexName;
   private final String typeName;
   private final String dateFieldName;
+  public static final int DEFAULT_WORKER_COUNT = 4;
+
   protected final EsClient esClient;
   private volatile long lastUpdatedAt = -1L;
 
@@ -53,12 +77,44 @@ public abstract class BaseIndexer implements Startable {
 
   protected BaseIndexer(EsClient client, long threadKeepAliveSeconds, String indexName, String typeName,
     String dateFieldName) {
+    this(client, threadKeepAliveSeconds, 1, indexName, typeName, dateFieldName);
+  }
+
+  /**
+   * Name of the property which defines the number of workers of index {@code indexName}
+   */
+  public static String workerCountProperty(String indexName) {
+    return "sonar.search." + indexName + ".indexWorkerCount";
+  }
+
+  /**
+   * Number of workers of index {@code indexName}, {@link #DEFAULT_WORKER_COUNT} if the property
+   * {@link #workerCountProperty(String)} is not set.
+   */
+  protected static int readWorkerCount(Settings settings, String indexName) {
+    int workers = settings.getInt(workerCountProperty(indexName));
+    return workers > 0 ? workers : DEFAULT_WORKER_COUNT;
+  }
+
+  /**
+   * @param workerCount maximum number of projects indexed concurrently
+   */
+  protected BaseIndexer(EsClient client, long threadKeepAliveSeconds, int workerCount, String indexName, String typeName,
+    String dateFieldName) {
+    checkArgument(workerCount > 0, "Number of indexing workers must be strictly positive. Got %s", workerCount);
     this.indexName = indexName;
     this.typeName = typeName;
     this.dateFieldName = dateFieldName;
     this.esClient = client;
-    this.executor = new ThreadPoolExecutor(0, 1,
-      threadKeepAliveSeconds, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    this.executor = newSingleThreadExecutor(threadKeepAliveSeconds);
+    this.partitions = new Partition[workerCount];
+    for (int i = 0; i < workerCount; i++) {
+      partitions[i] = new Partition(newSingleThreadExecutor(threadKeepAliveSeconds));
+    }
+  }
+
+  private static ThreadPoolExecutor newSingleThreadExecutor(long threadKeepAliveSeconds) {
+    return new ThreadPoolExecutor(0, 1, threadKeepAliveSeconds, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
   }
 
   public void index(final IndexerTask task) {
@@ -67,21 +123,96 @@ public abstract class BaseIndexer implements Startable {
       Future submit = executor.submit(new Runnable() {
         @Override
         public void run() {
-          if (lastUpdatedAt == -1L) {
-            lastUpdatedAt = esClient.getMaxFieldValue(indexName, typeName, dateFieldName);
-          }
-          if (requestedAt > lastUpdatedAt) {
-            long l = task.index(lastUpdatedAt);
-            // l can be 0 if no documents were indexed
-            lastUpdatedAt = Math.max(l, lastUpdatedAt);
+          partitionsLock.writeLock().lock();
+          try {
+            long watermark = getLastUpdatedAt();
+            if (requestedAt > watermark) {
+              long l = task.index(watermark);
+              // l can be 0 if no documents were indexed
+              lastUpdatedAt = Math.max(l, watermark);
+              for (Partition partition : partitions) {
+                partition.removeWatermarksUpTo(lastUpdatedAt);
+              }
+            }
+          } finally {
+            partitionsLock.writeLock().unlock();
           }
         }
       });
-      try {
-        Uninterruptibles.getUninterruptibly(submit);
-      } catch (ExecutionException e) {
-        Throwables.propagate(e);
+      waitFor(submit);
+    }
+  }
+
+  /**
+   * Same as {@link #index(IndexerTask)}, but for the documents of a single project. The task is given
+   * the watermark of the project.
+   */
+  public void index(String projectUuid, IndexerTask task) {
+    if (enabled) {
+      indexInPartition(projectUuid, task, false);
+    }
+  }
+
+  /**
+   * Executes the task in the partition of the project, even if indexer is disabled and whatever the
+   * watermark of the project. The task is given the watermark 0. It's used for the documents which are not
+   * selected by date, for example when a project is reindexed from scratch, so that they are never written
+   * concurrently with the other indexing requests of the same project.
+   */
+  protected void forceIndex(String projectUuid, IndexerTask task) {
+    indexInPartition(projectUuid, task, true);
+  }
+
+  private void indexInPartition(final String projectUuid, final IndexerTask task, final boolean force) {
+    final long requestedAt = System.currentTimeMillis();
+    final Partition partition = partitions[partitionOf(projectUuid, partitions.length)];
+    Future submit = partition.executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        partitionsLock.readLock().lock();
+        try {
+          // documents indexed by the tasks on the whole index are up-to-date too
+          long watermark = Math.max(getLastUpdatedAt(), partition.getLastUpdatedAt(projectUuid));
+          if (force || requestedAt > watermark) {
+            long l = task.index(force ? 0L : watermark);
+            partition.lastUpdatedAtByProject.put(projectUuid, Math.max(l, watermark));
+          }
+        } finally {
+          partitionsLock.readLock().unlock();
+        }
       }
+    });
+    waitFor(submit);
+  }
+
+  static int partitionOf(String projectUuid, int partitionCount) {
+    // spread the hash to not depend on its lowest bits only
+    int h = projectUuid.hashCode();
+    h ^= h >>> 16;
+    return (h & Integer.MAX_VALUE) % partitionCount;
+  }
+
+  @VisibleForTesting
+  int countProjectWatermarks() {
+    int count = 0;
+    for (Partition partition : partitions) {
+      count += partition.lastUpdatedAtByProject.size();
+    }
+    return count;
+  }
+
+  private long getLastUpdatedAt() {
+    if (lastUpdatedAt == -1L) {
+      lastUpdatedAt = esClient.getMaxFieldValue(indexName, typeName, dateFieldName);
+    }
+    return lastUpdatedAt;
+  }
+
+  private static void waitFor(Future future) {
+    try {
+      Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      Throwables.propagate(e);
     }
   }
 
@@ -96,6 +227,14 @@ public abstract class BaseIndexer implements Startable {
 
   protected abstract long doIndex(long lastUpdatedAt);
 
+  public String getIndexName() {
+    return indexName;
+  }
+
+  public String getTypeName() {
+    return typeName;
+  }
+
   public BaseIndexer setEnabled(boolean b) {
     this.enabled = b;
     return this;
@@ -109,10 +248,39 @@ public abstract class BaseIndexer implements Startable {
   @Override
   public void stop() {
     executor.shutdown();
+    for (Partition partition : partitions) {
+      partition.executor.shutdown();
+    }
   }
 
   public interface IndexerTask {
     long index(long lastUpdatedAt);
   }
 
+  private static class Partition {
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Long> lastUpdatedAtByProject = new ConcurrentHashMap<>();
+
+    private Partition(ThreadPoolExecutor executor) {
+      this.executor = executor;
+    }
+
+    /**
+     * Watermarks of projects which are not greater than the watermark of the whole index are useless
+     */
+    private void removeWatermarksUpTo(long watermark) {
+      Iterator<Long> it = lastUpdatedAtByProject.values().iterator();
+      while (it.hasNext()) {
+        if (it.next() <= watermark) {
+          it.remove();
+        }
+      }
+    }
+
+    private long getLastUpdatedAt(String projectUuid) {
+      Long l = lastUpdatedAtByProject.get(projectUuid);
+      return l == null ? -1L : l;
+    }
+  }
+
 }
@@ -21,8 +21,21 @@ package org.sonar.server.es;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.DocumentRequest;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequestBuilder;
 import org.elasticsearch.action.bulk.BulkItemResponse;
@@ -35,23 +48,24 @@ import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.picocontainer.Startable;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.core.util.ProgressLogger;
 
-import java.util.Map;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
-
 import static java.lang.String.format;
 
 /**
  * Helper to bulk requests in an efficient way :
  * <ul>
- *   <li>bulk request is sent on the wire when its size is higher than 5Mb</li>
+ *   <li>bulk request is sent on the wire when its size is higher than 1Mb</li>
+ *   <li>bulk requests are executed concurrently. Their number, and their size on large indexing, are adapted
+ *   to the latency of Elasticsearch responses (see {@link BulkThrottle})</li>
+ *   <li>requests rejected because Elasticsearch is overloaded are retried with an exponential backoff. A retry
+ *   is dropped if a newer request on the same document has been added in the meantime</li>
  *   <li>on large table indexing, replicas and automatic refresh can be temporarily disabled</li>
  *   <li>index refresh is optional (enabled by default)</li>
  * </ul>
@@ -60,8 +74,11 @@ public class BulkIndexer implements Startable {
 
   private static final Logger LOGGER = Loggers.get(BulkIndexer.class);
   private static final long FLUSH_BYTE_SIZE = new ByteSizeValue(1, ByteSizeUnit.MB).bytes();
+  private static final long MAX_LARGE_FLUSH_BYTE_SIZE = new ByteSizeValue(10, ByteSizeUnit.MB).bytes();
   private static final String REFRESH_INTERVAL_SETTING = "index.refresh_interval";
   private static final String ALREADY_STARTED_MESSAGE = "Bulk indexing is already started";
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long RETRY_BASE_DELAY_MS = 100L;
 
   private final EsClient client;
   private final String indexName;
@@ -69,11 +86,19 @@ public class BulkIndexer implements Startable {
   private long flushByteSize = FLUSH_BYTE_SIZE;
   private boolean disableRefresh = false;
   private BulkRequestBuilder bulkRequest = null;
+  // items of the requests of bulkRequest, in the same order
+  private List<Item> bulkItems = null;
   private Map<String, Object> largeInitialSettings = null;
   private final AtomicLong counter = new AtomicLong(0L);
+  private final AtomicLong retryCounter = new AtomicLong(0L);
+  private final DelayQueue<Retry> retries = new DelayQueue<>();
+  // sequence of the latest request added on each document, as long as this request is not completed
+  private final ConcurrentMap<String, Long> latestSequences = new ConcurrentHashMap<>();
+  private long sequence = 0L;
   private final int concurrentRequests;
-  private final Semaphore semaphore;
   private final ProgressLogger progress;
+  private BulkThrottle throttle = null;
+  private long startedAt;
 
   public BulkIndexer(EsClient client, String indexName) {
     this.client = client;
@@ -82,12 +107,12 @@ public class BulkIndexer implements Startable {
       .setPluralLabel("requests");
 
     this.concurrentRequests = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
-    this.semaphore = new Semaphore(concurrentRequests);
   }
 
   /**
    * Large indexing is an heavy operation that populates an index generally from scratch. Replicas and
    * automatic refresh are disabled during bulk indexing and lucene segments are optimized at the end.
+   * Size of bulk requests is adapted to the latency of Elasticsearch.
    */
   public BulkIndexer setLarge(boolean b) {
     Preconditions.checkState(bulkRequest == null, ALREADY_STARTED_MESSAGE);
@@ -95,7 +120,12 @@ public class BulkIndexer implements Startable {
     return this;
   }
 
+  /**
+   * Size of bulk requests. On large indexing, it's the initial size, which can be adapted between
+   * a quarter of it and 10Mb.
+   */
   public BulkIndexer setFlushByteSize(long flushByteSize) {
+    Preconditions.checkState(bulkRequest == null, ALREADY_STARTED_MESSAGE);
     this.flushByteSize = flushByteSize;
     return this;
   }
@@ -130,15 +160,46 @@ public class BulkIndexer implements Startable {
       bulkSettings.put(REFRESH_INTERVAL_SETTING, "-1");
 
       updateSettings(bulkSettings);
+      throttle = new BulkThrottle(concurrentRequests, flushByteSize, flushByteSize / 4, Math.max(flushByteSize, MAX_LARGE_FLUSH_BYTE_SIZE));
+    } else {
+      throttle = new BulkThrottle(concurrentRequests, flushByteSize, flushByteSize, flushByteSize);
     }
-    bulkRequest = client.prepareBulk().setRefresh(false);
+    newBulkRequest();
     counter.set(0L);
+    retryCounter.set(0L);
+    latestSequences.clear();
+    startedAt = System.currentTimeMillis();
     progress.start();
   }
 
   public void add(ActionRequest request) {
-    bulkRequest.request().add(request);
-    if (bulkRequest.request().estimatedSizeInBytes() >= flushByteSize) {
+    Item item = new Item(request, documentKey(request), sequence, 0);
+    sequence++;
+    if (item.key != null) {
+      // previous requests on the same document which are waiting for a retry are now obsolete
+      latestSequences.put(item.key, item.sequence);
+    }
+    add(item);
+    // requests to be retried are sent with the new ones
+    Retry retry = retries.poll();
+    while (retry != null) {
+      addRetry(retry.item);
+      retry = retries.poll();
+    }
+  }
+
+  private void addRetry(Item item) {
+    if (isSuperseded(item)) {
+      LOGGER.debug("Retry is dropped as a newer request has been added on the same document: {}", item.request);
+    } else {
+      add(item);
+    }
+  }
+
+  private void add(Item item) {
+    bulkRequest.request().add(item.request);
+    bulkItems.add(item);
+    if (bulkRequest.request().estimatedSizeInBytes() >= throttle.getByteSize()) {
       executeBulk();
     }
   }
@@ -153,7 +214,7 @@ public class BulkIndexer implements Startable {
 
     // this search is synchronous. An optimization would be to be non-blocking,
     // but it requires to tracking pending requests in close().
-    // Same semaphore can't be reused because of potential deadlock (requires to acquire
+    // Same throttle can't be reused because of potential deadlock (requires to acquire
     // two locks)
     SearchResponse searchResponse = searchRequest.get();
 
@@ -184,17 +245,30 @@ public class BulkIndexer implements Startable {
 
   @Override
   public void stop() {
-    if (bulkRequest.numberOfActions() > 0) {
-      executeBulk();
-    }
     try {
-      if (semaphore.tryAcquire(concurrentRequests, 10, TimeUnit.MINUTES)) {
-        semaphore.release(concurrentRequests);
-      }
+      do {
+        if (bulkRequest.numberOfActions() > 0) {
+          executeBulk();
+        }
+        if (!throttle.awaitIdle(10, TimeUnit.MINUTES)) {
+          LOGGER.error("Elasticsearch bulk requests still being executed after 10 minutes");
+          break;
+        }
+        // all the responses are received, so no more requests can be rejected. Wait for the delay
+        // of the rejected requests before sending them again.
+        Retry retry = retries.isEmpty() ? null : retries.take();
+        while (retry != null) {
+          addRetry(retry.item);
+          retry = retries.poll();
+        }
+        // retries may have been sent as soon as added, so their responses are awaited too
+      } while (bulkRequest.numberOfActions() > 0 || !retries.isEmpty() || throttle.getInFlight() > 0);
     } catch (InterruptedException e) {
-      throw new IllegalStateException("Elasticsearch bulk requests still being executed after 10 minutes", e);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for Elasticsearch bulk requests", e);
     }
     progress.stop();
+    logStats();
 
     if (!disableRefresh) {
       client.prepareRefresh(indexName).get();
@@ -208,6 +282,44 @@ public class BulkIndexer implements Startable {
       updateSettings(largeInitialSettings);
     }
     bulkRequest = null;
+    bulkItems = null;
+    latestSequences.clear();
+  }
+
+  /**
+   * Number of requests successfully executed since {@link #start()}
+   */
+  public long getIndexedCount() {
+    return counter.get();
+  }
+
+  /**
+   * Number of requests retried since {@link #start()}
+   */
+  public long getRetriedCount() {
+    return retryCounter.get();
+  }
+
+  /**
+   * Number of bulk requests being executed by Elasticsearch
+   */
+  public int getInFlightBulks() {
+    return throttle.getInFlight();
+  }
+
+  /**
+   * Number of rejected requests waiting to be retried
+   */
+  public int getPendingRetries() {
+    return retries.size();
+  }
+
+  private void logStats() {
+    if (LOGGER.isDebugEnabled()) {
+      long durationMs = Math.max(1L, System.currentTimeMillis() - startedAt);
+      LOGGER.debug("Bulk indexing of [{}]: {} requests in {} ms ({} requests/s), {} retried, up to {} concurrent bulks, last bulk size {} bytes",
+        indexName, counter.get(), durationMs, counter.get() * 1000L / durationMs, retryCounter.get(), throttle.getMaxInFlight(), throttle.getByteSize());
+    }
   }
 
   private void updateSettings(Map<String, Object> settings) {
@@ -216,36 +328,142 @@ public class BulkIndexer implements Startable {
     req.get();
   }
 
+  private void newBulkRequest() {
+    this.bulkRequest = client.prepareBulk().setRefresh(false);
+    this.bulkItems = new ArrayList<>();
+  }
+
   private void executeBulk() {
     final BulkRequestBuilder req = this.bulkRequest;
-    this.bulkRequest = client.prepareBulk().setRefresh(false);
-    semaphore.acquireUninterruptibly();
-    req.execute(new BulkResponseActionListener(req));
+    List<Item> items = this.bulkItems;
+    newBulkRequest();
+    throttle.acquire();
+    req.execute(new BulkResponseActionListener(req, items));
+  }
+
+  private void retryOrFail(Item item, String failureMessage) {
+    if (isSuperseded(item)) {
+      // a retry would overwrite the newer request
+      LOGGER.debug("Rejected request is not retried as a newer request has been added on the same document: {}", item.request);
+      return;
+    }
+    int attempts = item.attempts + 1;
+    if (attempts < MAX_ATTEMPTS) {
+      retryCounter.incrementAndGet();
+      retries.add(new Retry(new Item(item.request, item.key, item.sequence, attempts), RETRY_BASE_DELAY_MS << attempts));
+    } else {
+      complete(item);
+      LOGGER.error("Request still rejected after {} attempts: {}, message [{}]", attempts, item.request, failureMessage);
+    }
+  }
+
+  private boolean isSuperseded(Item item) {
+    return item.key != null && !Long.valueOf(item.sequence).equals(latestSequences.get(item.key));
+  }
+
+  private void complete(Item item) {
+    if (item.key != null) {
+      latestSequences.remove(item.key, item.sequence);
+    }
+  }
+
+  @CheckForNull
+  private static String documentKey(ActionRequest request) {
+    if (request instanceof DocumentRequest) {
+      DocumentRequest<?> documentRequest = (DocumentRequest<?>) request;
+      if (documentRequest.id() != null) {
+        return documentRequest.index() + "/" + documentRequest.type() + "/" + documentRequest.id();
+      }
+    }
+    return null;
+  }
+
+  private static boolean isRejection(Throwable e) {
+    return ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException;
   }
 
   private class BulkResponseActionListener implements ActionListener<BulkResponse> {
     private final BulkRequestBuilder req;
+    private final List<Item> items;
+    private final long executedAt = System.currentTimeMillis();
 
-    public BulkResponseActionListener(BulkRequestBuilder req) {
+    public BulkResponseActionListener(BulkRequestBuilder req, List<Item> items) {
       this.req = req;
+      this.items = items;
     }
 
     @Override
     public void onResponse(BulkResponse response) {
-      semaphore.release();
-      counter.addAndGet(response.getItems().length);
-
+      boolean rejected = false;
+      int succeeded = 0;
       for (BulkItemResponse item : response.getItems()) {
-        if (item.isFailed()) {
+        Item requestItem = items.get(item.getItemId());
+        if (!item.isFailed()) {
+          complete(requestItem);
+          succeeded++;
+        } else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+          rejected = true;
+          retryOrFail(requestItem, item.getFailureMessage());
+        } else {
+          complete(requestItem);
           LOGGER.error("index [{}], type [{}], id [{}], message [{}]", item.getIndex(), item.getType(), item.getId(), item.getFailureMessage());
         }
       }
+      counter.addAndGet(succeeded);
+      throttle.release(System.currentTimeMillis() - executedAt, rejected);
     }
 
     @Override
     public void onFailure(Throwable e) {
-      semaphore.release();
-      LOGGER.error("Fail to execute bulk index request: " + req, e);
+      if (isRejection(e)) {
+        for (Item item : items) {
+          retryOrFail(item, e.getMessage());
+        }
+        throttle.release(System.currentTimeMillis() - executedAt, true);
+      } else {
+        for (Item item : items) {
+          complete(item);
+        }
+        LOGGER.error("Fail to execute bulk index request: " + req, e);
+        throttle.release(System.currentTimeMillis() - executedAt, false);
+      }
+    }
+  }
+
+  private static class Item {
+    private final ActionRequest request;
+    // null if request is not related to a single identified document
+    @CheckForNull
+    private final String key;
+    private final long sequence;
+    // number of previous attempts
+    private final int attempts;
+
+    private Item(ActionRequest request, @Nullable String key, long sequence, int attempts) {
+      this.request = request;
+      this.key = key;
+      this.sequence = sequence;
+      this.attempts = attempts;
+    }
+  }
+
+  private static class Retry implements Delayed {
+    private final Item item;
+    private final long retryAtNanos;
+
+    private Retry(Item item, long delayMs) {
+      this.item = item;
+      this.retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(retryAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
     }
   }
 }
@@ -0,0 +1,131 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.es;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flow control of {@link BulkIndexer}. It bounds the number of bulk requests being executed
+ * concurrently and tunes this bound and the size of bulk requests from the observed latency
+ * of the responses:
+ * <ul>
+ *   <li>fast responses increase the number of concurrent requests and, if enabled, the size of requests</li>
+ *   <li>slow responses decrease them</li>
+ *   <li>rejections (Elasticsearch queues are full) halve them</li>
+ * </ul>
+ * Thread-safe.
+ */
+class BulkThrottle {
+
+  static final long FAST_LATENCY_MS = 500L;
+  static final long SLOW_LATENCY_MS = 2000L;
+
+  private final int maxConcurrency;
+  private final long minByteSize;
+  private final long maxByteSize;
+
+  private int concurrency;
+  private long byteSize;
+  private int inFlight = 0;
+  private int maxInFlight = 0;
+
+  /**
+   * @param maxConcurrency upper bound of concurrent requests, which is also the initial bound
+   * @param initialByteSize initial size of requests
+   * @param minByteSize lower bound of size of requests
+   * @param maxByteSize upper bound of size of requests. Size is fixed if equal to {@code minByteSize}.
+   */
+  BulkThrottle(int maxConcurrency, long initialByteSize, long minByteSize, long maxByteSize) {
+    this.maxConcurrency = maxConcurrency;
+    this.concurrency = maxConcurrency;
+    this.minByteSize = minByteSize;
+    this.maxByteSize = maxByteSize;
+    this.byteSize = initialByteSize;
+  }
+
+  /**
+   * Blocks until a new request can be executed. Interruptions are ignored until the end of the wait.
+   */
+  synchronized void acquire() {
+    boolean interrupted = false;
+    while (inFlight >= concurrency) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    inFlight++;
+    maxInFlight = Math.max(maxInFlight, inFlight);
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Must be called once per call to {@link #acquire()}, when the response of the request is received.
+   */
+  synchronized void release(long latencyMs, boolean rejected) {
+    inFlight--;
+    if (rejected) {
+      concurrency = Math.max(1, concurrency / 2);
+      byteSize = Math.max(minByteSize, byteSize / 2);
+    } else if (latencyMs > SLOW_LATENCY_MS) {
+      concurrency = Math.max(1, concurrency - 1);
+      byteSize = Math.max(minByteSize, byteSize * 3 / 4);
+    } else if (latencyMs < FAST_LATENCY_MS) {
+      concurrency = Math.min(maxConcurrency, concurrency + 1);
+      byteSize = Math.min(maxByteSize, byteSize * 5 / 4);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Waits for all the requests to be released.
+   * @return false if the timeout elapsed before
+   */
+  synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (inFlight > 0) {
+      long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remainingMs <= 0L) {
+        return false;
+      }
+      wait(remainingMs);
+    }
+    return true;
+  }
+
+  synchronized long getByteSize() {
+    return byteSize;
+  }
+
+  synchronized int getConcurrency() {
+    return concurrency;
+  }
+
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  synchronized int getMaxInFlight() {
+    return maxInFlight;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.es;
+
+import java.util.Collection;
+
+/**
+ * Indexer of documents which belong to projects. Such an index can be populated project
+ * per project, see {@link ResumableReindexer}.
+ */
+public interface ProjectIndexer {
+
+  String getIndexName();
+
+  String getTypeName();
+
+  /**
+   * Uuids of the projects which have documents to be indexed
+   */
+  Collection<String> selectProjectUuids();
+
+  /**
+   * Indexes all the documents of a project, whatever their date of update. Index is not refreshed.
+   * This method can be called concurrently for different projects. It must be executed sequentially with
+   * the other indexing requests of the project (see {@link BaseIndexer#forceIndex(String, BaseIndexer.IndexerTask)}),
+   * so that it never overwrites the documents which are concurrently indexed by Compute Engine.
+   */
+  void indexProjectFromScratch(String projectUuid);
+
+}
@@ -0,0 +1,268 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.es;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import org.apache.commons.dbutils.DbUtils;
+import org.picocontainer.Startable;
+import org.sonar.api.config.Settings;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.core.util.ProgressLogger;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.property.PropertyDto;
+
+import static java.lang.String.format;
+
+/**
+ * Populates from scratch the indices of {@link ProjectIndexer}. Projects are indexed concurrently by a pool
+ * of workers (see property {@value #WORKERS_PROPERTY}, default is {@value #DEFAULT_WORKERS}).
+ * <p/>
+ * Projects are processed by ascending uuid. The uuid of the last project of the sequence of completed
+ * projects is persisted in the global property <code>sonar.internal.es.reindexCheckpoint.&lt;index&gt;.&lt;type&gt;</code>,
+ * which is dropped when reindexing is over. If the server is stopped in the middle of reindexing, then the
+ * next reindexing resumes after this checkpoint.
+ */
+@ServerSide
+public class ResumableReindexer implements Startable {
+
+  public static final String WORKERS_PROPERTY = "sonar.search.reindexWorkerCount";
+  public static final int DEFAULT_WORKERS = 4;
+  private static final String CHECKPOINT_PROPERTY_PREFIX = "sonar.internal.es.reindexCheckpoint.";
+  private static final Logger LOG = Loggers.get(ResumableReindexer.class);
+
+  private final DbClient dbClient;
+  private final EsClient esClient;
+  private final int workerCount;
+  private ExecutorService backgroundExecutor = null;
+
+  public ResumableReindexer(DbClient dbClient, EsClient esClient, Settings settings) {
+    this.dbClient = dbClient;
+    this.esClient = esClient;
+    int workers = settings.getInt(WORKERS_PROPERTY);
+    this.workerCount = workers > 0 ? workers : DEFAULT_WORKERS;
+  }
+
+  @Override
+  public void start() {
+    // nothing to do
+  }
+
+  /**
+   * Interrupts the reindexing in progress, if any. It will be resumed at next startup.
+   */
+  @Override
+  public synchronized void stop() {
+    if (backgroundExecutor != null) {
+      backgroundExecutor.shutdownNow();
+      backgroundExecutor = null;
+    }
+  }
+
+  /**
+   * Reindexing from scratch is required if index is empty, for example when it has just been (re)created,
+   * or if a previous reindexing has been interrupted.
+   */
+  public boolean isRequired(ProjectIndexer indexer) {
+    return isEmpty(indexer) || readCheckpoint(indexer) != null;
+  }
+
+  /**
+   * Indexes the projects which are not indexed yet according to checkpoint. This method is blocking.
+   * If it fails, then checkpoint is kept so that next call resumes after the last completed projects.
+   */
+  public void reindex(ProjectIndexer indexer) {
+    String checkpoint = readCheckpoint(indexer);
+    if (checkpoint == null || isEmpty(indexer)) {
+      // new reindexing. The empty checkpoint marks it as in progress.
+      checkpoint = "";
+      writeCheckpoint(indexer, checkpoint);
+    }
+
+    List<String> projectUuids = new ArrayList<>(new TreeSet<>(indexer.selectProjectUuids()).tailSet(checkpoint, false));
+    LOG.info("Index {}/{}: {} projects to be indexed{}", indexer.getIndexName(), indexer.getTypeName(), projectUuids.size(),
+      checkpoint.isEmpty() ? "" : format(" (resumed after project %s)", checkpoint));
+
+    AtomicLong counter = new AtomicLong(0L);
+    ProgressLogger progress = new ProgressLogger(format("Progress[ResumableReindexer[%s]]", indexer.getIndexName()), counter, LOG)
+      .setPluralLabel("projects");
+    ExecutorService executor = Executors.newFixedThreadPool(workerCount,
+      new ThreadFactoryBuilder().setNameFormat("es-reindex-" + indexer.getIndexName() + "-%d").setDaemon(true).build());
+    progress.start();
+    try {
+      Checkpoint completion = new Checkpoint(indexer, projectUuids);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < projectUuids.size(); i++) {
+        futures.add(executor.submit(new ProjectTask(indexer, completion, counter, i)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(format("Reindexing of %s/%s has been interrupted", indexer.getIndexName(), indexer.getTypeName()), e);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+      progress.stop();
+    }
+
+    esClient.prepareRefresh(indexer.getIndexName()).get();
+    deleteCheckpoint(indexer);
+  }
+
+  /**
+   * Same as {@link #reindex(ProjectIndexer)}, but executed by a background thread, so that the server is available
+   * in the meantime. Reindexing requests are executed sequentially. The thread lives as long as this component,
+   * which is stopped only when the server stops, not when startup tasks are over.
+   */
+  public synchronized Future<?> reindexInBackground(final ProjectIndexer indexer) {
+    if (backgroundExecutor == null) {
+      backgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("es-background-reindex-%d").setDaemon(true).build());
+    }
+    return backgroundExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          reindex(indexer);
+          LOG.info("Index {}/{} is populated", indexer.getIndexName(), indexer.getTypeName());
+        } catch (RuntimeException e) {
+          LOG.error(format("Fail to index %s/%s. It will be resumed at next startup.", indexer.getIndexName(), indexer.getTypeName()), e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Helper for implementations of {@link ProjectIndexer#selectProjectUuids()}. The SQL request must return
+   * project uuids in its first column.
+   */
+  public static Collection<String> selectProjectUuids(DbClient dbClient, String sql) {
+    DbSession session = dbClient.openSession(false);
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = dbClient.getMyBatis().newScrollingSelectStatement(session, sql);
+      rs = stmt.executeQuery();
+      List<String> uuids = new ArrayList<>();
+      while (rs.next()) {
+        uuids.add(rs.getString(1));
+      }
+      return uuids;
+    } catch (SQLException e) {
+      throw new IllegalStateException("Fail to select project uuids: " + sql, e);
+    } finally {
+      DbUtils.closeQuietly(rs);
+      DbUtils.closeQuietly(stmt);
+      dbClient.closeSession(session);
+    }
+  }
+
+  private boolean isEmpty(ProjectIndexer indexer) {
+    return esClient.prepareCount(indexer.getIndexName()).setTypes(indexer.getTypeName()).get().getCount() == 0L;
+  }
+
+  private static String checkpointKey(ProjectIndexer indexer) {
+    return CHECKPOINT_PROPERTY_PREFIX + indexer.getIndexName() + "." + indexer.getTypeName();
+  }
+
+  @CheckForNull
+  private String readCheckpoint(ProjectIndexer indexer) {
+    PropertyDto property = dbClient.propertiesDao().selectGlobalProperty(checkpointKey(indexer));
+    // empty value may be read as null on some databases
+    return property == null ? null : Strings.nullToEmpty(property.getValue());
+  }
+
+  private void writeCheckpoint(ProjectIndexer indexer, String lastCompletedProjectUuid) {
+    dbClient.propertiesDao().insertProperty(new PropertyDto().setKey(checkpointKey(indexer)).setValue(lastCompletedProjectUuid));
+  }
+
+  private void deleteCheckpoint(ProjectIndexer indexer) {
+    dbClient.propertiesDao().deleteGlobalProperty(checkpointKey(indexer));
+  }
+
+  /**
+   * Projects are completed in any order by workers. The checkpoint is the last project of the sequence
+   * of completed projects.
+   */
+  private class Checkpoint {
+    private final ProjectIndexer indexer;
+    private final List<String> projectUuids;
+    private final boolean[] completed;
+    private int nextToComplete = 0;
+
+    private Checkpoint(ProjectIndexer indexer, List<String> projectUuids) {
+      this.indexer = indexer;
+      this.projectUuids = Collections.unmodifiableList(projectUuids);
+      this.completed = new boolean[projectUuids.size()];
+    }
+
+    private synchronized void complete(int projectIndex) {
+      completed[projectIndex] = true;
+      int next = nextToComplete;
+      while (next < completed.length && completed[next]) {
+        next++;
+      }
+      if (next > nextToComplete) {
+        nextToComplete = next;
+        writeCheckpoint(indexer, projectUuids.get(next - 1));
+      }
+    }
+  }
+
+  private static class ProjectTask implements Runnable {
+    private final ProjectIndexer indexer;
+    private final Checkpoint checkpoint;
+    private final AtomicLong counter;
+    private final int projectIndex;
+
+    private ProjectTask(ProjectIndexer indexer, Checkpoint checkpoint, AtomicLong counter, int projectIndex) {
+      this.indexer = indexer;
+      this.checkpoint = checkpoint;
+      this.counter = counter;
+      this.projectIndex = projectIndex;
+    }
+
+    @Override
+    public void run() {
+      indexer.indexProjectFromScratch(checkpoint.projectUuids.get(projectIndex));
+      checkpoint.complete(projectIndex);
+      counter.incrementAndGet();
+    }
+  }
+}
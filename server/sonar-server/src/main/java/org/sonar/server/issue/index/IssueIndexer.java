@@ -19,24 +19,30 @@
  */
 package org.sonar.server.issue.index;
 
+import java.util.Collection;
 import java.util.Iterator;
 import javax.annotation.Nullable;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.sonar.api.config.Settings;
 import org.sonar.db.DbClient;
 import org.sonar.db.DbSession;
 import org.sonar.server.es.BaseIndexer;
 import org.sonar.server.es.BulkIndexer;
 import org.sonar.server.es.EsClient;
+import org.sonar.server.es.ProjectIndexer;
+import org.sonar.server.es.ResumableReindexer;
 
-public class IssueIndexer extends BaseIndexer {
+public class IssueIndexer extends BaseIndexer implements ProjectIndexer {
+
+  private static final String SQL_PROJECT_UUIDS = "select distinct i.project_uuid from issues i";
 
   private final DbClient dbClient;
 
-  public IssueIndexer(DbClient dbClient, EsClient esClient) {
-    super(esClient, 300, IssueIndexDefinition.INDEX, IssueIndexDefinition.TYPE_ISSUE, IssueIndexDefinition.FIELD_ISSUE_TECHNICAL_UPDATED_AT);
+  public IssueIndexer(DbClient dbClient, EsClient esClient, Settings settings) {
+    super(esClient, 300, readWorkerCount(settings, IssueIndexDefinition.INDEX), IssueIndexDefinition.INDEX, IssueIndexDefinition.TYPE_ISSUE, IssueIndexDefinition.FIELD_ISSUE_TECHNICAL_UPDATED_AT);
     this.dbClient = dbClient;
   }
 
@@ -50,7 +56,7 @@ public class IssueIndexer extends BaseIndexer {
   }
 
   public void index(final String projectUuid) {
-    super.index(new IndexerTask() {
+    super.index(projectUuid, new IndexerTask() {
       @Override
       public long index(long lastUpdatedAt) {
         return doIndex(createBulkIndexer(false), lastUpdatedAt, projectUuid);
@@ -58,8 +64,39 @@ public class IssueIndexer extends BaseIndexer {
     });
   }
 
+  @Override
+  public Collection<String> selectProjectUuids() {
+    return ResumableReindexer.selectProjectUuids(dbClient, SQL_PROJECT_UUIDS);
+  }
+
+  @Override
+  public void indexProjectFromScratch(final String projectUuid) {
+    forceIndex(projectUuid, new IndexerTask() {
+      @Override
+      public long index(long lastUpdatedAt) {
+        BulkIndexer bulk = createBulkIndexer(false);
+        bulk.setDisableRefresh(true);
+        return doIndex(bulk, 0L, projectUuid);
+      }
+    });
+  }
+
+  /**
+   * Indexes the given documents of a project without reading database. Used by Compute Engine to index the issues
+   * of an analysis report. Documents are indexed sequentially with the other indexing requests of the project, so
+   * that they can't be overwritten by a concurrent reindexing of the project.
+   */
+  public void index(String projectUuid, final Iterator<IssueDoc> issues) {
+    forceIndex(projectUuid, new IndexerTask() {
+      @Override
+      public long index(long lastUpdatedAt) {
+        return doIndex(createBulkIndexer(false), issues);
+      }
+    });
+  }
+
   /**
-   * For benchmarks
+   * Indexes the given documents without reading database. Used by benchmarks and tests.
    */
   public void index(Iterator<IssueDoc> issues) {
     doIndex(createBulkIndexer(false), issues);
@@ -113,6 +113,7 @@ import org.sonar.server.duplication.ws.DuplicationsParser;
 import org.sonar.server.duplication.ws.DuplicationsWs;
 import org.sonar.server.es.IndexCreator;
 import org.sonar.server.es.IndexDefinitions;
+import org.sonar.server.es.ResumableReindexer;
 import org.sonar.server.event.NewAlerts;
 import org.sonar.server.issue.ActionService;
 import org.sonar.server.issue.AddTagsAction;
@@ -266,6 +267,8 @@ import org.sonar.server.rule.ws.RuleMapping;
 import org.sonar.server.rule.ws.RulesWs;
 import org.sonar.server.rule.ws.TagsAction;
 import org.sonar.server.source.HtmlSourceDecorator;
+import org.sonar.server.source.SourceCache;
+import org.sonar.server.source.SourceCacheMonitor;
 import org.sonar.server.source.SourceService;
 import org.sonar.server.source.ws.HashAction;
 import org.sonar.server.source.ws.IndexAction;
@@ -340,6 +343,7 @@ public class PlatformLevel4 extends PlatformLevel {
       BackendCleanup.class,
       IndexDefinitions.class,
       IndexCreator.class,
+      ResumableReindexer.class,
 
       // Activity
       ActivityService.class,
@@ -634,6 +638,8 @@ public class PlatformLevel4 extends PlatformLevel {
       // source
       HtmlSourceDecorator.class,
       SourceService.class,
+      SourceCache.class,
+      SourceCacheMonitor.class,
       SourcesWs.class,
       org.sonar.server.source.ws.ShowAction.class,
       LinesAction.class,
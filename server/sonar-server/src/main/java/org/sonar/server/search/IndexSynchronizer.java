@@ -20,6 +20,7 @@
 package org.sonar.server.search;
 
 import java.util.Date;
+import org.picocontainer.Startable;
 import org.sonar.api.config.Settings;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
@@ -27,6 +28,9 @@ import org.sonar.db.DbSession;
 import org.sonar.server.activity.index.ActivityIndexer;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.db.DeprecatedDao;
+import org.sonar.server.es.BaseIndexer;
+import org.sonar.server.es.ProjectIndexer;
+import org.sonar.server.es.ResumableReindexer;
 import org.sonar.server.issue.index.IssueAuthorizationIndexer;
 import org.sonar.server.issue.index.IssueIndexer;
 import org.sonar.server.qualityprofile.index.ActiveRuleIndex;
@@ -35,7 +39,7 @@ import org.sonar.server.test.index.TestIndexer;
 import org.sonar.server.user.index.UserIndexer;
 import org.sonar.server.view.index.ViewIndexer;
 
-public class IndexSynchronizer {
+public class IndexSynchronizer implements Startable {
 
   private static final Logger LOG = Loggers.get(IndexSynchronizer.class);
 
@@ -48,6 +52,7 @@ public class IndexSynchronizer {
   private final ViewIndexer viewIndexer;
   private final ActivityIndexer activityIndexer;
   private final Settings settings;
+  private final ResumableReindexer reindexer;
 
   /**
    * Limitation - {@link org.sonar.server.es.BaseIndexer} are not injected through an array or a collection
@@ -56,7 +61,7 @@ public class IndexSynchronizer {
    */
   public IndexSynchronizer(DbClient db, IndexClient index,
     TestIndexer testIndexer, IssueAuthorizationIndexer issueAuthorizationIndexer, IssueIndexer issueIndexer,
-    UserIndexer userIndexer, ViewIndexer viewIndexer, ActivityIndexer activityIndexer, Settings settings) {
+    UserIndexer userIndexer, ViewIndexer viewIndexer, ActivityIndexer activityIndexer, Settings settings, ResumableReindexer reindexer) {
     this.db = db;
     this.index = index;
     this.testIndexer = testIndexer;
@@ -66,6 +71,17 @@ public class IndexSynchronizer {
     this.viewIndexer = viewIndexer;
     this.activityIndexer = activityIndexer;
     this.settings = settings;
+    this.reindexer = reindexer;
+  }
+
+  @Override
+  public void start() {
+    // synchronization is triggered by PlatformLevelStartup
+  }
+
+  @Override
+  public void stop() {
+    // nothing to do
   }
 
   public void executeDeprecated() {
@@ -86,10 +102,10 @@ public class IndexSynchronizer {
 
       LOG.info("Index issues");
       issueAuthorizationIndexer.setEnabled(true).index();
-      issueIndexer.setEnabled(true).index();
+      synchronizeProjects(issueIndexer);
 
       LOG.info("Index tests");
-      testIndexer.setEnabled(true).index();
+      synchronizeProjects(testIndexer);
 
       LOG.info("Index users");
       userIndexer.setEnabled(true).index();
@@ -99,6 +115,21 @@ public class IndexSynchronizer {
     }
   }
 
+  /**
+   * Indices which must be populated from scratch are populated in background, so that server
+   * is available in the meantime. Search results are partial until it's done. Reindexing goes on
+   * after startup tasks, as it is executed by {@link ResumableReindexer}, which is not a startup task.
+   */
+  private <I extends BaseIndexer & ProjectIndexer> void synchronizeProjects(I indexer) {
+    indexer.setEnabled(true);
+    if (reindexer.isRequired(indexer)) {
+      LOG.info("Index {}/{} in background", indexer.getIndexName(), indexer.getTypeName());
+      reindexer.reindexInBackground(indexer);
+    } else {
+      indexer.index();
+    }
+  }
+
   void synchronize(DbSession session, DeprecatedDao dao, Index index) {
     long count = index.getIndexStat().getDocumentCount();
     Date lastSynch = index.getLastSynchronization();
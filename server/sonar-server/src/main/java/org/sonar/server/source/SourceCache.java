@@ -0,0 +1,207 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.source;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import org.sonar.api.config.Settings;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.MessageException;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.protobuf.DbFileSources;
+import org.sonar.db.source.FileSourceDto;
+
+import static java.lang.String.format;
+
+/**
+ * Cache of the sources of the most recently read files. Size of cache is bounded by a number of lines
+ * (property {@link #MAX_LINES_PROPERTY}), which counts both the decoded lines and the compressed data of the files,
+ * converted in lines (see {@link #BYTES_PER_LINE}). Column DATA_HASH of table FILE_SOURCES is verified on each read, so
+ * that sources updated by an analysis are never served from cache.
+ * <p>
+ * The compressed column BINARY_DATA of a file is kept in cache, and its lines are decoded lazily by windows of
+ * {@link #LINES_PER_WINDOW} lines, which are aligned with the chunks of {@link FileSourceDto#encodeSourceData(DbFileSources.Data)}.
+ * Reading a few lines of a big file does not decode the whole file.
+ * </p>
+ * <p>
+ * The cache has a single segment. Guava splits the maximum weight among segments, so that with the default
+ * concurrency level, files bigger than a quarter of the maximum number of lines would never be cached.
+ * </p>
+ */
+@ServerSide
+public class SourceCache {
+
+  public static final String MAX_LINES_PROPERTY = "sonar.web.sourceCache.maxLines";
+  private static final int DEFAULT_MAX_LINES = 500_000;
+  static final int LINES_PER_WINDOW = 500;
+  /**
+   * Heap size of a decoded line, used to weigh the compressed data of a file. It has been measured on lines
+   * having source, SCM, highlighting, symbols and coverage data, which are compressed to about 70 bytes.
+   */
+  static final int BYTES_PER_LINE = 450;
+
+  private final DbClient dbClient;
+  private final Cache<String, CachedSource> cache;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  public SourceCache(Settings settings, DbClient dbClient) {
+    this.dbClient = dbClient;
+    this.cache = CacheBuilder.newBuilder()
+      .concurrencyLevel(1)
+      .maximumWeight(readMaxLines(settings))
+      .weigher(CachedSourceWeigher.INSTANCE)
+      .recordStats()
+      .build();
+  }
+
+  private static int readMaxLines(Settings settings) {
+    String value = settings.getString(MAX_LINES_PROPERTY);
+    if (value == null) {
+      return DEFAULT_MAX_LINES;
+    }
+    try {
+      int res = Integer.parseInt(value);
+      if (res >= 0) {
+        return res;
+      }
+    } catch (NumberFormatException e) {
+      // error reported below
+    }
+    throw MessageException.of(format("value '%s' of property %s is invalid. It must be a positive integer or 0 to disable cache.", value, MAX_LINES_PROPERTY));
+  }
+
+  /**
+   * Lines of a file which number is between {@code from} and {@code toInclusive}, or {@code null} if the file
+   * has no sources.
+   */
+  @CheckForNull
+  public List<DbFileSources.Line> getLines(DbSession dbSession, String fileUuid, int from, int toInclusive) {
+    String dataHash = dbClient.fileSourceDao().selectSourceDataHash(dbSession, fileUuid);
+    CachedSource cached = cache.getIfPresent(fileUuid);
+    if (cached != null && dataHash != null && dataHash.equals(cached.dataHash)) {
+      hitCount.incrementAndGet();
+      return read(fileUuid, cached, from, toInclusive);
+    }
+    missCount.incrementAndGet();
+    cache.invalidate(fileUuid);
+
+    FileSourceDto dto = dbClient.fileSourceDao().selectSourceByFileUuid(dbSession, fileUuid);
+    if (dto == null) {
+      return null;
+    }
+    if (dto.getDataHash() == null) {
+      // sources which can't be verified are not cached
+      return dto.getSourceData(from, toInclusive).getLinesList();
+    }
+    return read(fileUuid, new CachedSource(dto.getDataHash(), dto.getBinaryData(), new HashMap<Integer, List<DbFileSources.Line>>()), from, toInclusive);
+  }
+
+  /**
+   * Called when sources of a file are updated
+   */
+  public void invalidate(String fileUuid) {
+    cache.invalidate(fileUuid);
+  }
+
+  long getHitCount() {
+    return hitCount.get();
+  }
+
+  long getMissCount() {
+    return missCount.get();
+  }
+
+  long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+  long getSize() {
+    return cache.size();
+  }
+
+  /**
+   * Decodes the windows of the requested lines which are not in cache yet, then puts the source back in cache so
+   * that its weight takes the new windows into account.
+   */
+  private List<DbFileSources.Line> read(String fileUuid, CachedSource source, int from, int toInclusive) {
+    List<DbFileSources.Line> res = new ArrayList<>();
+    Map<Integer, List<DbFileSources.Line>> decodedWindows = new HashMap<>();
+    for (int window = windowOf(from); window <= windowOf(toInclusive); window++) {
+      List<DbFileSources.Line> lines = source.windows.get(window);
+      if (lines == null) {
+        int firstLine = window * LINES_PER_WINDOW + 1;
+        lines = FileSourceDto.decodeSourceData(source.binaryData, firstLine, firstLine + LINES_PER_WINDOW - 1).getLinesList();
+        decodedWindows.put(window, lines);
+      }
+      for (DbFileSources.Line line : lines) {
+        if (line.getLine() >= from && line.getLine() <= toInclusive) {
+          res.add(line);
+        }
+      }
+      if (lines.size() < LINES_PER_WINDOW) {
+        // end of file
+        break;
+      }
+    }
+    if (!decodedWindows.isEmpty()) {
+      decodedWindows.putAll(source.windows);
+      cache.put(fileUuid, new CachedSource(source.dataHash, source.binaryData, decodedWindows));
+    }
+    return res;
+  }
+
+  private static int windowOf(int line) {
+    return Math.max(0, line - 1) / LINES_PER_WINDOW;
+  }
+
+  private static final class CachedSource {
+    private final String dataHash;
+    private final byte[] binaryData;
+    private final Map<Integer, List<DbFileSources.Line>> windows;
+
+    private CachedSource(String dataHash, byte[] binaryData, Map<Integer, List<DbFileSources.Line>> windows) {
+      this.dataHash = dataHash;
+      this.binaryData = binaryData;
+      this.windows = windows;
+    }
+  }
+
+  private enum CachedSourceWeigher implements Weigher<String, CachedSource> {
+    INSTANCE;
+
+    @Override
+    public int weigh(String fileUuid, CachedSource source) {
+      int lines = 1 + (source.binaryData.length + BYTES_PER_LINE - 1) / BYTES_PER_LINE;
+      for (List<DbFileSources.Line> window : source.windows.values()) {
+        lines += window.size();
+      }
+      return lines;
+    }
+  }
+}
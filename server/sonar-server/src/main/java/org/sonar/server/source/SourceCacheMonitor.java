@@ -0,0 +1,66 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.source;
+
+import java.util.LinkedHashMap;
+import org.sonar.server.platform.monitoring.BaseMonitorMBean;
+
+public class SourceCacheMonitor extends BaseMonitorMBean implements SourceCacheMonitorMBean {
+  private final SourceCache sourceCache;
+
+  public SourceCacheMonitor(SourceCache sourceCache) {
+    this.sourceCache = sourceCache;
+  }
+
+  @Override
+  public String name() {
+    return "SourceCache";
+  }
+
+  @Override
+  public LinkedHashMap<String, Object> attributes() {
+    LinkedHashMap<String, Object> attributes = new LinkedHashMap<>();
+    attributes.put("Hits", getHitCount());
+    attributes.put("Misses", getMissCount());
+    attributes.put("Evictions", getEvictionCount());
+    attributes.put("Files", getSize());
+    return attributes;
+  }
+
+  @Override
+  public long getHitCount() {
+    return sourceCache.getHitCount();
+  }
+
+  @Override
+  public long getMissCount() {
+    return sourceCache.getMissCount();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return sourceCache.getEvictionCount();
+  }
+
+  @Override
+  public long getSize() {
+    return sourceCache.getSize();
+  }
+}
@@ -25,19 +25,18 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
+import java.util.List;
 import javax.annotation.Nonnull;
-import org.sonar.db.DbClient;
 import org.sonar.db.DbSession;
 import org.sonar.db.protobuf.DbFileSources;
-import org.sonar.db.source.FileSourceDto;
 
 public class SourceService {
 
-  private final DbClient dbClient;
+  private final SourceCache sourceCache;
   private final HtmlSourceDecorator htmlDecorator;
 
-  public SourceService(DbClient dbClient, HtmlSourceDecorator htmlDecorator) {
-    this.dbClient = dbClient;
+  public SourceService(SourceCache sourceCache, HtmlSourceDecorator htmlDecorator) {
+    this.sourceCache = sourceCache;
     this.htmlDecorator = htmlDecorator;
   }
 
@@ -69,12 +68,11 @@ public class SourceService {
    */
   public Optional<DbFileSources.Line> getLine(DbSession dbSession, String fileUuid, int line) {
     verifyLine(line);
-    FileSourceDto dto = dbClient.fileSourceDao().selectSourceByFileUuid(dbSession, fileUuid);
-    if (dto == null) {
+    List<DbFileSources.Line> lines = sourceCache.getLines(dbSession, fileUuid, line, line);
+    if (lines == null) {
       return Optional.absent();
     }
-    DbFileSources.Data data = dto.getSourceData();
-    return FluentIterable.from(data.getLinesList())
+    return FluentIterable.from(lines)
       .filter(new IsGreaterOrEqualThanLine(line))
       .first();
   }
@@ -82,12 +80,11 @@ public class SourceService {
   private <E> Optional<Iterable<E>> getLines(DbSession dbSession, String fileUuid, int from, int toInclusive, Function<DbFileSources.Line, E> function) {
     verifyLine(from);
     Preconditions.checkArgument(toInclusive >= from, String.format("Line number must greater than or equal to %d, got %d", from, toInclusive));
-    FileSourceDto dto = dbClient.fileSourceDao().selectSourceByFileUuid(dbSession, fileUuid);
-    if (dto == null) {
+    List<DbFileSources.Line> lines = sourceCache.getLines(dbSession, fileUuid, from, toInclusive);
+    if (lines == null) {
       return Optional.absent();
     }
-    DbFileSources.Data data = dto.getSourceData();
-    return Optional.of((Iterable<E>) FluentIterable.from(data.getLinesList())
+    return Optional.of((Iterable<E>) FluentIterable.from(lines)
       .filter(new IsGreaterOrEqualThanLine(from))
       .limit(toInclusive - from + 1)
       .transform(function));
@@ -20,17 +20,22 @@
 
 package org.sonar.server.test.index;
 
+import java.util.Collection;
 import java.util.Iterator;
 import javax.annotation.Nullable;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.sonar.api.config.Settings;
 import org.sonar.db.DbClient;
 import org.sonar.db.DbSession;
+import org.sonar.db.source.FileSourceDto;
 import org.sonar.server.es.BaseIndexer;
 import org.sonar.server.es.BulkIndexer;
 import org.sonar.server.es.EsClient;
+import org.sonar.server.es.ProjectIndexer;
+import org.sonar.server.es.ResumableReindexer;
 import org.sonar.server.source.index.FileSourcesUpdaterHelper;
 
 import static org.sonar.server.test.index.TestIndexDefinition.FIELD_FILE_UUID;
@@ -42,20 +47,23 @@ import static org.sonar.server.test.index.TestIndexDefinition.TYPE;
  * Add to Elasticsearch index {@link TestIndexDefinition} the rows of
  * db table FILE_SOURCES of type TEST that are not indexed yet
  */
-public class TestIndexer extends BaseIndexer {
+public class TestIndexer extends BaseIndexer implements ProjectIndexer {
+
+  private static final String SQL_PROJECT_UUIDS = "select distinct fs.project_uuid from file_sources fs where fs.data_type='" + FileSourceDto.Type.TEST + "'";
 
   private final DbClient dbClient;
 
-  public TestIndexer(DbClient dbClient, EsClient esClient) {
-    super(esClient, 0L, INDEX, TYPE, FIELD_UPDATED_AT);
+  public TestIndexer(DbClient dbClient, EsClient esClient, Settings settings) {
+    super(esClient, 0L, readWorkerCount(settings, INDEX), INDEX, TYPE, FIELD_UPDATED_AT);
     this.dbClient = dbClient;
   }
 
   public void index(final String projectUuid) {
-    deleteByProject(projectUuid);
-    super.index(new IndexerTask() {
+    super.index(projectUuid, new IndexerTask() {
       @Override
       public long index(long lastUpdatedAt) {
+        // deletion is executed in the partition of the project too, so that it can't be overwritten by a concurrent reindexing
+        deleteByProject(projectUuid);
         return doIndex(lastUpdatedAt, projectUuid);
       }
     });
@@ -71,10 +79,30 @@ public class TestIndexer extends BaseIndexer {
     return doIndex(lastUpdatedAt, null);
   }
 
+  @Override
+  public Collection<String> selectProjectUuids() {
+    return ResumableReindexer.selectProjectUuids(dbClient, SQL_PROJECT_UUIDS);
+  }
+
+  @Override
+  public void indexProjectFromScratch(final String projectUuid) {
+    forceIndex(projectUuid, new IndexerTask() {
+      @Override
+      public long index(long lastUpdatedAt) {
+        BulkIndexer bulk = new BulkIndexer(esClient, INDEX);
+        bulk.setDisableRefresh(true);
+        return doIndex(bulk, 0L, projectUuid);
+      }
+    });
+  }
+
   private long doIndex(long lastUpdatedAt, @Nullable String projectUuid) {
-    final BulkIndexer bulk = new BulkIndexer(esClient, INDEX);
+    BulkIndexer bulk = new BulkIndexer(esClient, INDEX);
     bulk.setLarge(lastUpdatedAt == 0L);
+    return doIndex(bulk, lastUpdatedAt, projectUuid);
+  }
 
+  private long doIndex(BulkIndexer bulk, long lastUpdatedAt, @Nullable String projectUuid) {
     DbSession dbSession = dbClient.openSession(false);
     try {
       TestResultSetIterator rowIt = TestResultSetIterator.create(dbClient, dbSession, lastUpdatedAt, projectUuid);
@@ -0,0 +1,155 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.util.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Date;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Helpers to write compact {@link ObjectCodec}s: variable-length encoding of integers, nullable strings and dates.
+ */
+public final class CodecUtils {
+
+  private CodecUtils() {
+    // only statics
+  }
+
+  /**
+   * Writes a positive or zero int on 1 to 5 bytes, small values using less bytes.
+   */
+  public static void writeVarInt(DataOutput output, int value) throws IOException {
+    int v = value;
+    while ((v & ~0x7F) != 0) {
+      output.writeByte((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    output.writeByte(v);
+  }
+
+  public static int readVarInt(DataInput input) throws IOException {
+    int res = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = input.readByte();
+      res |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return res;
+      }
+    }
+    throw new IOException("Malformed variable-length int");
+  }
+
+  /**
+   * Writes a long on 1 to 10 bytes, values close to zero (positive or negative) using less bytes.
+   */
+  public static void writeVarLong(DataOutput output, long value) throws IOException {
+    // zigzag encoding, so that small negative values use a few bytes too
+    long v = (value << 1) ^ (value >> 63);
+    while ((v & ~0x7FL) != 0) {
+      output.writeByte((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    output.writeByte((int) v);
+  }
+
+  public static long readVarLong(DataInput input) throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = input.readByte();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (v >>> 1) ^ -(v & 1);
+      }
+    }
+    throw new IOException("Malformed variable-length long");
+  }
+
+  /**
+   * Writes a nullable String as its UTF-8 bytes, prefixed by their length plus one (zero meaning {@code null}).
+   */
+  public static void writeString(DataOutput output, @Nullable String s) throws IOException {
+    if (s == null) {
+      writeVarInt(output, 0);
+    } else {
+      byte[] bytes = s.getBytes(UTF_8);
+      writeVarInt(output, bytes.length + 1);
+      output.write(bytes);
+    }
+  }
+
+  @CheckForNull
+  public static String readString(DataInput input) throws IOException {
+    int length = readVarInt(input);
+    if (length == 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length - 1];
+    input.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  public static void writeDate(DataOutput output, Date date) throws IOException {
+    writeVarLong(output, date.getTime());
+  }
+
+  public static Date readDate(DataInput input) throws IOException {
+    return new Date(readVarLong(input));
+  }
+
+  public static void writeBytes(DataOutput output, byte[] bytes) throws IOException {
+    writeVarInt(output, bytes.length);
+    output.write(bytes);
+  }
+
+  public static byte[] readBytes(DataInput input) throws IOException {
+    byte[] bytes = new byte[readVarInt(input)];
+    input.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * Writes an object with Java serialization, to be used for objects with no dedicated encoding.
+   */
+  public static void writeSerializable(DataOutput output, Serializable object) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+      objectOutput.writeObject(object);
+    }
+    writeBytes(output, bytes.toByteArray());
+  }
+
+  public static Serializable readSerializable(DataInput input) throws IOException {
+    try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(readBytes(input)))) {
+      return (Serializable) objectInput.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Fail to deserialize object", e);
+    }
+  }
+}
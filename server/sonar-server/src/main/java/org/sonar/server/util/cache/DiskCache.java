@@ -19,35 +19,58 @@
  */
 package org.sonar.server.util.cache;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.Serializable;
-import org.apache.commons.io.FileUtils;
+import javax.annotation.CheckForNull;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
 import org.apache.commons.io.IOUtils;
 import org.sonar.api.utils.System2;
 import org.sonar.core.util.CloseableIterator;
-import org.sonar.server.util.ObjectInputStreamIterator;
 
 /**
  * Serialize and deserialize objects on disk. No search capabilities, only traversal (full scan).
+ * <p>
+ * Objects are encoded by an {@link ObjectCodec} into segments of about {@link #SEGMENT_SIZE} bytes, which are
+ * optionally compressed with LZ4 before being appended to the file. A segment is made of a header (compression flag,
+ * raw length and stored length) followed by the stored bytes.
+ * </p>
  */
-public class DiskCache<O extends Serializable> {
+public class DiskCache<O> {
+
+  static final int SEGMENT_SIZE = 256 * 1024;
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final byte RAW_SEGMENT = 0;
+  private static final byte LZ4_SEGMENT = 1;
+  private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
 
   private final File file;
   private final System2 system2;
+  private final ObjectCodec<O> codec;
+  private final boolean compressed;
+
+  public DiskCache(File file, System2 system2, ObjectCodec<O> codec) {
+    this(file, system2, codec, false);
+  }
 
-  public DiskCache(File file, System2 system2) {
+  public DiskCache(File file, System2 system2, ObjectCodec<O> codec, boolean compressed) {
     this.system2 = system2;
     this.file = file;
+    this.codec = codec;
+    this.compressed = compressed;
     OutputStream output = null;
     try {
-      // writes the serialization stream header required when calling "traverse()"
-      // on empty stream. Moreover it allows to call multiple times "newAppender()"
-      output = new ObjectOutputStream(new FileOutputStream(file));
-      output.flush();
+      // creates or truncates the file
+      output = new FileOutputStream(file);
 
       // raise an exception if can't close
       system2.close(output);
@@ -64,23 +87,23 @@ public class DiskCache<O extends Serializable> {
 
   public CloseableIterator<O> traverse() {
     try {
-      return new ObjectInputStreamIterator<>(FileUtils.openInputStream(file));
+      return new DiskIterator(new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)));
     } catch (IOException e) {
       throw new IllegalStateException("Fail to traverse file: " + file, e);
     }
   }
 
   public class DiskAppender implements AutoCloseable {
-    private final ObjectOutputStream output;
+    private final DataOutputStream output;
+    private final SegmentOutputStream segmentBytes = new SegmentOutputStream();
+    private final DataOutputStream segment = new DataOutputStream(segmentBytes);
+    @CheckForNull
+    private LZ4Compressor compressor;
+    private byte[] compressionBuffer = new byte[0];
 
     private DiskAppender() {
       try {
-        this.output = new ObjectOutputStream(new FileOutputStream(file, true)) {
-          @Override
-          protected void writeStreamHeader() throws IOException {
-            // do not write stream headers as it's already done in constructor of DiskCache
-          }
-        };
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE));
       } catch (IOException e) {
         throw new IllegalStateException("Fail to open file " + file, e);
       }
@@ -88,17 +111,127 @@ public class DiskCache<O extends Serializable> {
 
     public DiskAppender append(O object) {
       try {
-        output.writeObject(object);
-        output.reset();
+        codec.write(object, segment);
+        if (segmentBytes.size() >= SEGMENT_SIZE) {
+          flushSegment();
+        }
         return this;
       } catch (IOException e) {
         throw new IllegalStateException("Fail to write into file " + file, e);
       }
     }
 
+    private void flushSegment() throws IOException {
+      int rawLength = segmentBytes.size();
+      if (rawLength == 0) {
+        return;
+      }
+      if (compressed) {
+        if (compressor == null) {
+          compressor = LZ4_FACTORY.fastCompressor();
+        }
+        int maxLength = compressor.maxCompressedLength(rawLength);
+        if (compressionBuffer.length < maxLength) {
+          compressionBuffer = new byte[maxLength];
+        }
+        int storedLength = compressor.compress(segmentBytes.buffer(), 0, rawLength, compressionBuffer, 0, maxLength);
+        writeSegment(LZ4_SEGMENT, rawLength, compressionBuffer, storedLength);
+      } else {
+        writeSegment(RAW_SEGMENT, rawLength, segmentBytes.buffer(), rawLength);
+      }
+      segmentBytes.reset();
+    }
+
+    private void writeSegment(byte type, int rawLength, byte[] bytes, int storedLength) throws IOException {
+      output.writeByte(type);
+      output.writeInt(rawLength);
+      output.writeInt(storedLength);
+      output.write(bytes, 0, storedLength);
+    }
+
     @Override
     public void close() {
+      try {
+        flushSegment();
+      } catch (IOException e) {
+        IOUtils.closeQuietly(output);
+        throw new IllegalStateException("Fail to write into file " + file, e);
+      }
       system2.close(output);
     }
   }
+
+  private class DiskIterator extends CloseableIterator<O> {
+    private final DataInputStream input;
+    private byte[] storedBytes = new byte[0];
+    private byte[] rawBytes = new byte[0];
+    @CheckForNull
+    private ByteArrayInputStream segmentBytes;
+    @CheckForNull
+    private DataInputStream segment;
+
+    private DiskIterator(DataInputStream input) {
+      this.input = input;
+    }
+
+    @Override
+    protected O doNext() {
+      try {
+        if ((segmentBytes == null || segmentBytes.available() == 0) && !readSegment()) {
+          return null;
+        }
+        return codec.read(segment);
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to read file " + file, e);
+      }
+    }
+
+    private boolean readSegment() throws IOException {
+      int type = input.read();
+      if (type == -1) {
+        return false;
+      }
+      int rawLength = input.readInt();
+      int storedLength = input.readInt();
+      storedBytes = ensureCapacity(storedBytes, storedLength);
+      input.readFully(storedBytes, 0, storedLength);
+      byte[] segmentContent;
+      if (type == LZ4_SEGMENT) {
+        rawBytes = ensureCapacity(rawBytes, rawLength);
+        LZ4_FACTORY.fastDecompressor().decompress(storedBytes, 0, rawBytes, 0, rawLength);
+        segmentContent = rawBytes;
+      } else {
+        segmentContent = storedBytes;
+      }
+      segmentBytes = new ByteArrayInputStream(segmentContent, 0, rawLength);
+      segment = new DataInputStream(segmentBytes);
+      return true;
+    }
+
+    @Override
+    protected void doClose() {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  private static byte[] ensureCapacity(byte[] bytes, int length) {
+    if (bytes.length < length) {
+      return new byte[length];
+    }
+    return bytes;
+  }
+
+  /**
+   * Gives access to the internal buffer to avoid copying it when a segment is written. Initially small as
+   * appenders are usually short-lived (eg. one per file in the Compute Engine).
+   */
+  private static class SegmentOutputStream extends ByteArrayOutputStream {
+    private SegmentOutputStream() {
+      super(BUFFER_SIZE);
+    }
+
+    byte[] buffer() {
+      return buf;
+    }
+  }
 }
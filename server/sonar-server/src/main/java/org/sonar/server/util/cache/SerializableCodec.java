@@ -0,0 +1,43 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.util.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * {@link ObjectCodec} relying on Java serialization. Simple but slow and verbose as class descriptors are
+ * written for each object.
+ */
+public class SerializableCodec<O extends Serializable> implements ObjectCodec<O> {
+
+  @Override
+  public void write(O object, DataOutput output) throws IOException {
+    CodecUtils.writeSerializable(output, object);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public O read(DataInput input) throws IOException {
+    return (O) CodecUtils.readSerializable(input);
+  }
+}
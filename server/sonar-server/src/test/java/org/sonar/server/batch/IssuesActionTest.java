@@ -86,7 +86,7 @@ public class IssuesActionTest {
     es.truncateIndices();
 
     issueIndex = new IssueIndex(es.client(), System2.INSTANCE, userSessionRule);
-    issueIndexer = new IssueIndexer(null, es.client());
+    issueIndexer = new IssueIndexer(null, es.client(), new Settings());
     issueAuthorizationIndexer = new IssueAuthorizationIndexer(null, es.client());
     issuesAction = new IssuesAction(db.getDbClient(), issueIndex, userSessionRule, new ComponentFinder(db.getDbClient()));
 
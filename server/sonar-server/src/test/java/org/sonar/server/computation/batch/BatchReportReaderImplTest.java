@@ -96,6 +96,42 @@ public class BatchReportReaderImplTest {
     assertThat(logs.hasNext()).isFalse();
   }
 
+  @Test
+  public void readSourceDataDigest_changes_with_data_of_file() {
+    writer.writeComponent(COMPONENT);
+    String digest = underTest.readSourceDataDigest(COMPONENT_REF);
+    assertThat(underTest.readSourceDataDigest(COMPONENT_REF)).isEqualTo(digest).hasSize(32);
+
+    writer.writeComponentCoverage(COMPONENT_REF, of(COVERAGE_1));
+    String digestWithCoverage = underTest.readSourceDataDigest(COMPONENT_REF);
+    assertThat(digestWithCoverage).isNotEqualTo(digest);
+
+    writer.writeComponentChangesets(CHANGESETS);
+    assertThat(underTest.readSourceDataDigest(COMPONENT_REF)).isNotEqualTo(digestWithCoverage);
+  }
+
+  @Test
+  public void readSourceDataDigest_ignores_data_not_related_to_sources() {
+    writer.writeComponent(COMPONENT);
+    String digest = underTest.readSourceDataDigest(COMPONENT_REF);
+
+    writer.writeComponentMeasures(COMPONENT_REF, of(MEASURE));
+
+    assertThat(underTest.readSourceDataDigest(COMPONENT_REF)).isEqualTo(digest);
+  }
+
+  @Test
+  public void readSourceDataDigest_ignores_fields_of_component_other_than_lines() {
+    writer.writeComponent(COMPONENT.toBuilder().setLines(10).setPath("src/Foo.java").build());
+    String digest = underTest.readSourceDataDigest(COMPONENT_REF);
+
+    writer.writeComponent(COMPONENT.toBuilder().setLines(10).setPath("src/Bar.java").setName("Bar.java").build());
+    assertThat(underTest.readSourceDataDigest(COMPONENT_REF)).isEqualTo(digest);
+
+    writer.writeComponent(COMPONENT.toBuilder().setLines(11).setPath("src/Bar.java").setName("Bar.java").build());
+    assertThat(underTest.readSourceDataDigest(COMPONENT_REF)).isNotEqualTo(digest);
+  }
+
   @Test
   public void readComponentMeasures_returns_empty_list_if_there_is_no_measure() {
     assertThat(underTest.readComponentMeasures(COMPONENT_REF)).isEmpty();
@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
@@ -251,6 +252,12 @@ public class BatchReportReaderRule implements TestRule, BatchReportReader {
     return this;
   }
 
+  @Override
+  public String readSourceDataDigest(int fileRef) {
+    return DigestUtils.md5Hex(Arrays.asList(components.get(fileRef).getLines(), fileSources.get(fileRef), coverages.get(fileRef),
+      syntaxHighlightings.get(fileRef), symbols.get(fileRef), changesets.get(fileRef)).toString());
+  }
+
   @Override
   public CloseableIterator<BatchReport.Test> readTests(int testFileRef) {
     List<BatchReport.Test> res = this.tests.get(testFileRef);
@@ -39,6 +39,8 @@ public class StepsExplorer {
 
     return from(reflections.getSubTypesOf(ComputationStep.class))
         .filter(NotAbstractClass.INSTANCE)
+        // steps declared as nested classes are test doubles
+        .filter(NotMemberClass.INSTANCE)
         .transform(ClassToCanonicalName.INSTANCE)
         // anonymous classes do not have canonical names
         .filter(notNull())
@@ -54,6 +56,15 @@ public class StepsExplorer {
     }
   }
 
+  private enum NotMemberClass implements Predicate<Class<? extends ComputationStep>> {
+    INSTANCE;
+
+    @Override
+    public boolean apply(Class<? extends ComputationStep> input) {
+      return !input.isMemberClass();
+    }
+  }
+
   public static Function<Class<?>, String> toCanonicalName() {
     return ClassToCanonicalName.INSTANCE;
   }
@@ -22,10 +22,12 @@ package org.sonar.server.computation.dbcleaner;
 
 import java.util.Date;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.config.Settings;
-import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.LogTester;
 import org.sonar.core.config.PurgeConstants;
 import org.sonar.db.DbSession;
 import org.sonar.db.purge.IdUuidPair;
@@ -36,19 +38,23 @@ import org.sonar.db.purge.PurgeProfiler;
 import org.sonar.db.purge.period.DefaultPeriodCleaner;
 import org.sonar.server.issue.index.IssueIndex;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.same;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
 public class ProjectCleanerTest {
 
+  @Rule
+  public LogTester logTester = new LogTester();
+
   private ProjectCleaner underTest;
   private PurgeDao dao = mock(PurgeDao.class);
-  private PurgeProfiler profiler = mock(PurgeProfiler.class);
   private DefaultPeriodCleaner periodCleaner = mock(DefaultPeriodCleaner.class);
   private PurgeListener purgeListener = mock(PurgeListener.class);
   private IssueIndex issueIndex = mock(IssueIndex.class);
@@ -56,7 +62,7 @@ public class ProjectCleanerTest {
 
   @Before
   public void before() {
-    this.underTest = new ProjectCleaner(dao, periodCleaner, profiler, purgeListener, issueIndex);
+    this.underTest = new ProjectCleaner(dao, periodCleaner, purgeListener, issueIndex);
   }
 
   @Test
@@ -65,7 +71,7 @@ public class ProjectCleanerTest {
 
     underTest.purge(mock(DbSession.class), mock(IdUuidPair.class), settings);
 
-    verify(profiler, never()).dump(anyLong(), any(Logger.class));
+    assertThat(logTester.logs()).doesNotContain("\n -------- End of profiling for purge --------\n");
   }
 
   @Test
@@ -81,7 +87,19 @@ public class ProjectCleanerTest {
 
     underTest.purge(mock(DbSession.class), mock(IdUuidPair.class), settings);
 
-    verify(profiler).dump(anyLong(), any(Logger.class));
+    assertThat(logTester.logs()).contains("\n -------- End of profiling for purge --------\n");
+  }
+
+  @Test
+  public void each_purge_has_its_own_profiler() {
+    underTest.purge(mock(DbSession.class), mock(IdUuidPair.class), settings);
+    underTest.purge(mock(DbSession.class), mock(IdUuidPair.class), settings);
+
+    ArgumentCaptor<PurgeProfiler> profilers = ArgumentCaptor.forClass(PurgeProfiler.class);
+    verify(dao, times(2)).purge(any(DbSession.class), any(PurgeConfiguration.class), any(PurgeListener.class), profilers.capture());
+    assertThat(profilers.getAllValues().get(0)).isNotSameAs(profilers.getAllValues().get(1));
+    // historical data of the purge are profiled too
+    verify(periodCleaner).clean(any(DbSession.class), anyLong(), any(Settings.class), same(profilers.getAllValues().get(0)));
   }
 
   @Test
@@ -90,7 +108,7 @@ public class ProjectCleanerTest {
 
     underTest.purge(mock(DbSession.class), mock(IdUuidPair.class), settings);
 
-    verify(periodCleaner).clean(any(DbSession.class), any(Long.class), any(Settings.class));
+    verify(periodCleaner).clean(any(DbSession.class), any(Long.class), any(Settings.class), any(PurgeProfiler.class));
     verify(dao).purge(any(DbSession.class), any(PurgeConfiguration.class), any(PurgeListener.class), any(PurgeProfiler.class));
     verify(issueIndex).deleteClosedIssuesOfProjectBefore(any(String.class), any(Date.class));
   }
@@ -106,10 +124,10 @@ public class ProjectCleanerTest {
 
   @Test
   public void if_profiler_cleaning_fails_it_should_not_interrupt_program_execution() {
-    doThrow(RuntimeException.class).when(periodCleaner).clean(any(DbSession.class), anyLong(), any(Settings.class));
+    doThrow(RuntimeException.class).when(periodCleaner).clean(any(DbSession.class), anyLong(), any(Settings.class), any(PurgeProfiler.class));
 
     underTest.purge(mock(DbSession.class), mock(IdUuidPair.class), settings);
 
-    verify(periodCleaner).clean(any(DbSession.class), anyLong(), any(Settings.class));
+    verify(periodCleaner).clean(any(DbSession.class), anyLong(), any(Settings.class), any(PurgeProfiler.class));
   }
 }
@@ -0,0 +1,113 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.duplication;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlockTableTest {
+
+  BlockTable underTest = new BlockTable();
+
+  @Test
+  public void find_nothing_in_empty_table() {
+    assertThat(refsOf(42L)).isEmpty();
+    assertThat(underTest.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void find_all_refs_of_a_key() {
+    underTest.put(42L, 1L);
+    underTest.put(42L, 2L);
+    underTest.put(43L, 3L);
+
+    assertThat(refsOf(42L)).containsOnly(1L, 2L);
+    assertThat(refsOf(43L)).containsOnly(3L);
+    assertThat(refsOf(44L)).isEmpty();
+    assertThat(underTest.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void remove_entry_of_a_key() {
+    int first = underTest.put(42L, 1L);
+    underTest.put(42L, 2L);
+    underTest.put(43L, 3L);
+
+    underTest.remove(first);
+
+    assertThat(refsOf(42L)).containsOnly(2L);
+    assertThat(refsOf(43L)).containsOnly(3L);
+    assertThat(underTest.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void remove_last_entry_of_a_key() {
+    int entry = underTest.put(42L, 1L);
+
+    underTest.remove(entry);
+
+    assertThat(refsOf(42L)).isEmpty();
+    assertThat(underTest.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void grow_and_reuse_removed_entries() {
+    int[] entries = new int[10_000];
+    for (int i = 0; i < 10_000; i++) {
+      entries[i] = underTest.put(i % 1_000, i);
+    }
+    for (int i = 0; i < 10_000; i += 2) {
+      underTest.remove(entries[i]);
+    }
+    for (long i = 10_000; i < 20_000; i++) {
+      underTest.put(i % 1_000, i);
+    }
+
+    assertThat(underTest.size()).isEqualTo(15_000);
+    assertThat(refsOf(1L)).hasSize(20).contains(1L, 19_001L).doesNotContain(2L);
+    assertThat(refsOf(2L)).hasSize(10).contains(10_002L).doesNotContain(2L, 1_002L);
+  }
+
+  @Test
+  public void put_and_remove_many_refs_of_the_same_key() {
+    int[] entries = new int[100_000];
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = underTest.put(42L, i);
+    }
+    for (int i = 0; i < entries.length - 1; i++) {
+      underTest.remove(entries[i]);
+    }
+
+    assertThat(refsOf(42L)).containsOnly(99_999L);
+    assertThat(underTest.size()).isEqualTo(1);
+  }
+
+  private List<Long> refsOf(long key) {
+    List<Long> res = new ArrayList<>();
+    BlockTable.Cursor cursor = underTest.find(key);
+    while (cursor.next()) {
+      res.add(cursor.ref());
+    }
+    return res;
+  }
+}
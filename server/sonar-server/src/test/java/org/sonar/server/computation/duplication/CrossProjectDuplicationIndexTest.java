@@ -0,0 +1,263 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.duplication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.MessageException;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDao;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.duplication.DuplicationDao;
+import org.sonar.db.duplication.DuplicationUnitDto;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class CrossProjectDuplicationIndexTest {
+
+  static final String HASH = "a8998353e96320ec";
+  static final String JAVA = "java";
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  Settings settings = new Settings().setProperty(CrossProjectDuplicationIndex.ENABLED_PROPERTY, true);
+  DbSession dbSession = mock(DbSession.class);
+  DuplicationDao duplicationDao = mock(DuplicationDao.class);
+  ComponentDao componentDao = mock(ComponentDao.class);
+  DbClient dbClient = mock(DbClient.class);
+  // files in database
+  Map<String, ComponentDto> filesByUuid = new HashMap<>();
+
+  CrossProjectDuplicationIndex underTest;
+
+  @Test
+  public void disabled_by_default() {
+    underTest = new CrossProjectDuplicationIndex(new Settings(), dbClient);
+
+    underTest.start();
+    underTest.deleteProject("P1");
+
+    assertThat(underTest.isEnabled()).isFalse();
+    verifyZeroInteractions(dbClient);
+  }
+
+  @Test
+  public void fail_if_max_blocks_is_not_strictly_positive() {
+    settings.setProperty(CrossProjectDuplicationIndex.MAX_BLOCKS_PROPERTY, "0");
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("value '0' of property sonar.ce.duplicationIndex.maxBlocks is invalid. It must be an integer strictly greater than 0.");
+
+    new CrossProjectDuplicationIndex(settings, dbClient);
+  }
+
+  @Test
+  public void default_max_blocks_is_bound_by_heap() {
+    assertThat(CrossProjectDuplicationIndex.defaultMaxBlocks(1024L * 1024 * 1024)).isEqualTo(1_073_741);
+    assertThat(CrossProjectDuplicationIndex.defaultMaxBlocks(64L * 1024 * 1024 * 1024)).isEqualTo(5_000_000);
+  }
+
+  @Test
+  public void select_candidates_of_other_projects_with_same_language() {
+    underTest = newIndex();
+    underTest.newProject("P1", 10L)
+      .add(newUnit("P1:File1", JAVA, HASH, 0))
+      .add(newUnit("P1:File1", JAVA, "b1234353e96320ff", 1))
+      .add(newUnit("P1:File2", "js", HASH, 0))
+      .commit();
+    underTest.newProject("P2", 20L)
+      .add(newUnit("P2:File1", JAVA, HASH, 3))
+      .commit();
+
+    List<DuplicationUnitDto> candidates = underTest.selectCandidates(dbSession, "P2", JAVA, singletonList(HASH));
+    assertThat(candidates).hasSize(1);
+    DuplicationUnitDto candidate = candidates.get(0);
+    assertThat(candidate.getComponentKey()).isEqualTo("P1:File1");
+    assertThat(candidate.getProjectSnapshotId()).isEqualTo(10L);
+    assertThat(candidate.getHash()).isEqualTo(HASH);
+    assertThat(candidate.getIndexInFile()).isEqualTo(0);
+    assertThat(candidate.getStartLine()).isEqualTo(1);
+    assertThat(candidate.getEndLine()).isEqualTo(10);
+
+    assertThat(underTest.selectCandidates(dbSession, "P3", JAVA, Arrays.asList(HASH, "b1234353e96320ff")))
+      .extracting("componentKey").containsOnly("P1:File1", "P1:File1", "P2:File1");
+    assertThat(underTest.selectCandidates(dbSession, "P3", "js", singletonList(HASH))).extracting("componentKey").containsOnly("P1:File2");
+    assertThat(underTest.selectCandidates(dbSession, "P3", JAVA, singletonList("unknown"))).isEmpty();
+    assertThat(underTest.getBlockCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void replace_blocks_of_project_on_new_analysis() {
+    underTest = newIndex();
+    underTest.newProject("P1", 10L).add(newUnit("P1:File1", JAVA, HASH, 0)).commit();
+    underTest.newProject("P1", 11L).add(newUnit("P1:File2", JAVA, HASH, 0)).commit();
+
+    assertThat(underTest.selectCandidates(dbSession, "P2", JAVA, singletonList(HASH))).extracting("componentKey").containsOnly("P1:File2");
+    assertThat(underTest.getBlockCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void select_current_key_of_files() {
+    underTest = newIndex();
+    underTest.newProject("P1", 10L).add(newUnit("P1:File1", JAVA, HASH, 0)).commit();
+
+    // key of project is updated after its analysis
+    filesByUuid.get(uuidOf("P1:File1")).setKey("P1-renamed:File1");
+
+    assertThat(underTest.selectCandidates(dbSession, "P2", JAVA, singletonList(HASH))).extracting("componentKey").containsOnly("P1-renamed:File1");
+  }
+
+  @Test
+  public void ignore_blocks_of_disabled_files() {
+    underTest = newIndex();
+    underTest.newProject("P1", 10L).add(newUnit("P1:File1", JAVA, HASH, 0)).add(newUnit("P1:File2", JAVA, HASH, 0)).commit();
+
+    filesByUuid.get(uuidOf("P1:File1")).setEnabled(false);
+    filesByUuid.remove(uuidOf("P1:File2"));
+
+    assertThat(underTest.selectCandidates(dbSession, "P2", JAVA, singletonList(HASH))).isEmpty();
+  }
+
+  @Test
+  public void delete_project() {
+    underTest = newIndex();
+    underTest.newProject("P1", 10L).add(newUnit("P1:File1", JAVA, HASH, 0)).commit();
+
+    underTest.deleteProject("P1");
+
+    assertThat(underTest.selectCandidates(dbSession, "P2", JAVA, singletonList(HASH))).isEmpty();
+    assertThat(underTest.getBlockCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void evict_least_recently_analyzed_projects_and_search_their_blocks_in_db() {
+    settings.setProperty(CrossProjectDuplicationIndex.MAX_BLOCKS_PROPERTY, 2);
+    underTest = newIndex();
+    underTest.newProject("P1", 10L).add(newUnit("P1:File1", JAVA, HASH, 0)).commit();
+    underTest.newProject("P2", 20L).add(newUnit("P2:File1", JAVA, HASH, 0)).add(newUnit("P2:File1", JAVA, HASH, 1)).commit();
+    DuplicationUnitDto dbUnit = newUnit("P1:File1", JAVA, HASH, 0).setComponentKey("P1:File1").setProjectSnapshotId(10L);
+    when(duplicationDao.selectCandidatesOfProjectSnapshots(dbSession, JAVA, singletonList(HASH), singletonList(10L))).thenReturn(singletonList(dbUnit));
+
+    List<DuplicationUnitDto> candidates = underTest.selectCandidates(dbSession, "P3", JAVA, singletonList(HASH));
+
+    assertThat(underTest.getBlockCount()).isEqualTo(2);
+    assertThat(candidates).extracting("componentKey").containsOnly("P1:File1", "P2:File1", "P2:File1");
+    assertThat(underTest.selectCandidates(dbSession, "P1", JAVA, singletonList(HASH))).extracting("componentKey").containsOnly("P2:File1", "P2:File1");
+  }
+
+  @Test
+  public void load_last_units_at_startup() {
+    underTest = newIndex();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ResultHandler handler = (ResultHandler) invocation.getArguments()[1];
+        handle(handler, newUnit("P1:File1", JAVA, HASH, 0).setProjectUuid("P1").setProjectSnapshotId(10L));
+        handle(handler, newUnit("P1:File2", JAVA, HASH, 0).setProjectUuid("P1").setProjectSnapshotId(10L));
+        handle(handler, newUnit("P2:File1", JAVA, HASH, 0).setProjectUuid("P2").setProjectSnapshotId(20L));
+        return null;
+      }
+    }).when(duplicationDao).selectLastUnits(eq(dbSession), any(ResultHandler.class));
+
+    underTest.start();
+
+    assertThat(underTest.getBlockCount()).isEqualTo(3);
+    assertThat(underTest.selectCandidates(dbSession, "P3", JAVA, singletonList(HASH))).extracting("componentKey")
+      .containsOnly("P1:File1", "P1:File2", "P2:File1");
+    assertThat(underTest.selectCandidates(dbSession, "P2", JAVA, singletonList(HASH))).extracting("projectSnapshotId")
+      .containsOnly(10L, 10L);
+  }
+
+  @Test
+  public void to_key_parses_hexadecimal_hashes() {
+    assertThat(CrossProjectDuplicationIndex.toKey("a8998353e96320ec")).isEqualTo(0xa8998353e96320ecL);
+    assertThat(CrossProjectDuplicationIndex.toKey("0000000000000001")).isEqualTo(1L);
+    assertThat(CrossProjectDuplicationIndex.toKey("not an hexa hash")).isNotEqualTo(CrossProjectDuplicationIndex.toKey("another one"));
+  }
+
+  private CrossProjectDuplicationIndex newIndex() {
+    when(dbClient.openSession(false)).thenReturn(dbSession);
+    when(dbClient.duplicationDao()).thenReturn(duplicationDao);
+    when(dbClient.componentDao()).thenReturn(componentDao);
+    when(componentDao.selectByUuids(eq(dbSession), anyCollectionOf(String.class))).thenAnswer(new Answer<List<ComponentDto>>() {
+      @Override
+      public List<ComponentDto> answer(InvocationOnMock invocation) {
+        List<ComponentDto> res = new ArrayList<>();
+        for (String uuid : (Collection<String>) invocation.getArguments()[1]) {
+          if (filesByUuid.containsKey(uuid)) {
+            res.add(filesByUuid.get(uuid));
+          }
+        }
+        return res;
+      }
+    });
+    when(duplicationDao.selectCandidatesOfProjectSnapshots(any(DbSession.class), anyString(), anyCollectionOf(String.class), anyCollectionOf(Long.class)))
+      .thenReturn(Collections.<DuplicationUnitDto>emptyList());
+    return new CrossProjectDuplicationIndex(settings, dbClient);
+  }
+
+  private DuplicationUnitDto newUnit(String componentKey, String language, String hash, int indexInFile) {
+    String componentUuid = uuidOf(componentKey);
+    if (!filesByUuid.containsKey(componentUuid)) {
+      filesByUuid.put(componentUuid, new ComponentDto().setUuid(componentUuid).setKey(componentKey).setEnabled(true));
+    }
+    return new DuplicationUnitDto()
+      .setComponentUuid(componentUuid)
+      .setLanguage(language)
+      .setHash(hash)
+      .setIndexInFile(indexInFile)
+      .setStartLine(1)
+      .setEndLine(10);
+  }
+
+  private static String uuidOf(String componentKey) {
+    return "UUID_" + componentKey;
+  }
+
+  private static void handle(ResultHandler handler, final DuplicationUnitDto dto) {
+    ResultContext context = mock(ResultContext.class);
+    when(context.getResultObject()).thenReturn(dto);
+    handler.handleResult(context);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.issue;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.Test;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.Duration;
+import org.sonar.core.issue.DefaultIssue;
+import org.sonar.core.issue.DefaultIssueComment;
+import org.sonar.core.issue.FieldDiffs;
+import org.sonar.db.protobuf.DbCommons;
+import org.sonar.db.protobuf.DbIssues;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class DefaultIssueCodecTest {
+
+  DefaultIssueCodec underTest = new DefaultIssueCodec();
+
+  @Test
+  public void encode_and_decode_issue_with_all_fields() throws Exception {
+    FieldDiffs change = new FieldDiffs()
+      .setIssueKey("ISSUE1")
+      .setUserLogin("john")
+      .setCreationDate(new Date(1_000L))
+      .setDiff("severity", Severity.MINOR, Severity.MAJOR)
+      .setDiff("technicalDebt", 10L, 20L)
+      .setDiff("assignee", null, "john");
+    FieldDiffs currentChange = new FieldDiffs().setIssueKey("ISSUE1").setDiff("status", "OPEN", "RESOLVED");
+    DefaultIssueComment comment = new DefaultIssueComment()
+      .setIssueKey("ISSUE1")
+      .setKey("COMMENT1")
+      .setUserLogin("john")
+      .setMarkdownText("a comment")
+      .setCreatedAt(new Date(2_000L))
+      .setUpdatedAt(new Date(3_000L))
+      .setNew(true);
+    DbIssues.Locations locations = DbIssues.Locations.newBuilder()
+      .setTextRange(DbCommons.TextRange.newBuilder().setStartLine(3).setEndLine(5))
+      .build();
+    DefaultIssue issue = new DefaultIssue()
+      .setKey("ISSUE1")
+      .setComponentUuid("FILE1")
+      .setComponentKey("PROJECT:File.java")
+      .setModuleUuid("MODULE1")
+      .setModuleUuidPath(".MODULE1.")
+      .setProjectUuid("PROJECT1")
+      .setProjectKey("PROJECT")
+      .setLanguage("java")
+      .setRuleKey(RuleKey.of("squid", "S001"))
+      .setSeverity(Severity.MAJOR)
+      .setManualSeverity(true)
+      .setMessage("the message")
+      .setLine(42)
+      .setEffortToFix(2.5)
+      .setDebt(Duration.create(20L))
+      .setStatus("RESOLVED")
+      .setResolution("FIXED")
+      .setReporter("simon")
+      .setAssignee("john")
+      .setChecksum("c7b5db46591806455cf082bb348631e8")
+      .setAuthorLogin("julien")
+      .setActionPlanKey("PLAN1")
+      .setCreationDate(new Date(4_000L))
+      .setUpdateDate(new Date(5_000L))
+      .setCloseDate(new Date(6_000L))
+      .setSelectedAt(7_000L)
+      .setAttributes(ImmutableMap.of("JIRA", "FOO-123"))
+      .setTags(Arrays.asList("convention", "bug"))
+      .setNew(false)
+      .setBeingClosed(true)
+      .setOnDisabledRule(true)
+      .setChanged(true)
+      .setSendNotifications(true)
+      .setLocations(locations)
+      .addChange(change)
+      .addChange(change)
+      .setCurrentChange(currentChange)
+      .addComment(comment);
+
+    DefaultIssue decoded = encodeAndDecode(issue);
+
+    assertThat(decoded.key()).isEqualTo("ISSUE1");
+    assertThat(decoded.componentUuid()).isEqualTo("FILE1");
+    assertThat(decoded.componentKey()).isEqualTo("PROJECT:File.java");
+    assertThat(decoded.moduleUuid()).isEqualTo("MODULE1");
+    assertThat(decoded.moduleUuidPath()).isEqualTo(".MODULE1.");
+    assertThat(decoded.projectUuid()).isEqualTo("PROJECT1");
+    assertThat(decoded.projectKey()).isEqualTo("PROJECT");
+    assertThat(decoded.language()).isEqualTo("java");
+    assertThat(decoded.ruleKey()).isEqualTo(RuleKey.of("squid", "S001"));
+    assertThat(decoded.severity()).isEqualTo(Severity.MAJOR);
+    assertThat(decoded.manualSeverity()).isTrue();
+    assertThat(decoded.message()).isEqualTo("the message");
+    assertThat(decoded.line()).isEqualTo(42);
+    assertThat(decoded.effortToFix()).isEqualTo(2.5);
+    assertThat(decoded.debt()).isEqualTo(Duration.create(20L));
+    assertThat(decoded.status()).isEqualTo("RESOLVED");
+    assertThat(decoded.resolution()).isEqualTo("FIXED");
+    assertThat(decoded.reporter()).isEqualTo("simon");
+    assertThat(decoded.assignee()).isEqualTo("john");
+    assertThat(decoded.checksum()).isEqualTo("c7b5db46591806455cf082bb348631e8");
+    assertThat(decoded.authorLogin()).isEqualTo("julien");
+    assertThat(decoded.actionPlanKey()).isEqualTo("PLAN1");
+    assertThat(decoded.creationDate()).isEqualTo(new Date(4_000L));
+    assertThat(decoded.updateDate()).isEqualTo(new Date(5_000L));
+    assertThat(decoded.closeDate()).isEqualTo(new Date(6_000L));
+    assertThat(decoded.selectedAt()).isEqualTo(7_000L);
+    assertThat(decoded.attributes()).containsOnly(entry("JIRA", "FOO-123"));
+    assertThat(decoded.tags()).containsExactly("convention", "bug");
+    assertThat(decoded.isNew()).isFalse();
+    assertThat(decoded.isBeingClosed()).isTrue();
+    assertThat(decoded.isOnDisabledRule()).isTrue();
+    assertThat(decoded.isChanged()).isTrue();
+    assertThat(decoded.mustSendNotifications()).isTrue();
+    assertThat(decoded.<DbIssues.Locations>getLocations()).isEqualTo(locations);
+
+    assertThat(decoded.comments()).hasSize(1);
+    DefaultIssueComment decodedComment = (DefaultIssueComment) decoded.comments().get(0);
+    assertThat(decodedComment.issueKey()).isEqualTo("ISSUE1");
+    assertThat(decodedComment.key()).isEqualTo("COMMENT1");
+    assertThat(decodedComment.userLogin()).isEqualTo("john");
+    assertThat(decodedComment.markdownText()).isEqualTo("a comment");
+    assertThat(decodedComment.createdAt()).isEqualTo(new Date(2_000L));
+    assertThat(decodedComment.updatedAt()).isEqualTo(new Date(3_000L));
+    assertThat(decodedComment.isNew()).isTrue();
+
+    assertThat(decoded.changes()).hasSize(3);
+    FieldDiffs decodedChange = decoded.changes().get(0);
+    assertThat(decoded.changes().get(1)).isSameAs(decodedChange);
+    assertThat(decoded.changes().get(2)).isSameAs(decoded.currentChange());
+    assertThat(decodedChange.issueKey()).isEqualTo("ISSUE1");
+    assertThat(decodedChange.userLogin()).isEqualTo("john");
+    assertThat(decodedChange.creationDate()).isEqualTo(new Date(1_000L));
+    assertThat(decodedChange.toString()).isEqualTo(change.toString());
+    assertThat(decodedChange.get("technicalDebt").oldValueLong()).isEqualTo(10L);
+    assertThat(decoded.currentChange().toString()).isEqualTo(currentChange.toString());
+  }
+
+  @Test
+  public void encode_and_decode_issue_without_optional_fields() throws Exception {
+    DefaultIssue issue = new DefaultIssue().setKey("ISSUE1");
+
+    DefaultIssue decoded = encodeAndDecode(issue);
+
+    assertThat(decoded.key()).isEqualTo("ISSUE1");
+    assertThat(decoded.isNew()).isTrue();
+    assertThat(decoded.ruleKey()).isNull();
+    assertThat(decoded.line()).isNull();
+    assertThat(decoded.effortToFix()).isNull();
+    assertThat(decoded.debt()).isNull();
+    assertThat(decoded.status()).isNull();
+    assertThat(decoded.creationDate()).isNull();
+    assertThat(decoded.selectedAt()).isNull();
+    assertThat(decoded.attributes()).isEmpty();
+    assertThat(decoded.tags()).isEmpty();
+    assertThat(decoded.comments()).isEmpty();
+    assertThat(decoded.changes()).isEmpty();
+    assertThat(decoded.currentChange()).isNull();
+    assertThat(decoded.<Object>getLocations()).isNull();
+  }
+
+  @Test
+  public void encode_and_decode_several_issues_in_sequence() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    underTest.write(new DefaultIssue().setKey("ISSUE1").setLine(1), output);
+    underTest.write(new DefaultIssue().setKey("ISSUE2").setStatus("OPEN"), output);
+
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    assertThat(underTest.read(input).line()).isEqualTo(1);
+    DefaultIssue second = underTest.read(input);
+    assertThat(second.key()).isEqualTo("ISSUE2");
+    assertThat(second.status()).isEqualTo("OPEN");
+    assertThat(input.available()).isEqualTo(0);
+  }
+
+  private DefaultIssue encodeAndDecode(DefaultIssue issue) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    underTest.write(issue, new DataOutputStream(bytes));
+    return underTest.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+}
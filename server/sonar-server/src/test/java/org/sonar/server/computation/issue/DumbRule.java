@@ -33,6 +33,7 @@ public class DumbRule implements Rule {
   private RuleKey key;
   private String name;
   private RuleStatus status = RuleStatus.READY;
+  private String language;
   private Set<String> tags = new HashSet<>();
   private Integer subCharacteristicId;
   private DebtRemediationFunction function;
@@ -62,6 +63,11 @@ public class DumbRule implements Rule {
     return requireNonNull(status);
   }
 
+  @Override
+  public String getLanguage() {
+    return language;
+  }
+
   @Override
   public Set<String> getTags() {
     return requireNonNull(tags);
@@ -92,6 +98,11 @@ public class DumbRule implements Rule {
     return this;
   }
 
+  public DumbRule setLanguage(@Nullable String language) {
+    this.language = language;
+    return this;
+  }
+
   public DumbRule setSubCharacteristicId(@Nullable Integer subCharacteristicId) {
     this.subCharacteristicId = subCharacteristicId;
     return this;
@@ -22,6 +22,7 @@ package org.sonar.server.computation.issue;
 
 import java.util.Collections;
 import java.util.List;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -34,6 +35,7 @@ import org.sonar.api.utils.System2;
 import org.sonar.batch.protocol.Constants;
 import org.sonar.batch.protocol.output.BatchReport;
 import org.sonar.core.issue.DefaultIssue;
+import org.sonar.core.issue.tracking.Input;
 import org.sonar.core.issue.tracking.Tracker;
 import org.sonar.db.DbTester;
 import org.sonar.db.component.ComponentDto;
@@ -44,19 +46,27 @@ import org.sonar.db.rule.RuleTesting;
 import org.sonar.server.computation.batch.BatchReportReaderRule;
 import org.sonar.server.computation.batch.TreeRootHolderRule;
 import org.sonar.server.computation.component.Component;
+import org.sonar.server.computation.component.DepthTraversalTypeAwareCrawler;
+import org.sonar.server.computation.component.ReportComponent;
 import org.sonar.server.computation.component.TypeAwareVisitor;
 import org.sonar.server.computation.issue.commonrule.CommonRuleEngineImpl;
 import org.sonar.server.computation.qualityprofile.ActiveRulesHolderRule;
 import org.sonar.server.computation.source.SourceLinesRepositoryRule;
+import org.sonar.server.computation.taskprocessor.CeConfiguration;
 import org.sonar.server.issue.IssueTesting;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Sets.newHashSet;
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.sonar.server.computation.component.ReportComponent.builder;
 
 public class IntegrateIssuesVisitorTest {
@@ -104,9 +114,10 @@ public class IntegrateIssuesVisitorTest {
 
   ArgumentCaptor<DefaultIssue> defaultIssueCaptor = ArgumentCaptor.forClass(DefaultIssue.class);
 
-  BaseIssuesLoader baseIssuesLoader = new BaseIssuesLoader(treeRootHolder, dbTester.getDbClient(), ruleRepositoryRule, activeRulesHolderRule);
-  TrackerExecution tracker = new TrackerExecution(new TrackerBaseInputFactory(baseIssuesLoader, dbTester.getDbClient()), new TrackerRawInputFactory(treeRootHolder, reportReader,
-    fileSourceRepository, new CommonRuleEngineImpl()), new Tracker<DefaultIssue, DefaultIssue>());
+  BaseIssuesLoader baseIssuesLoader = spy(new BaseIssuesLoader(treeRootHolder, dbTester.getDbClient(), ruleRepositoryRule, activeRulesHolderRule));
+  CeConfiguration ceConfiguration = mock(CeConfiguration.class);
+  Tracker<DefaultIssue, DefaultIssue> issueTracker = spy(new Tracker<DefaultIssue, DefaultIssue>());
+  TrackerExecution tracker;
   IssueCache issueCache;
 
   IssueLifecycle issueLifecycle = mock(IssueLifecycle.class);
@@ -120,6 +131,18 @@ public class IntegrateIssuesVisitorTest {
   public void setUp() throws Exception {
     treeRootHolder.setRoot(PROJECT);
     issueCache = new IssueCache(temp.newFile(), System2.INSTANCE);
+    initVisitor(1);
+  }
+
+  @After
+  public void tearDown() {
+    tracker.stop();
+  }
+
+  private void initVisitor(int workerCount) {
+    when(ceConfiguration.getStepWorkerCount()).thenReturn(workerCount);
+    tracker = new TrackerExecution(treeRootHolder, baseIssuesLoader, new TrackerBaseInputFactory(baseIssuesLoader, dbTester.getDbClient()),
+      new TrackerRawInputFactory(treeRootHolder, reportReader, fileSourceRepository, new CommonRuleEngineImpl()), issueTracker, ceConfiguration);
     underTest = new IntegrateIssuesVisitor(tracker, issueCache, issueLifecycle, issueVisitors, componentsWithUnprocessedIssues, componentIssuesRepository);
   }
 
@@ -279,6 +302,54 @@ public class IntegrateIssuesVisitorTest {
     assertThat(componentIssuesRepository.getIssues(PROJECT)).isEmpty();
   }
 
+  @Test
+  public void track_components_concurrently_and_keep_issues_in_component_order() throws Exception {
+    int nbFiles = 2 * TrackerExecution.COMPONENTS_PER_BATCH + 10;
+    initProjectWithFiles(nbFiles);
+    initVisitor(4);
+
+    new DepthTraversalTypeAwareCrawler(underTest).visit(treeRootHolder.getRoot());
+
+    List<DefaultIssue> issues = newArrayList(issueCache.traverse());
+    assertThat(issues).hasSize(nbFiles);
+    for (int i = 0; i < nbFiles; i++) {
+      assertThat(issues.get(i).message()).isEqualTo("message " + i);
+    }
+  }
+
+  @Test
+  public void single_worker_tracks_each_component_when_it_is_visited() throws Exception {
+    int nbFiles = 2 * TrackerExecution.COMPONENTS_PER_BATCH + 10;
+    initProjectWithFiles(nbFiles);
+    initVisitor(1);
+
+    underTest.visitAny(treeRootHolder.getRoot().getChildren().get(0));
+    underTest.visitAny(treeRootHolder.getRoot().getChildren().get(1));
+
+    // base issues are loaded by batches, but next components are not tracked in advance
+    verify(baseIssuesLoader, times(1)).loadForComponentUuids(anyListOf(String.class));
+    verify(issueTracker, times(2)).track(any(Input.class), any(Input.class));
+    List<DefaultIssue> issues = newArrayList(issueCache.traverse());
+    assertThat(issues).extracting("message").containsExactly("message 0", "message 1");
+  }
+
+  private void initProjectWithFiles(int nbFiles) {
+    componentsWithUnprocessedIssues.setUuids(Collections.<String>emptySet());
+    ReportComponent.Builder project = builder(Component.Type.PROJECT, PROJECT_REF).setKey(PROJECT_KEY).setUuid(PROJECT_UUID);
+    for (int i = 0; i < nbFiles; i++) {
+      int ref = 10 + i;
+      project.addChildren(builder(Component.Type.FILE, ref).setKey("FILE_KEY_" + i).setUuid("FILE_UUID_" + i).build());
+      reportReader.putIssues(ref, asList(BatchReport.Issue.newBuilder()
+        .setMsg("message " + i)
+        .setRuleRepository("xoo")
+        .setRuleKey("S001")
+        .setSeverity(Constants.Severity.BLOCKER)
+        .build()));
+      fileSourceRepository.addLine(ref, "line1");
+    }
+    treeRootHolder.setRoot(project.build());
+  }
+
   private void addBaseIssue(RuleKey ruleKey) {
     ComponentDto project = ComponentTesting.newProjectDto(PROJECT_UUID).setKey(PROJECT_KEY);
     ComponentDto file = ComponentTesting.newFileDto(project, FILE_UUID).setKey(FILE_KEY);
@@ -60,13 +60,19 @@ public class UpdateConflictResolverTest {
         .setAssignee("arthur")
       );
 
-    new UpdateConflictResolver().resolve(issue, mapper);
+    UpdateConflictResolver underTest = new UpdateConflictResolver();
+    underTest.resolve(issue, mapper, 1_500_000_000_000L);
 
     ArgumentCaptor<IssueDto> argument = ArgumentCaptor.forClass(IssueDto.class);
     verify(mapper).update(argument.capture());
     IssueDto updatedIssue = argument.getValue();
     assertThat(updatedIssue.getKee()).isEqualTo("ABCDE");
     assertThat(updatedIssue.getAssignee()).isEqualTo("arthur");
+    assertThat(updatedIssue.getUpdatedAt()).isEqualTo(1_500_000_000_000L);
+
+    // merged issue is kept for indexing
+    assertThat(underTest.getResolved("ABCDE")).isSameAs(issue);
+    assertThat(underTest.getResolved("OTHER")).isNull();
   }
 
   @Test
@@ -0,0 +1,179 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.measure;
+
+import com.google.common.collect.SetMultimap;
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+import com.tngtech.java.junit.dataprovider.UseDataProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.sonar.server.computation.component.Component;
+import org.sonar.server.computation.component.DumbDeveloper;
+import org.sonar.server.computation.component.ReportComponent;
+import org.sonar.server.computation.measure.MapBasedRawMeasureRepository.OverridePolicy;
+import org.sonar.server.computation.metric.Metric;
+import org.sonar.server.computation.metric.MetricImpl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.guava.api.Assertions.assertThat;
+import static org.sonar.server.computation.measure.Measure.newMeasureBuilder;
+
+@RunWith(DataProviderRunner.class)
+public class ArrayBasedRawMeasureRepositoryTest {
+
+  private static final ReportComponent FILE_COMPONENT = ReportComponent.builder(Component.Type.FILE, 1).setKey("file cpt key").build();
+  private static final ReportComponent OTHER_COMPONENT = ReportComponent.builder(Component.Type.FILE, 2).setKey("some other key").build();
+  private static final ReportComponent FAR_COMPONENT = ReportComponent.builder(Component.Type.FILE, 100_000).setKey("far key").build();
+
+  private static final Metric INT_METRIC = new MetricImpl(1, "int", "int", Metric.MetricType.INT);
+  private static final Metric STRING_METRIC = new MetricImpl(2, "string", "string", Metric.MetricType.STRING);
+
+  @Rule
+  public ExpectedException expectedException = ExpectedException.none();
+
+  private ArrayBasedRawMeasureRepository underTest = new ArrayBasedRawMeasureRepository();
+
+  @DataProvider
+  public static Object[][] measures() {
+    return new Object[][] {
+      {Metric.MetricType.INT, newMeasureBuilder().create(12)},
+      {Metric.MetricType.MILLISEC, newMeasureBuilder().create(Long.MAX_VALUE / 3)},
+      {Metric.MetricType.FLOAT, newMeasureBuilder().create(1.23456d, 5)},
+      {Metric.MetricType.BOOL, newMeasureBuilder().create(true)},
+      {Metric.MetricType.BOOL, newMeasureBuilder().create(false)},
+      {Metric.MetricType.LEVEL, newMeasureBuilder().create(Measure.Level.WARN)},
+      {Metric.MetricType.STRING, newMeasureBuilder().create("sds")},
+      {Metric.MetricType.INT, newMeasureBuilder().create(3, "some data")},
+      {Metric.MetricType.INT, newMeasureBuilder().createNoValue()},
+      {Metric.MetricType.INT, newMeasureBuilder().setVariations(new MeasureVariations(1d, 2d)).create(5)}
+    };
+  }
+
+  @Test
+  @UseDataProvider("measures")
+  public void getRawMeasure_returns_measure_with_same_value(Metric.MetricType metricType, Measure measure) {
+    Metric metric = new MetricImpl(10, "key", "name", metricType);
+
+    underTest.add(FILE_COMPONENT, metric, measure);
+
+    Measure res = underTest.getRawMeasure(FILE_COMPONENT, metric).get();
+    assertThat(res.toString()).isEqualTo(measure.toString());
+    assertThat(underTest.getRawMeasure(OTHER_COMPONENT, metric)).isAbsent();
+  }
+
+  @Test
+  public void measures_which_are_not_primitive_are_returned_as_is() {
+    Measure measure = newMeasureBuilder().create("some value");
+
+    underTest.add(FILE_COMPONENT, STRING_METRIC, measure);
+
+    assertThat(underTest.getRawMeasure(FILE_COMPONENT, STRING_METRIC).get()).isSameAs(measure);
+  }
+
+  @Test
+  public void add_measure_of_component_with_large_ref() {
+    underTest.add(FILE_COMPONENT, INT_METRIC, newMeasureBuilder().create(1));
+    underTest.add(FAR_COMPONENT, INT_METRIC, newMeasureBuilder().create(2));
+
+    assertThat(underTest.getRawMeasure(FILE_COMPONENT, INT_METRIC).get().getIntValue()).isEqualTo(1);
+    assertThat(underTest.getRawMeasure(FAR_COMPONENT, INT_METRIC).get().getIntValue()).isEqualTo(2);
+    assertThat(underTest.getRawMeasure(OTHER_COMPONENT, INT_METRIC)).isAbsent();
+  }
+
+  @Test
+  public void add_throws_UOE_if_measure_already_exists() {
+    underTest.add(FILE_COMPONENT, INT_METRIC, newMeasureBuilder().create(1));
+
+    expectedException.expect(UnsupportedOperationException.class);
+
+    underTest.add(FILE_COMPONENT, INT_METRIC, newMeasureBuilder().create(2));
+  }
+
+  @Test
+  public void update_throws_UOE_if_measure_does_not_exist() {
+    expectedException.expect(UnsupportedOperationException.class);
+
+    underTest.update(FILE_COMPONENT, INT_METRIC, newMeasureBuilder().create(2));
+  }
+
+  @Test
+  public void update_replaces_primitive_measure_by_measure_with_variations_and_back() {
+    Measure primitive = newMeasureBuilder().create(1);
+    Measure withVariations = Measure.updatedMeasureBuilder(primitive).setVariations(new MeasureVariations(2d)).create();
+
+    underTest.add(FILE_COMPONENT, INT_METRIC, primitive);
+    underTest.update(FILE_COMPONENT, INT_METRIC, withVariations);
+
+    assertThat(underTest.getRawMeasure(FILE_COMPONENT, INT_METRIC).get()).isSameAs(withVariations);
+    assertThat(underTest.getRawMeasures(FILE_COMPONENT).get(INT_METRIC.getKey())).containsOnly(withVariations);
+
+    underTest.update(FILE_COMPONENT, INT_METRIC, newMeasureBuilder().create(3));
+
+    assertThat(underTest.getRawMeasure(FILE_COMPONENT, INT_METRIC).get().getIntValue()).isEqualTo(3);
+    assertThat(underTest.getRawMeasures(FILE_COMPONENT).get(INT_METRIC.getKey())).hasSize(1);
+  }
+
+  @Test
+  public void add_does_not_override_existing_measure_with_DO_NOT_OVERRIDE_policy() {
+    underTest.add(FILE_COMPONENT, INT_METRIC, newMeasureBuilder().create(1));
+    underTest.add(FILE_COMPONENT, INT_METRIC, newMeasureBuilder().create(2), OverridePolicy.DO_NOT_OVERRIDE);
+
+    assertThat(underTest.getRawMeasure(FILE_COMPONENT, INT_METRIC).get().getIntValue()).isEqualTo(1);
+  }
+
+  @Test
+  public void getRawMeasures_returns_primitive_and_other_measures() {
+    Measure ruleMeasure = newMeasureBuilder().forRule(10).create(4);
+    Measure developerMeasure = newMeasureBuilder().forDeveloper(new DumbDeveloper("DEV1")).create(5);
+    Measure stringMeasure = newMeasureBuilder().create("foo");
+    underTest.add(FILE_COMPONENT, INT_METRIC, newMeasureBuilder().create(3));
+    underTest.add(FILE_COMPONENT, INT_METRIC, ruleMeasure);
+    underTest.add(FILE_COMPONENT, INT_METRIC, developerMeasure);
+    underTest.add(FILE_COMPONENT, STRING_METRIC, stringMeasure);
+    underTest.add(OTHER_COMPONENT, INT_METRIC, newMeasureBuilder().create(6));
+
+    SetMultimap<String, Measure> measures = underTest.getRawMeasures(FILE_COMPONENT);
+    assertThat(measures.keySet()).containsOnly(INT_METRIC.getKey(), STRING_METRIC.getKey());
+    assertThat(measures.get(INT_METRIC.getKey())).hasSize(3).contains(ruleMeasure, developerMeasure);
+    assertThat(measures.get(STRING_METRIC.getKey())).containsOnly(stringMeasure);
+
+    assertThat(underTest.getRawMeasures(FILE_COMPONENT, INT_METRIC)).hasSize(3);
+    assertThat(underTest.getRawMeasures(FILE_COMPONENT, STRING_METRIC)).containsOnly(stringMeasure);
+    assertThat(underTest.getRawMeasure(FILE_COMPONENT, INT_METRIC).get().getIntValue()).isEqualTo(3);
+  }
+
+  @Test
+  public void getRawMeasures_returns_empty_if_component_has_no_measure() {
+    underTest.add(FILE_COMPONENT, INT_METRIC, newMeasureBuilder().create(3));
+
+    assertThat(underTest.getRawMeasures(OTHER_COMPONENT).isEmpty()).isTrue();
+    assertThat(underTest.getRawMeasures(FAR_COMPONENT, INT_METRIC)).isEmpty();
+  }
+
+  @Test
+  public void getBaseMeasure_is_not_supported() {
+    expectedException.expect(UnsupportedOperationException.class);
+
+    underTest.getBaseMeasure(FILE_COMPONENT, INT_METRIC);
+  }
+}
@@ -168,6 +168,25 @@ public class CeQueueImplTest {
     verify(listener, never()).onRemoved(eq(task), any(CeActivityDto.Status.class));
   }
 
+  @Test
+  public void purge_of_project_is_never_peeked_concurrently_with_its_reports() throws Exception {
+    CeTask report = submit(CeTaskTypes.REPORT, "PROJECT_1");
+    assertThat(underTest.peek().get().getUuid()).isEqualTo(report.getUuid());
+
+    // purge is submitted by the task of the report, which is still in progress
+    CeTask purge = submit(CeTaskTypes.PURGE, "PROJECT_1");
+    assertThat(underTest.peek().isPresent()).isFalse();
+
+    underTest.remove(report, CeActivityDto.Status.SUCCESS, null);
+    Optional<CeTask> peek = underTest.peek();
+    assertThat(peek.get().getUuid()).isEqualTo(purge.getUuid());
+    assertThat(peek.get().getType()).isEqualTo(CeTaskTypes.PURGE);
+
+    // next report of the project waits for the end of the purge
+    submit(CeTaskTypes.REPORT, "PROJECT_1");
+    assertThat(underTest.peek().isPresent()).isFalse();
+  }
+
   @Test
   public void peek_nothing_if_paused() throws Exception {
     submit(CeTaskTypes.REPORT, "PROJECT_1");
@@ -19,19 +19,30 @@
  */
 package org.sonar.server.computation.step;
 
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.InOrder;
 import org.sonar.api.utils.log.LogTester;
 import org.sonar.api.utils.log.LoggerLevel;
+import org.sonar.server.computation.taskprocessor.CeConfiguration;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ComputationStepExecutorTest {
@@ -40,13 +51,20 @@ public class ComputationStepExecutorTest {
   @Rule
   public ExpectedException expectedException = ExpectedException.none();
 
+  private CeConfiguration ceConfiguration = mock(CeConfiguration.class);
+
+  @Before
+  public void setUp() {
+    when(ceConfiguration.getStepWorkerCount()).thenReturn(1);
+  }
+
   @Test
   public void execute_call_execute_on_each_ComputationStep_in_order_returned_by_instances_method() {
     ComputationStep computationStep1 = mockComputationStep("step1");
     ComputationStep computationStep2 = mockComputationStep("step2");
     ComputationStep computationStep3 = mockComputationStep("step3");
 
-    new ComputationStepExecutor(mockComputationSteps(computationStep1, computationStep2, computationStep3))
+    new ComputationStepExecutor(mockComputationSteps(computationStep1, computationStep2, computationStep3), ceConfiguration)
       .execute();
 
     InOrder inOrder = inOrder(computationStep1, computationStep2, computationStep3);
@@ -68,7 +86,7 @@ public class ComputationStepExecutorTest {
       .when(computationStep)
       .execute();
 
-    ComputationStepExecutor computationStepExecutor = new ComputationStepExecutor(mockComputationSteps(computationStep));
+    ComputationStepExecutor computationStepExecutor = new ComputationStepExecutor(mockComputationSteps(computationStep), ceConfiguration);
 
     expectedException.expect(RuntimeException.class);
     expectedException.expectMessage(message);
@@ -81,7 +99,7 @@ public class ComputationStepExecutorTest {
     ComputationStep computationStep1 = mockComputationStep("step1");
     ComputationStep computationStep2 = mockComputationStep("step2");
 
-    new ComputationStepExecutor(mockComputationSteps(computationStep1, computationStep2))
+    new ComputationStepExecutor(mockComputationSteps(computationStep1, computationStep2), ceConfiguration)
         .execute();
 
     List<String> infoLogs = logTester.logs(LoggerLevel.INFO);
@@ -90,6 +108,54 @@ public class ComputationStepExecutorTest {
     assertThat(infoLogs.get(1)).contains("step2 | time=");
   }
 
+  @Test
+  public void execute_runs_independent_ConcurrentComputationSteps_concurrently() throws InterruptedException {
+    when(ceConfiguration.getStepWorkerCount()).thenReturn(2);
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    ComputationStep step1 = new LatchStep("step1", bothStarted, ImmutableSet.<Class<?>>of(String.class), ImmutableSet.<Class<?>>of(Integer.class));
+    ComputationStep step2 = new LatchStep("step2", bothStarted, ImmutableSet.<Class<?>>of(String.class), ImmutableSet.<Class<?>>of(Long.class));
+
+    new ComputationStepExecutor(mockComputationSteps(step1, step2), ceConfiguration)
+      .execute();
+
+    assertThat(bothStarted.getCount()).isEqualTo(0);
+    assertThat(logTester.logs(LoggerLevel.INFO)).hasSize(2);
+  }
+
+  @Test
+  public void execute_runs_dependent_ConcurrentComputationSteps_in_order() {
+    when(ceConfiguration.getStepWorkerCount()).thenReturn(4);
+    List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+    ComputationStep step1 = new RecordingStep("step1", executed, ImmutableSet.<Class<?>>of(), ImmutableSet.<Class<?>>of(String.class));
+    ComputationStep step2 = new RecordingStep("step2", executed, ImmutableSet.<Class<?>>of(String.class), ImmutableSet.<Class<?>>of(Integer.class));
+    ComputationStep step3 = new RecordingStep("step3", executed, ImmutableSet.<Class<?>>of(Integer.class), ImmutableSet.<Class<?>>of());
+
+    new ComputationStepExecutor(mockComputationSteps(step1, step2, step3), ceConfiguration)
+      .execute();
+
+    assertThat(executed).containsExactly("step1", "step2", "step3");
+  }
+
+  @Test
+  public void execute_with_several_step_workers_let_exception_thrown_by_ComputationStep_go_up_as_is_and_does_not_execute_next_steps() {
+    when(ceConfiguration.getStepWorkerCount()).thenReturn(2);
+    String message = "Exception should go up";
+    ComputationStep computationStep1 = mockComputationStep("step1");
+    doThrow(new IllegalArgumentException(message))
+      .when(computationStep1)
+      .execute();
+    ComputationStep computationStep2 = mockComputationStep("step2");
+
+    try {
+      new ComputationStepExecutor(mockComputationSteps(computationStep1, computationStep2), ceConfiguration)
+        .execute();
+      fail("exception should have been raised");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage(message);
+    }
+    verify(computationStep2, never()).execute();
+  }
+
   private static ComputationSteps mockComputationSteps(ComputationStep... computationSteps) {
     ComputationSteps steps = mock(ComputationSteps.class);
     when(steps.instances()).thenReturn(Arrays.asList(computationSteps));
@@ -101,4 +167,63 @@ public class ComputationStepExecutorTest {
     when(mock.getDescription()).thenReturn(desc);
     return mock;
   }
+
+  private static class RecordingStep implements ConcurrentComputationStep {
+    private final String description;
+    private final List<String> executed;
+    private final Set<Class<?>> reads;
+    private final Set<Class<?>> writes;
+
+    private RecordingStep(String description, List<String> executed, Set<Class<?>> reads, Set<Class<?>> writes) {
+      this.description = description;
+      this.executed = executed;
+      this.reads = reads;
+      this.writes = writes;
+    }
+
+    @Override
+    public void execute() {
+      executed.add(description);
+    }
+
+    @Override
+    public Set<Class<?>> readDataTypes() {
+      return reads;
+    }
+
+    @Override
+    public Set<Class<?>> writtenDataTypes() {
+      return writes;
+    }
+
+    @Override
+    public String getDescription() {
+      return description;
+    }
+  }
+
+  /**
+   * A step which waits for all the steps sharing the same latch to be started, which can only happen when they are
+   * executed concurrently.
+   */
+  private static class LatchStep extends RecordingStep {
+    private final CountDownLatch latch;
+
+    private LatchStep(String description, CountDownLatch latch, Set<Class<?>> reads, Set<Class<?>> writes) {
+      super(description, new ArrayList<String>(), reads, writes);
+      this.latch = latch;
+    }
+
+    @Override
+    public void execute() {
+      latch.countDown();
+      try {
+        if (!latch.await(10, TimeUnit.SECONDS)) {
+          throw new IllegalStateException("steps were not executed concurrently");
+        }
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
 }
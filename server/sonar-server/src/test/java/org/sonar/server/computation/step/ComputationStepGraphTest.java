@@ -0,0 +1,93 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.step;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Arrays;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ComputationStepGraphTest {
+
+  @Test
+  public void steps_which_are_not_ConcurrentComputationStep_are_executed_in_sequence() {
+    ComputationStepGraph underTest = ComputationStepGraph.of(Arrays.asList(mock(ComputationStep.class), mock(ComputationStep.class), mock(ComputationStep.class)));
+
+    assertThat(underTest.size()).isEqualTo(3);
+    assertThat(underTest.getPredecessors(0)).isEmpty();
+    assertThat(underTest.getPredecessors(1)).containsOnly(0);
+    assertThat(underTest.getPredecessors(2)).containsOnly(1);
+    assertThat(underTest.getSuccessors(0)).containsOnly(1);
+    assertThat(underTest.getSuccessors(2)).isEmpty();
+  }
+
+  @Test
+  public void independent_ConcurrentComputationSteps_only_depend_on_the_previous_barrier() {
+    ComputationStepGraph underTest = ComputationStepGraph.of(Arrays.asList(
+      mock(ComputationStep.class),
+      concurrentStep(types(String.class), types(Integer.class)),
+      concurrentStep(types(String.class), types(Long.class)),
+      mock(ComputationStep.class)));
+
+    assertThat(underTest.getPredecessors(1)).containsOnly(0);
+    assertThat(underTest.getPredecessors(2)).containsOnly(0);
+    assertThat(underTest.getPredecessors(3)).containsOnly(0, 1, 2);
+    assertThat(underTest.getSuccessors(0)).containsOnly(1, 2, 3);
+  }
+
+  @Test
+  public void ConcurrentComputationStep_depends_on_previous_ones_writing_data_it_reads_or_writes_or_reading_data_it_writes() {
+    ComputationStepGraph underTest = ComputationStepGraph.of(Arrays.asList(
+      concurrentStep(types(), types(String.class)),
+      concurrentStep(types(String.class), types(Integer.class)),
+      concurrentStep(types(Long.class), types(Integer.class)),
+      concurrentStep(types(), types(Long.class)),
+      concurrentStep(types(Double.class), types(Short.class))));
+
+    assertThat(underTest.getPredecessors(0)).isEmpty();
+    // reads what step 0 writes
+    assertThat(underTest.getPredecessors(1)).containsOnly(0);
+    // writes what step 1 writes
+    assertThat(underTest.getPredecessors(2)).containsOnly(1);
+    // writes what step 2 reads
+    assertThat(underTest.getPredecessors(3)).containsOnly(2);
+    assertThat(underTest.getPredecessors(4)).isEmpty();
+  }
+
+  @Test
+  public void graph_of_no_step_is_empty() {
+    assertThat(ComputationStepGraph.of(Arrays.<ComputationStep>asList()).size()).isEqualTo(0);
+  }
+
+  private static Set<Class<?>> types(Class<?>... types) {
+    return ImmutableSet.copyOf(types);
+  }
+
+  private static ComputationStep concurrentStep(Set<Class<?>> reads, Set<Class<?>> writes) {
+    ConcurrentComputationStep res = mock(ConcurrentComputationStep.class);
+    when(res.readDataTypes()).thenReturn(reads);
+    when(res.writtenDataTypes()).thenReturn(writes);
+    return res;
+  }
+}
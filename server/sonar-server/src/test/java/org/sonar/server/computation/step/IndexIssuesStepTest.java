@@ -17,36 +17,192 @@
  * along with this program; if not, write to the Free Software Foundation,
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
  */
-
 package org.sonar.server.computation.step;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.System2;
+import org.sonar.core.issue.DefaultIssue;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbTester;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.component.ComponentTesting;
+import org.sonar.db.issue.IssueDto;
+import org.sonar.db.issue.IssueMapper;
+import org.sonar.db.rule.RuleDto;
+import org.sonar.db.rule.RuleTesting;
 import org.sonar.server.computation.batch.TreeRootHolderRule;
-import org.sonar.server.computation.component.Component;
-import org.sonar.server.computation.component.ReportComponent;
+import org.sonar.server.computation.issue.IssueCache;
+import org.sonar.server.computation.issue.IssuePersistenceDateHolder;
+import org.sonar.server.computation.issue.RuleRepositoryRule;
+import org.sonar.server.computation.issue.UpdateConflictResolver;
+import org.sonar.server.issue.index.IssueDoc;
 import org.sonar.server.issue.index.IssueIndexer;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
-import static org.sonar.server.computation.component.Component.Type.*;
-import static org.sonar.server.computation.component.ReportComponent.*;
+import static org.mockito.Mockito.when;
+import static org.sonar.server.computation.component.Component.Type.PROJECT;
+import static org.sonar.server.computation.component.ReportComponent.builder;
 
 public class IndexIssuesStepTest {
 
-  static String PROJECT_UUID = "PROJECT_UUID";
+  static final String PROJECT_UUID = "PROJECT_UUID";
+  static final long NOW = 1_500_000_000_000L;
+  static final RuleKey RULE_KEY = RuleKey.of("xoo", "S01");
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public DbTester dbTester = DbTester.create(System2.INSTANCE);
 
   @Rule
   public TreeRootHolderRule treeRootHolder = new TreeRootHolderRule()
     .setRoot(builder(PROJECT, 1).setUuid(PROJECT_UUID).setKey("PROJECT_KEY").build());
 
+  @Rule
+  public RuleRepositoryRule ruleRepository = new RuleRepositoryRule();
+
+  DbClient dbClient = dbTester.getDbClient();
+  System2 system2 = mock(System2.class);
+  IssueIndexer issueIndexer = mock(IssueIndexer.class);
+  UpdateConflictResolver conflictResolver = new UpdateConflictResolver();
+  IssuePersistenceDateHolder persistenceDateHolder = new IssuePersistenceDateHolder();
+  List<IssueDoc> indexedDocs = Lists.newArrayList();
+  IssueCache issueCache;
+  ComponentDto file;
+  IndexIssuesStep underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    issueCache = new IssueCache(temp.newFile(), System2.INSTANCE);
+    when(system2.now()).thenReturn(NOW);
+    ruleRepository.add(RULE_KEY).setLanguage("xoo");
+
+    ComponentDto project = ComponentTesting.newProjectDto(PROJECT_UUID);
+    file = ComponentTesting.newFileDto(project, "FILE_UUID").setPath("src/Foo.xoo");
+    dbClient.componentDao().insert(dbTester.getSession(), project, file);
+    dbTester.getSession().commit();
+
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        Iterator<IssueDoc> docs = (Iterator<IssueDoc>) invocation.getArguments()[1];
+        Iterators.addAll(indexedDocs, docs);
+        return null;
+      }
+    }).when(issueIndexer).index(eq(PROJECT_UUID), any(Iterator.class));
+
+    underTest = new IndexIssuesStep(issueIndexer, treeRootHolder, issueCache, ruleRepository, conflictResolver, dbClient, persistenceDateHolder);
+  }
+
   @Test
-  public void call_indexers() {
-    IssueIndexer issueIndexer = mock(IssueIndexer.class);
-    IndexIssuesStep underTest = new IndexIssuesStep(issueIndexer, treeRootHolder);
+  public void index_new_and_changed_issues_from_cache() {
+    issueCache.newAppender()
+      .append(newIssue("NEW").setNew(true))
+      .append(newIssue("CHANGED").setNew(false).setChanged(true))
+      .append(newIssue("UNCHANGED").setNew(false).setChanged(false))
+      .close();
+    persistenceDateHolder.setDate(NOW);
 
     underTest.execute();
 
-    verify(issueIndexer).index(PROJECT_UUID);
+    assertThat(indexedDocs).hasSize(2);
+    assertThat(indexedDocs.get(1).key()).isEqualTo("CHANGED");
+    IssueDoc doc = indexedDocs.get(0);
+    assertThat(doc.key()).isEqualTo("NEW");
+    assertThat(doc.projectUuid()).isEqualTo(PROJECT_UUID);
+    assertThat(doc.componentUuid()).isEqualTo("FILE_UUID");
+    assertThat(doc.moduleUuid()).isEqualTo(PROJECT_UUID);
+    assertThat(doc.filePath()).isEqualTo("src/Foo.xoo");
+    assertThat(doc.directoryPath()).isEqualTo("src");
+    assertThat(doc.ruleKey()).isEqualTo(RULE_KEY);
+    assertThat(doc.language()).isEqualTo("xoo");
+    assertThat(doc.severity()).isEqualTo(Severity.MAJOR);
+    assertThat(doc.status()).isEqualTo(Issue.STATUS_OPEN);
+    assertThat(doc.line()).isEqualTo(12);
+    assertThat(doc.attribute("jira")).isEqualTo("FOO-1");
+    assertThat(doc.tags()).containsOnly("bug");
+    assertThat(doc.getTechnicalUpdateDate()).isEqualTo(new Date(NOW));
+  }
+
+  @Test
+  public void index_issues_as_merged_by_conflict_resolver() {
+    DefaultIssue issue = newIssue("CONFLICT").setNew(false).setChanged(true);
+    issueCache.newAppender().append(issue).close();
+    IssueMapper mapper = mock(IssueMapper.class);
+    when(mapper.selectByKey("CONFLICT")).thenReturn(new IssueDto().setKee("CONFLICT").setStatus(Issue.STATUS_CONFIRMED).setAssignee("arthur"));
+    conflictResolver.resolve(issue, mapper, NOW);
+    persistenceDateHolder.setDate(NOW);
+
+    underTest.execute();
+
+    assertThat(indexedDocs).hasSize(1);
+    assertThat(indexedDocs.get(0).status()).isEqualTo(Issue.STATUS_CONFIRMED);
+    assertThat(indexedDocs.get(0).assignee()).isEqualTo("arthur");
+  }
+
+  @Test
+  public void index_technical_date_of_persisted_issues() {
+    RuleDto rule = RuleTesting.newDto(RULE_KEY);
+    dbClient.ruleDao().insert(dbTester.getSession(), rule);
+    dbTester.getSession().commit();
+    ruleRepository.add(RULE_KEY).setId(rule.getId()).setLanguage("xoo");
+    issueCache.newAppender().append(newIssue("NEW").setNew(true)).close();
+    // clock moves on between persistence and indexing
+    when(system2.now()).thenReturn(NOW, NOW + 1_000L);
+
+    new PersistIssuesStep(dbClient, system2, conflictResolver, ruleRepository, issueCache, persistenceDateHolder).execute();
+    underTest.execute();
+
+    IssueDto persisted = dbClient.issueDao().selectOrFailByKey(dbTester.getSession(), "NEW");
+    assertThat(indexedDocs).hasSize(1);
+    assertThat(indexedDocs.get(0).getTechnicalUpdateDate()).isEqualTo(new Date(persisted.getUpdatedAt()));
+  }
+
+  @Test
+  public void fail_if_component_of_issue_does_not_exist() {
+    issueCache.newAppender().append(newIssue("NEW").setNew(true).setComponentUuid("UNKNOWN")).close();
+    persistenceDateHolder.setDate(NOW);
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Component with uuid 'UNKNOWN' of issue 'NEW' does not exist");
+
+    underTest.execute();
+  }
+
+  private DefaultIssue newIssue(String key) {
+    return new DefaultIssue()
+      .setKey(key)
+      .setRuleKey(RULE_KEY)
+      .setComponentUuid(file.uuid())
+      .setProjectUuid(PROJECT_UUID)
+      .setSeverity(Severity.MAJOR)
+      .setStatus(Issue.STATUS_OPEN)
+      .setLine(12)
+      .setAttributes(ImmutableMap.of("jira", "FOO-1"))
+      .setTags(ImmutableSet.of("bug"));
   }
 }
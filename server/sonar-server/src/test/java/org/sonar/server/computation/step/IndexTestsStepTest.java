@@ -61,7 +61,7 @@ public class IndexTestsStepTest extends BaseStepTest {
 
   @Override
   protected ComputationStep step() {
-    TestIndexer testIndexer = new TestIndexer(dbClient, esTester.client());
+    TestIndexer testIndexer = new TestIndexer(dbClient, esTester.client(), new Settings());
     testIndexer.setEnabled(true);
     return new IndexTestsStep(testIndexer, treeRootHolder);
   }
@@ -21,12 +21,12 @@
 package org.sonar.server.computation.step;
 
 import java.util.*;
-
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
+import org.sonar.api.config.Settings;
 import org.sonar.api.utils.System2;
 import org.sonar.batch.protocol.output.BatchReport;
 import org.sonar.db.DbClient;
@@ -45,6 +45,7 @@ import org.sonar.server.computation.batch.TreeRootHolderRule;
 import org.sonar.server.computation.component.Component;
 import org.sonar.server.computation.component.FileAttributes;
 import org.sonar.server.computation.component.ReportComponent;
+import org.sonar.server.computation.duplication.CrossProjectDuplicationIndex;
 import org.sonar.server.computation.duplication.CrossProjectDuplicationStatusHolder;
 import org.sonar.server.computation.duplication.IntegrateCrossProjectDuplications;
 import org.sonar.server.computation.snapshot.Snapshot;
@@ -74,6 +75,7 @@ public class LoadCrossProjectDuplicationsRepositoryStepTest {
   @Rule
   public TreeRootHolderRule treeRootHolder = new TreeRootHolderRule().setRoot(
     ReportComponent.builder(PROJECT, PROJECT_REF)
+      .setUuid("PROJECT_UUID")
       .addChildren(CURRENT_FILE
       ).build());
 
@@ -94,10 +96,12 @@ public class LoadCrossProjectDuplicationsRepositoryStepTest {
 
   IntegrateCrossProjectDuplications integrateCrossProjectDuplications = mock(IntegrateCrossProjectDuplications.class);
 
+  CrossProjectDuplicationIndex crossProjectDuplicationIndex = mock(CrossProjectDuplicationIndex.class);
+
   Snapshot baseProjectSnapshot;
 
   ComputationStep underTest = new LoadCrossProjectDuplicationsRepositoryStep(treeRootHolder, batchReportReader, analysisMetadataHolder, crossProjectDuplicationStatusHolder,
-    integrateCrossProjectDuplications, dbClient);
+    integrateCrossProjectDuplications, crossProjectDuplicationIndex, dbClient);
 
   @Before
   public void setUp() throws Exception {
@@ -260,6 +264,137 @@ public class LoadCrossProjectDuplicationsRepositoryStepTest {
       );
   }
 
+  @Test
+  public void call_compute_cpd_on_each_file_with_its_own_duplications() throws Exception {
+    when(crossProjectDuplicationStatusHolder.isEnabled()).thenReturn(true);
+    analysisMetadataHolder.setBaseProjectSnapshot(baseProjectSnapshot);
+    Component secondFile = ReportComponent.builder(FILE, 3)
+      .setKey("SECOND_FILE_KEY")
+      .setFileAttributes(new FileAttributes(false, XOO_LANGUAGE))
+      .build();
+    treeRootHolder.setRoot(ReportComponent.builder(PROJECT, PROJECT_REF).addChildren(CURRENT_FILE, secondFile).build());
+
+    ComponentDto otherProject = createProject("OTHER_PROJECT_KEY");
+    SnapshotDto otherProjectSnapshot = createProjectSnapshot(otherProject);
+    ComponentDto otherFile = createFile("OTHER_FILE_KEY", otherProject);
+    SnapshotDto otherFileSnapshot = createFileSnapshot(otherFile, otherProjectSnapshot);
+
+    BatchReport.CpdTextBlock originBlock1 = BatchReport.CpdTextBlock.newBuilder()
+      .setHash("a8998353e96320ec")
+      .setStartLine(30)
+      .setEndLine(45)
+      .setStartTokenIndex(0)
+      .setEndTokenIndex(10)
+      .build();
+    BatchReport.CpdTextBlock originBlock2 = BatchReport.CpdTextBlock.newBuilder()
+      .setHash("b1234353e96320ff")
+      .setStartLine(10)
+      .setEndLine(25)
+      .setStartTokenIndex(5)
+      .setEndTokenIndex(15)
+      .build();
+    batchReportReader.putDuplicationBlocks(FILE_REF, asList(originBlock1));
+    batchReportReader.putDuplicationBlocks(3, asList(originBlock2));
+
+    DuplicationUnitDto duplicate1 = new DuplicationUnitDto()
+      .setHash(originBlock1.getHash())
+      .setStartLine(40)
+      .setEndLine(55)
+      .setIndexInFile(0)
+      .setProjectSnapshotId(otherProjectSnapshot.getId())
+      .setSnapshotId(otherFileSnapshot.getId());
+    DuplicationUnitDto duplicate2 = new DuplicationUnitDto()
+      .setHash(originBlock2.getHash())
+      .setStartLine(20)
+      .setEndLine(35)
+      .setIndexInFile(1)
+      .setProjectSnapshotId(otherProjectSnapshot.getId())
+      .setSnapshotId(otherFileSnapshot.getId());
+    dbClient.duplicationDao().insert(dbSession, duplicate1);
+    dbClient.duplicationDao().insert(dbSession, duplicate2);
+    dbSession.commit();
+
+    underTest.execute();
+
+    verify(integrateCrossProjectDuplications).computeCpd(eq(CURRENT_FILE), anyCollectionOf(Block.class), eq(asList(
+      new Block.Builder()
+        .setResourceId(otherFile.getKey())
+        .setBlockHash(new ByteArray(originBlock1.getHash()))
+        .setIndexInFile(duplicate1.getIndexInFile())
+        .setLines(duplicate1.getStartLine(), duplicate1.getEndLine())
+        .build())));
+    verify(integrateCrossProjectDuplications).computeCpd(eq(secondFile), anyCollectionOf(Block.class), eq(asList(
+      new Block.Builder()
+        .setResourceId(otherFile.getKey())
+        .setBlockHash(new ByteArray(originBlock2.getHash()))
+        .setIndexInFile(duplicate2.getIndexInFile())
+        .setLines(duplicate2.getStartLine(), duplicate2.getEndLine())
+        .build())));
+    verifyNoMoreInteractions(integrateCrossProjectDuplications);
+  }
+
+  @Test
+  public void call_compute_cpd_on_duplications_of_cross_project_duplication_index_when_enabled() throws Exception {
+    when(crossProjectDuplicationStatusHolder.isEnabled()).thenReturn(true);
+    analysisMetadataHolder.setBaseProjectSnapshot(baseProjectSnapshot);
+
+    String hash = "a8998353e96320ec";
+    ComponentDto otherFile = createFile("OTHER_FILE_KEY", createProject("OTHER_PROJECT_KEY"));
+    CrossProjectDuplicationIndex index = new CrossProjectDuplicationIndex(new Settings().setProperty(CrossProjectDuplicationIndex.ENABLED_PROPERTY, true), dbClient);
+    index.newProject("OTHER_PROJECT_UUID", 42L)
+      .add(new DuplicationUnitDto()
+        .setHash(hash)
+        .setStartLine(40)
+        .setEndLine(55)
+        .setIndexInFile(0)
+        .setComponentUuid(otherFile.uuid())
+        .setLanguage(XOO_LANGUAGE))
+      .commit();
+    // blocks of the current project are ignored
+    index.newProject("PROJECT_UUID", baseProjectSnapshot.getId())
+      .add(new DuplicationUnitDto()
+        .setHash(hash)
+        .setStartLine(1)
+        .setEndLine(10)
+        .setIndexInFile(0)
+        .setComponentUuid(CURRENT_FILE.getUuid())
+        .setLanguage(XOO_LANGUAGE))
+      .commit();
+    underTest = new LoadCrossProjectDuplicationsRepositoryStep(treeRootHolder, batchReportReader, analysisMetadataHolder, crossProjectDuplicationStatusHolder,
+      integrateCrossProjectDuplications, index, dbClient);
+
+    BatchReport.CpdTextBlock originBlock = BatchReport.CpdTextBlock.newBuilder()
+      .setHash(hash)
+      .setStartLine(30)
+      .setEndLine(45)
+      .setStartTokenIndex(0)
+      .setEndTokenIndex(10)
+      .build();
+    batchReportReader.putDuplicationBlocks(FILE_REF, asList(originBlock));
+
+    underTest.execute();
+
+    verify(integrateCrossProjectDuplications).computeCpd(CURRENT_FILE,
+      Arrays.asList(
+        new Block.Builder()
+          .setResourceId(CURRENT_FILE_KEY)
+          .setBlockHash(new ByteArray(hash))
+          .setIndexInFile(0)
+          .setLines(originBlock.getStartLine(), originBlock.getEndLine())
+          .setUnit(originBlock.getStartTokenIndex(), originBlock.getEndTokenIndex())
+          .build()
+        ),
+      Arrays.asList(
+        new Block.Builder()
+          .setResourceId("OTHER_FILE_KEY")
+          .setBlockHash(new ByteArray(hash))
+          .setIndexInFile(0)
+          .setLines(40, 55)
+          .build()
+        )
+      );
+  }
+
   @Test
   public void nothing_to_do_when_cross_project_duplication_is_disabled() throws Exception {
     when(crossProjectDuplicationStatusHolder.isEnabled()).thenReturn(false);
@@ -327,6 +462,37 @@ public class LoadCrossProjectDuplicationsRepositoryStepTest {
     verifyZeroInteractions(integrateCrossProjectDuplications);
   }
 
+  @Test
+  public void duplicated_blocks_do_not_depend_on_the_order_of_candidates() throws Exception {
+    when(crossProjectDuplicationStatusHolder.isEnabled()).thenReturn(true);
+    when(crossProjectDuplicationIndex.isEnabled()).thenReturn(true);
+    String hash = "a8998353e96320ec";
+    batchReportReader.putDuplicationBlocks(FILE_REF, asList(BatchReport.CpdTextBlock.newBuilder()
+      .setHash(hash)
+      .setStartLine(30)
+      .setEndLine(45)
+      .setStartTokenIndex(0)
+      .setEndTokenIndex(10)
+      .build()));
+    DuplicationUnitDto fileBBlock = new DuplicationUnitDto().setHash(hash).setComponentKey("FILE_B").setIndexInFile(0).setStartLine(1).setEndLine(10);
+    DuplicationUnitDto fileASecondBlock = new DuplicationUnitDto().setHash(hash).setComponentKey("FILE_A").setIndexInFile(3).setStartLine(20).setEndLine(30);
+    DuplicationUnitDto fileAFirstBlock = new DuplicationUnitDto().setHash(hash).setComponentKey("FILE_A").setIndexInFile(1).setStartLine(5).setEndLine(15);
+    when(crossProjectDuplicationIndex.selectCandidates(any(DbSession.class), anyString(), anyString(), anyCollectionOf(String.class)))
+      .thenReturn(asList(fileBBlock, fileASecondBlock, fileAFirstBlock));
+
+    underTest.execute();
+
+    ArgumentCaptor<List> duplicationBlocks = ArgumentCaptor.forClass(List.class);
+    verify(integrateCrossProjectDuplications).computeCpd(eq(CURRENT_FILE), anyCollectionOf(Block.class), duplicationBlocks.capture());
+    List<Block> blocks = duplicationBlocks.getValue();
+    assertThat(blocks).hasSize(3);
+    assertThat(blocks.get(0).getResourceId()).isEqualTo("FILE_A");
+    assertThat(blocks.get(0).getIndexInFile()).isEqualTo(1);
+    assertThat(blocks.get(1).getResourceId()).isEqualTo("FILE_A");
+    assertThat(blocks.get(1).getIndexInFile()).isEqualTo(3);
+    assertThat(blocks.get(2).getResourceId()).isEqualTo("FILE_B");
+  }
+
   private ComponentDto createProject(String projectKey) {
     ComponentDto project = ComponentTesting.newProjectDto().setKey(projectKey);
     dbClient.componentDao().insert(dbSession, project);
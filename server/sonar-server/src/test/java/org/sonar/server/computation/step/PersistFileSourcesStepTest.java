@@ -21,6 +21,7 @@
 package org.sonar.server.computation.step;
 
 import java.util.Arrays;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -47,11 +48,15 @@ import org.sonar.server.computation.duplication.TextBlock;
 import org.sonar.server.computation.scm.Changeset;
 import org.sonar.server.computation.scm.ScmInfoRepositoryRule;
 import org.sonar.server.computation.source.SourceLinesRepositoryRule;
+import org.sonar.server.computation.taskprocessor.CeConfiguration;
+import org.sonar.server.source.SourceCache;
 import org.sonar.test.DbTests;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @Category(DbTests.class)
@@ -83,6 +88,8 @@ public class PersistFileSourcesStepTest extends BaseStepTest {
 
   private DbClient dbClient = dbTester.getDbClient();
   private DbSession session = dbTester.getSession();
+  private SourceCache sourceCache = mock(SourceCache.class);
+  private CeConfiguration ceConfiguration = mock(CeConfiguration.class);
 
   private PersistFileSourcesStep underTest;
 
@@ -90,7 +97,9 @@ public class PersistFileSourcesStepTest extends BaseStepTest {
   public void setup() {
     dbTester.truncateTables();
     when(system2.now()).thenReturn(NOW);
-    underTest = new PersistFileSourcesStep(dbClient, system2, treeRootHolder, reportReader, fileSourceRepository, scmInfoRepository, duplicationRepository);
+    when(ceConfiguration.getStepWorkerCount()).thenReturn(1);
+    underTest = new PersistFileSourcesStep(dbClient, system2, treeRootHolder, reportReader, fileSourceRepository, scmInfoRepository, duplicationRepository,
+      sourceCache, ceConfiguration);
   }
 
   @Override
@@ -122,6 +131,31 @@ public class PersistFileSourcesStepTest extends BaseStepTest {
     assertThat(data.getLines(1).getSource()).isEqualTo("line2");
   }
 
+  @Test
+  public void persist_sources_of_many_files_with_many_workers() {
+    int numberOfFiles = 300;
+    when(ceConfiguration.getStepWorkerCount()).thenReturn(4);
+    underTest = new PersistFileSourcesStep(dbClient, system2, treeRootHolder, reportReader, fileSourceRepository, scmInfoRepository, duplicationRepository,
+      sourceCache, ceConfiguration);
+    ReportComponent.Builder project = ReportComponent.builder(Component.Type.PROJECT, 1).setUuid(PROJECT_UUID).setKey(PROJECT_KEY);
+    BatchReport.Component.Builder projectReport = BatchReport.Component.newBuilder().setRef(1).setType(Constants.ComponentType.PROJECT);
+    for (int ref = 2; ref < numberOfFiles + 2; ref++) {
+      project.addChildren(ReportComponent.builder(Component.Type.FILE, ref).setUuid("FILE_" + ref).setKey(PROJECT_KEY + ":File" + ref).build());
+      projectReport.addChildRef(ref);
+      reportReader.putComponent(BatchReport.Component.newBuilder().setRef(ref).setType(Constants.ComponentType.FILE).build());
+      fileSourceRepository.addLines(ref, "line1 of " + ref, "line2 of " + ref);
+    }
+    treeRootHolder.setRoot(project.build());
+    reportReader.putComponent(projectReport.build());
+
+    underTest.execute();
+
+    assertThat(dbTester.countRowsOfTable("file_sources")).isEqualTo(numberOfFiles);
+    FileSourceDto fileSourceDto = dbClient.fileSourceDao().selectSourceByFileUuid(session, "FILE_42");
+    assertThat(fileSourceDto.getProjectUuid()).isEqualTo(PROJECT_UUID);
+    assertThat(fileSourceDto.getSourceData().getLinesList()).extracting("source").containsExactly("line1 of 42", "line2 of 42");
+  }
+
   @Test
   public void persist_source_hashes() {
     initBasicReport(2);
@@ -320,9 +354,88 @@ public class PersistFileSourcesStepTest extends BaseStepTest {
     FileSourceDto fileSourceDto = dbClient.fileSourceDao().selectSourceByFileUuid(session, FILE_UUID);
     assertThat(fileSourceDto.getSrcHash()).isEqualTo(srcHash);
     assertThat(fileSourceDto.getLineHashes()).isEqualTo(lineHashes);
-    assertThat(fileSourceDto.getDataHash()).isEqualTo(dataHash);
+    // digest of the sources is replaced by the digest of their input data
+    assertThat(fileSourceDto.getDataHash()).isNotEqualTo(dataHash);
     assertThat(fileSourceDto.getCreatedAt()).isEqualTo(past);
     assertThat(fileSourceDto.getUpdatedAt()).isEqualTo(past);
+    verifyZeroInteractions(sourceCache);
+  }
+
+  @Test
+  public void not_compute_sources_again_when_input_data_did_not_change() {
+    initBasicReport(1);
+    underTest.execute();
+    String dataHash = dbClient.fileSourceDao().selectSourceByFileUuid(session, FILE_UUID).getDataHash();
+
+    when(system2.now()).thenReturn(NOW + 1000L);
+    underTest.execute();
+
+    session.clearCache();
+    FileSourceDto fileSourceDto = dbClient.fileSourceDao().selectSourceByFileUuid(session, FILE_UUID);
+    assertThat(fileSourceDto.getDataHash()).isEqualTo(dataHash);
+    assertThat(fileSourceDto.getUpdatedAt()).isEqualTo(NOW);
+    verifyZeroInteractions(sourceCache);
+  }
+
+  @Test
+  public void update_sources_when_only_scm_changed() {
+    initBasicReport(1);
+    scmInfoRepository.setScmInfo(FILE_REF, Changeset.newChangesetBuilder()
+      .setAuthor("john")
+      .setDate(123456789L)
+      .setRevision("rev-1")
+      .build());
+    underTest.execute();
+
+    scmInfoRepository.setScmInfo(FILE_REF, Changeset.newChangesetBuilder()
+      .setAuthor("jane")
+      .setDate(123456789L)
+      .setRevision("rev-1")
+      .build());
+    underTest.execute();
+
+    session.clearCache();
+    FileSourceDto fileSourceDto = dbClient.fileSourceDao().selectSourceByFileUuid(session, FILE_UUID);
+    DbFileSources.Data data = FileSourceDto.decodeSourceData(fileSourceDto.getBinaryData());
+    assertThat(data.getLines(0).getScmAuthor()).isEqualTo("jane");
+    verify(sourceCache).invalidate(FILE_UUID);
+  }
+
+  @Test
+  public void update_revision_when_missing_even_if_input_data_did_not_change() {
+    initBasicReport(1);
+    scmInfoRepository.setScmInfo(FILE_REF, Changeset.newChangesetBuilder()
+      .setAuthor("john")
+      .setDate(123456789L)
+      .setRevision("rev-1")
+      .build());
+    underTest.execute();
+    // revision is missing, as in sources persisted by versions which did not compute it
+    FileSourceDto fileSourceDto = dbClient.fileSourceDao().selectSourceByFileUuid(session, FILE_UUID);
+    dbClient.fileSourceDao().update(session, fileSourceDto.setRevision(null));
+    session.commit();
+
+    underTest.execute();
+
+    session.clearCache();
+    assertThat(dbClient.fileSourceDao().selectSourceByFileUuid(session, FILE_UUID).getRevision()).isEqualTo("rev-1");
+  }
+
+  @Test
+  public void format_of_computed_sources_did_not_change() {
+    initBasicReport(1);
+    scmInfoRepository.setScmInfo(FILE_REF, Changeset.newChangesetBuilder()
+      .setAuthor("john")
+      .setDate(123456789L)
+      .setRevision("rev-1")
+      .build());
+
+    underTest.execute();
+
+    // sources which are up-to-date are not computed again, so DATA_VERSION of PersistFileSourcesStep must be incremented
+    // when this assertion fails
+    FileSourceDto fileSourceDto = dbClient.fileSourceDao().selectSourceByFileUuid(session, FILE_UUID);
+    assertThat(DigestUtils.md5Hex(fileSourceDto.getBinaryData())).isEqualTo("f2284562c651ee67bc9a9ef3ee63403e");
   }
 
   @Test
@@ -362,6 +475,28 @@ public class PersistFileSourcesStepTest extends BaseStepTest {
     assertThat(fileSourceDto.getCreatedAt()).isEqualTo(past);
     assertThat(fileSourceDto.getUpdatedAt()).isEqualTo(NOW);
     assertThat(fileSourceDto.getRevision()).isEqualTo("rev-1");
+    verify(sourceCache).invalidate(FILE_UUID);
+  }
+
+  @Test
+  public void update_sources_when_only_coverage_changed() {
+    initBasicReport(1);
+    underTest.execute();
+    String dataHash = dbClient.fileSourceDao().selectSourceByFileUuid(session, FILE_UUID).getDataHash();
+
+    reportReader.putCoverage(FILE_REF, newArrayList(BatchReport.Coverage.newBuilder()
+      .setLine(1)
+      .setConditions(10)
+      .setUtHits(true)
+      .build()));
+    underTest.execute();
+
+    session.clearCache();
+    FileSourceDto fileSourceDto = dbClient.fileSourceDao().selectSourceByFileUuid(session, FILE_UUID);
+    assertThat(fileSourceDto.getDataHash()).isNotEqualTo(dataHash);
+    DbFileSources.Data data = FileSourceDto.decodeSourceData(fileSourceDto.getBinaryData());
+    assertThat(data.getLines(0).getUtLineHits()).isEqualTo(1);
+    verify(sourceCache).invalidate(FILE_UUID);
   }
 
   @Test
@@ -32,6 +32,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.sonar.api.config.Settings;
 import org.sonar.db.DbSession;
+import org.sonar.db.ce.CeTaskTypes;
 import org.sonar.db.purge.IdUuidPair;
 import org.sonar.server.computation.batch.TreeRootHolderRule;
 import org.sonar.server.computation.component.Component;
@@ -40,6 +41,8 @@ import org.sonar.server.computation.component.ReportComponent;
 import org.sonar.server.computation.component.SettingsRepository;
 import org.sonar.server.computation.component.ViewsComponent;
 import org.sonar.server.computation.dbcleaner.ProjectCleaner;
+import org.sonar.server.computation.queue.CeQueue;
+import org.sonar.server.computation.queue.CeTaskSubmit;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.util.WrapInSingleElementArray;
 
@@ -49,6 +52,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @RunWith(DataProviderRunner.class)
@@ -66,7 +70,10 @@ public class PurgeDatastoresStepTest extends BaseStepTest {
   ProjectCleaner projectCleaner = mock(ProjectCleaner.class);
   SettingsRepository settingsRepository = mock(SettingsRepository.class);
 
-  PurgeDatastoresStep underTest = new PurgeDatastoresStep(mock(DbClient.class, Mockito.RETURNS_DEEP_STUBS), projectCleaner, dbIdsRepository, treeRootHolder, settingsRepository);
+  CeQueue ceQueue = mock(CeQueue.class);
+
+  PurgeDatastoresStep underTest = new PurgeDatastoresStep(mock(DbClient.class, Mockito.RETURNS_DEEP_STUBS), projectCleaner, dbIdsRepository, treeRootHolder, settingsRepository,
+    ceQueue);
 
   @Test
   public void call_purge_method_of_the_purge_task_for_project() {
@@ -82,6 +89,22 @@ public class PurgeDatastoresStepTest extends BaseStepTest {
     verify_call_purge_method_of_the_purge_task(project);
   }
 
+  @Test
+  public void submit_purge_task_when_asynchronous_purge_is_enabled() {
+    Component project = ReportComponent.builder(Component.Type.PROJECT, 1).setUuid(PROJECT_UUID).setKey(PROJECT_KEY).build();
+    treeRootHolder.setRoot(project);
+    when(settingsRepository.getSettings(project)).thenReturn(new Settings().setProperty(ProjectCleaner.ASYNCHRONOUS_PROPERTY, true));
+    when(ceQueue.prepareSubmit()).thenReturn(new CeTaskSubmit.Builder("TASK_1"));
+
+    underTest.execute();
+
+    ArgumentCaptor<CeTaskSubmit> argumentCaptor = ArgumentCaptor.forClass(CeTaskSubmit.class);
+    verify(ceQueue).submit(argumentCaptor.capture());
+    assertThat(argumentCaptor.getValue().getType()).isEqualTo(CeTaskTypes.PURGE);
+    assertThat(argumentCaptor.getValue().getComponentUuid()).isEqualTo(PROJECT_UUID);
+    verifyZeroInteractions(projectCleaner);
+  }
+
   @DataProvider
   public static Object[][] nonRootProjectComponentTypes() {
     return dataproviderFromComponentTypeValues(new Predicate<Component.Type>() {
@@ -28,6 +28,8 @@ import org.sonar.api.utils.DateUtils;
 import org.sonar.api.utils.System2;
 import org.sonar.db.DbTester;
 import org.sonar.db.component.SnapshotDao;
+import org.sonar.db.duplication.DuplicationUnitDto;
+import org.sonar.db.protobuf.DbFileSources;
 import org.sonar.server.computation.batch.TreeRootHolderRule;
 import org.sonar.server.computation.component.Component;
 import org.sonar.server.computation.component.DbIdsRepositoryImpl;
@@ -35,6 +37,7 @@ import org.sonar.server.computation.component.ReportComponent;
 import org.sonar.server.db.DbClient;
 import org.sonar.test.DbTests;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -71,4 +74,9 @@ public class SwitchSnapshotStepTest {
 
     db.assertDbUnit(getClass(), "snapshots-result.xml", "snapshots");
   }
+
+  @Test
+  public void is_executed_after_the_persistence_of_sources_tests_and_duplication_index() {
+    assertThat(underTest.readDataTypes()).contains(DbFileSources.Data.class, DbFileSources.Test.class, DuplicationUnitDto.class);
+  }
 }
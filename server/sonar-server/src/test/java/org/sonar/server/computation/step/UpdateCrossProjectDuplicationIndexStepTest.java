@@ -0,0 +1,147 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.step;
+
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.System2;
+import org.sonar.batch.protocol.output.BatchReport;
+import org.sonar.db.DbTester;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.component.ComponentTesting;
+import org.sonar.db.component.SnapshotDto;
+import org.sonar.db.duplication.DuplicationUnitDto;
+import org.sonar.server.computation.batch.BatchReportReaderRule;
+import org.sonar.server.computation.batch.TreeRootHolderRule;
+import org.sonar.server.computation.component.Component;
+import org.sonar.server.computation.component.DbIdsRepositoryImpl;
+import org.sonar.server.computation.component.FileAttributes;
+import org.sonar.server.computation.component.ReportComponent;
+import org.sonar.server.computation.duplication.CrossProjectDuplicationIndex;
+import org.sonar.server.computation.duplication.CrossProjectDuplicationStatusHolder;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class UpdateCrossProjectDuplicationIndexStepTest {
+
+  static final int FILE_REF = 2;
+  static final Component FILE = ReportComponent.builder(Component.Type.FILE, FILE_REF)
+    .setUuid("FILE_UUID")
+    .setKey("PROJECT_KEY:FILE_KEY")
+    .setFileAttributes(new FileAttributes(false, "java"))
+    .build();
+
+  static final Component PROJECT = ReportComponent.builder(Component.Type.PROJECT, 1)
+    .setUuid("PROJECT_UUID")
+    .addChildren(FILE)
+    .build();
+  static final long PROJECT_SNAPSHOT_ID = 10L;
+
+  static final BatchReport.CpdTextBlock CPD_TEXT_BLOCK = BatchReport.CpdTextBlock.newBuilder()
+    .setHash("a8998353e96320ec")
+    .setStartLine(30)
+    .setEndLine(45)
+    .build();
+
+  @Rule
+  public DbTester dbTester = DbTester.create(System2.INSTANCE);
+
+  @Rule
+  public BatchReportReaderRule reportReader = new BatchReportReaderRule();
+
+  @Rule
+  public TreeRootHolderRule treeRootHolder = new TreeRootHolderRule().setRoot(PROJECT);
+
+  CrossProjectDuplicationStatusHolder crossProjectDuplicationStatusHolder = mock(CrossProjectDuplicationStatusHolder.class);
+
+  DbIdsRepositoryImpl dbIdsRepository = new DbIdsRepositoryImpl();
+
+  CrossProjectDuplicationIndex index = new CrossProjectDuplicationIndex(new Settings().setProperty(CrossProjectDuplicationIndex.ENABLED_PROPERTY, true),
+    dbTester.getDbClient());
+
+  @Before
+  public void setUp() throws Exception {
+    dbIdsRepository.setSnapshotId(PROJECT, PROJECT_SNAPSHOT_ID);
+    reportReader.putDuplicationBlocks(FILE_REF, singletonList(CPD_TEXT_BLOCK));
+    ComponentDto project = ComponentTesting.newProjectDto("PROJECT_UUID").setKey("PROJECT_KEY");
+    dbTester.getDbClient().componentDao().insert(dbTester.getSession(), project,
+      ComponentTesting.newFileDto(project, "FILE_UUID").setKey("PROJECT_KEY:FILE_KEY"));
+    dbTester.getSession().commit();
+  }
+
+  @Test
+  public void add_cpd_text_blocks_to_cross_project_duplication_index() throws Exception {
+    when(crossProjectDuplicationStatusHolder.isEnabled()).thenReturn(true);
+
+    newStep(index).execute();
+
+    List<DuplicationUnitDto> candidates = selectCandidates("OTHER_PROJECT_UUID");
+    assertThat(candidates).hasSize(1);
+    DuplicationUnitDto candidate = candidates.get(0);
+    assertThat(candidate.getComponentKey()).isEqualTo("PROJECT_KEY:FILE_KEY");
+    assertThat(candidate.getProjectSnapshotId()).isEqualTo(PROJECT_SNAPSHOT_ID);
+    assertThat(candidate.getStartLine()).isEqualTo(30);
+    assertThat(candidate.getEndLine()).isEqualTo(45);
+    assertThat(selectCandidates("PROJECT_UUID")).isEmpty();
+  }
+
+  @Test
+  public void remove_blocks_of_project_when_cross_project_duplication_is_disabled() throws Exception {
+    when(crossProjectDuplicationStatusHolder.isEnabled()).thenReturn(true);
+    newStep(index).execute();
+
+    when(crossProjectDuplicationStatusHolder.isEnabled()).thenReturn(false);
+    newStep(index).execute();
+
+    assertThat(selectCandidates("OTHER_PROJECT_UUID")).isEmpty();
+  }
+
+  @Test
+  public void nothing_to_do_when_index_is_disabled() throws Exception {
+    CrossProjectDuplicationIndex disabledIndex = mock(CrossProjectDuplicationIndex.class);
+    when(crossProjectDuplicationStatusHolder.isEnabled()).thenReturn(true);
+
+    newStep(disabledIndex).execute();
+
+    verify(disabledIndex).isEnabled();
+    verifyNoMoreInteractions(disabledIndex);
+  }
+
+  @Test
+  public void is_executed_after_switch_of_snapshot() {
+    assertThat(newStep(index).readDataTypes()).contains(SnapshotDto.class);
+  }
+
+  private UpdateCrossProjectDuplicationIndexStep newStep(CrossProjectDuplicationIndex crossProjectDuplicationIndex) {
+    return new UpdateCrossProjectDuplicationIndexStep(treeRootHolder, reportReader, dbIdsRepository, crossProjectDuplicationStatusHolder, crossProjectDuplicationIndex);
+  }
+
+  private List<DuplicationUnitDto> selectCandidates(String excludedProjectUuid) {
+    return index.selectCandidates(dbTester.getSession(), excludedProjectUuid, "java", singletonList(CPD_TEXT_BLOCK.getHash()));
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.taskprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.MessageException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CeConfigurationImplTest {
+  @Rule
+  public ExpectedException expectedException = ExpectedException.none();
+
+  private Settings settings = new Settings();
+
+  @Test
+  public void getWorkerCount_returns_1_when_property_is_not_set() {
+    assertThat(new CeConfigurationImpl(settings).getWorkerCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void getWorkerCount_returns_value_of_property() {
+    settings.setProperty(CeConfigurationImpl.WORKER_COUNT_PROPERTY, "4");
+
+    assertThat(new CeConfigurationImpl(settings).getWorkerCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void constructor_throws_MessageException_when_property_is_0() {
+    settings.setProperty(CeConfigurationImpl.WORKER_COUNT_PROPERTY, "0");
+
+    expectBadWorkerCountMessageException("0");
+
+    new CeConfigurationImpl(settings);
+  }
+
+  @Test
+  public void constructor_throws_MessageException_when_property_is_not_an_integer() {
+    settings.setProperty(CeConfigurationImpl.WORKER_COUNT_PROPERTY, "ab");
+
+    expectBadWorkerCountMessageException("ab");
+
+    new CeConfigurationImpl(settings);
+  }
+
+  @Test
+  public void getStepWorkerCount_returns_1_when_property_is_not_set() {
+    assertThat(new CeConfigurationImpl(settings).getStepWorkerCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void getStepWorkerCount_returns_value_of_property() {
+    settings.setProperty(CeConfigurationImpl.STEP_WORKER_COUNT_PROPERTY, "3");
+
+    assertThat(new CeConfigurationImpl(settings).getStepWorkerCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void constructor_throws_MessageException_when_step_worker_count_is_negative() {
+    settings.setProperty(CeConfigurationImpl.STEP_WORKER_COUNT_PROPERTY, "-2");
+
+    expectBadValueMessageException(CeConfigurationImpl.STEP_WORKER_COUNT_PROPERTY, "-2");
+
+    new CeConfigurationImpl(settings);
+  }
+
+  private void expectBadWorkerCountMessageException(String value) {
+    expectBadValueMessageException(CeConfigurationImpl.WORKER_COUNT_PROPERTY, value);
+  }
+
+  private void expectBadValueMessageException(String property, String value) {
+    expectedException.expect(MessageException.class);
+    expectedException.expectMessage("value '" + value + "' of property " + property
+      + " is invalid. It must be an integer strictly greater than 0.");
+  }
+}
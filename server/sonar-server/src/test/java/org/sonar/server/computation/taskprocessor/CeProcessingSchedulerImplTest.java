@@ -54,12 +54,13 @@ public class CeProcessingSchedulerImplTest {
   // due to risks of infinite chaining of tasks/futures, a timeout is required for safety
   public Timeout timeout = Timeout.seconds(60);
 
+  private CeConfiguration ceConfiguration = mock(CeConfiguration.class);
   private CeWorkerCallable ceWorkerRunnable = mock(CeWorkerCallable.class);
   private StubCeProcessingSchedulerExecutorService processingExecutorService = new StubCeProcessingSchedulerExecutorService();
   private SchedulerCall regularDelayedPoll = new SchedulerCall(ceWorkerRunnable, 2L, TimeUnit.SECONDS);
   private SchedulerCall notDelayedPoll = new SchedulerCall(ceWorkerRunnable);
 
-  private CeProcessingSchedulerImpl underTest = new CeProcessingSchedulerImpl(processingExecutorService, ceWorkerRunnable);
+  private CeProcessingSchedulerImpl underTest = createScheduler(1);
 
   @Test
   public void polls_without_delay_when_CeWorkerCallable_returns_true() throws Exception {
@@ -172,6 +173,66 @@ public class CeProcessingSchedulerImplTest {
     );
   }
 
+  @Test
+  public void startScheduling_schedules_one_chain_of_CeWorkerCallable_per_worker() throws Exception {
+    underTest = createScheduler(3);
+    when(ceWorkerRunnable.call())
+      .thenReturn(false)
+      .thenReturn(false)
+      .thenReturn(false)
+      .thenThrow(ERROR_TO_INTERRUPT_CHAINING);
+
+    startSchedulingAndRun();
+
+    assertThat(processingExecutorService.getSchedulerCalls()).containsExactly(
+      regularDelayedPoll,
+      regularDelayedPoll,
+      regularDelayedPoll,
+      regularDelayedPoll,
+      regularDelayedPoll,
+      regularDelayedPoll
+    );
+  }
+
+  @Test
+  public void stop_cancels_next_polling_of_every_worker() throws Exception {
+    underTest = createScheduler(2);
+    when(ceWorkerRunnable.call())
+      .thenReturn(false)
+      .thenReturn(false)
+      .thenThrow(ERROR_TO_INTERRUPT_CHAINING);
+
+    underTest.startScheduling();
+
+    // run the first polling of each worker
+    processingExecutorService.futures.poll().get();
+    processingExecutorService.futures.poll().get();
+    underTest.stop();
+
+    int cancelledTaskFutureCount = 0;
+    while (processingExecutorService.futures.peek() != null) {
+      Future<?> future = processingExecutorService.futures.poll();
+      if (future.isCancelled()) {
+        cancelledTaskFutureCount++;
+      } else {
+        future.get();
+      }
+    }
+
+    assertThat(cancelledTaskFutureCount).isEqualTo(2);
+    assertThat(processingExecutorService.getSchedulerCalls()).containsExactly(
+      regularDelayedPoll,
+      regularDelayedPoll,
+      regularDelayedPoll,
+      regularDelayedPoll
+    );
+  }
+
+  private CeProcessingSchedulerImpl createScheduler(int workerCount) {
+    when(ceConfiguration.getWorkerCount()).thenReturn(workerCount);
+    return new CeProcessingSchedulerImpl(ceConfiguration, processingExecutorService, ceWorkerRunnable);
+  }
+
   private void startSchedulingAndRun() throws ExecutionException, InterruptedException {
     underTest.startScheduling();
 
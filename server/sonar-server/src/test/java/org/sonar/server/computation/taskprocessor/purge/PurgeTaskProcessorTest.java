@@ -0,0 +1,86 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.taskprocessor.purge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.System2;
+import org.sonar.db.DbSession;
+import org.sonar.db.DbTester;
+import org.sonar.db.ce.CeTaskTypes;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.component.ComponentTesting;
+import org.sonar.db.purge.IdUuidPair;
+import org.sonar.server.computation.dbcleaner.ProjectCleaner;
+import org.sonar.server.computation.queue.CeTask;
+import org.sonar.server.properties.ProjectSettingsFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class PurgeTaskProcessorTest {
+
+  @Rule
+  public DbTester dbTester = DbTester.create(System2.INSTANCE);
+
+  ProjectCleaner projectCleaner = mock(ProjectCleaner.class);
+  ProjectSettingsFactory projectSettingsFactory = mock(ProjectSettingsFactory.class);
+
+  PurgeTaskProcessor underTest = new PurgeTaskProcessor(dbTester.getDbClient(), projectCleaner, projectSettingsFactory);
+
+  @Test
+  public void handle_purge_tasks() {
+    assertThat(underTest.getHandledCeTaskTypes()).containsOnly(CeTaskTypes.PURGE);
+  }
+
+  @Test
+  public void purge_project_with_its_settings() {
+    ComponentDto project = ComponentTesting.newProjectDto("PROJECT_1").setKey("PROJECT_KEY");
+    dbTester.getDbClient().componentDao().insert(dbTester.getSession(), project);
+    dbTester.getSession().commit();
+    Settings settings = new Settings();
+    when(projectSettingsFactory.newProjectSettings("PROJECT_KEY")).thenReturn(settings);
+
+    assertThat(underTest.process(newTask("PROJECT_1"))).isNull();
+
+    ArgumentCaptor<IdUuidPair> argumentCaptor = ArgumentCaptor.forClass(IdUuidPair.class);
+    verify(projectCleaner).purge(any(DbSession.class), argumentCaptor.capture(), eq(settings));
+    assertThat(argumentCaptor.getValue().getId()).isEqualTo(project.getId());
+    assertThat(argumentCaptor.getValue().getUuid()).isEqualTo("PROJECT_1");
+  }
+
+  @Test
+  public void do_nothing_if_project_has_been_deleted() {
+    assertThat(underTest.process(newTask("PROJECT_1"))).isNull();
+
+    verifyZeroInteractions(projectCleaner);
+  }
+
+  private static CeTask newTask(String componentUuid) {
+    return new CeTask.Builder().setUuid("TASK_1").setType(CeTaskTypes.PURGE).setComponentUuid(componentUuid).build();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.util;
+
+import java.util.concurrent.Callable;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StepWorkerPoolTest {
+
+  StepWorkerPool underTest;
+
+  @After
+  public void tearDown() {
+    MDC.clear();
+    if (underTest != null) {
+      underTest.shutdownNow();
+    }
+  }
+
+  @Test
+  public void tasks_are_executed_by_named_low_priority_threads() throws Exception {
+    underTest = StepWorkerPool.create("test-worker-", 2);
+
+    Thread worker = underTest.submit(new Callable<Thread>() {
+      @Override
+      public Thread call() {
+        return Thread.currentThread();
+      }
+    }).get();
+
+    assertThat(worker.getName()).startsWith("test-worker-");
+    assertThat(worker.getPriority()).isEqualTo(Thread.MIN_PRIORITY);
+  }
+
+  @Test
+  public void tasks_are_executed_with_mdc_of_thread_creating_the_pool() throws Exception {
+    MDC.put("ceTaskUuid", "TASK_1");
+    underTest = StepWorkerPool.create("test-worker-", 1);
+    MDC.clear();
+
+    assertThat(underTest.submit(new MdcValue()).get()).isEqualTo("TASK_1");
+  }
+
+  @Test
+  public void mdc_is_cleared_after_each_task() throws Exception {
+    underTest = StepWorkerPool.create("test-worker-", 1);
+    underTest.submit(new Runnable() {
+      @Override
+      public void run() {
+        MDC.put("ceTaskUuid", "TASK_1");
+      }
+    }).get();
+
+    assertThat(underTest.submit(new MdcValue()).get()).isNull();
+  }
+
+  private static class MdcValue implements Callable<String> {
+    @Override
+    public String call() {
+      return MDC.get("ceTaskUuid");
+    }
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.es;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.api.config.Settings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BaseIndexerTest {
+
+  static final long MAX_INDEXED_DATE = 10L;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  EsClient esClient = mock(EsClient.class);
+  FakeIndexer underTest;
+
+  @Before
+  public void setUp() {
+    when(esClient.getMaxFieldValue(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE, "updatedAt")).thenReturn(MAX_INDEXED_DATE);
+    underTest = new FakeIndexer(esClient, 2);
+    underTest.setEnabled(true);
+  }
+
+  @After
+  public void tearDown() {
+    underTest.stop();
+  }
+
+  @Test
+  public void index_from_max_date_of_index() {
+    RecordingTask task = new RecordingTask(100L);
+    underTest.index(task);
+    underTest.index(task);
+
+    assertThat(task.watermarks).containsExactly(MAX_INDEXED_DATE, 100L);
+  }
+
+  @Test
+  public void keep_a_watermark_per_project() {
+    RecordingTask p1 = new RecordingTask(100L);
+    RecordingTask p2 = new RecordingTask(200L);
+
+    underTest.index("P1", p1);
+    underTest.index("P2", p2);
+    underTest.index("P1", p1);
+    underTest.index("P2", p2);
+
+    assertThat(p1.watermarks).containsExactly(MAX_INDEXED_DATE, 100L);
+    assertThat(p2.watermarks).containsExactly(MAX_INDEXED_DATE, 200L);
+  }
+
+  @Test
+  public void indexing_a_project_does_not_move_watermark_of_index() {
+    underTest.index("P1", new RecordingTask(100L));
+
+    RecordingTask task = new RecordingTask(50L);
+    underTest.index(task);
+
+    assertThat(task.watermarks).containsExactly(MAX_INDEXED_DATE);
+  }
+
+  @Test
+  public void watermark_of_index_applies_to_projects() {
+    underTest.index(new RecordingTask(300L));
+
+    RecordingTask p1 = new RecordingTask(0L);
+    underTest.index("P1", p1);
+
+    assertThat(p1.watermarks).containsExactly(300L);
+  }
+
+  @Test
+  public void index_projects_of_different_partitions_concurrently() throws Exception {
+    final String p1 = "P1";
+    String p2 = "P2";
+    for (int i = 0; BaseIndexer.partitionOf(p1, 2) == BaseIndexer.partitionOf(p2, 2); i++) {
+      p2 = "P2_" + i;
+    }
+    final CountDownLatch p2Indexed = new CountDownLatch(1);
+    final List<Boolean> p1Result = Collections.synchronizedList(new ArrayList<Boolean>());
+
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        underTest.index(p1, new BaseIndexer.IndexerTask() {
+          @Override
+          public long index(long lastUpdatedAt) {
+            // blocks until the other project is indexed
+            try {
+              p1Result.add(p2Indexed.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            return 0L;
+          }
+        });
+      }
+    };
+    thread.start();
+
+    underTest.index(p2, new BaseIndexer.IndexerTask() {
+      @Override
+      public long index(long lastUpdatedAt) {
+        p2Indexed.countDown();
+        return 0L;
+      }
+    });
+    thread.join();
+
+    assertThat(p1Result).containsExactly(true);
+  }
+
+  @Test
+  public void force_indexing_of_project_from_scratch_even_if_disabled() {
+    underTest.setEnabled(false);
+    RecordingTask forced = new RecordingTask(100L);
+    underTest.forceIndex("P1", forced);
+    underTest.forceIndex("P1", forced);
+    assertThat(forced.watermarks).containsExactly(0L, 0L);
+
+    underTest.setEnabled(true);
+    RecordingTask task = new RecordingTask(200L);
+    underTest.index("P1", task);
+    assertThat(task.watermarks).containsExactly(100L);
+  }
+
+  @Test
+  public void forced_indexing_is_sequential_with_other_requests_of_project() throws Exception {
+    final CountDownLatch forcedStarted = new CountDownLatch(1);
+    final CountDownLatch releaseForced = new CountDownLatch(1);
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    Thread forced = new Thread() {
+      @Override
+      public void run() {
+        underTest.forceIndex("P1", new BaseIndexer.IndexerTask() {
+          @Override
+          public long index(long lastUpdatedAt) {
+            forcedStarted.countDown();
+            try {
+              releaseForced.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            events.add("forced");
+            return 0L;
+          }
+        });
+      }
+    };
+    forced.start();
+    assertThat(forcedStarted.await(10, TimeUnit.SECONDS)).isTrue();
+
+    Thread other = new Thread() {
+      @Override
+      public void run() {
+        underTest.index("P1", new BaseIndexer.IndexerTask() {
+          @Override
+          public long index(long lastUpdatedAt) {
+            events.add("other");
+            return 0L;
+          }
+        });
+      }
+    };
+    other.start();
+    // gives time to the request to be (wrongly) executed concurrently
+    Thread.sleep(100L);
+    assertThat(events).isEmpty();
+
+    releaseForced.countDown();
+    forced.join();
+    other.join();
+    assertThat(events).containsExactly("forced", "other");
+  }
+
+  @Test
+  public void task_on_whole_index_is_not_executed_concurrently_with_task_of_project() throws Exception {
+    // value of a document which is written by both tasks
+    final AtomicReference<String> doc = new AtomicReference<>();
+    final CountDownLatch globalRead = new CountDownLatch(1);
+    final CountDownLatch releaseGlobal = new CountDownLatch(1);
+
+    Thread global = new Thread() {
+      @Override
+      public void run() {
+        underTest.index(new BaseIndexer.IndexerTask() {
+          @Override
+          public long index(long lastUpdatedAt) {
+            // the document is read from db before its update by the analysis of the project...
+            globalRead.countDown();
+            try {
+              releaseGlobal.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            // ...and written after
+            doc.set("stale");
+            return 0L;
+          }
+        });
+      }
+    };
+    global.start();
+    assertThat(globalRead.await(10, TimeUnit.SECONDS)).isTrue();
+
+    Thread project = new Thread() {
+      @Override
+      public void run() {
+        underTest.index("P1", new BaseIndexer.IndexerTask() {
+          @Override
+          public long index(long lastUpdatedAt) {
+            doc.set("up-to-date");
+            return 0L;
+          }
+        });
+      }
+    };
+    project.start();
+    // gives time to the task of project to be (wrongly) executed concurrently
+    Thread.sleep(100L);
+    releaseGlobal.countDown();
+    global.join();
+    project.join();
+
+    assertThat(doc.get()).isEqualTo("up-to-date");
+  }
+
+  @Test
+  public void task_on_whole_index_removes_obsolete_watermarks_of_projects() {
+    underTest.index("P1", new RecordingTask(100L));
+    underTest.index("P2", new RecordingTask(500L));
+    assertThat(underTest.countProjectWatermarks()).isEqualTo(2);
+
+    underTest.index(new RecordingTask(300L));
+    assertThat(underTest.countProjectWatermarks()).isEqualTo(1);
+
+    RecordingTask p2 = new RecordingTask(600L);
+    underTest.index("P2", p2);
+    assertThat(p2.watermarks).containsExactly(500L);
+  }
+
+  @Test
+  public void do_nothing_if_disabled() {
+    underTest.setEnabled(false);
+    RecordingTask task = new RecordingTask(100L);
+
+    underTest.index(task);
+    underTest.index("P1", task);
+
+    assertThat(task.watermarks).isEmpty();
+  }
+
+  @Test
+  public void fail_if_no_workers() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Number of indexing workers must be strictly positive. Got 0");
+
+    new FakeIndexer(esClient, 0);
+  }
+
+  @Test
+  public void read_worker_count_of_index_from_settings() {
+    Settings settings = new Settings();
+    assertThat(BaseIndexer.readWorkerCount(settings, "issues")).isEqualTo(4);
+
+    settings.setProperty("sonar.search.issues.indexWorkerCount", 8);
+    assertThat(BaseIndexer.readWorkerCount(settings, "issues")).isEqualTo(8);
+    assertThat(BaseIndexer.readWorkerCount(settings, "tests")).isEqualTo(4);
+  }
+
+  @Test
+  public void partition_is_in_range() {
+    for (String uuid : new String[] {"", "P1", "AU-Tpxb--iU5OvuD2FLy", "ABCDEFGHIJKLMNOPQRSTUVWXYZ"}) {
+      assertThat(BaseIndexer.partitionOf(uuid, 3)).isGreaterThanOrEqualTo(0).isLessThan(3);
+    }
+  }
+
+  private static class FakeIndexer extends BaseIndexer {
+    FakeIndexer(EsClient client, int workerCount) {
+      super(client, 0L, workerCount, FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE, "updatedAt");
+    }
+
+    @Override
+    protected long doIndex(long lastUpdatedAt) {
+      return 0L;
+    }
+  }
+
+  private static class RecordingTask implements BaseIndexer.IndexerTask {
+    private final long result;
+    private final List<Long> watermarks = new ArrayList<>();
+
+    RecordingTask(long result) {
+      this.result = result;
+    }
+
+    @Override
+    public long index(long lastUpdatedAt) {
+      watermarks.add(lastUpdatedAt);
+      return result;
+    }
+  }
+}
@@ -20,18 +20,30 @@
 package org.sonar.server.es;
 
 import com.google.common.collect.ImmutableMap;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.server.es.request.ProxyBulkRequestBuilder;
 
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
 
 public class BulkIndexerTest {
 
@@ -62,6 +74,10 @@ public class BulkIndexerTest {
     // send remaining requests
     indexer.stop();
     assertThat(count()).isEqualTo(2);
+    assertThat(indexer.getIndexedCount()).isEqualTo(2);
+    assertThat(indexer.getRetriedCount()).isEqualTo(0);
+    assertThat(indexer.getInFlightBulks()).isEqualTo(0);
+    assertThat(indexer.getPendingRetries()).isEqualTo(0);
   }
 
   @Test
@@ -125,6 +141,74 @@ public class BulkIndexerTest {
   }
 
 
+  @Test
+  public void retry_requests_rejected_by_elasticsearch() {
+    // items of the first bulk request are rejected with status 429
+    EsClient client = clientRejectingFirstBulks(1, Rejection.ITEMS);
+    BulkIndexer indexer = new BulkIndexer(client, FakeIndexDefinition.INDEX)
+      .setFlushByteSize(1);
+    indexer.start();
+    indexer.add(newIndexRequest("1", 42));
+    indexer.add(newIndexRequest("2", 78));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(2);
+    assertThat(indexer.getIndexedCount()).isEqualTo(2);
+    assertThat(indexer.getRetriedCount()).isEqualTo(1);
+    assertThat(indexer.getPendingRetries()).isEqualTo(0);
+  }
+
+  @Test
+  public void retry_bulk_requests_rejected_by_elasticsearch() {
+    // the two first bulk requests fail with EsRejectedExecutionException
+    EsClient client = clientRejectingFirstBulks(2, Rejection.BULK);
+    BulkIndexer indexer = new BulkIndexer(client, FakeIndexDefinition.INDEX)
+      .setFlushByteSize(1);
+    indexer.start();
+    indexer.add(newIndexRequest("1", 42));
+    indexer.add(newIndexRequest("2", 78));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(2);
+    assertThat(indexer.getIndexedCount()).isEqualTo(2);
+    assertThat(indexer.getRetriedCount()).isEqualTo(2);
+    assertThat(indexer.getPendingRetries()).isEqualTo(0);
+  }
+
+  @Test
+  public void do_not_retry_rejected_request_if_document_has_been_updated_since() {
+    EsClient client = clientRejectingFirstBulks(1, Rejection.ITEMS);
+    BulkIndexer indexer = new BulkIndexer(client, FakeIndexDefinition.INDEX)
+      .setFlushByteSize(1);
+    indexer.start();
+    // rejected
+    indexer.add(newIndexRequest("1", 42));
+    // newer version of the same document, sent before the retry of the rejected request
+    indexer.add(newIndexRequest("1", 78));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(1);
+    assertThat(intField("1")).isEqualTo(78);
+    assertThat(indexer.getIndexedCount()).isEqualTo(1);
+    assertThat(indexer.getPendingRetries()).isEqualTo(0);
+  }
+
+  @Test
+  public void do_not_retry_rejected_request_if_document_has_been_updated_while_in_flight() {
+    // response of the first bulk request is received after the next request is sent
+    EsClient client = clientRejectingFirstBulks(1, Rejection.DELAYED_ITEMS);
+    BulkIndexer indexer = new BulkIndexer(client, FakeIndexDefinition.INDEX)
+      .setFlushByteSize(1);
+    indexer.start();
+    indexer.add(newIndexRequest("1", 42));
+    indexer.add(newIndexRequest("1", 78));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(1);
+    assertThat(intField("1")).isEqualTo(78);
+    assertThat(indexer.getPendingRetries()).isEqualTo(0);
+  }
+
   private long count() {
     return esTester.countDocuments("fakes", "fake");
   }
@@ -135,8 +219,76 @@ public class BulkIndexerTest {
     return Integer.parseInt(settingsResp.getSetting(FakeIndexDefinition.INDEX, IndexMetaData.SETTING_NUMBER_OF_REPLICAS));
   }
 
+  private int intField(String id) {
+    return (Integer) esTester.client().prepareGet(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE, id).get()
+      .getSource().get(FakeIndexDefinition.INT_FIELD);
+  }
+
   private IndexRequest newIndexRequest(int intField) {
     return new IndexRequest(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE)
       .source(ImmutableMap.of(FakeIndexDefinition.INT_FIELD, intField));
   }
+
+  private IndexRequest newIndexRequest(String id, int intField) {
+    return newIndexRequest(intField).id(id);
+  }
+
+  private enum Rejection {
+    // items are rejected with the status 429
+    ITEMS,
+    // same as ITEMS, but the response is received asynchronously after 500ms
+    DELAYED_ITEMS,
+    // the whole bulk request fails with EsRejectedExecutionException
+    BULK
+  }
+
+  /**
+   * Client whose first bulk requests are rejected, as Elasticsearch does when its queues are full
+   */
+  private EsClient clientRejectingFirstBulks(final int rejectedBulks, final Rejection rejection) {
+    final EsClient client = spy(esTester.client());
+    doAnswer(new Answer<BulkRequestBuilder>() {
+      private int executedBulks = 0;
+
+      @Override
+      public BulkRequestBuilder answer(InvocationOnMock invocation) {
+        return new ProxyBulkRequestBuilder(client.nativeClient()) {
+          @Override
+          public void execute(final ActionListener<BulkResponse> listener) {
+            executedBulks++;
+            if (executedBulks > rejectedBulks) {
+              super.execute(listener);
+            } else if (rejection == Rejection.BULK) {
+              listener.onFailure(new EsRejectedExecutionException("rejected execution (queue capacity 50)"));
+            } else if (rejection == Rejection.ITEMS) {
+              listener.onResponse(rejectAll(request().requests().size()));
+            } else {
+              final BulkResponse response = rejectAll(request().requests().size());
+              new Thread() {
+                @Override
+                public void run() {
+                  try {
+                    Thread.sleep(500L);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                  listener.onResponse(response);
+                }
+              }.start();
+            }
+          }
+        };
+      }
+    }).when(client).prepareBulk();
+    return client;
+  }
+
+  private static BulkResponse rejectAll(int items) {
+    BulkItemResponse[] responses = new BulkItemResponse[items];
+    for (int i = 0; i < items; i++) {
+      responses[i] = new BulkItemResponse(i, "index", new BulkItemResponse.Failure(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE, null,
+        "EsRejectedExecutionException[rejected execution (queue capacity 50)]", RestStatus.TOO_MANY_REQUESTS));
+    }
+    return new BulkResponse(responses, 1L);
+  }
 }
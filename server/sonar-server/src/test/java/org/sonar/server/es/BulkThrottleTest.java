@@ -0,0 +1,148 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.es;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BulkThrottleTest {
+
+  static final long NORMAL_LATENCY = (BulkThrottle.FAST_LATENCY_MS + BulkThrottle.SLOW_LATENCY_MS) / 2;
+  static final long FAST_LATENCY = BulkThrottle.FAST_LATENCY_MS - 1;
+  static final long SLOW_LATENCY = BulkThrottle.SLOW_LATENCY_MS + 1;
+
+  @Test
+  public void start_with_max_concurrency_and_initial_size() {
+    BulkThrottle underTest = new BulkThrottle(4, 1000L, 250L, 10_000L);
+
+    assertThat(underTest.getConcurrency()).isEqualTo(4);
+    assertThat(underTest.getByteSize()).isEqualTo(1000L);
+    assertThat(underTest.getInFlight()).isEqualTo(0);
+  }
+
+  @Test
+  public void rejection_halves_concurrency_and_size() {
+    BulkThrottle underTest = new BulkThrottle(4, 1000L, 250L, 10_000L);
+
+    underTest.acquire();
+    underTest.release(NORMAL_LATENCY, true);
+    assertThat(underTest.getConcurrency()).isEqualTo(2);
+    assertThat(underTest.getByteSize()).isEqualTo(500L);
+
+    underTest.acquire();
+    underTest.release(NORMAL_LATENCY, true);
+    underTest.acquire();
+    underTest.release(NORMAL_LATENCY, true);
+    // lower bounds
+    assertThat(underTest.getConcurrency()).isEqualTo(1);
+    assertThat(underTest.getByteSize()).isEqualTo(250L);
+  }
+
+  @Test
+  public void slow_response_decreases_concurrency_and_size() {
+    BulkThrottle underTest = new BulkThrottle(4, 1000L, 250L, 10_000L);
+
+    underTest.acquire();
+    underTest.release(SLOW_LATENCY, false);
+
+    assertThat(underTest.getConcurrency()).isEqualTo(3);
+    assertThat(underTest.getByteSize()).isEqualTo(750L);
+  }
+
+  @Test
+  public void fast_response_increases_concurrency_and_size_up_to_bounds() {
+    BulkThrottle underTest = new BulkThrottle(4, 1000L, 250L, 1200L);
+    underTest.acquire();
+    underTest.release(SLOW_LATENCY, false);
+
+    underTest.acquire();
+    underTest.release(FAST_LATENCY, false);
+    assertThat(underTest.getConcurrency()).isEqualTo(4);
+    assertThat(underTest.getByteSize()).isEqualTo(937L);
+
+    for (int i = 0; i < 5; i++) {
+      underTest.acquire();
+      underTest.release(FAST_LATENCY, false);
+    }
+    assertThat(underTest.getConcurrency()).isEqualTo(4);
+    assertThat(underTest.getByteSize()).isEqualTo(1200L);
+  }
+
+  @Test
+  public void normal_response_does_not_change_settings() {
+    BulkThrottle underTest = new BulkThrottle(4, 1000L, 250L, 10_000L);
+
+    underTest.acquire();
+    underTest.release(NORMAL_LATENCY, false);
+
+    assertThat(underTest.getConcurrency()).isEqualTo(4);
+    assertThat(underTest.getByteSize()).isEqualTo(1000L);
+  }
+
+  @Test
+  public void size_is_fixed_if_bounds_are_equal() {
+    BulkThrottle underTest = new BulkThrottle(4, 1000L, 1000L, 1000L);
+
+    underTest.acquire();
+    underTest.release(FAST_LATENCY, false);
+    underTest.acquire();
+    underTest.release(NORMAL_LATENCY, true);
+
+    assertThat(underTest.getByteSize()).isEqualTo(1000L);
+  }
+
+  @Test
+  public void acquire_blocks_until_release_when_concurrency_is_reached() throws Exception {
+    final BulkThrottle underTest = new BulkThrottle(1, 1000L, 1000L, 1000L);
+    underTest.acquire();
+
+    final AtomicBoolean acquired = new AtomicBoolean(false);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        underTest.acquire();
+        acquired.set(true);
+      }
+    };
+    thread.start();
+    thread.join(200L);
+    assertThat(acquired.get()).isFalse();
+
+    underTest.release(NORMAL_LATENCY, false);
+    thread.join();
+    assertThat(acquired.get()).isTrue();
+    assertThat(underTest.getMaxInFlight()).isEqualTo(1);
+  }
+
+  @Test
+  public void await_idle() throws Exception {
+    BulkThrottle underTest = new BulkThrottle(2, 1000L, 1000L, 1000L);
+    assertThat(underTest.awaitIdle(1, TimeUnit.MILLISECONDS)).isTrue();
+
+    underTest.acquire();
+    assertThat(underTest.awaitIdle(1, TimeUnit.MILLISECONDS)).isFalse();
+
+    underTest.release(NORMAL_LATENCY, false);
+    assertThat(underTest.awaitIdle(1, TimeUnit.MILLISECONDS)).isTrue();
+  }
+}
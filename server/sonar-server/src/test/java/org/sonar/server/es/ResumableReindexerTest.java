@@ -0,0 +1,167 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.es;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.System2;
+import org.sonar.db.DbTester;
+import org.sonar.db.property.PropertyDto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ResumableReindexerTest {
+
+  static final String CHECKPOINT_KEY = "sonar.internal.es.reindexCheckpoint.fakes.fake";
+
+  @ClassRule
+  public static EsTester esTester = new EsTester().addDefinitions(new FakeIndexDefinition());
+
+  @Rule
+  public DbTester dbTester = DbTester.create(System2.INSTANCE);
+
+  Settings settings = new Settings();
+
+  @Before
+  public void setUp() {
+    esTester.truncateIndices();
+    dbTester.truncateTables();
+  }
+
+  @Test
+  public void reindex_is_required_if_index_is_empty() {
+    assertThat(newReindexer().isRequired(new FakeProjectIndexer(null, "P1"))).isTrue();
+  }
+
+  @Test
+  public void reindex_is_not_required_if_index_is_populated() throws Exception {
+    esTester.putDocuments(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE, FakeIndexDefinition.newDoc(1));
+
+    assertThat(newReindexer().isRequired(new FakeProjectIndexer(null, "P1"))).isFalse();
+  }
+
+  @Test
+  public void index_all_projects_and_drop_checkpoint() {
+    FakeProjectIndexer indexer = new FakeProjectIndexer(null, "P3", "P1", "P2");
+    ResumableReindexer underTest = newReindexer();
+
+    underTest.reindex(indexer);
+
+    assertThat(indexer.indexedProjects).containsOnly("P1", "P2", "P3");
+    assertThat(esTester.countDocuments(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE)).isEqualTo(3);
+    assertThat(dbTester.getDbClient().propertiesDao().selectGlobalProperty(CHECKPOINT_KEY)).isNull();
+    assertThat(underTest.isRequired(indexer)).isFalse();
+  }
+
+  @Test
+  public void resume_interrupted_reindex_after_last_completed_project() {
+    // single worker, so that projects are indexed in order
+    settings.setProperty(ResumableReindexer.WORKERS_PROPERTY, 1);
+    ResumableReindexer underTest = newReindexer();
+    FakeProjectIndexer failingIndexer = new FakeProjectIndexer("P3", "P1", "P2", "P3", "P4", "P5");
+    try {
+      underTest.reindex(failingIndexer);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Fail to index P3");
+    }
+    esTester.client().prepareRefresh(FakeIndexDefinition.INDEX).get();
+
+    assertThat(dbTester.getDbClient().propertiesDao().selectGlobalProperty(CHECKPOINT_KEY).getValue()).isEqualTo("P2");
+    FakeProjectIndexer indexer = new FakeProjectIndexer(null, "P1", "P2", "P3", "P4", "P5");
+    assertThat(underTest.isRequired(indexer)).isTrue();
+
+    underTest.reindex(indexer);
+
+    assertThat(indexer.indexedProjects).containsExactly("P3", "P4", "P5");
+    assertThat(dbTester.getDbClient().propertiesDao().selectGlobalProperty(CHECKPOINT_KEY)).isNull();
+  }
+
+  @Test
+  public void restart_from_scratch_if_index_is_empty_despite_checkpoint() {
+    dbTester.getDbClient().propertiesDao().insertProperty(new PropertyDto().setKey(CHECKPOINT_KEY).setValue("P2"));
+    FakeProjectIndexer indexer = new FakeProjectIndexer(null, "P1", "P2", "P3");
+
+    newReindexer().reindex(indexer);
+
+    assertThat(indexer.indexedProjects).containsOnly("P1", "P2", "P3");
+  }
+
+  @Test
+  public void select_project_uuids() {
+    dbTester.getDbClient().propertiesDao().insertProperty(new PropertyDto().setKey("foo").setValue("P1"));
+    dbTester.getDbClient().propertiesDao().insertProperty(new PropertyDto().setKey("bar").setValue("P2"));
+
+    assertThat(ResumableReindexer.selectProjectUuids(dbTester.getDbClient(), "select text_value from properties"))
+      .containsOnly("P1", "P2");
+  }
+
+  private ResumableReindexer newReindexer() {
+    return new ResumableReindexer(dbTester.getDbClient(), esTester.client(), settings);
+  }
+
+  private static class FakeProjectIndexer implements ProjectIndexer {
+    private final String failingProjectUuid;
+    private final List<String> projectUuids;
+    private final List<String> indexedProjects = new CopyOnWriteArrayList<>();
+
+    FakeProjectIndexer(@Nullable String failingProjectUuid, String... projectUuids) {
+      this.failingProjectUuid = failingProjectUuid;
+      this.projectUuids = Arrays.asList(projectUuids);
+    }
+
+    @Override
+    public String getIndexName() {
+      return FakeIndexDefinition.INDEX;
+    }
+
+    @Override
+    public String getTypeName() {
+      return FakeIndexDefinition.TYPE;
+    }
+
+    @Override
+    public Collection<String> selectProjectUuids() {
+      return projectUuids;
+    }
+
+    @Override
+    public void indexProjectFromScratch(String projectUuid) {
+      if (projectUuid.equals(failingProjectUuid)) {
+        throw new IllegalStateException("Fail to index " + projectUuid);
+      }
+      esTester.client().prepareIndex(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE)
+        .setId(projectUuid)
+        .setSource(ImmutableMap.<String, Object>of(FakeIndexDefinition.INT_FIELD, projectUuid.hashCode()))
+        .get();
+      indexedProjects.add(projectUuid);
+    }
+  }
+}
@@ -69,7 +69,7 @@ public class IssueIndexDebtTest {
   @Before
   public void setUp() {
     tester.truncateIndices();
-    issueIndexer = new IssueIndexer(null, tester.client());
+    issueIndexer = new IssueIndexer(null, tester.client(), new Settings());
     issueAuthorizationIndexer = new IssueAuthorizationIndexer(null, tester.client());
     viewIndexer = new ViewIndexer(null, tester.client());
     System2 system = mock(System2.class);
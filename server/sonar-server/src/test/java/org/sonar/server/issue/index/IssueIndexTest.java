@@ -78,7 +78,7 @@ public class IssueIndexTest {
   @Before
   public void setUp() {
     tester.truncateIndices();
-    issueIndexer = new IssueIndexer(null, tester.client());
+    issueIndexer = new IssueIndexer(null, tester.client(), new Settings());
     issueAuthorizationIndexer = new IssueAuthorizationIndexer(null, tester.client());
     viewIndexer = new ViewIndexer(null, tester.client());
     System2 system = mock(System2.class);
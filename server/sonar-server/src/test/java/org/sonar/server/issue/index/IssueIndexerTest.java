@@ -32,6 +32,7 @@ import org.sonar.api.utils.System2;
 import org.sonar.db.DbTester;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.es.EsTester;
+import org.sonar.server.issue.IssueTesting;
 import org.sonar.test.DbTests;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -106,6 +107,16 @@ public class IssueIndexerTest {
     assertThat(esTester.countDocuments("issues", "issue")).isZero();
   }
 
+  @Test
+  public void index_documents_of_project() {
+    IssueIndexer indexer = createIndexer();
+    indexer.index("PROJECT_1", Iterators.singletonIterator(IssueTesting.newDoc()));
+
+    List<IssueDoc> docs = esTester.getDocuments("issues", "issue", IssueDoc.class);
+    assertThat(docs).hasSize(1);
+    assertThat(docs.get(0).key()).isEqualTo("ABC");
+  }
+
   @Test
   public void index_issues_from_project() {
     dbTester.prepareDbUnit(getClass(), "index_project.xml");
@@ -118,8 +129,23 @@ public class IssueIndexerTest {
     assertThat(docs.get(0).key()).isEqualTo("ABCDE");
   }
 
+  @Test
+  public void index_project_from_scratch() {
+    dbTester.prepareDbUnit(getClass(), "index_project.xml");
+
+    IssueIndexer indexer = createIndexer();
+    assertThat(indexer.selectProjectUuids()).containsOnly("THE_PROJECT_1", "THE_PROJECT_2");
+
+    indexer.indexProjectFromScratch("THE_PROJECT_1");
+    esTester.client().prepareRefresh(IssueIndexDefinition.INDEX).get();
+
+    List<IssueDoc> docs = esTester.getDocuments("issues", "issue", IssueDoc.class);
+    assertThat(docs).hasSize(1);
+    assertThat(docs.get(0).key()).isEqualTo("ABCDE");
+  }
+
   private IssueIndexer createIndexer() {
-    IssueIndexer indexer = new IssueIndexer(new DbClient(dbTester.database(), dbTester.myBatis()), esTester.client());
+    IssueIndexer indexer = new IssueIndexer(new DbClient(dbTester.database(), dbTester.myBatis()), esTester.client(), new Settings());
     indexer.setEnabled(true);
     return indexer;
   }
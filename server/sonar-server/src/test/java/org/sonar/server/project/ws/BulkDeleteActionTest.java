@@ -45,6 +45,7 @@ import org.sonar.db.component.ComponentTesting;
 import org.sonar.db.component.ResourceDao;
 import org.sonar.db.component.SnapshotDao;
 import org.sonar.db.component.SnapshotDto;
+import org.sonar.db.component.SnapshotTesting;
 import org.sonar.db.issue.IssueDao;
 import org.sonar.db.issue.IssueDto;
 import org.sonar.db.purge.PurgeDao;
@@ -52,7 +53,7 @@ import org.sonar.db.rule.RuleDto;
 import org.sonar.db.rule.RuleTesting;
 import org.sonar.server.component.ComponentCleanerService;
 import org.sonar.server.component.ComponentFinder;
-import org.sonar.db.component.SnapshotTesting;
+import org.sonar.server.computation.duplication.CrossProjectDuplicationIndex;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.es.EsTester;
 import org.sonar.server.exceptions.ForbiddenException;
@@ -112,8 +113,9 @@ public class BulkDeleteActionTest {
       new BulkDeleteAction(
         new ComponentCleanerService(dbClient,
           new IssueAuthorizationIndexer(dbClient, es.client()),
-          new IssueIndexer(dbClient, es.client()),
-          new TestIndexer(dbClient, es.client()), mockResourceTypes, new ComponentFinder(dbClient)),
+          new IssueIndexer(dbClient, es.client(), new Settings()),
+          new TestIndexer(dbClient, es.client(), new Settings()), mockResourceTypes, new ComponentFinder(dbClient),
+          mock(CrossProjectDuplicationIndex.class)),
         dbClient,
         userSessionRule)));
     userSessionRule.setGlobalPermissions(GlobalPermissions.SYSTEM_ADMIN);
@@ -0,0 +1,96 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.search;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDao;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.component.ComponentTesting;
+import org.sonar.db.issue.IssueDao;
+import org.sonar.db.rule.RuleDto;
+import org.sonar.db.rule.RuleTesting;
+import org.sonar.server.db.DbClient;
+import org.sonar.server.es.EsClient;
+import org.sonar.server.es.ResumableReindexer;
+import org.sonar.server.issue.IssueTesting;
+import org.sonar.server.issue.index.IssueIndexDefinition;
+import org.sonar.server.platform.Platform;
+import org.sonar.server.rule.db.RuleDao;
+import org.sonar.server.tester.ServerTester;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexSynchronizerMediumTest {
+
+  private static final long TIMEOUT_MS = 60000L;
+  private static final int PROJECTS = 500;
+
+  // a single worker, so that reindexing lasts longer than startup tasks
+  @ClassRule
+  public static ServerTester tester = new ServerTester().withStartupTasks().withEsIndexes()
+    .setProperty(ResumableReindexer.WORKERS_PROPERTY, "1");
+
+  DbSession session;
+
+  @Before
+  public void setUp() {
+    session = tester.get(DbClient.class).openSession(false);
+  }
+
+  @After
+  public void tearDown() {
+    session.close();
+  }
+
+  @Test
+  public void reindexing_in_background_goes_on_after_startup_tasks() throws Exception {
+    RuleDto rule = RuleTesting.newXooX1();
+    tester.get(RuleDao.class).insert(session, rule);
+    for (int i = 0; i < PROJECTS; i++) {
+      ComponentDto project = ComponentTesting.newProjectDto();
+      tester.get(ComponentDao.class).insert(session, project);
+      ComponentDto file = ComponentTesting.newFileDto(project);
+      tester.get(ComponentDao.class).insert(session, file);
+      tester.get(IssueDao.class).insert(session, IssueTesting.newDto(rule, file, project));
+    }
+    session.commit();
+    // db is not truncated, as platform could not restart without the table of migrations
+    tester.clearIndexes();
+
+    // startup tasks are executed then stopped, whereas the reindexing they triggered is not over yet
+    tester.get(Platform.class).restart();
+
+    long timeout = System.currentTimeMillis() + TIMEOUT_MS;
+    while (countIssueDocs() < PROJECTS && System.currentTimeMillis() < timeout) {
+      Thread.sleep(100L);
+    }
+    assertThat(countIssueDocs()).isEqualTo(PROJECTS);
+  }
+
+  private long countIssueDocs() {
+    EsClient esClient = tester.get(EsClient.class);
+    esClient.prepareRefresh(IssueIndexDefinition.INDEX).get();
+    return esClient.prepareCount(IssueIndexDefinition.INDEX).setTypes(IssueIndexDefinition.TYPE_ISSUE).get().getCount();
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.source;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SourceCacheMonitorTest {
+
+  SourceCache sourceCache = mock(SourceCache.class);
+
+  SourceCacheMonitor underTest = new SourceCacheMonitor(sourceCache);
+
+  @Test
+  public void name_is_SourceCache() {
+    assertThat(underTest.name()).isEqualTo("SourceCache");
+  }
+
+  @Test
+  public void attributes_has_entry_for_each_get_method() {
+    when(sourceCache.getHitCount()).thenReturn(10L);
+    when(sourceCache.getMissCount()).thenReturn(3L);
+    when(sourceCache.getEvictionCount()).thenReturn(1L);
+    when(sourceCache.getSize()).thenReturn(2L);
+
+    assertThat(underTest.attributes()).containsOnly(
+      entry("Hits", 10L),
+      entry("Misses", 3L),
+      entry("Evictions", 1L),
+      entry("Files", 2L));
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.source;
+
+import java.io.IOException;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.System2;
+import org.sonar.db.DbSession;
+import org.sonar.db.DbTester;
+import org.sonar.db.protobuf.DbFileSources;
+import org.sonar.db.source.FileSourceDto;
+import org.sonar.server.source.index.FileSourceTesting;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SourceCacheTest {
+
+  static final String FILE_UUID = "FILE_UUID";
+
+  @Rule
+  public DbTester dbTester = DbTester.create(System2.INSTANCE);
+
+  @Rule
+  public ExpectedException expectedException = ExpectedException.none();
+
+  DbSession dbSession = dbTester.getSession();
+
+  Settings settings = new Settings();
+
+  @Test
+  public void load_lines_then_read_them_from_cache() throws Exception {
+    insertSource(10, "HASH");
+    SourceCache underTest = new SourceCache(settings, dbTester.getDbClient());
+
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 2, 4)).extracting("source").containsExactly("SOURCE_2", "SOURCE_3", "SOURCE_4");
+    assertThat(underTest.getMissCount()).isEqualTo(1);
+    assertThat(underTest.getHitCount()).isEqualTo(0);
+
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 9, 20)).extracting("source").containsExactly("SOURCE_9", "SOURCE_10");
+    assertThat(underTest.getMissCount()).isEqualTo(1);
+    assertThat(underTest.getHitCount()).isEqualTo(1);
+    assertThat(underTest.getSize()).isEqualTo(1);
+  }
+
+  @Test
+  public void reload_lines_when_data_hash_changed() throws Exception {
+    insertSource(10, "HASH");
+    SourceCache underTest = new SourceCache(settings, dbTester.getDbClient());
+    underTest.getLines(dbSession, FILE_UUID, 1, 10);
+
+    FileSourceDto dto = dbTester.getDbClient().fileSourceDao().selectSourceByFileUuid(dbSession, FILE_UUID);
+    dto.setSourceData(FileSourceTesting.newFakeData(3).build()).setDataHash("OTHER_HASH");
+    dbTester.getDbClient().fileSourceDao().update(dbSession, dto);
+    dbSession.commit();
+
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 1, 10)).hasSize(3);
+    assertThat(underTest.getMissCount()).isEqualTo(2);
+    assertThat(underTest.getHitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void reload_lines_when_invalidated() throws Exception {
+    insertSource(10, "HASH");
+    SourceCache underTest = new SourceCache(settings, dbTester.getDbClient());
+    underTest.getLines(dbSession, FILE_UUID, 1, 10);
+
+    underTest.invalidate(FILE_UUID);
+
+    assertThat(underTest.getSize()).isEqualTo(0);
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 1, 10)).hasSize(10);
+    assertThat(underTest.getMissCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void do_not_cache_sources_without_data_hash() throws Exception {
+    insertSource(10, null);
+    SourceCache underTest = new SourceCache(settings, dbTester.getDbClient());
+
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 1, 2)).hasSize(2);
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 1, 2)).hasSize(2);
+    assertThat(underTest.getMissCount()).isEqualTo(2);
+    assertThat(underTest.getSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void return_null_if_file_has_no_sources() throws Exception {
+    SourceCache underTest = new SourceCache(settings, dbTester.getDbClient());
+
+    assertThat(underTest.getLines(dbSession, "UNKNOWN", 1, 2)).isNull();
+  }
+
+  @Test
+  public void size_of_cache_is_bounded_by_number_of_lines() throws Exception {
+    settings.setProperty(SourceCache.MAX_LINES_PROPERTY, 0);
+    insertSource(10, "HASH");
+    SourceCache underTest = new SourceCache(settings, dbTester.getDbClient());
+
+    List<DbFileSources.Line> lines = underTest.getLines(dbSession, FILE_UUID, 1, 10);
+
+    assertThat(lines).hasSize(10);
+    assertThat(underTest.getSize()).isEqualTo(0);
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 1, 10)).hasSize(10);
+    assertThat(underTest.getHitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void decode_only_windows_of_requested_lines() throws Exception {
+    settings.setProperty(SourceCache.MAX_LINES_PROPERTY, 600);
+    insertSource(1_200, "HASH");
+    SourceCache underTest = new SourceCache(settings, dbTester.getDbClient());
+
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 499, 501)).extracting("source").containsExactly("SOURCE_499", "SOURCE_500", "SOURCE_501");
+    assertThat(underTest.getSize()).isEqualTo(0);
+
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 1_100, 1_100)).extracting("source").containsExactly("SOURCE_1100");
+    assertThat(underTest.getSize()).isEqualTo(1);
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 1_001, Integer.MAX_VALUE)).hasSize(200);
+    assertThat(underTest.getHitCount()).isEqualTo(1);
+
+    // decoding all windows exceeds the max number of lines
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 1, 1_200)).hasSize(1_200);
+    assertThat(underTest.getSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void cache_files_bigger_than_a_quarter_of_max_lines() throws Exception {
+    settings.setProperty(SourceCache.MAX_LINES_PROPERTY, 1_000);
+    insertSource(600, "HASH");
+    SourceCache underTest = new SourceCache(settings, dbTester.getDbClient());
+
+    assertThat(underTest.getLines(dbSession, FILE_UUID, 1, 600)).hasSize(600);
+
+    assertThat(underTest.getSize()).isEqualTo(1);
+  }
+
+  @Test
+  public void weight_of_file_includes_its_compressed_data() throws Exception {
+    insertSource(1_200, "HASH");
+    int compressedData = dbTester.getDbClient().fileSourceDao().selectSourceByFileUuid(dbSession, FILE_UUID).getBinaryData().length;
+    int weight = 1 + (compressedData + SourceCache.BYTES_PER_LINE - 1) / SourceCache.BYTES_PER_LINE + SourceCache.LINES_PER_WINDOW;
+
+    settings.setProperty(SourceCache.MAX_LINES_PROPERTY, weight - 1);
+    SourceCache underTest = new SourceCache(settings, dbTester.getDbClient());
+    underTest.getLines(dbSession, FILE_UUID, 1, 1);
+    assertThat(underTest.getSize()).isEqualTo(0);
+
+    settings.setProperty(SourceCache.MAX_LINES_PROPERTY, weight);
+    underTest = new SourceCache(settings, dbTester.getDbClient());
+    underTest.getLines(dbSession, FILE_UUID, 1, 1);
+    assertThat(underTest.getSize()).isEqualTo(1);
+  }
+
+  @Test
+  public void fail_if_max_lines_is_negative() throws Exception {
+    settings.setProperty(SourceCache.MAX_LINES_PROPERTY, -1);
+
+    expectedException.expect(MessageException.class);
+    expectedException.expectMessage("value '-1' of property sonar.web.sourceCache.maxLines is invalid. It must be a positive integer or 0 to disable cache.");
+
+    new SourceCache(settings, dbTester.getDbClient());
+  }
+
+  private void insertSource(int numberOfLines, String dataHash) throws IOException {
+    dbTester.getDbClient().fileSourceDao().insert(dbSession, new FileSourceDto()
+      .setFileUuid(FILE_UUID)
+      .setProjectUuid("PROJECT_UUID")
+      .setSourceData(FileSourceTesting.newFakeData(numberOfLines).build())
+      .setDataHash(dataHash));
+    dbSession.commit();
+  }
+}
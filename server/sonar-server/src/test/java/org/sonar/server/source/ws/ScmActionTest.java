@@ -24,6 +24,7 @@ import java.util.Date;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.sonar.api.config.Settings;
 import org.sonar.api.utils.DateUtils;
 import org.sonar.api.utils.System2;
 import org.sonar.api.web.UserRole;
@@ -36,6 +37,7 @@ import org.sonar.db.source.FileSourceDto;
 import org.sonar.server.component.ComponentFinder;
 import org.sonar.server.exceptions.ForbiddenException;
 import org.sonar.server.source.HtmlSourceDecorator;
+import org.sonar.server.source.SourceCache;
 import org.sonar.server.source.SourceService;
 import org.sonar.server.tester.UserSessionRule;
 import org.sonar.server.ws.WsTester;
@@ -60,7 +62,7 @@ public class ScmActionTest {
   public void setUp() {
     dbTester.truncateTables();
     tester = new WsTester(
-      new SourcesWs(new ScmAction(dbClient, new SourceService(dbTester.getDbClient(), new HtmlSourceDecorator()), userSessionRule, new ComponentFinder(dbClient))));
+      new SourcesWs(new ScmAction(dbClient, new SourceService(new SourceCache(new Settings(), dbTester.getDbClient()), new HtmlSourceDecorator()), userSessionRule, new ComponentFinder(dbClient))));
   }
 
   @Test
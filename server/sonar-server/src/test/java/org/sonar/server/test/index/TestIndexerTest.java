@@ -74,7 +74,7 @@ public class TestIndexerTest {
   public void setUp() {
     es.truncateIndices();
     db.truncateTables();
-    underTest = new TestIndexer(db.getDbClient(), es.client());
+    underTest = new TestIndexer(db.getDbClient(), es.client(), new Settings());
     underTest.setEnabled(true);
   }
 
@@ -98,6 +98,18 @@ public class TestIndexerTest {
     assertThat(countDocuments()).isEqualTo(3);
   }
 
+  @Test
+  public void index_project_from_scratch() throws Exception {
+    db.prepareDbUnit(getClass(), "db.xml");
+    TestTesting.updateDataColumn(db.getSession(), "FILE_UUID", TestTesting.newRandomTests(3));
+
+    assertThat(underTest.selectProjectUuids()).containsOnly("PROJECT_UUID");
+
+    underTest.indexProjectFromScratch("PROJECT_UUID");
+    es.client().prepareRefresh(INDEX).get();
+    assertThat(countDocuments()).isEqualTo(3);
+  }
+
   @Test
   public void index_nothing_from_unknown_project() throws Exception {
     db.prepareDbUnit(getClass(), "db.xml");
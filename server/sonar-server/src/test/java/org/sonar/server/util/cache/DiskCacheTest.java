@@ -19,15 +19,20 @@
  */
 package org.sonar.server.util.cache;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.sonar.api.utils.System2;
 import org.sonar.core.util.CloseableIterator;
 
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
-
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
@@ -38,7 +43,7 @@ public class DiskCacheTest {
 
   @Test
   public void write_and_read() throws Exception {
-    DiskCache<String> cache = new DiskCache<>(temp.newFile(), System2.INSTANCE);
+    DiskCache<String> cache = new DiskCache<>(temp.newFile(), System2.INSTANCE, new SerializableCodec<String>());
     try (CloseableIterator<String> traverse = cache.traverse()) {
       assertThat(traverse).isEmpty();
     }
@@ -55,7 +60,7 @@ public class DiskCacheTest {
   @Test
   public void fail_if_file_is_not_writable() throws Exception {
     try {
-      new DiskCache<>(temp.newFolder(), System2.INSTANCE);
+      new DiskCache<>(temp.newFolder(), System2.INSTANCE, new SerializableCodec<String>());
       fail();
     } catch (IllegalStateException e) {
       assertThat(e).hasMessageContaining("Fail to write into file");
@@ -69,7 +74,7 @@ public class DiskCacheTest {
         throw new UnsupportedOperationException("expected error");
       }
     }
-    DiskCache<Serializable> cache = new DiskCache<>(temp.newFile(), System2.INSTANCE);
+    DiskCache<Serializable> cache = new DiskCache<>(temp.newFile(), System2.INSTANCE, new SerializableCodec<Serializable>());
     try {
       cache.newAppender().append(new Unserializable());
       fail();
@@ -77,4 +82,62 @@ public class DiskCacheTest {
       assertThat(e).hasMessage("expected error");
     }
   }
+
+  @Test
+  public void write_and_read_compressed() throws Exception {
+    DiskCache<String> cache = new DiskCache<>(temp.newFile(), System2.INSTANCE, new StringCodec(), true);
+    try (CloseableIterator<String> traverse = cache.traverse()) {
+      assertThat(traverse).isEmpty();
+    }
+
+    cache.newAppender()
+      .append("foo")
+      .append("bar")
+      .close();
+    try (CloseableIterator<String> traverse = cache.traverse()) {
+      assertThat(traverse).containsExactly("foo", "bar");
+    }
+  }
+
+  @Test
+  public void write_and_read_many_segments() throws Exception {
+    DiskCache<String> cache = new DiskCache<>(temp.newFile(), System2.INSTANCE, new StringCodec(), true);
+    List<String> expected = new ArrayList<>();
+    DiskCache<String>.DiskAppender appender = cache.newAppender();
+    for (int i = 0; i < 3 * DiskCache.SEGMENT_SIZE / 1000; i++) {
+      String value = i + StringUtils.repeat("x", 1000);
+      expected.add(value);
+      appender.append(value);
+    }
+    appender.close();
+
+    try (CloseableIterator<String> traverse = cache.traverse()) {
+      assertThat(traverse).containsExactlyElementsOf(expected);
+    }
+  }
+
+  @Test
+  public void append_with_successive_appenders() throws Exception {
+    DiskCache<String> cache = new DiskCache<>(temp.newFile(), System2.INSTANCE, new StringCodec());
+
+    cache.newAppender().append("foo").close();
+    cache.newAppender().close();
+    cache.newAppender().append("bar").append("baz").close();
+
+    try (CloseableIterator<String> traverse = cache.traverse()) {
+      assertThat(traverse).containsExactly("foo", "bar", "baz");
+    }
+  }
+
+  private static class StringCodec implements ObjectCodec<String> {
+    @Override
+    public void write(String object, DataOutput output) throws IOException {
+      output.writeUTF(object);
+    }
+
+    @Override
+    public String read(DataInput input) throws IOException {
+      return input.readUTF();
+    }
+  }
 }
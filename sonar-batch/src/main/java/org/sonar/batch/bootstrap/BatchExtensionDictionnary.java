@@ -78,7 +78,7 @@ public class BatchExtensionDictionnary {
     return result;
   }
 
-  private Phase.Name evaluatePhase(Object extension) {
+  public Phase.Name evaluatePhase(Object extension) {
     Object extensionToEvaluate;
     if (extension instanceof SensorWrapper) {
       extensionToEvaluate = ((SensorWrapper) extension).wrappedSensor();
@@ -28,7 +28,6 @@ import org.sonar.batch.cache.GlobalPersistentCacheProvider;
 import org.sonar.batch.cache.ProjectSyncContainer;
 import org.sonar.batch.cache.StrategyWSLoaderProvider;
 import org.sonar.batch.cache.WSLoader.LoadStrategy;
-import org.sonar.batch.index.CachesManager;
 import org.sonar.batch.platform.DefaultServer;
 import org.sonar.batch.repository.DefaultGlobalRepositoriesLoader;
 import org.sonar.batch.repository.GlobalRepositoriesLoader;
@@ -89,7 +88,6 @@ public class GlobalContainer extends ComponentContainer {
       BatchPluginPredicate.class,
       ExtensionInstaller.class,
 
-      CachesManager.class,
       GlobalSettings.class,
       new BatchWsClientProvider(),
       DefaultServer.class,
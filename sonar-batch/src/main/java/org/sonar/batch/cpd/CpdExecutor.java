@@ -22,6 +22,7 @@ package org.sonar.batch.cpd;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.config.Settings;
 import org.sonar.api.utils.log.Logger;
@@ -39,9 +40,16 @@ import org.sonar.duplications.index.CloneGroup;
 import org.sonar.duplications.index.ClonePart;
 import org.sonar.duplications.index.PackedMemoryCloneIndex.ResourceBlocks;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.google.common.collect.FluentIterable.from;
 
@@ -49,11 +57,17 @@ import static com.google.common.collect.FluentIterable.from;
  * Runs on the root module, at the end of the project analysis.
  * It executes copy paste detection involving all files of all modules, which were indexed during sensors execution for each module
  * by {@link CpdSensor). The sensor is responsible for handling exclusions and block sizes.
+ * <p>
+ * Detection of duplications of files is executed by a pool of threads, which only read the index. Results are saved
+ * by the calling thread in the order of the files in the index.
+ * </p>
  */
 public class CpdExecutor {
   private static final Logger LOG = Loggers.get(CpdExecutor.class);
   static final int MAX_CLONE_GROUP_PER_FILE = 100;
   static final int MAX_CLONE_PART_PER_GROUP = 100;
+  // number of files which detection is submitted in advance, by thread
+  private static final int PENDING_FILES_PER_THREAD = 4;
 
   private final SonarDuplicationsIndex index;
   private final ReportPublisher publisher;
@@ -68,30 +82,85 @@ public class CpdExecutor {
   }
 
   public void execute() {
+    int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    ExecutorService executorService = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("CpdExecutor-%d").build());
+    try {
+      execute(executorService, threads * PENDING_FILES_PER_THREAD);
+    } finally {
+      executorService.shutdownNow();
+      // detections are over, files mapped in memory by the index can be released before the end of the analysis
+      index.close();
+    }
+  }
+
+  private void execute(ExecutorService executorService, int maxPendingFiles) {
+    // index is sorted by the first call to iterator(), so that it is not modified anymore by the detections
     Iterator<ResourceBlocks> it = index.iterator();
+    Deque<CpdDetection> pendingDetections = new ArrayDeque<>();
 
     while (it.hasNext()) {
       ResourceBlocks resourceBlocks = it.next();
-      runCpdAnalysis(resourceBlocks.resourceId(), resourceBlocks.blocks());
+      String resource = resourceBlocks.resourceId();
+      BatchComponent component = batchComponentCache.get(resource);
+      if (component == null) {
+        LOG.error("Resource not found in component cache: {}. Skipping CPD computation for it", resource);
+        continue;
+      }
+      if (pendingDetections.size() == maxPendingFiles) {
+        saveDetection(pendingDetections.poll());
+      }
+      pendingDetections.add(new CpdDetection(component, executorService.submit(new DetectionTask(resource, resourceBlocks.blocks()))));
     }
-  }
-
-  private void runCpdAnalysis(String resource, Collection<Block> fileBlocks) {
-    LOG.debug("Detection of duplications for {}", resource);
 
-    BatchComponent component = batchComponentCache.get(resource);
-    if (component == null) {
-      LOG.error("Resource not found in component cache: {}. Skipping CPD computation for it", resource);
-      return;
+    while (!pendingDetections.isEmpty()) {
+      saveDetection(pendingDetections.poll());
     }
+  }
 
+  private void saveDetection(CpdDetection detection) {
     List<CloneGroup> duplications;
     try {
-      duplications = SuffixTreeCloneDetectionAlgorithm.detect(index, fileBlocks);
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail during detection of duplication for " + resource, e);
+      duplications = detection.future.get();
+    } catch (ExecutionException e) {
+      // Unwrap ExecutionException
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
     }
+    filterAndSaveDuplications(detection.component, duplications);
+  }
+
+  private static class CpdDetection {
+    private final BatchComponent component;
+    private final Future<List<CloneGroup>> future;
+
+    private CpdDetection(BatchComponent component, Future<List<CloneGroup>> future) {
+      this.component = component;
+      this.future = future;
+    }
+  }
+
+  private class DetectionTask implements Callable<List<CloneGroup>> {
+    private final String resource;
+    private final Collection<Block> fileBlocks;
+
+    private DetectionTask(String resource, Collection<Block> fileBlocks) {
+      this.resource = resource;
+      this.fileBlocks = fileBlocks;
+    }
+
+    @Override
+    public List<CloneGroup> call() {
+      LOG.debug("Detection of duplications for {}", resource);
+      try {
+        return SuffixTreeCloneDetectionAlgorithm.detect(index, fileBlocks);
+      } catch (Exception e) {
+        throw new IllegalStateException("Fail during detection of duplication for " + resource, e);
+      }
+    }
+  }
 
+  private void filterAndSaveDuplications(BatchComponent component, List<CloneGroup> duplications) {
     InputFile inputFile = (InputFile) component.inputComponent();
 
     List<CloneGroup> filtered;
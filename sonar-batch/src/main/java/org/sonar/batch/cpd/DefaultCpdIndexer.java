@@ -21,6 +21,7 @@ package org.sonar.batch.cpd;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
+import java.io.Reader;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +34,7 @@ import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.config.Settings;
 import org.sonar.batch.cpd.index.SonarDuplicationsIndex;
 import org.sonar.duplications.block.Block;
+import org.sonar.duplications.cpd.CodeLoaderWithoutCache;
 import org.sonar.duplications.internal.pmd.TokenizerBridge;
 
 public class DefaultCpdIndexer extends CpdIndexer {
@@ -84,7 +86,7 @@ public class DefaultCpdIndexer extends CpdIndexer {
     for (InputFile inputFile : sourceFiles) {
       LOG.debug("Populating index from {}", inputFile);
       String resourceEffectiveKey = ((DefaultInputFile) inputFile).key();
-      List<Block> blocks = bridge.chunk(resourceEffectiveKey, inputFile.file());
+      List<Block> blocks = bridge.chunk(resourceEffectiveKey, new InputFileCodeLoader((DefaultInputFile) inputFile));
       index.insert(inputFile, blocks);
     }
   }
@@ -109,4 +111,22 @@ public class DefaultCpdIndexer extends CpdIndexer {
     }
   }
 
+  private static class InputFileCodeLoader extends CodeLoaderWithoutCache {
+    private final DefaultInputFile inputFile;
+
+    InputFileCodeLoader(DefaultInputFile inputFile) {
+      this.inputFile = inputFile;
+    }
+
+    @Override
+    public Reader getReader() {
+      return inputFile.newReader();
+    }
+
+    @Override
+    public String getFileName() {
+      return inputFile.absolutePath();
+    }
+  }
+
 }
@@ -21,9 +21,6 @@
 package org.sonar.batch.cpd;
 
 import com.google.common.collect.Lists;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.List;
 import org.apache.commons.io.IOUtils;
@@ -93,10 +90,8 @@ public class JavaCpdIndexer extends CpdIndexer {
 
       Reader reader = null;
       try {
-        reader = new InputStreamReader(new FileInputStream(inputFile.file()), fs.encoding());
+        reader = ((DefaultInputFile) inputFile).newReader();
         statements = statementChunker.chunk(tokenChunker.chunk(reader));
-      } catch (FileNotFoundException e) {
-        throw new IllegalStateException("Cannot find file " + inputFile.file(), e);
       } finally {
         IOUtils.closeQuietly(reader);
       }
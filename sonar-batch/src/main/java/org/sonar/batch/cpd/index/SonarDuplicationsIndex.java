@@ -21,13 +21,17 @@ package org.sonar.batch.cpd.index;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 
 import org.apache.commons.lang.StringUtils;
+import org.picocontainer.Startable;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.config.Settings;
+import org.sonar.api.utils.TempFolder;
 import org.sonar.batch.index.BatchComponentCache;
 import org.sonar.batch.protocol.output.BatchReport;
 import org.sonar.batch.report.ReportPublisher;
@@ -35,20 +39,33 @@ import org.sonar.duplications.block.Block;
 import org.sonar.duplications.block.ByteArray;
 import org.sonar.duplications.index.AbstractCloneIndex;
 import org.sonar.duplications.index.CloneIndex;
+import org.sonar.duplications.index.MemoryMappedCloneIndex;
 import org.sonar.duplications.index.PackedMemoryCloneIndex;
 import org.sonar.duplications.index.PackedMemoryCloneIndex.ResourceBlocks;
 
-public class SonarDuplicationsIndex extends AbstractCloneIndex {
+public class SonarDuplicationsIndex extends AbstractCloneIndex implements Startable {
 
-  private final CloneIndex mem = new PackedMemoryCloneIndex();
+  /**
+   * Blocks are stored in files of the temp folder of the analysis instead of the heap, see {@link MemoryMappedCloneIndex}
+   */
+  public static final String MEMORY_MAPPED_INDEX_PROPERTY = "sonar.cpd.memoryMappedIndex";
+
+  private final CloneIndex mem;
   private final ReportPublisher publisher;
   private final BatchComponentCache batchComponentCache;
   private final Settings settings;
+  private boolean closed = false;
 
-  public SonarDuplicationsIndex(ReportPublisher publisher, BatchComponentCache batchComponentCache, Settings settings) {
+  public SonarDuplicationsIndex(ReportPublisher publisher, BatchComponentCache batchComponentCache, Settings settings, TempFolder tempFolder) {
     this.publisher = publisher;
     this.batchComponentCache = batchComponentCache;
     this.settings = settings;
+    if (settings.getBoolean(MEMORY_MAPPED_INDEX_PROPERTY)) {
+      // files are deleted with the temp folder at the end of the analysis
+      this.mem = new MemoryMappedCloneIndex(tempFolder.newDir("cpd"));
+    } else {
+      this.mem = new PackedMemoryCloneIndex();
+    }
   }
 
   public void insert(InputFile inputFile, Collection<Block> blocks) {
@@ -103,4 +120,29 @@ public class SonarDuplicationsIndex extends AbstractCloneIndex {
     return mem.iterator();
   }
 
+  /**
+   * Releases the files mapped in memory, if any. The index can't be used anymore.
+   */
+  public void close() {
+    if (!closed && mem instanceof Closeable) {
+      try {
+        ((Closeable) mem).close();
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to close the index of duplications", e);
+      }
+    }
+    closed = true;
+  }
+
+  @Override
+  public void start() {
+    // nothing to do
+  }
+
+  @Override
+  public void stop() {
+    // index is not closed by CpdExecutor when duplications are not computed
+    close();
+  }
+
 }
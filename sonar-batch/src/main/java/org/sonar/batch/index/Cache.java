@@ -19,70 +19,144 @@
  */
 package org.sonar.batch.index;
 
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
-import com.persistit.Exchange;
-import com.persistit.Key;
-import com.persistit.KeyFilter;
-import com.persistit.exception.PersistitException;
 import org.apache.commons.lang.builder.ToStringBuilder;
 
 import javax.annotation.CheckForNull;
 
-import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
- * This cache is not thread-safe, due to direct usage of {@link com.persistit.Exchange}
+ * Entries are sorted by keys. The cache can be used by several threads. Iterables are lazy and weakly consistent
+ * views, so they reflect changes made after their creation and never throw
+ * {@link java.util.ConcurrentModificationException}.
+ * </p>
+ * <p>
+ * Keys are made of one or several elements. Elements must be {@link Comparable} and elements of different types are
+ * sorted by class name. Keys are always kept in heap.
+ * </p>
+ * <p>
+ * The number of values kept in heap by the caches created by the same {@link Caches} is bounded. Once the limit is
+ * reached, next values are encoded by the {@link CacheValueCodec} of the cache and spilled to disk.
+ * </p>
+ * <p>
+ * Values kept in heap are not copied, whereas values spilled to disk are decoded again on each read. As a consequence
+ * a value must not be modified once put, and a value read from the cache may or may not be the instance that was
+ * put: it must be put again to store its modifications.
  * </p>
  */
 public class Cache<V> {
 
+  /**
+   * Greater than any key element. Appended to a key, it gives the upper bound of all the keys starting with it.
+   */
+  private static final Object AFTER = new Object();
+
   private final String name;
-  private final Exchange exchange;
+  // values are either instances of V kept in heap or SpilledValue
+  private final ConcurrentSkipListMap<Object[], Object> map = new ConcurrentSkipListMap<>(KeyComparator.INSTANCE);
+  // number of values kept in heap by all the caches, shared with the other caches of the same Caches
+  private final AtomicLong heapEntries;
+  private final long maxHeapEntries;
+  private final CacheSpillFile spillFile;
+  private final CacheValueCodec<V> codec;
+  private final Function<Object, V> toValueFunction = new Function<Object, V>() {
+    @Override
+    public V apply(Object input) {
+      return toValue(input);
+    }
+  };
 
-  Cache(String name, Exchange exchange) {
+  Cache(String name, AtomicLong heapEntries, long maxHeapEntries, CacheSpillFile spillFile, CacheValueCodec<V> codec) {
     this.name = name;
-    this.exchange = exchange;
+    this.heapEntries = heapEntries;
+    this.maxHeapEntries = maxHeapEntries;
+    this.spillFile = spillFile;
+    this.codec = codec;
   }
 
   public Cache<V> put(Object key, V value) {
-    resetKey(key);
-    return doPut(value);
+    return doPut(new Object[] {key}, value);
   }
 
   public Cache<V> put(Object firstKey, Object secondKey, V value) {
-    resetKey(firstKey, secondKey);
-    return doPut(value);
+    return doPut(new Object[] {firstKey, secondKey}, value);
   }
 
   public Cache<V> put(Object firstKey, Object secondKey, Object thirdKey, V value) {
-    resetKey(firstKey, secondKey, thirdKey);
-    return doPut(value);
+    return doPut(new Object[] {firstKey, secondKey, thirdKey}, value);
   }
 
   public Cache<V> put(Object[] key, V value) {
-    resetKey(key);
-    return doPut(value);
+    return doPut(key.clone(), value);
   }
 
-  private Cache<V> doPut(V value) {
-    try {
-      exchange.getValue().put(value);
-      exchange.store();
-      return this;
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to put element in the cache " + name, e);
+  private Cache<V> doPut(Object[] key, V value) {
+    Preconditions.checkArgument(value != null, "Null values are not supported by the cache %s", name);
+    for (Object element : key) {
+      Preconditions.checkArgument(element == null || element instanceof Comparable,
+        "Key elements of the cache %s must be comparable: %s", name, element);
+    }
+    boolean inHeap = heapEntries.incrementAndGet() <= maxHeapEntries;
+    if (!inHeap) {
+      heapEntries.decrementAndGet();
+    }
+    Object previous = map.put(key, inHeap ? value : spill(value));
+    if (isInHeap(previous)) {
+      heapEntries.decrementAndGet();
+    }
+    return this;
+  }
+
+  private SpilledValue spill(V value) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(bytes)) {
+      codec.encode(value, output);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to encode value of cache " + name, e);
+    }
+    byte[] data = bytes.toByteArray();
+    return new SpilledValue(spillFile.write(data), data.length);
+  }
+
+  @SuppressWarnings("unchecked")
+  @CheckForNull
+  private V toValue(@CheckForNull Object stored) {
+    if (!(stored instanceof SpilledValue)) {
+      return (V) stored;
+    }
+    SpilledValue spilled = (SpilledValue) stored;
+    byte[] data = spillFile.read(spilled.position, spilled.length);
+    try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+      return codec.decode(input);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to decode value of cache " + name, e);
     }
   }
 
+  private static boolean isInHeap(@CheckForNull Object stored) {
+    return stored != null && !(stored instanceof SpilledValue);
+  }
+
   /**
    * Returns the value object associated with keys, or null if not found.
    */
   public V get(Object key) {
-    resetKey(key);
-    return doGet();
+    return toValue(map.get(new Object[] {key}));
   }
 
   /**
@@ -90,8 +164,7 @@ public class Cache<V> {
    */
   @CheckForNull
   public V get(Object firstKey, Object secondKey) {
-    resetKey(firstKey, secondKey);
-    return doGet();
+    return toValue(map.get(new Object[] {firstKey, secondKey}));
   }
 
   /**
@@ -99,8 +172,7 @@ public class Cache<V> {
    */
   @CheckForNull
   public V get(Object firstKey, Object secondKey, Object thirdKey) {
-    resetKey(firstKey, secondKey, thirdKey);
-    return doGet();
+    return toValue(map.get(new Object[] {firstKey, secondKey, thirdKey}));
   }
 
   /**
@@ -108,82 +180,47 @@ public class Cache<V> {
    */
   @CheckForNull
   public V get(Object[] key) {
-    resetKey(key);
-    return doGet();
-  }
-
-  @SuppressWarnings("unchecked")
-  @CheckForNull
-  private V doGet() {
-    try {
-      exchange.fetch();
-      if (!exchange.getValue().isDefined()) {
-        return null;
-      }
-      return (V) exchange.getValue().get();
-    } catch (Exception e) {
-      // TODO add parameters to message
-      throw new IllegalStateException("Fail to get element from cache " + name, e);
-    }
+    return toValue(map.get(key));
   }
 
   public boolean containsKey(Object key) {
-    resetKey(key);
-    return doContainsKey();
+    return map.containsKey(new Object[] {key});
   }
 
   public boolean containsKey(Object firstKey, Object secondKey) {
-    resetKey(firstKey, secondKey);
-    return doContainsKey();
+    return map.containsKey(new Object[] {firstKey, secondKey});
   }
 
   public boolean containsKey(Object firstKey, Object secondKey, Object thirdKey) {
-    resetKey(firstKey, secondKey, thirdKey);
-    return doContainsKey();
+    return map.containsKey(new Object[] {firstKey, secondKey, thirdKey});
   }
 
   public boolean containsKey(Object[] key) {
-    resetKey(key);
-    return doContainsKey();
-  }
-
-  private boolean doContainsKey() {
-    try {
-      exchange.fetch();
-      return exchange.isValueDefined();
-    } catch (Exception e) {
-      // TODO add parameters to message
-      throw new IllegalStateException("Fail to check if element is in cache " + name, e);
-    }
+    return map.containsKey(key);
   }
 
   public boolean remove(Object key) {
-    resetKey(key);
-    return doRemove();
+    return doRemove(new Object[] {key});
   }
 
   public boolean remove(Object firstKey, Object secondKey) {
-    resetKey(firstKey, secondKey);
-    return doRemove();
+    return doRemove(new Object[] {firstKey, secondKey});
   }
 
   public boolean remove(Object firstKey, Object secondKey, Object thirdKey) {
-    resetKey(firstKey, secondKey, thirdKey);
-    return doRemove();
+    return doRemove(new Object[] {firstKey, secondKey, thirdKey});
   }
 
   public boolean remove(Object[] key) {
-    resetKey(key);
-    return doRemove();
+    return doRemove(key);
   }
 
-  private boolean doRemove() {
-    try {
-      return exchange.remove();
-    } catch (Exception e) {
-      // TODO add parameters to message
-      throw new IllegalStateException("Fail to get element from cache " + name, e);
+  private boolean doRemove(Object[] key) {
+    Object previous = map.remove(key);
+    if (isInHeap(previous)) {
+      heapEntries.decrementAndGet();
     }
+    return previous != null;
   }
 
   /**
@@ -192,88 +229,54 @@ public class Cache<V> {
    * @param group The group name.
    */
   public Cache<V> clear(Object key) {
-    resetKey(key);
-    return doClear();
+    return doClear(new Object[] {key});
   }
 
   public Cache<V> clear(Object firstKey, Object secondKey) {
-    resetKey(firstKey, secondKey);
-    return doClear();
+    return doClear(new Object[] {firstKey, secondKey});
   }
 
   public Cache<V> clear(Object firstKey, Object secondKey, Object thirdKey) {
-    resetKey(firstKey, secondKey, thirdKey);
-    return doClear();
+    return doClear(new Object[] {firstKey, secondKey, thirdKey});
   }
 
   public Cache<V> clear(Object[] key) {
-    resetKey(key);
-    return doClear();
-  }
-
-  private Cache<V> doClear() {
-    try {
-      Key to = new Key(exchange.getKey());
-      to.append(Key.AFTER);
-      exchange.removeKeyRange(exchange.getKey(), to);
-      return this;
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to clear values from cache " + name, e);
-    }
+    return doClear(key);
+  }
+
+  private Cache<V> doClear(Object[] key) {
+    removeAll(map.subMap(key, true, append(key, AFTER), false));
+    return this;
   }
 
   /**
    * Clears the default as well as all group caches.
    */
   public void clear() {
-    try {
-      exchange.clear();
-      exchange.removeAll();
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to clear cache", e);
+    removeAll(map);
+  }
+
+  private void removeAll(NavigableMap<Object[], Object> entriesToRemove) {
+    // entries are removed one by one, so that the number of removed entries is known
+    for (Object[] key : entriesToRemove.keySet()) {
+      doRemove(key);
     }
   }
 
   /**
    * Returns the set of cache keys associated with this group.
-   * TODO implement a lazy-loading equivalent with Iterator/Iterable
    *
    * @param group The group.
    * @return The set of cache keys for this group.
    */
   @SuppressWarnings("rawtypes")
   public Set keySet(Object key) {
-    try {
-      Set<Object> keys = Sets.newLinkedHashSet();
-      exchange.clear();
-      Exchange iteratorExchange = new Exchange(exchange);
-      iteratorExchange.append(key);
-      iteratorExchange.append(Key.BEFORE);
-      while (iteratorExchange.next(false)) {
-        keys.add(iteratorExchange.getKey().indexTo(-1).decode());
-      }
-      return keys;
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to get keys from cache " + name, e);
-    }
+    return childKeys(new Object[] {key});
   }
 
   @SuppressWarnings("rawtypes")
   public Set keySet(Object firstKey, Object secondKey) {
-    try {
-      Set<Object> keys = Sets.newLinkedHashSet();
-      exchange.clear();
-      Exchange iteratorExchange = new Exchange(exchange);
-      iteratorExchange.append(firstKey);
-      iteratorExchange.append(secondKey);
-      iteratorExchange.append(Key.BEFORE);
-      while (iteratorExchange.next(false)) {
-        keys.add(iteratorExchange.getKey().indexTo(-1).decode());
-      }
-      return keys;
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to get keys from cache " + name, e);
-    }
+    return childKeys(new Object[] {firstKey, secondKey});
   }
 
   /**
@@ -282,200 +285,134 @@ public class Cache<V> {
    * @return The set containing the keys for this cache.
    */
   public Set<Object> keySet() {
-    try {
-      Set<Object> keys = Sets.newLinkedHashSet();
-      exchange.clear();
-      Exchange iteratorExchange = new Exchange(exchange);
-      iteratorExchange.append(Key.BEFORE);
-      while (iteratorExchange.next(false)) {
-        keys.add(iteratorExchange.getKey().indexTo(-1).decode());
-      }
-      return keys;
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to get keys from cache " + name, e);
+    return childKeys(new Object[0]);
+  }
+
+  /**
+   * Elements following the given prefix in the keys starting with it. The keys sharing the same element are
+   * skipped by seeking to the next one, so the cost depends on the number of returned elements.
+   */
+  private Set<Object> childKeys(Object[] prefix) {
+    Set<Object> keys = Sets.newLinkedHashSet();
+    Object[] next = map.higherKey(prefix);
+    while (next != null && startsWith(next, prefix)) {
+      Object child = next[prefix.length];
+      keys.add(child);
+      next = map.higherKey(append(append(prefix, child), AFTER));
     }
+    return keys;
   }
 
   /**
    * Lazy-loading values for given keys
    */
   public Iterable<V> values(Object firstKey, Object secondKey) {
-    return new ValueIterable<>(exchange, firstKey, secondKey);
+    return Iterables.transform(descendants(new Object[] {firstKey, secondKey}).values(), toValueFunction);
   }
 
   /**
    * Lazy-loading values for a given key
    */
   public Iterable<V> values(Object firstKey) {
-    return new ValueIterable<>(exchange, firstKey);
+    return Iterables.transform(descendants(new Object[] {firstKey}).values(), toValueFunction);
   }
 
   /**
    * Lazy-loading values
    */
   public Iterable<V> values() {
-    return new ValueIterable<>(exchange);
+    return Iterables.transform(map.values(), toValueFunction);
   }
 
   public Iterable<Entry<V>> entries() {
-    return new EntryIterable<>(exchange);
+    return toEntries(map);
   }
 
   public Iterable<Entry<V>> entries(Object firstKey) {
-    return new EntryIterable<>(exchange, firstKey);
+    return toEntries(descendants(new Object[] {firstKey}));
   }
 
-  private void resetKey(Object key) {
-    exchange.clear();
-    exchange.append(key);
-  }
-
-  private void resetKey(Object first, Object second) {
-    exchange.clear();
-    exchange.append(first).append(second);
+  /**
+   * Values of the keys starting with the given prefix, excluding the prefix itself
+   */
+  private NavigableMap<Object[], Object> descendants(Object[] prefix) {
+    return map.subMap(prefix, false, append(prefix, AFTER), false);
   }
 
-  private void resetKey(Object first, Object second, Object third) {
-    exchange.clear();
-    exchange.append(first).append(second).append(third);
+  private Iterable<Entry<V>> toEntries(NavigableMap<Object[], Object> entries) {
+    return Iterables.transform(entries.entrySet(), new Function<Map.Entry<Object[], Object>, Entry<V>>() {
+      @Override
+      public Entry<V> apply(Map.Entry<Object[], Object> input) {
+        return new Entry<>(input.getKey().clone(), toValue(input.getValue()));
+      }
+    });
   }
 
-  private void resetKey(Object[] keys) {
-    exchange.clear();
-    for (Object o : keys) {
-      exchange.append(o);
-    }
+  private static Object[] append(Object[] key, Object element) {
+    Object[] result = new Object[key.length + 1];
+    System.arraycopy(key, 0, result, 0, key.length);
+    result[key.length] = element;
+    return result;
   }
 
-  //
-  // LAZY ITERATORS AND ITERABLES
-  //
-
-  private static class ValueIterable<T> implements Iterable<T> {
-    private final Exchange originExchange;
-    private final Object[] keys;
-
-    private ValueIterable(Exchange originExchange, Object... keys) {
-      this.originExchange = originExchange;
-      this.keys = keys;
+  private static boolean startsWith(Object[] key, Object[] prefix) {
+    if (key.length <= prefix.length) {
+      return false;
     }
-
-    @Override
-    public Iterator<T> iterator() {
-      originExchange.clear();
-      KeyFilter filter = new KeyFilter();
-      for (Object key : keys) {
-        originExchange.append(key);
-        filter = filter.append(KeyFilter.simpleTerm(key));
+    for (int i = 0; i < prefix.length; i++) {
+      if (compareElements(key[i], prefix[i]) != 0) {
+        return false;
       }
-      originExchange.append(Key.BEFORE);
-      Exchange iteratorExchange = new Exchange(originExchange);
-      return new ValueIterator<>(iteratorExchange, filter);
     }
+    return true;
   }
 
-  private static class ValueIterator<T> implements Iterator<T> {
-    private final Exchange exchange;
-    private final KeyFilter keyFilter;
-
-    private ValueIterator(Exchange exchange, KeyFilter keyFilter) {
-      this.exchange = exchange;
-      this.keyFilter = keyFilter;
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static int compareElements(@CheckForNull Object e1, @CheckForNull Object e2) {
+    if (e1 == e2) {
+      return 0;
     }
-
-    @Override
-    public boolean hasNext() {
-      try {
-        return exchange.hasNext(keyFilter);
-      } catch (PersistitException e) {
-        throw new IllegalStateException(e);
-      }
+    if (e1 == AFTER || e2 == null) {
+      return 1;
     }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public T next() {
-      try {
-        exchange.next(keyFilter);
-      } catch (PersistitException e) {
-        throw new IllegalStateException(e);
-      }
-      if (exchange.getValue().isDefined()) {
-        return (T) exchange.getValue().get();
-      }
-      throw new NoSuchElementException();
+    if (e2 == AFTER || e1 == null) {
+      return -1;
     }
-
-    @Override
-    public void remove() {
-      throw new UnsupportedOperationException("Removing an item is not supported");
+    if (e1.getClass() == e2.getClass()) {
+      return ((Comparable) e1).compareTo(e2);
     }
+    return e1.getClass().getName().compareTo(e2.getClass().getName());
   }
 
-  private static class EntryIterable<T> implements Iterable<Entry<T>> {
-    private final Exchange originExchange;
-    private final Object[] keys;
-
-    private EntryIterable(Exchange originExchange, Object... keys) {
-      this.originExchange = originExchange;
-      this.keys = keys;
-    }
+  /**
+   * Sorts keys element by element. A key is lower than the keys it is a prefix of.
+   */
+  private enum KeyComparator implements Comparator<Object[]> {
+    INSTANCE;
 
     @Override
-    public Iterator<Entry<T>> iterator() {
-      originExchange.clear();
-      KeyFilter filter = new KeyFilter();
-      for (Object key : keys) {
-        originExchange.append(key);
-        filter = filter.append(KeyFilter.simpleTerm(key));
+    public int compare(Object[] key1, Object[] key2) {
+      int length = Math.min(key1.length, key2.length);
+      for (int i = 0; i < length; i++) {
+        int result = compareElements(key1[i], key2[i]);
+        if (result != 0) {
+          return result;
+        }
       }
-      originExchange.append(Key.BEFORE);
-      Exchange iteratorExchange = new Exchange(originExchange);
-      return new EntryIterator<>(iteratorExchange, filter);
+      return key1.length - key2.length;
     }
   }
 
-  private static class EntryIterator<T> implements Iterator<Entry<T>> {
-    private final Exchange exchange;
-    private final KeyFilter keyFilter;
-
-    private EntryIterator(Exchange exchange, KeyFilter keyFilter) {
-      this.exchange = exchange;
-      this.keyFilter = keyFilter;
-    }
-
-    @Override
-    public boolean hasNext() {
-      try {
-        return exchange.hasNext(keyFilter);
-      } catch (PersistitException e) {
-        throw new IllegalStateException(e);
-      }
-    }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public Entry<T> next() {
-      try {
-        exchange.next(keyFilter);
-      } catch (PersistitException e) {
-        throw new IllegalStateException(e);
-      }
-      if (exchange.getValue().isDefined()) {
-        T value = (T) exchange.getValue().get();
-        Key key = exchange.getKey();
-        Object[] array = new Object[key.getDepth()];
-        for (int i = 0; i < key.getDepth(); i++) {
-          array[i] = key.indexTo(i - key.getDepth()).decode();
-        }
-        return new Entry<>(array, value);
-      }
-      throw new NoSuchElementException();
-    }
+  /**
+   * Location in {@link CacheSpillFile} of a value which is not kept in heap
+   */
+  private static final class SpilledValue {
+    private final long position;
+    private final int length;
 
-    @Override
-    public void remove() {
-      throw new UnsupportedOperationException("Removing an item is not supported");
+    private SpilledValue(long position, int length) {
+      this.position = position;
+      this.length = length;
     }
   }
 
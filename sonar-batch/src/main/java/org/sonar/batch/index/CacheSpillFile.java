@@ -0,0 +1,114 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import javax.annotation.CheckForNull;
+import org.apache.commons.io.FileUtils;
+import org.sonar.api.utils.TempFolder;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Append-only file storing the values which do not fit in the heap budget of the caches. The file is created on the
+ * first spilled value, so that analyses which do not exceed the budget do not write to disk. Space of removed values
+ * is not reclaimed, the file is deleted when caches are stopped.
+ * <p>
+ * Values are appended by a single thread at a time, while reads are positional and can be executed concurrently.
+ * </p>
+ */
+class CacheSpillFile {
+
+  private static final Logger LOG = Loggers.get(CacheSpillFile.class);
+
+  private final TempFolder tempFolder;
+  private final long maxHeapEntries;
+  @CheckForNull
+  private File file;
+  @CheckForNull
+  private RandomAccessFile randomAccessFile;
+  @CheckForNull
+  private volatile FileChannel channel;
+
+  CacheSpillFile(TempFolder tempFolder, long maxHeapEntries) {
+    this.tempFolder = tempFolder;
+    this.maxHeapEntries = maxHeapEntries;
+  }
+
+  /**
+   * Appends the given bytes and returns their position in the file
+   */
+  synchronized long write(byte[] bytes) {
+    try {
+      FileChannel fileChannel = open();
+      long position = fileChannel.size();
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) {
+        fileChannel.write(buffer, position + buffer.position());
+      }
+      return position;
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to write to cache file " + file, e);
+    }
+  }
+
+  byte[] read(long position, int length) {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    try {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw new IllegalStateException("Unexpected end of cache file " + file);
+        }
+      }
+      return buffer.array();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to read cache file " + file, e);
+    }
+  }
+
+  private FileChannel open() throws IOException {
+    if (channel == null) {
+      file = tempFolder.newFile("caches", ".dat");
+      LOG.info("Analysis caches reached {} entries in heap. Next entries are stored in {}", maxHeapEntries, file);
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      channel = randomAccessFile.getChannel();
+    }
+    return channel;
+  }
+
+  synchronized void close() {
+    if (randomAccessFile != null) {
+      try {
+        randomAccessFile.close();
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to close cache file " + file, e);
+      } finally {
+        FileUtils.deleteQuietly(file);
+        randomAccessFile = null;
+        channel = null;
+        file = null;
+      }
+    }
+  }
+}
@@ -19,24 +19,18 @@
  */
 package org.sonar.batch.index;
 
-import org.junit.Test;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
-import java.io.File;
-
-import static org.assertj.core.api.Assertions.assertThat;
+/**
+ * Converts the values of a {@link Cache} from/to bytes when they are spilled to disk. By default values are
+ * converted with Java serialization, see {@link Caches#createCache(String)}.
+ */
+public interface CacheValueCodec<V> {
 
-public class CachesManagerTest extends AbstractCachesTest {
-  @Test
-  public void should_stop_and_clean_temp_dir() {
-    File tempDir = cachesManager.tempDir();
-    assertThat(tempDir).isDirectory().exists();
-    assertThat(cachesManager.persistit()).isNotNull();
-    assertThat(cachesManager.persistit().isInitialized()).isTrue();
+  void encode(V value, DataOutputStream output) throws IOException;
 
-    cachesManager.stop();
+  V decode(DataInputStream input) throws IOException;
 
-    assertThat(tempDir).doesNotExist();
-    assertThat(cachesManager.tempDir()).isNull();
-    assertThat(cachesManager.persistit()).isNull();
-  }
 }
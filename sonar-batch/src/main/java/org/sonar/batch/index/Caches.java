@@ -19,82 +19,94 @@
  */
 package org.sonar.batch.index;
 
-import com.google.common.collect.Maps;
-
-import java.util.Map;
-import java.util.Map.Entry;
-
 import com.google.common.base.Preconditions;
-import com.persistit.Exchange;
-import com.persistit.Value;
-import com.persistit.encoding.CoderManager;
-import com.persistit.Persistit;
-import com.persistit.encoding.ValueCoder;
-import com.persistit.exception.PersistitException;
-import com.persistit.Volume;
+import com.google.common.collect.Maps;
 import org.picocontainer.Startable;
 import org.sonar.api.batch.BatchSide;
+import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.TempFolder;
+import org.sonar.batch.analysis.AnalysisProperties;
 
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+/**
+ * Factory of the caches shared by all the modules of the project. Caches are released when the project analysis ends.
+ * <p>
+ * Caches are stored in heap. The total number of values they keep in heap is limited by the property
+ * {@link #MAX_ENTRIES_PROPERTY}, which defaults to a number of entries proportional to the maximum heap size. Next
+ * values are spilled to a temporary file.
+ * </p>
+ */
 @BatchSide
 public class Caches implements Startable {
-  private final Map<String, Exchange> cacheMap = Maps.newHashMap();
-  private Persistit persistit;
-  private Volume volume;
 
-  public Caches(CachesManager caches) {
-    persistit = caches.persistit();
-    doStart();
-  }
+  public static final String MAX_ENTRIES_PROPERTY = "sonar.batch.cache.maxEntries";
 
-  @Override
-  public void start() {
-    // done in constructor
+  /**
+   * Heap used by an entry of the biggest caches, including key and value. Measured on a 64-bit JVM with compressed
+   * oops, it is about 550 bytes for an issue and 300 bytes for a measure.
+   */
+  private static final int BYTES_PER_ENTRY = 550;
+  // caches keep values in at most half of the heap, the other half being used by sensors
+  private static final int HEAP_RATIO = 2;
+
+  private final ConcurrentMap<String, Cache<?>> cacheMap = Maps.newConcurrentMap();
+  private final AtomicLong heapEntries = new AtomicLong();
+  private final long maxHeapEntries;
+  private final CacheSpillFile spillFile;
+
+  public Caches(AnalysisProperties props, TempFolder tempFolder) {
+    this.maxHeapEntries = readMaxEntries(props);
+    this.spillFile = new CacheSpillFile(tempFolder, maxHeapEntries);
   }
 
-  private void doStart() {
+  private static long readMaxEntries(AnalysisProperties props) {
+    String value = props.property(MAX_ENTRIES_PROPERTY);
+    if (value == null) {
+      return defaultMaxEntries(Runtime.getRuntime().maxMemory());
+    }
     try {
-      persistit.flush();
-      volume = persistit.createTemporaryVolume();
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to create a cache volume", e);
+      long res = Long.parseLong(value);
+      if (res > 0) {
+        return res;
+      }
+    } catch (NumberFormatException e) {
+      // error reported below
     }
+    throw MessageException.of(format("value '%s' of property %s is invalid. It must be an integer strictly greater than 0.", value, MAX_ENTRIES_PROPERTY));
   }
 
-  public void registerValueCoder(Class<?> clazz, ValueCoder coder) {
-    CoderManager cm = persistit.getCoderManager();
-    cm.registerValueCoder(clazz, coder);
+  static long defaultMaxEntries(long maxHeapBytes) {
+    return maxHeapBytes / HEAP_RATIO / BYTES_PER_ENTRY;
   }
 
+  @Override
+  public void start() {
+    // nothing to do
+  }
+
+  /**
+   * Creates a cache which values are spilled to disk with Java serialization. They must be {@link java.io.Serializable}.
+   */
   public <V> Cache<V> createCache(String cacheName) {
-    Preconditions.checkState(volume != null && volume.isOpened(), "Caches are not initialized");
-    Preconditions.checkState(!cacheMap.containsKey(cacheName), "Cache is already created: " + cacheName);
-    try {
-      Exchange exchange = persistit.getExchange(volume, cacheName, true);
-      exchange.setMaximumValueSize(Value.MAXIMUM_SIZE);
-      Cache<V> cache = new Cache<>(cacheName, exchange);
-      cacheMap.put(cacheName, exchange);
-      return cache;
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to create cache: " + cacheName, e);
-    }
+    return createCache(cacheName, new SerializableValueCodec<V>());
+  }
+
+  public <V> Cache<V> createCache(String cacheName, CacheValueCodec<V> codec) {
+    Cache<V> cache = new Cache<>(cacheName, heapEntries, maxHeapEntries, spillFile, codec);
+    Preconditions.checkState(cacheMap.putIfAbsent(cacheName, cache) == null, "Cache is already created: " + cacheName);
+    return cache;
   }
 
   @Override
   public void stop() {
-    for (Entry<String, Exchange> e : cacheMap.entrySet()) {
-      persistit.releaseExchange(e.getValue());
+    for (Cache<?> cache : cacheMap.values()) {
+      cache.clear();
     }
-
     cacheMap.clear();
-
-    if (volume != null) {
-      try {
-        volume.close();
-        volume.delete();
-      } catch (PersistitException e) {
-        throw new IllegalStateException("Fail to close caches", e);
-      }
-      volume = null;
-    }
+    spillFile.close();
   }
 }
@@ -19,43 +19,106 @@
  */
 package org.sonar.batch.issue.tracking;
 
-import org.sonar.batch.cache.WSLoader.LoadStrategy;
-
-import org.sonar.batch.cache.WSLoaderResult;
-import org.sonar.batch.cache.WSLoader;
-import org.apache.commons.lang.mutable.MutableBoolean;
-
-import javax.annotation.Nullable;
-
-import org.sonar.batch.util.BatchUtils;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Table;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.apache.commons.lang.mutable.MutableBoolean;
+import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.api.utils.log.Profiler;
+import org.sonar.batch.cache.WSLoader;
+import org.sonar.batch.cache.WSLoader.LoadStrategy;
+import org.sonar.batch.cache.WSLoaderResult;
+import org.sonar.batch.repository.FileData;
+import org.sonar.batch.repository.ProjectRepositories;
+import org.sonar.batch.util.BatchUtils;
+import org.sonar.core.component.ComponentKeys;
+import org.sonar.home.cache.PersistentCache;
 
+/**
+ * Line hashes of the server version of a file are stored in the project persistent cache under the hash of the
+ * server file content, so they are downloaded only once per version of the file and never become stale.
+ */
 public class DefaultServerLineHashesLoader implements ServerLineHashesLoader {
 
+  private static final Logger LOG = Loggers.get(DefaultServerLineHashesLoader.class);
+  private static final String CACHE_KEY_PREFIX = "lineHashes:";
+
   private final WSLoader wsLoader;
+  private final PersistentCache cache;
+  private final ProjectRepositories projectRepositories;
 
-  public DefaultServerLineHashesLoader(WSLoader wsLoader) {
+  private Map<String, String> serverFileHashesByKey;
+
+  public DefaultServerLineHashesLoader(WSLoader wsLoader, PersistentCache cache, ProjectRepositories projectRepositories) {
     this.wsLoader = wsLoader;
+    this.cache = cache;
+    this.projectRepositories = projectRepositories;
   }
 
   @Override
   public String[] getLineHashes(String fileKey, @Nullable MutableBoolean fromCache) {
-    String hashesFromWs = loadHashesFromWs(fileKey, fromCache);
-    return Iterators.toArray(Splitter.on('\n').split(hashesFromWs).iterator(), String.class);
+    String serverFileHash = serverFileHash(fileKey);
+    String hashes = serverFileHash != null ? loadHashesFromCache(serverFileHash) : null;
+    if (hashes != null) {
+      if (fromCache != null) {
+        fromCache.setValue(true);
+      }
+    } else {
+      hashes = loadHashesFromWs(fileKey, serverFileHash, fromCache);
+    }
+    return Iterators.toArray(Splitter.on('\n').split(hashes).iterator(), String.class);
   }
 
-  private String loadHashesFromWs(String fileKey, @Nullable MutableBoolean fromCache) {
+  @CheckForNull
+  private synchronized String serverFileHash(String fileKey) {
+    if (serverFileHashesByKey == null) {
+      serverFileHashesByKey = new HashMap<>();
+      for (Table.Cell<String, String, FileData> cell : projectRepositories.fileDataByModuleAndPath().cellSet()) {
+        serverFileHashesByKey.put(ComponentKeys.createEffectiveKey(cell.getRowKey(), cell.getColumnKey()), cell.getValue().hash());
+      }
+    }
+    return serverFileHashesByKey.get(fileKey);
+  }
+
+  @CheckForNull
+  private String loadHashesFromCache(String serverFileHash) {
+    try {
+      return cache.getString(CACHE_KEY_PREFIX + serverFileHash);
+    } catch (IOException e) {
+      LOG.debug("Fail to read line hashes from cache", e);
+      return null;
+    }
+  }
+
+  private void saveHashesInCache(String serverFileHash, String hashes) {
+    try {
+      cache.put(CACHE_KEY_PREFIX + serverFileHash, hashes.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      LOG.debug("Fail to write line hashes in cache", e);
+    }
+  }
+
+  private String loadHashesFromWs(String fileKey, @Nullable String serverFileHash, @Nullable MutableBoolean fromCache) {
     Profiler profiler = Profiler.createIfDebug(Loggers.get(getClass()))
       .addContext("file", fileKey)
       .startDebug("Load line hashes");
-    WSLoaderResult<String> result = wsLoader.loadString("/api/sources/hash?key=" + BatchUtils.encodeForUrl(fileKey), LoadStrategy.CACHE_FIRST);
+    // when the version of the file on server is known, the response cached by URL may relate to a previous version
+    LoadStrategy strategy = serverFileHash != null ? LoadStrategy.SERVER_FIRST : LoadStrategy.CACHE_FIRST;
+    WSLoaderResult<String> result = wsLoader.loadString("/api/sources/hash?key=" + BatchUtils.encodeForUrl(fileKey), strategy);
     try {
       if (fromCache != null) {
         fromCache.setValue(result.isFromCache());
       }
+      if (serverFileHash != null && !result.isFromCache()) {
+        saveHashesInCache(serverFileHash, result.get());
+      }
       return result.get();
     } finally {
       if (result.isFromCache()) {
@@ -83,6 +83,9 @@ public class LocalIssueTracking {
       if (shouldCopyServerIssues(component)) {
         // raw issues should be empty, we just need to deal with server issues (SONAR-6931)
         copyServerIssues(serverIssues, trackedIssues);
+      } else if (serverIssues.isEmpty()) {
+        // nothing to track: all raw issues are new, so neither the file nor the server line hashes have to be read
+        addUnmatchedFromReport(IssueTransformer.toTrackedIssue(component, reportIssues, null), trackedIssues, analysisDate);
       } else {
 
         SourceHashHolder sourceHashHolder = loadSourceHashes(component);
@@ -57,8 +57,7 @@ public class ServerIssueRepository {
 
   public void load() {
     Profiler profiler = Profiler.create(LOG).startInfo(LOG_MSG);
-    this.issuesCache = caches.createCache("previousIssues");
-    caches.registerValueCoder(ServerIssue.class, new ServerIssueValueCoder());
+    this.issuesCache = caches.createCache("previousIssues", new ServerIssueValueCodec());
     boolean fromCache = previousIssuesLoader.load(reactor.getRoot().getKeyWithBranch(), new SaveIssueConsumer());
     profiler.stopInfo(fromCache);
   }
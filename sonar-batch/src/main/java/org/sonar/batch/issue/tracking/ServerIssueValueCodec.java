@@ -19,28 +19,21 @@
  */
 package org.sonar.batch.issue.tracking;
 
-import com.persistit.Value;
-import com.persistit.encoding.CoderContext;
-import com.persistit.encoding.ValueCoder;
-import org.sonar.batch.protocol.input.BatchInput.ServerIssue;
-
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import org.sonar.batch.index.CacheValueCodec;
+import org.sonar.batch.protocol.input.BatchInput.ServerIssue;
 
-public class ServerIssueValueCoder implements ValueCoder {
+class ServerIssueValueCodec implements CacheValueCodec<ServerIssue> {
 
   @Override
-  public void put(Value value, Object object, CoderContext context) {
-    ServerIssue issue = (ServerIssue) object;
-    value.putByteArray(issue.toByteArray());
+  public void encode(ServerIssue issue, DataOutputStream output) throws IOException {
+    issue.writeTo(output);
   }
 
   @Override
-  public Object get(Value value, Class<?> clazz, CoderContext context) {
-    try {
-      return ServerIssue.parseFrom(value.getByteArray());
-    } catch (IOException e) {
-      throw new IllegalStateException("Unable to read issue from cache", e);
-    }
+  public ServerIssue decode(DataInputStream input) throws IOException {
+    return ServerIssue.parseFrom(input);
   }
-
 }
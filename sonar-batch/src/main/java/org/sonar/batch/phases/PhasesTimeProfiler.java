@@ -28,11 +28,15 @@ import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.api.utils.log.Profiler;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class PhasesTimeProfiler implements SensorExecutionHandler, SensorsPhaseHandler {
 
   private static final Logger LOG = Loggers.get(PhasesTimeProfiler.class);
 
-  private Profiler profiler = Profiler.create(LOG);
+  // one profiler per sensor, as thread-safe sensors are executed concurrently
+  private final Map<Object, Profiler> profilerBySensor = new HashMap<>();
 
   @Override
   public void onSensorsPhase(SensorsPhaseEvent event) {
@@ -44,9 +48,11 @@ public class PhasesTimeProfiler implements SensorExecutionHandler, SensorsPhaseH
   @Override
   public void onSensorExecution(SensorExecutionEvent event) {
     if (event.isStart()) {
+      Profiler profiler = Profiler.create(LOG);
+      profilerBySensor.put(event.getSensor(), profiler);
       profiler.startInfo("Sensor " + BatchUtils.describe(event.getSensor()));
     } else {
-      profiler.stopInfo();
+      profilerBySensor.remove(event.getSensor()).stopInfo();
     }
   }
 
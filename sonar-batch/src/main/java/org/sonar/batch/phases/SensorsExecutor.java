@@ -20,15 +20,30 @@
 package org.sonar.batch.phases;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.sonar.api.batch.BatchSide;
+import org.sonar.api.batch.Phase;
 import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.resources.Project;
 import org.sonar.batch.bootstrap.BatchExtensionDictionnary;
 import org.sonar.batch.events.EventBus;
+import org.sonar.batch.sensor.SensorWrapper;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Executes sensors one after the other, except the sensors declared as thread-safe
+ * (see {@link org.sonar.api.batch.sensor.SensorDescriptor#threadSafe()}) which are executed
+ * concurrently at the end of their phase.
+ */
 @BatchSide
 public class SensorsExecutor {
 
@@ -46,16 +61,75 @@ public class SensorsExecutor {
     Collection<Sensor> sensors = selector.select(Sensor.class, module, true, null);
     eventBus.fireEvent(new SensorsPhaseEvent(Lists.newArrayList(sensors), true));
 
+    // new sensors are ordered by phase only, so thread-safe ones can be executed once the other sensors of their phase are done
+    Phase.Name phase = null;
+    List<Sensor> threadSafeSensors = new ArrayList<>();
     for (Sensor sensor : sensors) {
-      executeSensor(context, sensor);
+      Phase.Name sensorPhase = selector.evaluatePhase(sensor);
+      if (sensorPhase != phase) {
+        executeConcurrently(context, threadSafeSensors);
+        threadSafeSensors.clear();
+        phase = sensorPhase;
+      }
+      if (isThreadSafe(sensor)) {
+        threadSafeSensors.add(sensor);
+      } else {
+        executeSensor(context, sensor);
+      }
     }
+    executeConcurrently(context, threadSafeSensors);
 
     eventBus.fireEvent(new SensorsPhaseEvent(Lists.newArrayList(sensors), false));
   }
 
+  private static boolean isThreadSafe(Sensor sensor) {
+    return sensor instanceof SensorWrapper && ((SensorWrapper) sensor).isThreadSafe();
+  }
+
+  private void executeConcurrently(final SensorContext context, List<Sensor> sensors) {
+    if (sensors.size() <= 1) {
+      for (Sensor sensor : sensors) {
+        executeSensor(context, sensor);
+      }
+      return;
+    }
+    // one thread per sensor, as many sensors mostly wait for I/O when importing reports
+    ExecutorService executorService = Executors.newFixedThreadPool(sensors.size(), new ThreadFactoryBuilder().setNameFormat("SensorsExecutor-%d").build());
+    try {
+      List<Future<Void>> tasks = new ArrayList<>();
+      for (final Sensor sensor : sensors) {
+        tasks.add(executorService.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            executeSensor(context, sensor);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> task : tasks) {
+        task.get();
+      }
+    } catch (ExecutionException e) {
+      // Unwrap ExecutionException
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
   private void executeSensor(SensorContext context, Sensor sensor) {
-    eventBus.fireEvent(new SensorExecutionEvent(sensor, true));
+    fireEvent(new SensorExecutionEvent(sensor, true));
     sensor.analyse(module, context);
-    eventBus.fireEvent(new SensorExecutionEvent(sensor, false));
+    fireEvent(new SensorExecutionEvent(sensor, false));
+  }
+
+  /**
+   * Event handlers are not thread-safe
+   */
+  private synchronized void fireEvent(SensorExecutionEvent event) {
+    eventBus.fireEvent(event);
   }
 }
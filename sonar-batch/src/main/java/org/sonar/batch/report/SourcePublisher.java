@@ -19,9 +19,7 @@
  */
 package org.sonar.batch.report;
 
-import org.apache.commons.io.ByteOrderMark;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.BOMInputStream;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.batch.index.BatchComponent;
 import org.sonar.batch.index.BatchComponentCache;
@@ -29,10 +27,8 @@ import org.sonar.batch.protocol.output.BatchReportWriter;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 
 public class SourcePublisher implements ReportPublisherStep {
@@ -53,9 +49,7 @@ public class SourcePublisher implements ReportPublisherStep {
       DefaultInputFile inputFile = (DefaultInputFile) resource.inputComponent();
       File iofile = writer.getSourceFile(resource.batchId());
       int line = 0;
-      try (FileOutputStream output = new FileOutputStream(iofile); BOMInputStream bomIn = new BOMInputStream(new FileInputStream(inputFile.file()),
-        ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE, ByteOrderMark.UTF_16BE, ByteOrderMark.UTF_32LE, ByteOrderMark.UTF_32BE);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(bomIn, inputFile.charset()))) {
+      try (FileOutputStream output = new FileOutputStream(iofile); BufferedReader reader = new BufferedReader(inputFile.newReader())) {
         String lineStr = reader.readLine();
         while (lineStr != null) {
           IOUtils.write(lineStr, output, StandardCharsets.UTF_8);
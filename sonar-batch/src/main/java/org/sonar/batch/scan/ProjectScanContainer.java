@@ -84,6 +84,7 @@ import org.sonar.batch.rule.DefaultActiveRulesLoader;
 import org.sonar.batch.rule.DefaultRulesLoader;
 import org.sonar.batch.rule.RulesLoader;
 import org.sonar.batch.rule.RulesProvider;
+import org.sonar.batch.scan.filesystem.FileContentCache;
 import org.sonar.batch.scan.filesystem.InputPathCache;
 import org.sonar.batch.scan.measure.DefaultMetricFinder;
 import org.sonar.batch.scan.measure.DeprecatedMetricFinder;
@@ -194,6 +195,7 @@ public class ProjectScanContainer extends ComponentContainer {
       MeasureCache.class,
 
       ProjectSettings.class,
+      FileContentCache.class,
 
       // Report
       ReportPublisher.class,
@@ -0,0 +1,189 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.scan.filesystem;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.ByteOrderMark;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BOMInputStream;
+import org.picocontainer.Startable;
+import org.sonar.api.batch.BatchSide;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.fs.internal.FileContentProvider;
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Keeps the decoded content of source files, so that the components of the analysis which successively read the same
+ * file through {@link DefaultInputFile#newReader()} (metadata, sensors, duplications, issue tracking, report) hit
+ * the disk and the decoder only once.
+ * <p/>
+ * The size of the cache is bounded by the property {@link #MAX_SIZE_PROPERTY}, expressed in number of chars.
+ * Each phase of the analysis reads all the files in the same order, so content is never evicted: files are
+ * cached as long as the cache is not full, then the other files are streamed from disk on each read.
+ * Evicting the least recently read files would make every read of a project bigger than the cache miss.
+ * <p/>
+ * Instances are thread-safe.
+ */
+@BatchSide
+public class FileContentCache implements FileContentProvider, Startable {
+
+  public static final String MAX_SIZE_PROPERTY = "sonar.batch.fileContentCache.maxSize";
+  public static final long DEFAULT_MAX_SIZE = 20_000_000L;
+
+  private static final Logger LOG = Loggers.get(FileContentCache.class);
+
+  private final long maxSize;
+  private final ConcurrentMap<File, Content> contents = new ConcurrentHashMap<>();
+  private final AtomicLong size = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public FileContentCache(Settings settings) {
+    String value = settings.getString(MAX_SIZE_PROPERTY);
+    this.maxSize = value == null ? DEFAULT_MAX_SIZE : parseMaxSize(value);
+  }
+
+  private static long parseMaxSize(String value) {
+    long result;
+    try {
+      result = Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw MessageException.of("Property " + MAX_SIZE_PROPERTY + " must be a number of chars: " + value);
+    }
+    if (result < 0L) {
+      throw MessageException.of("Property " + MAX_SIZE_PROPERTY + " must not be negative: " + value);
+    }
+    return result;
+  }
+
+  @Override
+  public Reader newReader(DefaultInputFile inputFile) throws IOException {
+    File file = inputFile.file();
+    Charset charset = inputFile.charset();
+    Content content = contents.get(file);
+    if (content != null && content.charset.equals(charset)) {
+      hits.incrementAndGet();
+      return new StringReader(content.text);
+    }
+    misses.incrementAndGet();
+    // number of bytes is the upper bound of the number of decoded chars
+    long length = file.length();
+    if (content != null || !reserve(length)) {
+      return streamingReader(file, charset);
+    }
+    String text;
+    try {
+      text = load(file, charset);
+    } catch (IOException e) {
+      size.addAndGet(-length);
+      throw e;
+    }
+    if (contents.putIfAbsent(file, new Content(charset, text)) != null) {
+      // loaded concurrently by another thread
+      size.addAndGet(-length);
+    }
+    return new StringReader(text);
+  }
+
+  private boolean reserve(long length) {
+    while (true) {
+      long current = size.get();
+      if (current + length > maxSize) {
+        return false;
+      }
+      if (size.compareAndSet(current, current + length)) {
+        return true;
+      }
+    }
+  }
+
+  private static Reader streamingReader(File file, Charset charset) throws IOException {
+    return new BufferedReader(new InputStreamReader(skipBom(new FileInputStream(file)), charset));
+  }
+
+  private static String load(File file, Charset charset) throws IOException {
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    try (BOMInputStream in = skipBom(new ByteArrayInputStream(bytes))) {
+      ByteOrderMark bom = in.getBOM();
+      int bomLength = bom == null ? 0 : bom.length();
+      // malformed input is replaced, as done by InputStreamReader
+      return new String(bytes, bomLength, bytes.length - bomLength, charset);
+    }
+  }
+
+  private static BOMInputStream skipBom(InputStream in) throws IOException {
+    BOMInputStream bomIn = new BOMInputStream(in,
+      ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE, ByteOrderMark.UTF_16BE, ByteOrderMark.UTF_32LE, ByteOrderMark.UTF_32BE);
+    try {
+      // force detection of BOM
+      bomIn.hasBOM();
+      return bomIn;
+    } catch (IOException e) {
+      IOUtils.closeQuietly(bomIn);
+      throw e;
+    }
+  }
+
+  @Override
+  public void start() {
+    // nothing to do
+  }
+
+  @Override
+  public void stop() {
+    LOG.debug("Source files read {} times from memory and {} times from disk", hits.get(), misses.get());
+    contents.clear();
+    size.set(0L);
+  }
+
+  long hits() {
+    return hits.get();
+  }
+
+  long misses() {
+    return misses.get();
+  }
+
+  private static class Content {
+    private final Charset charset;
+    private final String text;
+
+    Content(Charset charset, String text) {
+      this.charset = charset;
+      this.text = text;
+    }
+  }
+}
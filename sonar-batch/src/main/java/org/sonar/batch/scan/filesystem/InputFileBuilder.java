@@ -32,6 +32,8 @@ import org.sonar.api.scan.filesystem.PathResolver;
 import javax.annotation.CheckForNull;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 
 class InputFileBuilder {
 
@@ -44,9 +46,10 @@ class InputFileBuilder {
   private final DefaultModuleFileSystem fs;
   private final Settings settings;
   private final FileMetadata fileMetadata;
+  private final FileContentCache fileContentCache;
 
   InputFileBuilder(String moduleKey, PathResolver pathResolver, LanguageDetection langDetection,
-    StatusDetection statusDetection, DefaultModuleFileSystem fs, Settings settings, FileMetadata fileMetadata) {
+    StatusDetection statusDetection, DefaultModuleFileSystem fs, Settings settings, FileMetadata fileMetadata, FileContentCache fileContentCache) {
     this.moduleKey = moduleKey;
     this.pathResolver = pathResolver;
     this.langDetection = langDetection;
@@ -54,6 +57,7 @@ class InputFileBuilder {
     this.fs = fs;
     this.settings = settings;
     this.fileMetadata = fileMetadata;
+    this.fileContentCache = fileContentCache;
   }
 
   String moduleKey() {
@@ -101,7 +105,12 @@ class InputFileBuilder {
     }
     inputFile.setLanguage(lang);
 
-    inputFile.initMetadata(fileMetadata.readMetadata(inputFile.file(), fs.encoding()));
+    inputFile.setContentProvider(fileContentCache);
+    try (Reader reader = inputFile.newReader()) {
+      inputFile.initMetadata(fileMetadata.readMetadata(inputFile.file(), fs.encoding(), reader));
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to close file " + inputFile.file(), e);
+    }
 
     inputFile.setStatus(statusDetection.status(inputFile.moduleKey(), inputFile.relativePath(), inputFile.hash()));
 
@@ -34,10 +34,12 @@ public class InputFileBuilderFactory {
   private final StatusDetectionFactory statusDetectionFactory;
   private final Settings settings;
   private final FileMetadata fileMetadata;
+  private final FileContentCache fileContentCache;
 
   public InputFileBuilderFactory(ProjectDefinition def, PathResolver pathResolver, LanguageDetectionFactory langDetectionFactory,
-    StatusDetectionFactory statusDetectionFactory, Settings settings, FileMetadata fileMetadata) {
+    StatusDetectionFactory statusDetectionFactory, Settings settings, FileMetadata fileMetadata, FileContentCache fileContentCache) {
     this.fileMetadata = fileMetadata;
+    this.fileContentCache = fileContentCache;
     this.moduleKey = def.getKeyWithBranch();
     this.pathResolver = pathResolver;
     this.langDetectionFactory = langDetectionFactory;
@@ -46,6 +48,7 @@ public class InputFileBuilderFactory {
   }
 
   InputFileBuilder create(DefaultModuleFileSystem fs) {
-    return new InputFileBuilder(moduleKey, pathResolver, langDetectionFactory.create(), statusDetectionFactory.create(), fs, settings, fileMetadata);
+    return new InputFileBuilder(moduleKey, pathResolver, langDetectionFactory.create(), statusDetectionFactory.create(), fs, settings, fileMetadata,
+      fileContentCache);
   }
 }
@@ -30,6 +30,11 @@ import org.sonar.batch.index.Caches;
 
 /**
  * Cache of all measures. This cache is shared amongst all project modules.
+ * <p>
+ * Measures returned by the cache, for example by the deprecated
+ * {@link org.sonar.api.batch.SensorContext#getMeasure(org.sonar.api.measures.Metric)}, may be the instances that were
+ * saved or copies of them, see {@link Cache}. A measure must be saved again to store its modifications.
+ * </p>
  */
 @BatchSide
 public class MeasureCache {
@@ -37,8 +42,7 @@ public class MeasureCache {
   private final Cache<Measure> cache;
 
   public MeasureCache(Caches caches, MetricFinder metricFinder) {
-    caches.registerValueCoder(Measure.class, new MeasureValueCoder(metricFinder));
-    cache = caches.createCache("measures");
+    cache = caches.createCache("measures", new MeasureValueCodec(metricFinder));
   }
 
   public Iterable<Entry<Measure>> entries() {
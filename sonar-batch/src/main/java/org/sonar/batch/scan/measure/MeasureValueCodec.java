@@ -0,0 +1,137 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.scan.measure;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.batch.measure.MetricFinder;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
+import org.sonar.api.measures.PersistenceMode;
+import org.sonar.batch.index.CacheValueCodec;
+
+/**
+ * Encodes measures spilled to disk by {@link MeasureCache}. The metric is not encoded but found again by its key,
+ * so that decoded measures share the metric instances of the analysis.
+ */
+class MeasureValueCodec implements CacheValueCodec<Measure> {
+
+  private final MetricFinder metricFinder;
+
+  MeasureValueCodec(MetricFinder metricFinder) {
+    this.metricFinder = metricFinder;
+  }
+
+  @Override
+  public void encode(Measure m, DataOutputStream output) throws IOException {
+    output.writeUTF(m.getMetricKey());
+    writeDouble(output, m.getValue());
+    writeString(output, m.getData());
+    writeString(output, m.getDescription());
+    writeString(output, m.getAlertStatus() != null ? m.getAlertStatus().name() : null);
+    writeString(output, m.getAlertText());
+    Date date = m.getDate();
+    output.writeLong(date != null ? date.getTime() : -1L);
+    writeDouble(output, m.getVariation1());
+    writeDouble(output, m.getVariation2());
+    writeDouble(output, m.getVariation3());
+    writeDouble(output, m.getVariation4());
+    writeDouble(output, m.getVariation5());
+    writeString(output, m.getUrl());
+    Integer personId = m.getPersonId();
+    output.writeBoolean(personId != null);
+    if (personId != null) {
+      output.writeInt(personId);
+    }
+    PersistenceMode persistenceMode = m.getPersistenceMode();
+    writeString(output, persistenceMode != null ? persistenceMode.name() : null);
+  }
+
+  @Override
+  public Measure decode(DataInputStream input) throws IOException {
+    Measure<?> m = new Measure();
+    String metricKey = input.readUTF();
+    org.sonar.api.batch.measure.Metric metric = metricFinder.findByKey(metricKey);
+    if (metric == null) {
+      throw new IllegalStateException("Unknow metric with key " + metricKey);
+    }
+    m.setMetric((Metric) metric);
+    m.setRawValue(readDouble(input));
+    m.setData(readString(input));
+    m.setDescription(readString(input));
+    String alertStatus = readString(input);
+    m.setAlertStatus(alertStatus != null ? Metric.Level.valueOf(alertStatus) : null);
+    m.setAlertText(readString(input));
+    long date = input.readLong();
+    m.setDate(date != -1L ? new Date(date) : null);
+    m.setVariation1(readDouble(input));
+    m.setVariation2(readDouble(input));
+    m.setVariation3(readDouble(input));
+    m.setVariation4(readDouble(input));
+    m.setVariation5(readDouble(input));
+    m.setUrl(readString(input));
+    m.setPersonId(input.readBoolean() ? input.readInt() : null);
+    String persistenceMode = readString(input);
+    m.setPersistenceMode(persistenceMode != null ? PersistenceMode.valueOf(persistenceMode) : null);
+    return m;
+  }
+
+  private static void writeDouble(DataOutputStream output, @Nullable Double d) throws IOException {
+    output.writeBoolean(d != null);
+    if (d != null) {
+      output.writeDouble(d);
+    }
+  }
+
+  @CheckForNull
+  private static Double readDouble(DataInputStream input) throws IOException {
+    return input.readBoolean() ? input.readDouble() : null;
+  }
+
+  /**
+   * Unlike {@link DataOutputStream#writeUTF(String)}, the length of the string is not limited to 64K, as measure
+   * data can be big.
+   */
+  private static void writeString(DataOutputStream output, @Nullable String s) throws IOException {
+    if (s == null) {
+      output.writeInt(-1);
+    } else {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    }
+  }
+
+  @CheckForNull
+  private static String readString(DataInputStream input) throws IOException {
+    int length = input.readInt();
+    if (length == -1) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
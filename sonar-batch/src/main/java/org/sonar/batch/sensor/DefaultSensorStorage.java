@@ -62,6 +62,10 @@ import org.sonar.batch.scan.measure.MeasureCache;
 import org.sonar.batch.sensor.coverage.CoverageExclusions;
 import org.sonar.batch.source.DefaultSymbol;
 
+/**
+ * Data are saved in caches and report which are not thread-safe, so saving is synchronized
+ * for the sensors executed concurrently.
+ */
 public class DefaultSensorStorage implements SensorStorage {
 
   private static final Logger LOG = LoggerFactory.getLogger(DefaultSensorStorage.class);
@@ -115,7 +119,7 @@ public class DefaultSensorStorage implements SensorStorage {
   }
 
   @Override
-  public void store(Measure newMeasure) {
+  public synchronized void store(Measure newMeasure) {
     DefaultMeasure<?> measure = (DefaultMeasure<?>) newMeasure;
     org.sonar.api.measures.Metric m = findMetricOrFail(measure.metric().key());
     org.sonar.api.measures.Measure measureToSave = new org.sonar.api.measures.Measure(m);
@@ -128,7 +132,7 @@ public class DefaultSensorStorage implements SensorStorage {
     }
   }
 
-  public org.sonar.api.measures.Measure saveMeasure(Resource resource, org.sonar.api.measures.Measure measure) {
+  public synchronized org.sonar.api.measures.Measure saveMeasure(Resource resource, org.sonar.api.measures.Measure measure) {
     if (DEPRECATED_METRICS_KEYS.contains(measure.getMetricKey())) {
       // Ignore deprecated metrics
       return null;
@@ -144,6 +148,9 @@ public class DefaultSensorStorage implements SensorStorage {
     if (measureCache.contains(resource, measure)) {
       throw new SonarException("Can not add the same measure twice on " + resource + ": " + measure);
     }
+    // measures created from a metric key only, for example by DefaultFileLinesContext, are completed as the
+    // cache does not decode them any more
+    measure.setMetric((org.sonar.api.measures.Metric) metric);
     measureCache.put(resource, measure);
     return measure;
   }
@@ -173,7 +180,7 @@ public class DefaultSensorStorage implements SensorStorage {
   }
 
   @Override
-  public void store(Issue issue) {
+  public synchronized void store(Issue issue) {
     moduleIssues.initAndAddIssue(issue);
   }
 
@@ -186,14 +193,14 @@ public class DefaultSensorStorage implements SensorStorage {
   }
 
   @Override
-  public void store(DefaultHighlighting highlighting) {
+  public synchronized void store(DefaultHighlighting highlighting) {
     BatchReportWriter writer = reportPublisher.getWriter();
     DefaultInputFile inputFile = (DefaultInputFile) highlighting.inputFile();
     writer.writeComponentSyntaxHighlighting(componentCache.get(inputFile).batchId(),
       Iterables.transform(highlighting.getSyntaxHighlightingRuleSet(), new BuildSyntaxHighlighting()));
   }
 
-  public void store(DefaultInputFile inputFile, Map<Symbol, Set<TextRange>> referencesBySymbol) {
+  public synchronized void store(DefaultInputFile inputFile, Map<Symbol, Set<TextRange>> referencesBySymbol) {
     BatchReportWriter writer = reportPublisher.getWriter();
     writer.writeComponentSymbols(componentCache.get(inputFile).batchId(),
       Iterables.transform(referencesBySymbol.entrySet(), new Function<Map.Entry<Symbol, Set<TextRange>>, BatchReport.Symbol>() {
@@ -224,7 +231,7 @@ public class DefaultSensorStorage implements SensorStorage {
   }
 
   @Override
-  public void store(DefaultCoverage defaultCoverage) {
+  public synchronized void store(DefaultCoverage defaultCoverage) {
     File file = getFile(defaultCoverage.inputFile());
     if (coverageExclusions.hasMatchingPattern(file)) {
       return;
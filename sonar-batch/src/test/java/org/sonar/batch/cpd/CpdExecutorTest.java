@@ -27,6 +27,7 @@ import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.batch.fs.internal.DefaultInputModule;
 import org.sonar.api.config.Settings;
 import org.sonar.api.resources.Project;
+import org.sonar.api.utils.internal.DefaultTempFolder;
 import org.sonar.api.utils.log.LogTester;
 import org.sonar.api.utils.log.LoggerLevel;
 import org.sonar.batch.cpd.index.SonarDuplicationsIndex;
@@ -38,8 +39,11 @@ import org.sonar.batch.protocol.output.BatchReport.Duplicate;
 import org.sonar.batch.protocol.output.BatchReport.Duplication;
 import org.sonar.batch.report.ReportPublisher;
 import org.sonar.core.util.CloseableIterator;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
 import org.sonar.duplications.index.CloneGroup;
 import org.sonar.duplications.index.ClonePart;
+import org.sonar.duplications.index.PackedMemoryCloneIndex.ResourceBlocks;
 
 import java.io.File;
 import java.io.IOException;
@@ -50,6 +54,7 @@ import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class CpdExecutorTest {
@@ -197,6 +202,62 @@ public class CpdExecutorTest {
     assertDuplication(dups[1], 15, 214, batchComponent3.batchId(), 15, 214);
   }
   
+  @Test
+  public void execute_detects_duplications_of_all_files() throws IOException {
+    verifyExecuteDetectsDuplicationsOfAllFiles();
+  }
+
+  @Test
+  public void execute_detects_duplications_of_all_files_with_memory_mapped_index() throws IOException {
+    settings.setProperty(SonarDuplicationsIndex.MEMORY_MAPPED_INDEX_PROPERTY, true);
+
+    File tempDir = verifyExecuteDetectsDuplicationsOfAllFiles();
+
+    // files of the index are deleted when detection is over
+    assertThat(new File(tempDir, "cpd").list()).isEmpty();
+  }
+
+  @Test
+  public void execute_closes_index() {
+    when(index.iterator()).thenReturn(Collections.<ResourceBlocks>emptyIterator());
+
+    executor.execute();
+
+    verify(index).close();
+  }
+
+  private File verifyExecuteDetectsDuplicationsOfAllFiles() throws IOException {
+    File tempDir = temp.newFolder();
+    SonarDuplicationsIndex realIndex = new SonarDuplicationsIndex(publisher, componentCache, settings, new DefaultTempFolder(tempDir));
+    BatchComponent[] components = new BatchComponent[20];
+    for (int i = 0; i < components.length; i++) {
+      components[i] = createComponent("src/Bar" + i + ".java", 10);
+      DefaultInputFile inputFile = (DefaultInputFile) components[i].inputComponent();
+      inputFile.setLanguage("java");
+      // all files share the same blocks, except the last one
+      List<Block> blocks = new ArrayList<>();
+      for (int line = 1; line <= 3; line++) {
+        long hash = i == components.length - 1 ? 100 + line : line;
+        blocks.add(Block.builder().setResourceId(components[i].key()).setBlockHash(new ByteArray(hash)).setIndexInFile(line - 1).setLines(line, line + 1).build());
+      }
+      realIndex.insert(inputFile, blocks);
+    }
+
+    new CpdExecutor(settings, realIndex, publisher, componentCache).execute();
+
+    for (int i = 0; i < components.length - 1; i++) {
+      CloseableIterator<Duplication> dups = reader.readComponentDuplications(components[i].batchId());
+      Duplication dup = dups.next();
+      assertThat(dups.hasNext()).isFalse();
+      dups.close();
+      assertThat(dup.getOriginPosition().getStartLine()).isEqualTo(1);
+      assertThat(dup.getOriginPosition().getEndLine()).isEqualTo(4);
+      assertThat(dup.getDuplicateList()).hasSize(components.length - 2);
+    }
+    assertThat(reader.readComponentDuplications(components[components.length - 1].batchId())).isEmpty();
+    return tempDir;
+  }
+
   private Duplication[] readDuplications(int expected) {
     assertThat(reader.readComponentDuplications(batchComponent1.batchId())).hasSize(expected);
     Duplication[] duplications = new Duplication[expected];
@@ -19,47 +19,36 @@
  */
 package org.sonar.batch.index;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import org.junit.After;
-
 import org.junit.Before;
-import org.junit.AfterClass;
-import org.junit.BeforeClass;
-import com.google.common.collect.ImmutableMap;
-import org.sonar.api.CoreProperties;
-import org.sonar.batch.bootstrap.GlobalProperties;
-import org.sonar.batch.bootstrap.GlobalTempFolderProvider;
-
-import java.util.Map;
-
-import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.internal.DefaultTempFolder;
+import org.sonar.batch.analysis.AnalysisProperties;
 
 public abstract class AbstractCachesTest {
-  @ClassRule
-  public static TemporaryFolder temp = new TemporaryFolder();
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
 
-  protected static CachesManager cachesManager;
   protected Caches caches;
 
-  private static CachesManager createCacheOnTemp() {
-    Map<String, String> props = ImmutableMap.of(CoreProperties.WORKING_DIRECTORY, temp.getRoot().getAbsolutePath(),
-      CoreProperties.GLOBAL_WORKING_DIRECTORY, temp.getRoot().getAbsolutePath());
-
-    return new CachesManager(new GlobalTempFolderProvider().provide(new GlobalProperties(props)));
-  }
-
-  @BeforeClass
-  public static void startClass() {
-    cachesManager = createCacheOnTemp();
-    cachesManager.start();
-  }
-
   @Before
   public void start() {
-    caches = new Caches(cachesManager);
+    caches = createCaches(Collections.<String, String>emptyMap());
     caches.start();
   }
 
+  protected Caches createCaches(Map<String, String> props) {
+    try {
+      return new Caches(new AnalysisProperties(props), new DefaultTempFolder(temp.newFolder()));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   @After
   public void stop() {
     if (caches != null) {
@@ -67,11 +56,4 @@ public abstract class AbstractCachesTest {
       caches = null;
     }
   }
-
-  @AfterClass
-  public static void stopClass() {
-    if (cachesManager != null) {
-      cachesManager.stop();
-    }
-  }
 }
@@ -19,6 +19,7 @@
  */
 package org.sonar.batch.index;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import org.junit.Test;
 import org.sonar.batch.index.Cache.Entry;
@@ -65,6 +66,49 @@ public class CacheTest extends AbstractCachesTest {
     assertThat(values).isEmpty();
   }
 
+  @Test
+  public void use_cache_from_several_threads() throws Exception {
+    final Cache<String> cache = caches.createCache("capitals");
+    cache.put("france", "paris");
+
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        cache.put("italy", "rome");
+        cache.remove("france");
+      }
+    };
+    thread.start();
+    thread.join();
+
+    assertThat(cache.get("italy")).isEqualTo("rome");
+    assertThat(cache.containsKey("france")).isFalse();
+  }
+
+  @Test
+  public void values_spilled_to_disk_are_read_in_key_order() {
+    caches.stop();
+    caches = createCaches(ImmutableMap.of(Caches.MAX_ENTRIES_PROPERTY, "1"));
+    Cache<String> cache = caches.createCache("capitals");
+
+    cache.put("europe", "france", "paris");
+    cache.put("europe", "italy", "rome");
+    cache.put("asia", "china", "pekin");
+
+    assertThat(cache.get("europe", "italy")).isEqualTo("rome");
+    assertThat(cache.values()).containsExactly("pekin", "paris", "rome");
+    assertThat(cache.values("europe")).containsExactly("paris", "rome");
+    Cache.Entry[] entries = Iterables.toArray(cache.entries("europe"), Cache.Entry.class);
+    assertThat(entries[1].key()).isEqualTo(new String[] {"europe", "italy"});
+    assertThat(entries[1].value()).isEqualTo("rome");
+
+    cache.put("europe", "italy", "milan");
+    assertThat(cache.get("europe", "italy")).isEqualTo("milan");
+    cache.remove("europe", "italy");
+    assertThat(cache.containsKey("europe", "italy")).isFalse();
+    assertThat(cache.keySet("europe")).containsOnly("france");
+  }
+
   @Test
   public void test_key_being_prefix_of_another_key() throws Exception {
     Cache<String> cache = caches.createCache("components");
@@ -223,6 +267,24 @@ public class CacheTest extends AbstractCachesTest {
     assertThat(cache.values()).isEmpty();
   }
 
+  @Test
+  public void sort_keys_by_type_then_by_value() {
+    Cache<String> cache = caches.createCache("issues");
+    cache.put(10, "a", "ten");
+    cache.put("file", "b", "file");
+    cache.put(2, "c", "two");
+
+    assertThat(cache.keySet()).containsExactly(2, 10, "file");
+    assertThat(cache.values()).containsExactly("two", "ten", "file");
+    assertThat(cache.values(2)).containsOnly("two");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fail_if_key_is_not_comparable() {
+    Cache<String> cache = caches.createCache("capitals");
+    cache.put(new Object(), "paris");
+  }
+
   @Test
   public void empty_cache() {
     Cache<String> cache = caches.createCache("empty");
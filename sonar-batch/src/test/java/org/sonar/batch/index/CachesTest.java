@@ -19,14 +19,24 @@
  */
 package org.sonar.batch.index;
 
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
 import java.io.Serializable;
-
-import com.persistit.exception.PersistitException;
+import java.util.Collections;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.api.utils.MessageException;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
 public class CachesTest extends AbstractCachesTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
   @Test
   public void should_create_cache() {
     Cache<Element> cache = caches.createCache("foo");
@@ -47,39 +57,97 @@ public class CachesTest extends AbstractCachesTest {
   @Test
   public void should_clean_resources() {
     Cache<String> c = caches.<String>createCache("test1");
-    for (int i = 0; i < 1_000_000; i++) {
+    for (int i = 0; i < 1_000; i++) {
       c.put("a" + i, "a" + i);
     }
 
     caches.stop();
 
-    // manager continues up
-    assertThat(cachesManager.persistit().isInitialized()).isTrue();
+    assertThat(c.values()).isEmpty();
 
-    caches = new Caches(cachesManager);
+    caches = createCaches(Collections.<String, String>emptyMap());
     caches.start();
     caches.createCache("test1");
   }
 
   @Test
-  public void leak_test() throws PersistitException {
+  public void spill_file_is_deleted_when_caches_are_stopped() {
+    caches = newCaches("1");
+    Cache<String> c = caches.createCache("test1");
+    c.put("a", "a");
+    assertThat(spillFiles()).isEmpty();
+    c.put("b", "b");
+    assertThat(spillFiles()).hasSize(1);
+
     caches.stop();
 
-    int len = 1 * 1024 * 1024;
-    StringBuilder sb = new StringBuilder(len);
-    for (int i = 0; i < len; i++) {
-      sb.append("a");
-    }
+    assertThat(spillFiles()).isEmpty();
+  }
 
-    for (int i = 0; i < 3; i++) {
-      caches = new Caches(cachesManager);
-      caches.start();
-      Cache<String> c = caches.<String>createCache("test" + i);
-      c.put("key" + i, sb.toString());
-      cachesManager.persistit().flush();
+  @Test
+  public void number_of_entries_kept_in_heap_by_all_caches_is_bounded() {
+    caches = newCaches("3");
+    Cache<Element> c1 = caches.createCache("test1");
+    Cache<Element> c2 = caches.createCache("test2");
+    c1.put("a", new Element());
+    c1.put("a", new Element());
+    c1.put("b", new Element());
+    c2.put("a", new Element());
+    c2.remove("a");
+    c1.clear();
+    c2.put("a", new Element());
+    c2.put("b", new Element());
+    Element inHeap = new Element();
+    c2.put("c", inHeap);
+    Element spilled = new Element();
+    c1.put("a", spilled);
 
-      caches.stop();
-    }
+    assertThat(c2.get("c")).isSameAs(inHeap);
+    assertThat(c1.get("a")).isNotSameAs(spilled).isNotNull();
+    assertThat(spillFiles()).hasSize(1);
+
+    // a value kept in heap is replaced by a spilled one
+    c2.put("c", new Element());
+    assertThat(c2.get("c")).isNotSameAs(inHeap);
+    Element element = new Element();
+    c1.put("b", element);
+    assertThat(c1.get("b")).isSameAs(element);
+  }
+
+  @Test
+  public void values_are_kept_in_heap_again_when_entries_are_removed() {
+    caches = newCaches("1");
+    Cache<Element> c = caches.createCache("test1");
+    c.put("a", new Element());
+    c.put("b", new Element());
+    c.remove("b");
+    c.remove("a");
+
+    Element element = new Element();
+    c.put("c", element);
+
+    assertThat(c.get("c")).isSameAs(element);
+  }
+
+  @Test
+  public void fail_if_max_entries_is_not_strictly_positive() {
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("value '0' of property sonar.batch.cache.maxEntries is invalid. It must be an integer strictly greater than 0.");
+
+    newCaches("0");
+  }
+
+  @Test
+  public void default_max_entries_is_proportional_to_heap() {
+    assertThat(Caches.defaultMaxEntries(1_000L * 1_000 * 1_000)).isEqualTo(909_090L);
+  }
+
+  private Caches newCaches(String maxEntries) {
+    return createCaches(ImmutableMap.of(Caches.MAX_ENTRIES_PROPERTY, maxEntries));
+  }
+
+  private File[] spillFiles() {
+    return FileUtils.listFiles(temp.getRoot(), new String[] {"dat"}, true).toArray(new File[0]);
   }
 
   private static class Element implements Serializable {
@@ -19,25 +19,32 @@
  */
 package org.sonar.batch.issue.tracking;
 
-import org.sonar.batch.cache.WSLoader.LoadStrategy;
-import org.sonar.batch.cache.WSLoaderResult;
-import org.sonar.batch.cache.WSLoader;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
 import org.apache.commons.lang.mutable.MutableBoolean;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.sonar.api.utils.HttpDownloader;
-
-import java.net.URI;
-import java.net.URISyntaxException;
-
-import static org.mockito.Matchers.any;
+import org.sonar.batch.cache.WSLoader;
+import org.sonar.batch.cache.WSLoader.LoadStrategy;
+import org.sonar.batch.cache.WSLoaderResult;
+import org.sonar.batch.repository.FileData;
+import org.sonar.batch.repository.ProjectRepositories;
+import org.sonar.home.cache.PersistentCache;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 public class DefaultServerLineHashesLoaderTest {
@@ -45,17 +52,20 @@ public class DefaultServerLineHashesLoaderTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  private WSLoader wsLoader = mock(WSLoader.class);
+  private PersistentCache cache = mock(PersistentCache.class);
+  private Table<String, String, FileData> fileData = HashBasedTable.create();
+  private ServerLineHashesLoader lastSnapshots;
+
   @Before
   public void before() {
+    lastSnapshots = new DefaultServerLineHashesLoader(wsLoader, cache, new ProjectRepositories(HashBasedTable.<String, String, String>create(), fileData, new Date()));
   }
 
   @Test
   public void should_download_source_from_ws_if_preview_mode() {
-    WSLoader wsLoader = mock(WSLoader.class);
     when(wsLoader.loadString(anyString(), any(LoadStrategy.class))).thenReturn(new WSLoaderResult<>("ae12\n\n43fb", true));
 
-    ServerLineHashesLoader lastSnapshots = new DefaultServerLineHashesLoader(wsLoader);
-
     String[] hashes = lastSnapshots.getLineHashes("myproject:org/foo/Bar.c", null);
     assertThat(hashes).containsOnly("ae12", "", "43fb");
     verify(wsLoader).loadString("/api/sources/hash?key=myproject%3Aorg%2Ffoo%2FBar.c", LoadStrategy.CACHE_FIRST);
@@ -63,24 +73,52 @@ public class DefaultServerLineHashesLoaderTest {
 
   @Test
   public void should_download_source_with_space_from_ws_if_preview_mode() {
-    WSLoader server = mock(WSLoader.class);
-    when(server.loadString(anyString(), any(LoadStrategy.class))).thenReturn(new WSLoaderResult<>("ae12\n\n43fb", true));
-
-    ServerLineHashesLoader lastSnapshots = new DefaultServerLineHashesLoader(server);
+    when(wsLoader.loadString(anyString(), any(LoadStrategy.class))).thenReturn(new WSLoaderResult<>("ae12\n\n43fb", true));
 
     MutableBoolean fromCache = new MutableBoolean();
     String[] hashes = lastSnapshots.getLineHashes("myproject:org/foo/Foo Bar.c", fromCache);
     assertThat(fromCache.booleanValue()).isTrue();
     assertThat(hashes).containsOnly("ae12", "", "43fb");
-    verify(server).loadString("/api/sources/hash?key=myproject%3Aorg%2Ffoo%2FFoo+Bar.c", LoadStrategy.CACHE_FIRST);
+    verify(wsLoader).loadString("/api/sources/hash?key=myproject%3Aorg%2Ffoo%2FFoo+Bar.c", LoadStrategy.CACHE_FIRST);
   }
 
   @Test
-  public void should_fail_to_download_source_from_ws() throws URISyntaxException {
-    WSLoader server = mock(WSLoader.class);
-    when(server.loadString(anyString(), any(LoadStrategy.class))).thenThrow(new HttpDownloader.HttpException(new URI(""), 500));
+  public void should_download_and_cache_hashes_of_new_server_version() throws Exception {
+    fileData.put("myproject", "org/foo/Bar.c", new FileData("srcHash", "rev"));
+    when(wsLoader.loadString(anyString(), any(LoadStrategy.class))).thenReturn(new WSLoaderResult<>("ae12\n\n43fb", false));
 
-    ServerLineHashesLoader lastSnapshots = new DefaultServerLineHashesLoader(server);
+    MutableBoolean fromCache = new MutableBoolean();
+    String[] hashes = lastSnapshots.getLineHashes("myproject:org/foo/Bar.c", fromCache);
+    assertThat(fromCache.booleanValue()).isFalse();
+    assertThat(hashes).containsOnly("ae12", "", "43fb");
+    verify(wsLoader).loadString("/api/sources/hash?key=myproject%3Aorg%2Ffoo%2FBar.c", LoadStrategy.SERVER_FIRST);
+    verify(cache).put("lineHashes:srcHash", "ae12\n\n43fb".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void should_not_cache_hashes_loaded_from_url_cache() throws Exception {
+    fileData.put("myproject", "org/foo/Bar.c", new FileData("srcHash", "rev"));
+    when(wsLoader.loadString(anyString(), any(LoadStrategy.class))).thenReturn(new WSLoaderResult<>("ae12\n\n43fb", true));
+
+    lastSnapshots.getLineHashes("myproject:org/foo/Bar.c", null);
+    verify(cache, never()).put(anyString(), any(byte[].class));
+  }
+
+  @Test
+  public void should_read_hashes_of_known_server_version_from_cache() throws Exception {
+    fileData.put("myproject", "org/foo/Bar.c", new FileData("srcHash", "rev"));
+    when(cache.getString("lineHashes:srcHash")).thenReturn("ae12\n\n43fb");
+
+    MutableBoolean fromCache = new MutableBoolean();
+    String[] hashes = lastSnapshots.getLineHashes("myproject:org/foo/Bar.c", fromCache);
+    assertThat(fromCache.booleanValue()).isTrue();
+    assertThat(hashes).containsOnly("ae12", "", "43fb");
+    verifyZeroInteractions(wsLoader);
+  }
+
+  @Test
+  public void should_fail_to_download_source_from_ws() throws URISyntaxException {
+    when(wsLoader.loadString(anyString(), any(LoadStrategy.class))).thenThrow(new HttpDownloader.HttpException(new URI(""), 500));
 
     thrown.expect(HttpDownloader.HttpException.class);
     lastSnapshots.getLineHashes("foo", null);
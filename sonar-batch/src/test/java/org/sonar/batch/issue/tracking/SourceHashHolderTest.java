@@ -25,10 +25,16 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 
 import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
@@ -58,6 +64,12 @@ public class SourceHashHolderTest {
     when(file.path()).thenReturn(ioFile.toPath());
     when(file.lines()).thenReturn(1);
     when(file.charset()).thenReturn(StandardCharsets.UTF_8);
+    when(file.newReader()).thenAnswer(new Answer<Reader>() {
+      @Override
+      public Reader answer(InvocationOnMock invocation) throws IOException {
+        return new InputStreamReader(new FileInputStream(ioFile), StandardCharsets.UTF_8);
+      }
+    });
 
     sourceHashHolder = new SourceHashHolder(file, lastSnapshots);
   }
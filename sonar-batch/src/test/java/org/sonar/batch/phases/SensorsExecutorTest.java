@@ -0,0 +1,158 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.phases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.batch.Phase;
+import org.sonar.api.batch.Sensor;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.resources.Project;
+import org.sonar.batch.bootstrap.BatchExtensionDictionnary;
+import org.sonar.batch.events.EventBus;
+import org.sonar.batch.sensor.SensorWrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SensorsExecutorTest {
+
+  Project project = new Project("project");
+  BatchExtensionDictionnary selector = mock(BatchExtensionDictionnary.class);
+  SensorContext context = mock(SensorContext.class);
+  List<String> executions = Collections.synchronizedList(new ArrayList<String>());
+
+  SensorsExecutor executor;
+
+  @Before
+  public void setUp() {
+    when(selector.evaluatePhase(any())).thenReturn(Phase.Name.DEFAULT);
+    executor = new SensorsExecutor(selector, project, mock(EventBus.class));
+  }
+
+  @Test
+  public void execute_sensors_in_order() {
+    Sensor sensor1 = mock(Sensor.class);
+    Sensor sensor2 = mock(Sensor.class);
+    when(selector.select(Sensor.class, project, true, null)).thenReturn(Arrays.asList(sensor1, sensor2));
+
+    executor.execute(context);
+
+    verify(sensor1).analyse(project, context);
+    verify(sensor2).analyse(project, context);
+  }
+
+  @Test
+  public void execute_thread_safe_sensors_concurrently() {
+    // each sensor waits for the other one to be started
+    CountDownLatch started = new CountDownLatch(2);
+    SensorWrapper sensor1 = threadSafeSensor("sensor1", started);
+    SensorWrapper sensor2 = threadSafeSensor("sensor2", started);
+    when(selector.select(Sensor.class, project, true, null)).thenReturn(Arrays.<Sensor>asList(sensor1, sensor2));
+
+    executor.execute(context);
+
+    assertThat(executions).containsOnly("sensor1", "sensor2");
+  }
+
+  @Test
+  public void execute_thread_safe_sensors_after_other_sensors_of_their_phase() {
+    SensorWrapper preSensor = threadSafeSensor("pre", null);
+    Sensor sensor = sensor("default");
+    SensorWrapper threadSafeSensor = threadSafeSensor("thread-safe", null);
+    Sensor postSensor = sensor("post");
+    when(selector.evaluatePhase(preSensor)).thenReturn(Phase.Name.PRE);
+    when(selector.evaluatePhase(postSensor)).thenReturn(Phase.Name.POST);
+    when(selector.select(Sensor.class, project, true, null)).thenReturn(Arrays.asList(preSensor, threadSafeSensor, sensor, postSensor));
+
+    executor.execute(context);
+
+    assertThat(executions).containsExactly("pre", "default", "thread-safe", "post");
+  }
+
+  @Test
+  public void propagate_failure_of_thread_safe_sensor() {
+    SensorWrapper sensor1 = threadSafeSensor("sensor1", null);
+    SensorWrapper sensor2 = mock(SensorWrapper.class);
+    when(sensor2.isThreadSafe()).thenReturn(true);
+    final IllegalStateException failure = new IllegalStateException("Fail to execute sensor2");
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        throw failure;
+      }
+    }).when(sensor2).analyse(project, context);
+    when(selector.select(Sensor.class, project, true, null)).thenReturn(Arrays.<Sensor>asList(sensor1, sensor2));
+
+    try {
+      executor.execute(context);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).isSameAs(failure);
+    }
+  }
+
+  private Sensor sensor(String name) {
+    Sensor sensor = mock(Sensor.class);
+    doAnswer(new RecordExecution(name, null)).when(sensor).analyse(project, context);
+    return sensor;
+  }
+
+  private SensorWrapper threadSafeSensor(String name, CountDownLatch started) {
+    SensorWrapper sensor = mock(SensorWrapper.class);
+    when(sensor.isThreadSafe()).thenReturn(true);
+    doAnswer(new RecordExecution(name, started)).when(sensor).analyse(project, context);
+    return sensor;
+  }
+
+  private class RecordExecution implements Answer<Void> {
+    private final String name;
+    private final CountDownLatch started;
+
+    RecordExecution(String name, CountDownLatch started) {
+      this.name = name;
+      this.started = started;
+    }
+
+    @Override
+    public Void answer(InvocationOnMock invocation) throws InterruptedException {
+      if (started != null) {
+        started.countDown();
+        assertThat(started.await(10, TimeUnit.SECONDS)).as("sensors executed concurrently").isTrue();
+      }
+      executions.add(name);
+      return null;
+    }
+  }
+}
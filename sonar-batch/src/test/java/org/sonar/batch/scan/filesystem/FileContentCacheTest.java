@@ -0,0 +1,165 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.scan.filesystem;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.MessageException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileContentCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  Settings settings = new Settings();
+
+  @Test
+  public void read_content_once() throws IOException {
+    FileContentCache underTest = new FileContentCache(settings);
+    DefaultInputFile file = newInputFile("Foo.php", "foo\nbar", underTest);
+
+    assertThat(read(file)).isEqualTo("foo\nbar");
+
+    // next reads are served from the cache
+    FileUtils.write(file.file(), "other", StandardCharsets.UTF_8);
+    assertThat(read(file)).isEqualTo("foo\nbar");
+    assertThat(underTest.hits()).isEqualTo(1L);
+    assertThat(underTest.misses()).isEqualTo(1L);
+  }
+
+  @Test
+  public void read_content_from_disk_when_charset_changes() throws IOException {
+    FileContentCache underTest = new FileContentCache(settings);
+    DefaultInputFile file = newInputFile("Foo.php", "café", underTest);
+
+    assertThat(read(file)).isEqualTo("café");
+    file.setCharset(StandardCharsets.ISO_8859_1);
+    assertThat(read(file)).isEqualTo("cafÃ©");
+  }
+
+  @Test
+  public void skip_byte_order_mark() throws IOException {
+    DefaultInputFile file = newInputFile("Foo.php", "", new FileContentCache(settings));
+    FileUtils.writeByteArrayToFile(file.file(), new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'f', 'o', 'o'});
+
+    assertThat(read(file)).isEqualTo("foo");
+
+    // same when the file is not cached
+    settings.setProperty(FileContentCache.MAX_SIZE_PROPERTY, "0");
+    file.setContentProvider(new FileContentCache(settings));
+    assertThat(read(file)).isEqualTo("foo");
+  }
+
+  @Test
+  public void do_not_cache_files_bigger_than_max_size() throws IOException {
+    settings.setProperty(FileContentCache.MAX_SIZE_PROPERTY, "2");
+    DefaultInputFile file = newInputFile("Foo.php", "foo", new FileContentCache(settings));
+
+    assertThat(read(file)).isEqualTo("foo");
+    FileUtils.write(file.file(), "bar", StandardCharsets.UTF_8);
+    assertThat(read(file)).isEqualTo("bar");
+  }
+
+  @Test
+  public void keep_first_read_files_when_cache_is_full() throws IOException {
+    settings.setProperty(FileContentCache.MAX_SIZE_PROPERTY, "6");
+    FileContentCache underTest = new FileContentCache(settings);
+    DefaultInputFile file1 = newInputFile("Foo1.php", "foo", underTest);
+    DefaultInputFile file2 = newInputFile("Foo2.php", "foo", underTest);
+    DefaultInputFile file3 = newInputFile("Foo3.php", "foo", underTest);
+
+    // files are read in the same order by each phase of the analysis
+    for (int phase = 0; phase < 3; phase++) {
+      read(file1);
+      read(file2);
+      read(file3);
+    }
+
+    // the two first files are kept in memory, instead of being evicted by the next read
+    assertThat(underTest.hits()).isEqualTo(4L);
+    assertThat(underTest.misses()).isEqualTo(5L);
+  }
+
+  @Test
+  public void release_content_when_stopped() throws IOException {
+    FileContentCache underTest = new FileContentCache(settings);
+    DefaultInputFile file = newInputFile("Foo.php", "foo", underTest);
+    read(file);
+
+    underTest.stop();
+
+    FileUtils.write(file.file(), "bar", StandardCharsets.UTF_8);
+    assertThat(read(file)).isEqualTo("bar");
+  }
+
+  @Test
+  public void fail_if_max_size_is_negative() {
+    settings.setProperty(FileContentCache.MAX_SIZE_PROPERTY, "-1");
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("Property sonar.batch.fileContentCache.maxSize must not be negative: -1");
+
+    new FileContentCache(settings);
+  }
+
+  @Test
+  public void fail_if_file_does_not_exist() throws IOException {
+    DefaultInputFile file = new DefaultInputFile("foo", "missing.php")
+      .setModuleBaseDir(temp.getRoot().toPath())
+      .setCharset(StandardCharsets.UTF_8)
+      .setContentProvider(new FileContentCache(settings));
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Fail to read file '" + file.absolutePath() + "' with encoding 'UTF-8'");
+
+    file.newReader();
+  }
+
+  private DefaultInputFile newInputFile(String relativePath, String content, FileContentCache cache) throws IOException {
+    Charset charset = StandardCharsets.UTF_8;
+    DefaultInputFile file = new DefaultInputFile("foo", relativePath)
+      .setModuleBaseDir(temp.getRoot().toPath())
+      .setCharset(charset)
+      .setContentProvider(cache);
+    FileUtils.write(file.file(), content, charset);
+    return file;
+  }
+
+  private static String read(DefaultInputFile file) throws IOException {
+    try (Reader reader = file.newReader()) {
+      return IOUtils.toString(reader);
+    }
+  }
+}
@@ -19,13 +19,13 @@
  */
 package org.sonar.batch.scan.measure;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import java.util.Date;
 import java.util.Iterator;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.junit.Before;
-import org.junit.Rule;
 import org.junit.Test;
-import org.junit.rules.ExpectedException;
 import org.sonar.api.batch.measure.MetricFinder;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Measure;
@@ -35,6 +35,7 @@ import org.sonar.api.resources.File;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
 import org.sonar.batch.index.AbstractCachesTest;
+import org.sonar.batch.index.Caches;
 import org.sonar.batch.index.Cache.Entry;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -42,9 +43,6 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 public class MeasureCacheTest extends AbstractCachesTest {
-  @Rule
-  public ExpectedException thrown = ExpectedException.none();
-
   private MetricFinder metricFinder;
 
   private MeasureCache measureCache;
@@ -110,11 +108,8 @@ public class MeasureCacheTest extends AbstractCachesTest {
     assertThat(measureCache.byResource(p).iterator().next()).isEqualTo(m);
   }
 
-  /**
-   * This test fails with stock PersisitIt.
-   */
   @Test
-  public void should_add_measure_with_too_big_data_for_persistit_pre_patch() {
+  public void should_add_measure_with_huge_data() {
     Project p = new Project("struts");
 
     assertThat(measureCache.entries()).hasSize(0);
@@ -143,28 +138,6 @@ public class MeasureCacheTest extends AbstractCachesTest {
 
   }
 
-  @Test
-  public void should_add_measure_with_too_big_data_for_persistit() {
-    Project p = new Project("struts");
-
-    assertThat(measureCache.entries()).hasSize(0);
-
-    assertThat(measureCache.byResource(p)).hasSize(0);
-
-    Measure m = new Measure(CoreMetrics.NCLOC, 1.0).setDate(new Date());
-    StringBuilder data = new StringBuilder(64 * 1024 * 1024 + 1);
-    // Limit is 64Mo
-    for (int i = 0; i < (64 * 1024 * 1024 + 1); i++) {
-      data.append('a');
-    }
-    m.setData(data.toString());
-
-    thrown.expect(IllegalStateException.class);
-    thrown.expectMessage("Fail to put element in the cache measures");
-
-    measureCache.put(p, m);
-  }
-
   @Test
   public void should_add_measure_with_same_metric() {
     Project p = new Project("struts");
@@ -244,4 +217,31 @@ public class MeasureCacheTest extends AbstractCachesTest {
     assertThat(EqualsBuilder.reflectionEquals(measure, savedMeasure)).isTrue();
 
   }
+
+  @Test
+  public void measures_spilled_to_disk_are_decoded_with_the_metric_of_the_analysis() throws Exception {
+    caches.stop();
+    caches = createCaches(ImmutableMap.of(Caches.MAX_ENTRIES_PROPERTY, "1"));
+    measureCache = new MeasureCache(caches, metricFinder);
+    Resource file1 = File.create("foo/bar/File1.txt").setEffectiveKey("struts:foo/bar/File1.txt");
+    Resource file2 = File.create("foo/bar/File2.txt").setEffectiveKey("struts:foo/bar/File2.txt");
+    measureCache.put(file1, new Measure(CoreMetrics.NCLOC, 1.0));
+
+    Measure measure = new Measure(CoreMetrics.NCLOC, 3.14);
+    measure.setData(Strings.repeat("some data", 10_000));
+    measure.setAlertStatus(Level.ERROR);
+    measure.setAlertText("alert");
+    measure.setDate(new Date());
+    measure.setDescription("description");
+    measure.setPersonId(3);
+    measure.setUrl("http://foo");
+    measure.setVariation1(11.0);
+    measure.setVariation5(15.0);
+    measureCache.put(file2, measure);
+
+    Measure savedMeasure = measureCache.byResource(file2).iterator().next();
+    assertThat(savedMeasure).isNotSameAs(measure);
+    assertThat(savedMeasure.getMetric()).isSameAs(CoreMetrics.NCLOC);
+    assertThat(EqualsBuilder.reflectionEquals(measure, savedMeasure)).isTrue();
+  }
 }
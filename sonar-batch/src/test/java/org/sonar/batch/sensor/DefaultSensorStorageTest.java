@@ -25,6 +25,9 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.batch.SonarIndex;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultFileSystem;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
@@ -39,15 +42,22 @@ import org.sonar.api.measures.Measure;
 import org.sonar.api.resources.File;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
+import org.sonar.batch.DefaultFileLinesContext;
 import org.sonar.batch.index.BatchComponentCache;
 import org.sonar.batch.issue.ModuleIssues;
+import org.sonar.batch.protocol.output.BatchReport;
+import org.sonar.batch.protocol.output.BatchReportReader;
+import org.sonar.batch.protocol.output.BatchReportWriter;
+import org.sonar.batch.report.MeasuresPublisher;
 import org.sonar.batch.report.ReportPublisher;
 import org.sonar.batch.scan.measure.MeasureCache;
 import org.sonar.batch.sensor.coverage.CoverageExclusions;
+import org.sonar.core.util.CloseableIterator;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -76,6 +86,7 @@ public class DefaultSensorStorageTest {
     MetricFinder metricFinder = mock(MetricFinder.class);
     when(metricFinder.findByKey(CoreMetrics.NCLOC_KEY)).thenReturn(CoreMetrics.NCLOC);
     when(metricFinder.findByKey(CoreMetrics.FUNCTION_COMPLEXITY_DISTRIBUTION_KEY)).thenReturn(CoreMetrics.FUNCTION_COMPLEXITY_DISTRIBUTION);
+    when(metricFinder.findByKey(CoreMetrics.NCLOC_DATA_KEY)).thenReturn(CoreMetrics.NCLOC_DATA);
     settings = new Settings();
     moduleIssues = mock(ModuleIssues.class);
     project = new Project("myProject");
@@ -136,4 +147,34 @@ public class DefaultSensorStorageTest {
     assertThat(m.getMetric()).isEqualTo(CoreMetrics.NCLOC);
   }
 
+  @Test
+  public void publish_measure_saved_through_file_lines_context() throws Exception {
+    final Resource sonarFile = File.create("src/Foo.php").setEffectiveKey("foo:src/Foo.php");
+    resourceCache.add(sonarFile, null);
+    SonarIndex index = mock(SonarIndex.class);
+    doAnswer(new Answer<Measure>() {
+      @Override
+      public Measure answer(InvocationOnMock invocation) {
+        return sensorStorage.saveMeasure(sonarFile, (Measure) invocation.getArguments()[1]);
+      }
+    }).when(index).addMeasure(eq(sonarFile), any(Measure.class));
+    ArgumentCaptor<Measure> argumentCaptor = ArgumentCaptor.forClass(Measure.class);
+    when(measureCache.put(eq(sonarFile), argumentCaptor.capture())).thenReturn(null);
+
+    DefaultFileLinesContext fileLinesContext = new DefaultFileLinesContext(index, sonarFile);
+    fileLinesContext.setIntValue(CoreMetrics.NCLOC_DATA_KEY, 1, 1);
+    fileLinesContext.save();
+
+    when(measureCache.byResource(sonarFile)).thenReturn(argumentCaptor.getAllValues());
+    java.io.File outputDir = temp.newFolder();
+    new MeasuresPublisher(resourceCache, measureCache).publish(new BatchReportWriter(outputDir));
+
+    try (CloseableIterator<BatchReport.Measure> measures = new BatchReportReader(outputDir).readComponentMeasures(resourceCache.get(sonarFile).batchId())) {
+      BatchReport.Measure measure = measures.next();
+      assertThat(measure.getMetricKey()).isEqualTo(CoreMetrics.NCLOC_DATA_KEY);
+      assertThat(measure.getStringValue()).isEqualTo("1=1");
+      assertThat(measures.hasNext()).isFalse();
+    }
+  }
+
 }
@@ -0,0 +1 @@
+{2e[{"key":"Sonar Way","language":"xoo","name":"Sonar Way","rulesUpdatedAt":"2009-02-13T23:31:31+0000"}]:quality_profiles
\ No newline at end of file
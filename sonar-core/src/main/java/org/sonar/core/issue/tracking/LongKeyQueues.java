@@ -0,0 +1,91 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.core.issue.tracking;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table associating primitive long keys to FIFO queues of int values, used by
+ * {@link Tracker} to find base issues by matching key without allocating objects. Values are
+ * indexes in range [0, maxValues) and each value is added at most once between two calls to {@link #clear()}.
+ */
+class LongKeyQueues {
+
+  private static final int EMPTY = -1;
+  // the slot of a drained queue is kept, so that probing sequences are not broken
+  private static final int DRAINED = -2;
+
+  private final long[] keys;
+  private final int[] heads;
+  private final int[] tails;
+  private final int[] next;
+  private final int mask;
+
+  LongKeyQueues(int maxValues) {
+    int capacity = Integer.highestOneBit(Math.max(2, maxValues) * 2 - 1) << 1;
+    this.keys = new long[capacity];
+    this.heads = new int[capacity];
+    this.tails = new int[capacity];
+    this.next = new int[Math.max(1, maxValues)];
+    this.mask = capacity - 1;
+    clear();
+  }
+
+  void clear() {
+    Arrays.fill(heads, EMPTY);
+  }
+
+  /**
+   * Appends value to the queue of key
+   */
+  void add(long key, int value) {
+    int slot = slot(key);
+    next[value] = EMPTY;
+    if (heads[slot] < 0) {
+      keys[slot] = key;
+      heads[slot] = value;
+    } else {
+      next[tails[slot]] = value;
+    }
+    tails[slot] = value;
+  }
+
+  /**
+   * Removes and returns the first value of the queue of key, or -1 if the queue is empty.
+   */
+  int poll(long key) {
+    int slot = slot(key);
+    int value = heads[slot];
+    if (value < 0) {
+      return EMPTY;
+    }
+    heads[slot] = next[value] == EMPTY ? DRAINED : next[value];
+    return value;
+  }
+
+  private int slot(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    int slot = (int) (h ^ (h >>> 32)) & mask;
+    while (heads[slot] != EMPTY && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+}
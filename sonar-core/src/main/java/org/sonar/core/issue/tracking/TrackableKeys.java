@@ -0,0 +1,148 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.core.issue.tracking;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Matching keys of the passes of {@link Tracker}. Rule keys, line hashes and messages are interned to ints,
+ * so that each key is packed into a primitive long. Keys are computed once per issue and reused by all the passes.
+ */
+class TrackableKeys {
+
+  /**
+   * Same rule, same line and same line hash
+   */
+  static final int LINE_AND_LINE_HASH = 0;
+  /**
+   * Same rule, same message and same line hash
+   */
+  static final int LINE_HASH_AND_MESSAGE = 1;
+  /**
+   * Same rule, same line and same message
+   */
+  static final int LINE_AND_MESSAGE = 2;
+  /**
+   * Same rule and same line hash
+   */
+  static final int LINE_HASH = 3;
+
+  private static final int PASSES = 4;
+  private static final int NO_LINE = -1;
+
+  private final Map<Object, Integer> ids = new HashMap<>();
+  private final PairInterner pairIds = new PairInterner();
+
+  /**
+   * Keys of the trackables, indexed by pass then by position of trackable
+   */
+  long[][] compute(Iterable<? extends Trackable> trackables, int size) {
+    long[][] keys = new long[PASSES][size];
+    int index = 0;
+    for (Trackable trackable : trackables) {
+      int rule = id(trackable.getRuleKey());
+      int ruleAndLineHash = pairId(rule, id(StringUtils.defaultString(trackable.getLineHash(), "")));
+      int message = id(trackable.getMessage());
+      Integer line = trackable.getLine();
+      int lineOrNone = line != null ? line : NO_LINE;
+
+      keys[LINE_AND_LINE_HASH][index] = pack(ruleAndLineHash, lineOrNone);
+      keys[LINE_HASH_AND_MESSAGE][index] = pack(ruleAndLineHash, message);
+      keys[LINE_AND_MESSAGE][index] = pack(pairId(rule, message), lineOrNone);
+      keys[LINE_HASH][index] = ruleAndLineHash;
+      index++;
+    }
+    return keys;
+  }
+
+  private int id(@Nullable Object value) {
+    Integer id = ids.get(value);
+    if (id == null) {
+      id = ids.size();
+      ids.put(value, id);
+    }
+    return id;
+  }
+
+  private int pairId(int first, int second) {
+    return pairIds.intern(pack(first, second));
+  }
+
+  private static long pack(int high, int low) {
+    return ((long) high << 32) | (low & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Open-addressing table interning packed pairs of ids. Boxed longs are not used as keys of a {@link HashMap}
+   * because {@link Long#hashCode()} of packed pairs collides a lot.
+   */
+  private static class PairInterner {
+    private long[] keys = new long[64];
+    private int[] ids = new int[64];
+    private int size = 0;
+
+    PairInterner() {
+      Arrays.fill(ids, -1);
+    }
+
+    int intern(long key) {
+      int slot = slot(keys, ids, key);
+      if (ids[slot] < 0) {
+        keys[slot] = key;
+        ids[slot] = size;
+        size++;
+        if (size * 2 > keys.length) {
+          grow();
+        }
+        return size - 1;
+      }
+      return ids[slot];
+    }
+
+    private void grow() {
+      long[] newKeys = new long[keys.length * 2];
+      int[] newIds = new int[keys.length * 2];
+      Arrays.fill(newIds, -1);
+      for (int i = 0; i < keys.length; i++) {
+        if (ids[i] >= 0) {
+          int slot = slot(newKeys, newIds, keys[i]);
+          newKeys[slot] = keys[i];
+          newIds[slot] = ids[i];
+        }
+      }
+      keys = newKeys;
+      ids = newIds;
+    }
+
+    private static int slot(long[] keys, int[] ids, long key) {
+      int mask = keys.length - 1;
+      long h = key * 0x9E3779B97F4A7C15L;
+      int slot = (int) (h ^ (h >>> 32)) & mask;
+      while (ids[slot] >= 0 && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+  }
+}
@@ -19,21 +19,15 @@
  */
 package org.sonar.core.issue.tracking;
 
-import org.sonar.api.batch.BatchSide;
-import org.sonar.api.batch.InstantiationStrategy;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
-
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Objects;
+import java.util.List;
 import java.util.Set;
+import org.sonar.api.batch.BatchSide;
+import org.sonar.api.batch.InstantiationStrategy;
 
-import javax.annotation.Nonnull;
-
-import org.apache.commons.lang.StringUtils;
-import org.sonar.api.rule.RuleKey;
 import static com.google.common.collect.FluentIterable.from;
 
 @InstantiationStrategy(InstantiationStrategy.PER_BATCH)
@@ -45,21 +39,25 @@ public class Tracker<RAW extends Trackable, BASE extends Trackable> {
 
     relocateManualIssues(rawInput, baseInput, tracking);
 
-    // 1. match issues with same rule, same line and same line hash, but not necessarily with same message
-    match(tracking, LineAndLineHashKeyFactory.INSTANCE);
+    if (!tracking.isComplete()) {
+      Matcher matcher = new Matcher(rawInput.getIssues(), baseInput.getIssues());
 
-    // 2. detect code moves by comparing blocks of codes
-    detectCodeMoves(rawInput, baseInput, tracking);
+      // 1. match issues with same rule, same line and same line hash, but not necessarily with same message
+      matcher.match(tracking, TrackableKeys.LINE_AND_LINE_HASH);
 
-    // 3. match issues with same rule, same message and same line hash
-    match(tracking, LineHashAndMessageKeyFactory.INSTANCE);
+      // 2. detect code moves by comparing blocks of codes
+      detectCodeMoves(rawInput, baseInput, tracking);
 
-    // 4. match issues with same rule, same line and same message
-    match(tracking, LineAndMessageKeyFactory.INSTANCE);
+      // 3. match issues with same rule, same message and same line hash
+      matcher.match(tracking, TrackableKeys.LINE_HASH_AND_MESSAGE);
 
-    // 5. match issues with same rule and same line hash but different line and different message.
-    // See SONAR-2812
-    match(tracking, LineHashKeyFactory.INSTANCE);
+      // 4. match issues with same rule, same line and same message
+      matcher.match(tracking, TrackableKeys.LINE_AND_MESSAGE);
+
+      // 5. match issues with same rule and same line hash but different line and different message.
+      // See SONAR-2812
+      matcher.match(tracking, TrackableKeys.LINE_HASH);
+    }
 
     return tracking;
   }
@@ -70,29 +68,6 @@ public class Tracker<RAW extends Trackable, BASE extends Trackable> {
     }
   }
 
-  private void match(Tracking<RAW, BASE> tracking, SearchKeyFactory factory) {
-    if (tracking.isComplete()) {
-      return;
-    }
-
-    Multimap<SearchKey, BASE> baseSearch = ArrayListMultimap.create();
-    for (BASE base : tracking.getUnmatchedBases()) {
-      baseSearch.put(factory.create(base), base);
-    }
-
-    for (RAW raw : tracking.getUnmatchedRaws()) {
-      SearchKey rawKey = factory.create(raw);
-      Collection<BASE> bases = baseSearch.get(rawKey);
-      if (!bases.isEmpty()) {
-        // TODO taking the first one. Could be improved if there are more than 2 issues on the same line.
-        // Message could be checked to take the best one.
-        BASE match = bases.iterator().next();
-        tracking.match(raw, match);
-        baseSearch.remove(rawKey, match);
-      }
-    }
-  }
-
   private void relocateManualIssues(Input<RAW> rawInput, Input<BASE> baseInput, Tracking<RAW, BASE> tracking) {
     Iterable<BASE> manualIssues = from(tracking.getUnmatchedBases()).filter(IsManual.INSTANCE);
     for (BASE base : manualIssues) {
@@ -127,166 +102,47 @@ public class Tracker<RAW extends Trackable, BASE extends Trackable> {
     }
   }
 
-  private interface SearchKey {
-  }
-
-  private interface SearchKeyFactory {
-    SearchKey create(Trackable trackable);
-  }
-
-  private static class LineAndLineHashKey implements SearchKey {
-    private final RuleKey ruleKey;
-    private final String lineHash;
-    private final Integer line;
-
-    LineAndLineHashKey(Trackable trackable) {
-      this.ruleKey = trackable.getRuleKey();
-      this.line = trackable.getLine();
-      this.lineHash = StringUtils.defaultString(trackable.getLineHash(), "");
-    }
-
-    @Override
-    public boolean equals(@Nonnull Object o) {
-      if (this == o) {
-        return true;
-      }
-      LineAndLineHashKey that = (LineAndLineHashKey) o;
-      // start with most discriminant field
-      return Objects.equals(line, that.line)
-        && lineHash.equals(that.lineHash)
-        && ruleKey.equals(that.ruleKey);
-    }
-
-    @Override
-    public int hashCode() {
-      int result = ruleKey.hashCode();
-      result = 31 * result + lineHash.hashCode();
-      result = 31 * result + (line != null ? line.hashCode() : 0);
-      return result;
-    }
-  }
-
-  private enum LineAndLineHashKeyFactory implements SearchKeyFactory {
-    INSTANCE;
-    @Override
-    public SearchKey create(Trackable t) {
-      return new LineAndLineHashKey(t);
-    }
-  }
-
-  private static class LineHashAndMessageKey implements SearchKey {
-    private final RuleKey ruleKey;
-    private final String message;
-    private final String lineHash;
-
-    LineHashAndMessageKey(Trackable trackable) {
-      this.ruleKey = trackable.getRuleKey();
-      this.message = trackable.getMessage();
-      this.lineHash = StringUtils.defaultString(trackable.getLineHash(), "");
-    }
-
-    @Override
-    public boolean equals(@Nonnull Object o) {
-      if (this == o) {
-        return true;
+  private class Matcher {
+    private final List<RAW> raws;
+    private final List<BASE> bases;
+    private final long[][] rawKeys;
+    private final long[][] baseKeys;
+    private final LongKeyQueues baseSearch;
+
+    Matcher(Collection<RAW> raws, Collection<BASE> bases) {
+      this.raws = new ArrayList<>(raws);
+      this.bases = new ArrayList<>(bases);
+      TrackableKeys keys = new TrackableKeys();
+      this.rawKeys = keys.compute(this.raws, this.raws.size());
+      this.baseKeys = keys.compute(this.bases, this.bases.size());
+      this.baseSearch = new LongKeyQueues(this.bases.size());
+    }
+
+    void match(Tracking<RAW, BASE> tracking, int pass) {
+      if (tracking.isComplete()) {
+        return;
       }
-      LineHashAndMessageKey that = (LineHashAndMessageKey) o;
-      // start with most discriminant field
-      return lineHash.equals(that.lineHash)
-        && message.equals(that.message)
-        && ruleKey.equals(that.ruleKey);
-    }
-
-    @Override
-    public int hashCode() {
-      int result = ruleKey.hashCode();
-      result = 31 * result + message.hashCode();
-      result = 31 * result + lineHash.hashCode();
-      return result;
-    }
-  }
-
-  private enum LineHashAndMessageKeyFactory implements SearchKeyFactory {
-    INSTANCE;
-    @Override
-    public SearchKey create(Trackable t) {
-      return new LineHashAndMessageKey(t);
-    }
-  }
-
-  private static class LineAndMessageKey implements SearchKey {
-    private final RuleKey ruleKey;
-    private final String message;
-    private final Integer line;
 
-    LineAndMessageKey(Trackable trackable) {
-      this.ruleKey = trackable.getRuleKey();
-      this.message = trackable.getMessage();
-      this.line = trackable.getLine();
-    }
-
-    @Override
-    public boolean equals(@Nonnull Object o) {
-      if (this == o) {
-        return true;
+      baseSearch.clear();
+      long[] passBaseKeys = baseKeys[pass];
+      for (int i = 0; i < bases.size(); i++) {
+        if (tracking.containsUnmatchedBase(bases.get(i))) {
+          baseSearch.add(passBaseKeys[i], i);
+        }
       }
-      LineAndMessageKey that = (LineAndMessageKey) o;
-      // start with most discriminant field
-      return Objects.equals(line, that.line)
-        && message.equals(that.message)
-        && ruleKey.equals(that.ruleKey);
-    }
-
-    @Override
-    public int hashCode() {
-      int result = ruleKey.hashCode();
-      result = 31 * result + message.hashCode();
-      result = 31 * result + (line != null ? line.hashCode() : 0);
-      return result;
-    }
-  }
-
-  private enum LineAndMessageKeyFactory implements SearchKeyFactory {
-    INSTANCE;
-    @Override
-    public SearchKey create(Trackable t) {
-      return new LineAndMessageKey(t);
-    }
-  }
-
-  private static class LineHashKey implements SearchKey {
-    private final RuleKey ruleKey;
-    private final String lineHash;
 
-    LineHashKey(Trackable trackable) {
-      this.ruleKey = trackable.getRuleKey();
-      this.lineHash = StringUtils.defaultString(trackable.getLineHash(), "");
-    }
-
-    @Override
-    public boolean equals(@Nonnull Object o) {
-      if (this == o) {
-        return true;
+      long[] passRawKeys = rawKeys[pass];
+      for (int i = 0; i < raws.size(); i++) {
+        RAW raw = raws.get(i);
+        if (tracking.containsUnmatchedRaw(raw)) {
+          // TODO taking the first one. Could be improved if there are more than 2 issues on the same line.
+          // Message could be checked to take the best one.
+          int match = baseSearch.poll(passRawKeys[i]);
+          if (match >= 0) {
+            tracking.match(raw, bases.get(match));
+          }
+        }
       }
-      LineHashKey that = (LineHashKey) o;
-      // start with most discriminant field
-      return lineHash.equals(that.lineHash)
-        && ruleKey.equals(that.ruleKey);
-    }
-
-    @Override
-    public int hashCode() {
-      int result = ruleKey.hashCode();
-      result = 31 * result + lineHash.hashCode();
-      return result;
-    }
-  }
-
-  private enum LineHashKeyFactory implements SearchKeyFactory {
-    INSTANCE;
-    @Override
-    public SearchKey create(Trackable t) {
-      return new LineHashKey(t);
     }
   }
 }
@@ -0,0 +1,78 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.core.issue.tracking;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LongKeyQueuesTest {
+
+  @Test
+  public void poll_values_in_insertion_order() {
+    LongKeyQueues queues = new LongKeyQueues(4);
+    queues.add(42L, 0);
+    queues.add(Long.MAX_VALUE, 1);
+    queues.add(42L, 2);
+
+    assertThat(queues.poll(42L)).isEqualTo(0);
+    assertThat(queues.poll(42L)).isEqualTo(2);
+    assertThat(queues.poll(42L)).isEqualTo(-1);
+    assertThat(queues.poll(Long.MAX_VALUE)).isEqualTo(1);
+    assertThat(queues.poll(7L)).isEqualTo(-1);
+  }
+
+  @Test
+  public void add_to_drained_queue() {
+    LongKeyQueues queues = new LongKeyQueues(2);
+    queues.add(42L, 0);
+    assertThat(queues.poll(42L)).isEqualTo(0);
+
+    queues.add(42L, 1);
+    assertThat(queues.poll(42L)).isEqualTo(1);
+    assertThat(queues.poll(42L)).isEqualTo(-1);
+  }
+
+  @Test
+  public void clear() {
+    LongKeyQueues queues = new LongKeyQueues(100);
+    for (int i = 0; i < 100; i++) {
+      queues.add(i % 10, i);
+    }
+    queues.clear();
+    for (long key = 0; key < 10; key++) {
+      assertThat(queues.poll(key)).isEqualTo(-1);
+    }
+
+    queues.add(3L, 99);
+    assertThat(queues.poll(3L)).isEqualTo(99);
+  }
+
+  @Test
+  public void colliding_keys() {
+    LongKeyQueues queues = new LongKeyQueues(1000);
+    for (int i = 0; i < 1000; i++) {
+      queues.add((long) i << 32, i);
+    }
+    for (int i = 999; i >= 0; i--) {
+      assertThat(queues.poll((long) i << 32)).isEqualTo(i);
+    }
+  }
+}
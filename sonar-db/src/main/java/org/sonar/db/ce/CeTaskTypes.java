@@ -27,4 +27,9 @@ public final class CeTaskTypes {
 
   public static final String REPORT = "REPORT";
 
+  /**
+   * Purge of the history of a project, when it is not executed by the task of its analysis report
+   */
+  public static final String PURGE = "PURGE";
+
 }
@@ -24,6 +24,7 @@ import java.util.Collection;
 import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import org.apache.ibatis.session.ResultHandler;
 import org.sonar.db.Dao;
 import org.sonar.db.DatabaseUtils;
 import org.sonar.db.DbSession;
@@ -42,6 +43,32 @@ public class DuplicationDao implements Dao {
     });
   }
 
+  /**
+   * Same as {@link #selectCandidates(DbSession, Long, String, Collection)} but restricted to the blocks of the specified
+   * project snapshots (which are expected to be the last ones of their project).
+   */
+  public List<DuplicationUnitDto> selectCandidatesOfProjectSnapshots(final DbSession session, final String language, final Collection<String> hashes,
+    Collection<Long> projectSnapshotIds) {
+    return DatabaseUtils.executeLargeInputs(projectSnapshotIds, new Function<List<Long>, List<DuplicationUnitDto>>() {
+      @Override
+      public List<DuplicationUnitDto> apply(@Nonnull final List<Long> projectSnapshotIdsPartition) {
+        return DatabaseUtils.executeLargeInputs(hashes, new Function<List<String>, List<DuplicationUnitDto>>() {
+          @Override
+          public List<DuplicationUnitDto> apply(@Nonnull List<String> hashesPartition) {
+            return session.getMapper(DuplicationMapper.class).selectCandidatesOfProjectSnapshots(language, hashesPartition, projectSnapshotIdsPartition);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Streams the blocks of the last snapshots of all the enabled files, with the uuid of their project and their language.
+   */
+  public void selectLastUnits(DbSession session, ResultHandler resultHandler) {
+    session.getMapper(DuplicationMapper.class).selectLastUnits(resultHandler);
+  }
+
   /**
    * Insert rows in the table DUPLICATIONS_INDEX.
    * Note that generated ids are not returned.
@@ -32,6 +32,9 @@ public final class DuplicationUnitDto {
 
   // Return by join
   private String componentKey;
+  private String componentUuid;
+  private String projectUuid;
+  private String language;
 
   public long getId() {
     return id;
@@ -100,4 +103,45 @@ public final class DuplicationUnitDto {
     return componentKey;
   }
 
+  public DuplicationUnitDto setComponentKey(String componentKey) {
+    this.componentKey = componentKey;
+    return this;
+  }
+
+  /**
+   * Uuid of the file, only returned by {@link DuplicationDao#selectLastUnits}
+   */
+  public String getComponentUuid() {
+    return componentUuid;
+  }
+
+  public DuplicationUnitDto setComponentUuid(String componentUuid) {
+    this.componentUuid = componentUuid;
+    return this;
+  }
+
+  /**
+   * Uuid of the project of the file, only returned by {@link DuplicationDao#selectLastUnits}
+   */
+  public String getProjectUuid() {
+    return projectUuid;
+  }
+
+  public DuplicationUnitDto setProjectUuid(String projectUuid) {
+    this.projectUuid = projectUuid;
+    return this;
+  }
+
+  /**
+   * Language of the file, only returned by {@link DuplicationDao#selectLastUnits}
+   */
+  public String getLanguage() {
+    return language;
+  }
+
+  public DuplicationUnitDto setLanguage(String language) {
+    this.language = language;
+    return this;
+  }
+
 }
@@ -45,6 +45,8 @@ import static org.sonar.api.utils.DateUtils.dateToLong;
  */
 public class PurgeDao implements Dao {
   private static final Logger LOG = Loggers.get(PurgeDao.class);
+  private static final int MAX_ROOT_SNAPSHOTS_PER_CHUNK = 50;
+
   private final MyBatis mybatis;
   private final ResourceDao resourceDao;
   private final System2 system2;
@@ -113,21 +115,23 @@ public class PurgeDao implements Dao {
         .setIslast(false)
         .setNotPurged(true)
       );
-    for (final Long projectSnapshotId : projectSnapshotIds) {
-      LOG.debug("<- Clean snapshot " + projectSnapshotId);
+    // snapshot trees are loaded and cleaned table per table for a bounded number of root snapshots at a time,
+    // instead of executing all the statements for each root snapshot
+    for (List<Long> rootSnapshotIds : Lists.partition(projectSnapshotIds, MAX_ROOT_SNAPSHOTS_PER_CHUNK)) {
+      LOG.debug("<- Clean snapshots " + rootSnapshotIds);
       if (!ArrayUtils.isEmpty(scopesWithoutHistoricalData)) {
         PurgeSnapshotQuery query = PurgeSnapshotQuery.create()
           .setIslast(false)
           .setScopes(scopesWithoutHistoricalData)
-          .setRootSnapshotId(projectSnapshotId);
+          .setRootSnapshotIds(rootSnapshotIds);
         purgeCommands.deleteSnapshots(query);
       }
 
-      PurgeSnapshotQuery query = PurgeSnapshotQuery.create().setRootSnapshotId(projectSnapshotId).setNotPurged(true);
+      PurgeSnapshotQuery query = PurgeSnapshotQuery.create().setRootSnapshotIds(rootSnapshotIds).setNotPurged(true);
       purgeCommands.purgeSnapshots(query);
 
       // must be executed at the end for reentrance
-      purgeCommands.purgeSnapshots(PurgeSnapshotQuery.create().setId(projectSnapshotId).setNotPurged(true));
+      purgeCommands.purgeSnapshots(rootSnapshotIds);
     }
   }
 
@@ -46,19 +46,30 @@ public class DefaultPeriodCleaner {
   }
 
   public void clean(DbSession session, long projectId, Settings settings) {
-    doClean(projectId, new Filters(settings).all(), session);
+    clean(session, projectId, settings, profiler);
+  }
+
+  /**
+   * Same as {@link #clean(DbSession, long, Settings)}, but durations are recorded by the given profiler
+   */
+  public void clean(DbSession session, long projectId, Settings settings, PurgeProfiler purgeProfiler) {
+    doClean(projectId, new Filters(settings).all(), session, purgeProfiler);
   }
 
   @VisibleForTesting
   void doClean(long projectId, List<Filter> filters, DbSession session) {
+    doClean(projectId, filters, session, profiler);
+  }
+
+  private void doClean(long projectId, List<Filter> filters, DbSession session, PurgeProfiler purgeProfiler) {
     List<PurgeableSnapshotDto> history = selectProjectSnapshots(projectId, session);
     for (Filter filter : filters) {
       filter.log();
-      delete(filter.filter(history), session);
+      delete(filter.filter(history), session, purgeProfiler);
     }
   }
 
-  private void delete(List<PurgeableSnapshotDto> snapshots, DbSession session) {
+  private void delete(List<PurgeableSnapshotDto> snapshots, DbSession session, PurgeProfiler profiler) {
     for (PurgeableSnapshotDto snapshot : snapshots) {
       LOG.debug("<- Delete snapshot: {} [{}]", DateUtils.formatDateTime(snapshot.getDate()), snapshot.getSnapshotId());
       purgeDao.deleteSnapshots(PurgeSnapshotQuery.create().setRootSnapshotId(snapshot.getSnapshotId()), session, profiler);
@@ -50,6 +50,14 @@ public class FileSourceDao implements Dao {
     return mapper(session).select(fileUuid, Type.SOURCE);
   }
 
+  /**
+   * Value of column DATA_HASH of the sources of a file, without loading BINARY_DATA.
+   */
+  @CheckForNull
+  public String selectSourceDataHash(DbSession session, String fileUuid) {
+    return mapper(session).selectDataHash(fileUuid, Type.SOURCE);
+  }
+
   @CheckForNull
   public FileSourceDto selectTest(String fileUuid) {
     DbSession session = mybatis.openSession(false);
@@ -131,6 +139,13 @@ public class FileSourceDao implements Dao {
     mapper(session).update(dto);
   }
 
+  /**
+   * Updates only the column DATA_HASH of the row with the id of the given dto. Column UPDATED_AT is not changed.
+   */
+  public void updateDataHash(DbSession session, FileSourceDto dto) {
+    mapper(session).updateDataHash(dto);
+  }
+
   public void updateDateWhenUpdatedDateIsZero(DbSession session, String projectUuid, long updateDate) {
     mapper(session).updateDateWhenUpdatedDateIsZero(projectUuid, updateDate);
   }
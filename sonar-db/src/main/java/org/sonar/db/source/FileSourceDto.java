@@ -21,6 +21,8 @@ package org.sonar.db.source;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -34,6 +36,17 @@ import org.sonar.db.protobuf.DbFileSources;
 
 public class FileSourceDto {
 
+  /**
+   * Number of lines compressed together in column BINARY_DATA of sources
+   */
+  static final int LINES_PER_CHUNK = 500;
+
+  /**
+   * Header of the column BINARY_DATA of sources encoded in chunks. Data encoded before the introduction of chunks
+   * starts with the magic bytes of {@link LZ4BlockOutputStream} ("LZ4Block").
+   */
+  private static final byte[] CHUNKED_MAGIC = {'S', 'Q', 'C', '1'};
+
   private Long id;
   private String projectUuid;
   private String fileUuid;
@@ -79,7 +92,7 @@ public class FileSourceDto {
   }
 
   /**
-   * MD5 of column BINARY_DATA. Used to know to detect data changes and need for update.
+   * Hash of the data from which column BINARY_DATA is computed. Used to detect data changes and need for update.
    */
   public FileSourceDto setDataHash(String s) {
     this.dataHash = s;
@@ -87,8 +100,28 @@ public class FileSourceDto {
   }
 
   public static DbFileSources.Data decodeSourceData(byte[] binaryData) {
-    // stream is always closed
-    return decodeSourceData(new ByteArrayInputStream(binaryData));
+    if (isChunked(binaryData)) {
+      return decodeChunkedSourceData(binaryData, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+    return decodeLz4SourceData(new ByteArrayInputStream(binaryData));
+  }
+
+  /**
+   * Decompress and deserialize the lines of column FILE_SOURCES.BINARY_DATA which number is between {@code from}
+   * and {@code toInclusive}. Only the chunks of the requested lines are decompressed, except for data encoded before
+   * the introduction of chunks, which is entirely decompressed.
+   */
+  public static DbFileSources.Data decodeSourceData(byte[] binaryData, int from, int toInclusive) {
+    if (isChunked(binaryData)) {
+      return decodeChunkedSourceData(binaryData, from, toInclusive);
+    }
+    DbFileSources.Data.Builder builder = DbFileSources.Data.newBuilder();
+    for (DbFileSources.Line line : decodeLz4SourceData(new ByteArrayInputStream(binaryData)).getLinesList()) {
+      if (isInRange(line, from, toInclusive)) {
+        builder.addLines(line);
+      }
+    }
+    return builder.build();
   }
 
   /**
@@ -96,6 +129,16 @@ public class FileSourceDto {
    * The parameter "input" is always closed by this method.
    */
   public static DbFileSources.Data decodeSourceData(InputStream binaryInput) {
+    try {
+      return decodeSourceData(IOUtils.toByteArray(binaryInput));
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to decompress and deserialize source data", e);
+    } finally {
+      IOUtils.closeQuietly(binaryInput);
+    }
+  }
+
+  private static DbFileSources.Data decodeLz4SourceData(InputStream binaryInput) {
     LZ4BlockInputStream lz4Input = null;
     try {
       lz4Input = new LZ4BlockInputStream(binaryInput);
@@ -107,11 +150,111 @@ public class FileSourceDto {
     }
   }
 
+  private static DbFileSources.Data decodeChunkedSourceData(byte[] binaryData, int from, int toInclusive) {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(binaryData));
+    try {
+      input.skipBytes(CHUNKED_MAGIC.length);
+      int chunks = input.readInt();
+      int[] firstLines = new int[chunks + 1];
+      int[] offsets = new int[chunks + 1];
+      offsets[0] = CHUNKED_MAGIC.length + 4 + chunks * 8;
+      for (int i = 0; i < chunks; i++) {
+        firstLines[i] = input.readInt();
+        offsets[i + 1] = offsets[i] + input.readInt();
+      }
+      firstLines[chunks] = Integer.MAX_VALUE;
+
+      DbFileSources.Data.Builder builder = DbFileSources.Data.newBuilder();
+      for (int i = 0; i < chunks; i++) {
+        // lines of chunk are in range [firstLines[i], firstLines[i + 1] - 1]
+        if (firstLines[i] <= toInclusive && firstLines[i + 1] > from) {
+          DbFileSources.Data chunk = decodeLz4SourceData(new ByteArrayInputStream(binaryData, offsets[i], offsets[i + 1] - offsets[i]));
+          for (DbFileSources.Line line : chunk.getLinesList()) {
+            if (isInRange(line, from, toInclusive)) {
+              builder.addLines(line);
+            }
+          }
+        }
+      }
+      return builder.build();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to decompress and deserialize source data", e);
+    }
+  }
+
+  private static boolean isChunked(byte[] binaryData) {
+    if (binaryData.length < CHUNKED_MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < CHUNKED_MAGIC.length; i++) {
+      if (binaryData[i] != CHUNKED_MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isInRange(DbFileSources.Line line, int from, int toInclusive) {
+    return line.getLine() >= from && line.getLine() <= toInclusive;
+  }
+
   /**
    * Serialize and compress protobuf message {@link org.sonar.db.protobuf.DbFileSources.Data}
    * in the column BINARY_DATA.
+   * <p>
+   * Lines are split in chunks of {@link #LINES_PER_CHUNK} lines, which are compressed independently, so that a range
+   * of lines can be read without decompressing the whole file. Format is:
+   * <ul>
+   *   <li>the magic bytes {@link #CHUNKED_MAGIC}</li>
+   *   <li>the number of chunks (int)</li>
+   *   <li>for each chunk, the number of its first line (int) and its size in bytes (int)</li>
+   *   <li>the chunks, each of them being a LZ4-compressed message {@link org.sonar.db.protobuf.DbFileSources.Data}</li>
+   * </ul>
+   * </p>
    */
   public static byte[] encodeSourceData(DbFileSources.Data data) {
+    List<DbFileSources.Line> lines = data.getLinesList();
+    int chunks = (lines.size() + LINES_PER_CHUNK - 1) / LINES_PER_CHUNK;
+    int[] firstLines = new int[chunks];
+    byte[][] chunkBytes = new byte[chunks][];
+    int headerSize = CHUNKED_MAGIC.length + 4 + chunks * 8;
+    int size = headerSize;
+    for (int i = 0; i < chunks; i++) {
+      List<DbFileSources.Line> chunkLines = lines.subList(i * LINES_PER_CHUNK, Math.min(lines.size(), (i + 1) * LINES_PER_CHUNK));
+      firstLines[i] = chunkLines.get(0).getLine();
+      chunkBytes[i] = encodeLz4SourceData(DbFileSources.Data.newBuilder().addAllLines(chunkLines).build());
+      size += chunkBytes[i].length;
+    }
+
+    ByteArrayOutputStream byteOutput = new ByteArrayOutputStream(size);
+    DataOutputStream output = new DataOutputStream(byteOutput);
+    try {
+      output.write(CHUNKED_MAGIC);
+      output.writeInt(chunks);
+      for (int i = 0; i < chunks; i++) {
+        output.writeInt(firstLines[i]);
+        output.writeInt(chunkBytes[i].length);
+      }
+      for (byte[] chunk : chunkBytes) {
+        output.write(chunk);
+      }
+      output.close();
+      return byteOutput.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to serialize and compress source data", e);
+    }
+  }
+
+  /**
+   * Serialize and compress protobuf message {@link org.sonar.db.protobuf.DbFileSources.Data} in the format used before
+   * the introduction of chunks. Only used to compare with the column DATA_HASH of sources persisted by previous versions,
+   * which is the MD5 digest of this format.
+   */
+  public static byte[] encodeUnchunkedSourceData(DbFileSources.Data data) {
+    return encodeLz4SourceData(data);
+  }
+
+  private static byte[] encodeLz4SourceData(DbFileSources.Data data) {
     ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
     LZ4BlockOutputStream compressedOutput = new LZ4BlockOutputStream(byteOutput);
     try {
@@ -197,6 +340,14 @@ public class FileSourceDto {
     return decodeSourceData(binaryData);
   }
 
+  /**
+   * Lines of the protobuf message {@link org.sonar.db.protobuf.DbFileSources.Data} which number is between
+   * {@code from} and {@code toInclusive}
+   */
+  public DbFileSources.Data getSourceData(int from, int toInclusive) {
+    return decodeSourceData(binaryData, from, toInclusive);
+  }
+
   public FileSourceDto setSourceData(DbFileSources.Data data) {
     this.dataType = Type.SOURCE;
     this.binaryData = encodeSourceData(data);
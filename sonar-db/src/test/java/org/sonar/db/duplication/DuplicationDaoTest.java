@@ -19,7 +19,10 @@
  */
 package org.sonar.db.duplication;
 
+import java.util.ArrayList;
 import java.util.List;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -28,6 +31,7 @@ import org.sonar.db.DbSession;
 import org.sonar.db.DbTester;
 import org.sonar.test.DbTests;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -61,6 +65,44 @@ public class DuplicationDaoTest {
     assertThat(blocks).hasSize(2);
   }
 
+  @Test
+  public void select_candidates_of_project_snapshots() {
+    db.prepareDbUnit(getClass(), "select_candidates.xml");
+    dbSession.commit();
+
+    List<DuplicationUnitDto> blocks = dao.selectCandidatesOfProjectSnapshots(dbSession, "java", singletonList("aa"), singletonList(3L));
+    assertThat(blocks).extracting("componentKey").containsOnly("bar-last");
+
+    assertThat(dao.selectCandidatesOfProjectSnapshots(dbSession, "java", singletonList("aa"), asList(3L, 7L))).hasSize(2);
+    assertThat(dao.selectCandidatesOfProjectSnapshots(dbSession, "java", singletonList("bb"), singletonList(1L))).isEmpty();
+  }
+
+  @Test
+  public void select_last_units() {
+    db.prepareDbUnit(getClass(), "select_candidates.xml");
+    dbSession.commit();
+    final List<DuplicationUnitDto> blocks = new ArrayList<>();
+
+    dao.selectLastUnits(dbSession, new ResultHandler() {
+      @Override
+      public void handleResult(ResultContext resultContext) {
+        blocks.add((DuplicationUnitDto) resultContext.getResultObject());
+      }
+    });
+
+    assertThat(blocks).extracting("componentKey").containsOnly("bar-last", "foo-last", "baz");
+    assertThat(blocks).hasSize(3);
+    for (DuplicationUnitDto block : blocks) {
+      if (block.getComponentKey().equals("bar-last")) {
+        assertThat(block.getComponentUuid()).isEqualTo("2");
+        assertThat(block.getProjectUuid()).isEqualTo("P1");
+        assertThat(block.getLanguage()).isEqualTo("java");
+        assertThat(block.getProjectSnapshotId()).isEqualTo(3L);
+        assertThat(block.getHash()).isEqualTo("aa");
+      }
+    }
+  }
+
   @Test
   public void insert() {
     db.prepareDbUnit(getClass(), "insert.xml");
@@ -82,6 +82,20 @@ public class PurgeCommandsTest {
     dbTester.assertDbUnit(getClass(), "shouldDeleteWastedMeasuresWhenPurgingSnapshot-result.xml", "project_measures");
   }
 
+  @Test
+  public void purge_several_snapshot_trees_at_once() {
+    dbTester.prepareDbUnit(getClass(), "purge_snapshot_trees.xml");
+    PurgeCommands underTest = new PurgeCommands(dbTester.getSession(), profiler);
+    List<Long> rootSnapshotIds = newArrayList(1L, 3L);
+
+    assertThat(underTest.selectSnapshotIds(PurgeSnapshotQuery.create().setRootSnapshotIds(rootSnapshotIds))).containsOnly(2L, 4L);
+
+    underTest.purgeSnapshots(PurgeSnapshotQuery.create().setRootSnapshotIds(rootSnapshotIds).setNotPurged(true));
+    underTest.purgeSnapshots(rootSnapshotIds);
+
+    assertThat(underTest.selectSnapshotIds(PurgeSnapshotQuery.create().setNotPurged(true))).containsOnly(5L, 6L);
+  }
+
   /**
    * Test that SQL queries execution do not fail with a huge number of parameter
    */
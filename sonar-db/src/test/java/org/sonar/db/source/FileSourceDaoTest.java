@@ -61,6 +61,14 @@ public class FileSourceDaoTest {
     assertThat(fileSourceDto.getRevision()).isEqualTo("123456789");
   }
 
+  @Test
+  public void select_source_data_hash() {
+    dbTester.prepareDbUnit(getClass(), "shared.xml");
+
+    assertThat(underTest.selectSourceDataHash(session, "FILE1_UUID")).isEqualTo("hash");
+    assertThat(underTest.selectSourceDataHash(session, "unknown")).isNull();
+  }
+
   @Test
   public void select_line_hashes() {
     dbTester.prepareDbUnit(getClass(), "shared.xml");
@@ -131,6 +139,20 @@ public class FileSourceDaoTest {
       "project_uuid", "file_uuid", "data_hash", "line_hashes", "src_hash", "created_at", "updated_at", "data_type", "revision");
   }
 
+  @Test
+  public void update_data_hash() {
+    dbTester.prepareDbUnit(getClass(), "shared.xml");
+
+    underTest.updateDataHash(dbTester.getSession(), new FileSourceDto()
+      .setId(101L)
+      .setDataHash("NEW_DATA_HASH")
+      .setUpdatedAt(1500000000002L));
+    dbTester.getSession().commit();
+
+    dbTester.assertDbUnitTable(getClass(), "update_data_hash-result.xml", "file_sources",
+      "project_uuid", "file_uuid", "data_hash", "line_hashes", "src_hash", "created_at", "updated_at", "data_type", "revision");
+  }
+
   @Test
   public void update_date_when_updated_date_is_zero() {
     dbTester.prepareDbUnit(getClass(), "update_date_when_updated_date_is_zero.xml");
@@ -20,8 +20,11 @@
 
 package org.sonar.db.source;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
+import net.jpountz.lz4.LZ4BlockOutputStream;
 import org.junit.Test;
 import org.sonar.db.protobuf.DbFileSources;
 
@@ -44,4 +47,62 @@ public class FileSourceDtoTest {
     assertThat(underTest.getTestData()).hasSize(2);
     assertThat(underTest.getTestData().get(0).getName()).isEqualTo("name#1");
   }
+
+  @Test
+  public void encode_and_decode_source_data() {
+    DbFileSources.Data data = newData(1_234);
+
+    FileSourceDto underTest = new FileSourceDto().setSourceData(data);
+
+    assertThat(underTest.getSourceData()).isEqualTo(data);
+    assertThat(FileSourceDto.decodeSourceData(new ByteArrayInputStream(underTest.getBinaryData()))).isEqualTo(data);
+  }
+
+  @Test
+  public void encode_and_decode_empty_source_data() {
+    DbFileSources.Data data = DbFileSources.Data.newBuilder().build();
+
+    FileSourceDto underTest = new FileSourceDto().setSourceData(data);
+
+    assertThat(underTest.getSourceData().getLinesCount()).isEqualTo(0);
+    assertThat(underTest.getSourceData(1, 10).getLinesCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void decode_range_of_lines() {
+    FileSourceDto underTest = new FileSourceDto().setSourceData(newData(1_234));
+
+    assertThat(underTest.getSourceData(1, 3).getLinesList()).extracting("line").containsExactly(1, 2, 3);
+    assertThat(underTest.getSourceData(FileSourceDto.LINES_PER_CHUNK - 1, FileSourceDto.LINES_PER_CHUNK + 2).getLinesList()).extracting("source")
+      .containsExactly("line 499", "line 500", "line 501", "line 502");
+    assertThat(underTest.getSourceData(1_230, 2_000).getLinesList()).extracting("line").containsExactly(1_230, 1_231, 1_232, 1_233, 1_234);
+    assertThat(underTest.getSourceData(2_000, 3_000).getLinesCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void decode_source_data_encoded_without_chunks() throws Exception {
+    DbFileSources.Data data = newData(600);
+    ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
+    LZ4BlockOutputStream compressedOutput = new LZ4BlockOutputStream(byteOutput);
+    data.writeTo(compressedOutput);
+    compressedOutput.close();
+
+    FileSourceDto underTest = new FileSourceDto().setBinaryData(byteOutput.toByteArray());
+
+    assertThat(underTest.getSourceData()).isEqualTo(data);
+    assertThat(FileSourceDto.decodeSourceData(new ByteArrayInputStream(underTest.getBinaryData()))).isEqualTo(data);
+    assertThat(underTest.getSourceData(499, 501).getLinesList()).extracting("line").containsExactly(499, 500, 501);
+    assertThat(FileSourceDto.encodeUnchunkedSourceData(data)).isEqualTo(byteOutput.toByteArray());
+  }
+
+  private static DbFileSources.Data newData(int lines) {
+    DbFileSources.Data.Builder builder = DbFileSources.Data.newBuilder();
+    for (int line = 1; line <= lines; line++) {
+      builder.addLinesBuilder()
+        .setLine(line)
+        .setSource("line " + line)
+        .setScmAuthor("author");
+    }
+    return builder.build();
+  }
 }
@@ -0,0 +1,108 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.duplications.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Growable array of ints stored in a memory-mapped file, so that its content is not part of the Java heap.
+ * The file is mapped by pages, which allows more than {@link Integer#MAX_VALUE} bytes.
+ * <p>
+ * Reads are thread-safe as long as the array is not modified.
+ * </p>
+ */
+class MappedIntArray implements Closeable {
+
+  // 64Mb
+  static final int DEFAULT_INTS_PER_PAGE = 1 << 24;
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+  private final int intsPerPage;
+  private final List<MappedByteBuffer> pages = new ArrayList<>();
+
+  MappedIntArray(File file, int intsPerPage) throws IOException {
+    this.file = file;
+    this.intsPerPage = intsPerPage;
+    this.randomAccessFile = new RandomAccessFile(file, "rw");
+    this.channel = randomAccessFile.getChannel();
+  }
+
+  /**
+   * Number of ints which can be stored without mapping a new page.
+   */
+  long capacity() {
+    return (long) pages.size() * intsPerPage;
+  }
+
+  void ensureCapacity(long size) {
+    while (capacity() < size) {
+      long position = capacity() * 4;
+      try {
+        pages.add(channel.map(FileChannel.MapMode.READ_WRITE, position, intsPerPage * 4L));
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to map file " + file, e);
+      }
+    }
+  }
+
+  int get(long index) {
+    return pages.get((int) (index / intsPerPage)).getInt((int) (index % intsPerPage) * 4);
+  }
+
+  void set(long index, int value) {
+    pages.get((int) (index / intsPerPage)).putInt((int) (index % intsPerPage) * 4, value);
+  }
+
+  /**
+   * Swaps the ranges of {@code length} ints starting at {@code i} and {@code j}.
+   */
+  void swap(long i, long j, int length) {
+    for (int k = 0; k < length; k++) {
+      int tmp = get(i + k);
+      set(i + k, get(j + k));
+      set(j + k, tmp);
+    }
+  }
+
+  /**
+   * Pages are released by the garbage collector, as there is no API to unmap them explicitly.
+   */
+  @Override
+  public void close() throws IOException {
+    pages.clear();
+    try {
+      channel.close();
+      randomAccessFile.close();
+    } finally {
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.duplications.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+import org.sonar.duplications.index.PackedMemoryCloneIndex.ResourceBlocks;
+
+/**
+ * Provides an index which blocks are stored in memory-mapped files, so that the Java heap does not depend on the
+ * number of blocks. Only resource ids are kept in heap, once per resource.
+ * <p>
+ * Blocks are stored in order of insertion, along with a table of their hashes which is sorted by the first query
+ * following an insertion. Lookup by hash is a binary search in this table, lookup by resource reads the ranges
+ * of blocks inserted for this resource.
+ * </p>
+ * <p>
+ * Queries return views over the files: {@link Block} objects are created only when elements are accessed, and views
+ * must not be used once a block is inserted.
+ * </p>
+ * <p>
+ * Index is not thread-safe, except queries which can be called concurrently once index has been sorted by a
+ * first query or by {@link #iterator()}, as long as no block is inserted.
+ * </p>
+ */
+public class MemoryMappedCloneIndex extends AbstractCloneIndex implements Closeable {
+
+  // resource, index in file, first line, last line, first unit, last unit
+  private static final int BLOCK_INTS = 6;
+
+  private final int hashInts;
+  private final int blockInts;
+  private final int hashEntryInts;
+  private final MappedIntArray blocks;
+  private final MappedIntArray hashes;
+  private final List<String> resourceIds = new ArrayList<>();
+  private final Map<String, ResourceRanges> rangesByResourceId = new LinkedHashMap<>();
+
+  /**
+   * Indicates that table of hashes requires sorting to perform queries.
+   */
+  private boolean sorted = true;
+
+  /**
+   * Current number of blocks in index.
+   */
+  private int size = 0;
+
+  /**
+   * @param dir directory of the files of the index, which are deleted by {@link #close()}
+   */
+  public MemoryMappedCloneIndex(File dir) {
+    this(dir, 8, MappedIntArray.DEFAULT_INTS_PER_PAGE);
+  }
+
+  /**
+   * @param dir directory of the files of the index, which are deleted by {@link #close()}
+   * @param hashBytes size of hash in bytes
+   * @param intsPerPage number of ints of each page mapped in memory
+   */
+  MemoryMappedCloneIndex(File dir, int hashBytes, int intsPerPage) {
+    this.hashInts = hashBytes / 4;
+    this.blockInts = hashInts + BLOCK_INTS;
+    this.hashEntryInts = hashInts + 1;
+    try {
+      this.blocks = new MappedIntArray(File.createTempFile("cpd-blocks", ".dat", dir), intsPerPage);
+      this.hashes = new MappedIntArray(File.createTempFile("cpd-hashes", ".dat", dir), intsPerPage);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to create index in " + dir, e);
+    }
+  }
+
+  @Override
+  public void insert(Block block) {
+    int[] hash = toIntArray(block.getBlockHash());
+    ResourceRanges ranges = rangesByResourceId.get(block.getResourceId());
+    if (ranges == null) {
+      ranges = new ResourceRanges(resourceIds.size());
+      resourceIds.add(block.getResourceId());
+      rangesByResourceId.put(block.getResourceId(), ranges);
+    }
+    ranges.add(size);
+
+    long offset = (long) size * blockInts;
+    blocks.ensureCapacity(offset + blockInts);
+    for (int i = 0; i < hashInts; i++) {
+      blocks.set(offset++, hash[i]);
+    }
+    blocks.set(offset++, ranges.resourceIndex);
+    blocks.set(offset++, block.getIndexInFile());
+    blocks.set(offset++, block.getStartLine());
+    blocks.set(offset++, block.getEndLine());
+    blocks.set(offset++, block.getStartUnit());
+    blocks.set(offset, block.getEndUnit());
+
+    long hashOffset = (long) size * hashEntryInts;
+    hashes.ensureCapacity(hashOffset + hashEntryInts);
+    for (int i = 0; i < hashInts; i++) {
+      hashes.set(hashOffset++, hash[i]);
+    }
+    hashes.set(hashOffset, size);
+
+    size++;
+    sorted = false;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * <strong>Blocks are in order of insertion.</strong>
+   * </p>
+   */
+  @Override
+  public Collection<Block> getByResourceId(String resourceId) {
+    final ResourceRanges ranges = rangesByResourceId.get(resourceId);
+    if (ranges == null) {
+      return Collections.emptyList();
+    }
+    return new AbstractList<Block>() {
+      @Override
+      public Block get(int index) {
+        return createBlock(ranges.blockAt(index), null);
+      }
+
+      @Override
+      public int size() {
+        return ranges.count;
+      }
+    };
+  }
+
+  @Override
+  public Collection<Block> getBySequenceHash(final ByteArray sequenceHash) {
+    ensureSorted();
+
+    int[] hash = toIntArray(sequenceHash);
+    final int first = lowerBoundByHash(hash);
+    int last = first;
+    while (last < size && compareHash(last, hash) == 0) {
+      last++;
+    }
+    final int count = last - first;
+    return new AbstractList<Block>() {
+      @Override
+      public Block get(int index) {
+        if (index < 0 || index >= count) {
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        int blockIndex = hashes.get((long) (first + index) * hashEntryInts + hashInts);
+        return createBlock(blockIndex, sequenceHash);
+      }
+
+      @Override
+      public int size() {
+        return count;
+      }
+    };
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Resources are in order of insertion of their first block.
+   * </p>
+   */
+  @Override
+  public Iterator<ResourceBlocks> iterator() {
+    ensureSorted();
+    final Iterator<String> resourceIdIterator = rangesByResourceId.keySet().iterator();
+    return new Iterator<ResourceBlocks>() {
+      @Override
+      public boolean hasNext() {
+        return resourceIdIterator.hasNext();
+      }
+
+      @Override
+      public ResourceBlocks next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        String resourceId = resourceIdIterator.next();
+        return new ResourceBlocks(resourceId, getByResourceId(resourceId));
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Deletes the files of the index
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      blocks.close();
+    } finally {
+      hashes.close();
+    }
+  }
+
+  private int[] toIntArray(ByteArray byteArray) {
+    int[] hash = byteArray.toIntArray();
+    if (hash.length != hashInts) {
+      throw new IllegalArgumentException("Expected " + hashInts + " ints in hash, but got " + hash.length);
+    }
+    return hash;
+  }
+
+  private Block createBlock(int blockIndex, @Nullable ByteArray byteHash) {
+    long offset = (long) blockIndex * blockInts;
+    ByteArray blockHash;
+    if (byteHash == null) {
+      int[] hash = new int[hashInts];
+      for (int i = 0; i < hashInts; i++) {
+        hash[i] = blocks.get(offset++);
+      }
+      blockHash = new ByteArray(hash);
+    } else {
+      blockHash = byteHash;
+      offset += hashInts;
+    }
+    String resourceId = resourceIds.get(blocks.get(offset++));
+    int indexInFile = blocks.get(offset++);
+    int firstLineNumber = blocks.get(offset++);
+    int lastLineNumber = blocks.get(offset++);
+    int startUnit = blocks.get(offset++);
+    int endUnit = blocks.get(offset);
+
+    return Block.builder()
+      .setResourceId(resourceId)
+      .setBlockHash(blockHash)
+      .setIndexInFile(indexInFile)
+      .setLines(firstLineNumber, lastLineNumber)
+      .setUnit(startUnit, endUnit)
+      .build();
+  }
+
+  /**
+   * Index in table of hashes of the first entry which hash is not less than the specified one, {@link #size} if there is none.
+   */
+  private int lowerBoundByHash(int[] hash) {
+    int lower = 0;
+    int upper = size;
+    while (lower < upper) {
+      int mid = (lower + upper) >>> 1;
+      if (compareHash(mid, hash) < 0) {
+        lower = mid + 1;
+      } else {
+        upper = mid;
+      }
+    }
+    return lower;
+  }
+
+  private int compareHash(int entryIndex, int[] hash) {
+    long offset = (long) entryIndex * hashEntryInts;
+    for (int k = 0; k < hashInts; k++, offset++) {
+      int value = hashes.get(offset);
+      if (value != hash[k]) {
+        return value < hash[k] ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  private void ensureSorted() {
+    if (sorted) {
+      return;
+    }
+    DataUtils.sort(byHash);
+    sorted = true;
+  }
+
+  private final DataUtils.Sortable byHash = new DataUtils.Sortable() {
+    @Override
+    public void swap(int i, int j) {
+      hashes.swap((long) i * hashEntryInts, (long) j * hashEntryInts, hashEntryInts);
+    }
+
+    @Override
+    public boolean isLess(int i, int j) {
+      long i2 = (long) i * hashEntryInts;
+      long j2 = (long) j * hashEntryInts;
+      for (int k = 0; k < hashInts; k++, i2++, j2++) {
+        int x = hashes.get(i2);
+        int y = hashes.get(j2);
+        if (x != y) {
+          return x < y;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  };
+
+  /**
+   * Ranges of indexes of the blocks of a resource. Blocks of a resource are usually inserted together, so there is
+   * usually a single range.
+   */
+  private static class ResourceRanges {
+    private final int resourceIndex;
+    // pairs of first index (inclusive) and last index (exclusive)
+    private int[] ranges = new int[2];
+    private int rangeCount = 0;
+    private int count = 0;
+
+    ResourceRanges(int resourceIndex) {
+      this.resourceIndex = resourceIndex;
+    }
+
+    void add(int blockIndex) {
+      if (rangeCount > 0 && ranges[2 * rangeCount - 1] == blockIndex) {
+        ranges[2 * rangeCount - 1]++;
+      } else {
+        if (2 * rangeCount == ranges.length) {
+          ranges = Arrays.copyOf(ranges, ranges.length * 2);
+        }
+        ranges[2 * rangeCount] = blockIndex;
+        ranges[2 * rangeCount + 1] = blockIndex + 1;
+        rangeCount++;
+      }
+      count++;
+    }
+
+    int blockAt(int index) {
+      if (index < 0 || index >= count) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+      }
+      int remaining = index;
+      for (int i = 0; i < rangeCount; i++) {
+        int length = ranges[2 * i + 1] - ranges[2 * i];
+        if (remaining < length) {
+          return ranges[2 * i] + remaining;
+        }
+        remaining -= length;
+      }
+      throw new IllegalStateException("Ranges do not contain " + index + " blocks");
+    }
+  }
+}
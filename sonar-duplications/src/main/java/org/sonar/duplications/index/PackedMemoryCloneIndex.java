@@ -44,6 +44,10 @@ import javax.annotation.Nullable;
  * <p>
  * Note that this implementation currently does not support deletion, however it's possible to implement.
  * </p>
+ * <p>
+ * Index is not thread-safe, except {@link #getBySequenceHash(ByteArray)} which can be called concurrently
+ * once index has been sorted by a first query or by {@link #iterator()}, as long as no block is inserted.
+ * </p>
  */
 public class PackedMemoryCloneIndex extends AbstractCloneIndex {
 
@@ -117,7 +121,7 @@ public class PackedMemoryCloneIndex extends AbstractCloneIndex {
     return result;
   }
 
-  private Block createBlock(int index, String resourceId, @Nullable ByteArray byteHash) {
+  private Block createBlock(Block.Builder builder, int index, String resourceId, @Nullable ByteArray byteHash) {
     int offset = index * blockInts;
     ByteArray blockHash;
     
@@ -138,7 +142,7 @@ public class PackedMemoryCloneIndex extends AbstractCloneIndex {
     int startUnit = blockData[offset++];
     int endUnit = blockData[offset];
 
-    return blockBuilder
+    return builder
       .setResourceId(resourceId)
       .setBlockHash(blockHash)
       .setIndexInFile(indexInFile)
@@ -148,7 +152,7 @@ public class PackedMemoryCloneIndex extends AbstractCloneIndex {
   }
 
   private Block getBlock(int index, String resourceId) {
-    return createBlock(index, resourceId, null);
+    return createBlock(blockBuilder, index, resourceId, null);
   }
 
   private class ResourceIterator implements Iterator<ResourceBlocks> {
@@ -212,33 +216,60 @@ public class PackedMemoryCloneIndex extends AbstractCloneIndex {
 
   /**
    * {@inheritDoc}
+   * <p>
+   * Unlike other queries, hash is not stored in index for binary search, so that this method does not modify
+   * index once it is sorted.
+   * </p>
    */
   @Override
   public Collection<Block> getBySequenceHash(ByteArray sequenceHash) {
     ensureSorted();
 
-    // prepare hash for binary search
     int[] hash = sequenceHash.toIntArray();
     if (hash.length != hashInts) {
       throw new IllegalArgumentException("Expected " + hashInts + " ints in hash, but got " + hash.length);
     }
-    int offset = size * blockInts;
-    for (int i = 0; i < hashInts; i++) {
-      blockData[offset++] = hash[i];
-    }
 
-    int index = DataUtils.binarySearch(byBlockHash);
+    int index = lowerBoundByHash(hash);
 
     List<Block> result = new ArrayList<>();
-    while (index < size && !isLessByHash(size, index)) {
+    Block.Builder builder = Block.builder();
+    while (index < size && compareHash(index, hash) == 0) {
       // extract block (note that there is no need to extract hash)
       String resourceId = resourceIds[index];
-      result.add(createBlock(index, resourceId, sequenceHash));
+      result.add(createBlock(builder, index, resourceId, sequenceHash));
       index++;
     }
     return result;
   }
 
+  /**
+   * Index of the first block which hash is not less than the specified one, {@link #size} if there is none.
+   */
+  private int lowerBoundByHash(int[] hash) {
+    int lower = 0;
+    int upper = size;
+    while (lower < upper) {
+      int mid = (lower + upper) >>> 1;
+      if (compareHash(mid, hash) < 0) {
+        lower = mid + 1;
+      } else {
+        upper = mid;
+      }
+    }
+    return lower;
+  }
+
+  private int compareHash(int index, int[] hash) {
+    int offset = index * blockInts;
+    for (int k = 0; k < hashInts; k++, offset++) {
+      if (blockData[offset] != hash[k]) {
+        return blockData[offset] < hash[k] ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
   /**
    * {@inheritDoc}
    * <p>
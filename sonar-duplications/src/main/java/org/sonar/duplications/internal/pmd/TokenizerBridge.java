@@ -26,6 +26,7 @@ import net.sourceforge.pmd.cpd.TokenEntry;
 import net.sourceforge.pmd.cpd.Tokenizer;
 import net.sourceforge.pmd.cpd.Tokens;
 import org.sonar.duplications.block.Block;
+import org.sonar.duplications.cpd.CodeLoaderWithoutCache;
 import org.sonar.duplications.cpd.FileCodeLoaderWithoutCache;
 
 import java.io.File;
@@ -52,8 +53,19 @@ public class TokenizerBridge {
     return blockBuilder.chunk(resourceId, chunk(file));
   }
 
+  /**
+   * Same as {@link #chunk(String, File)}, code being read from the specified loader
+   */
+  public List<Block> chunk(String resourceId, CodeLoaderWithoutCache codeLoader) {
+    return blockBuilder.chunk(resourceId, chunk(codeLoader));
+  }
+
   public List<TokensLine> chunk(File file) {
-    SourceCode sourceCode = new SourceCode(new FileCodeLoaderWithoutCache(file, encoding));
+    return chunk(new FileCodeLoaderWithoutCache(file, encoding));
+  }
+
+  private List<TokensLine> chunk(CodeLoaderWithoutCache codeLoader) {
+    SourceCode sourceCode = new SourceCode(codeLoader);
     Tokens tokens = new Tokens();
     TokenEntry.clearImages();
     try {
@@ -0,0 +1,193 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.duplications.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+import org.sonar.duplications.index.PackedMemoryCloneIndex.ResourceBlocks;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MemoryMappedCloneIndexTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File dir;
+  private MemoryMappedCloneIndex index;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = temp.newFolder();
+    // small pages, so that blocks are stored in several pages
+    index = new MemoryMappedCloneIndex(dir, 8, 16);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    index.close();
+  }
+
+  @Test
+  public void query_by_hash_and_by_resource() {
+    index.insert(newBlock("a", 1, 0));
+    index.insert(newBlock("a", 2, 1));
+    index.insert(newBlock("b", 1, 0));
+    index.insert(newBlock("c", 1, 0));
+    index.insert(newBlock("d", 1, 0));
+    index.insert(newBlock("e", 1, 0));
+    index.insert(newBlock("e", 2, 1));
+    index.insert(newBlock("e", 3, 2));
+
+    assertThat(index.getBySequenceHash(new ByteArray(1L))).hasSize(5);
+    assertThat(index.getBySequenceHash(new ByteArray(2L))).hasSize(2);
+    assertThat(index.getBySequenceHash(new ByteArray(3L))).hasSize(1);
+    assertThat(index.getBySequenceHash(new ByteArray(4L))).isEmpty();
+    assertThat(index.getByResourceId("a")).hasSize(2);
+    assertThat(index.getByResourceId("b")).hasSize(1);
+    assertThat(index.getByResourceId("e")).containsExactly(newBlock("e", 1, 0), newBlock("e", 2, 1), newBlock("e", 3, 2));
+    assertThat(index.getByResourceId("does not exist")).isEmpty();
+  }
+
+  @Test
+  public void blocks_keep_all_their_attributes() {
+    Block block = Block.builder()
+      .setResourceId("a")
+      .setBlockHash(new ByteArray(-42L))
+      .setIndexInFile(3)
+      .setLines(10, 15)
+      .setUnit(100, 150)
+      .build();
+    index.insert(block);
+
+    for (Block found : new Block[] {index.getBySequenceHash(new ByteArray(-42L)).iterator().next(), index.getByResourceId("a").iterator().next()}) {
+      assertThat(found).isEqualTo(block);
+      assertThat(found.getStartLine()).isEqualTo(10);
+      assertThat(found.getEndLine()).isEqualTo(15);
+      assertThat(found.getStartUnit()).isEqualTo(100);
+      assertThat(found.getEndUnit()).isEqualTo(150);
+    }
+  }
+
+  @Test
+  public void should_construct_blocks_with_normalized_hash() {
+    index.insert(newBlock("a", 1, 0));
+    index.insert(newBlock("b", 1, 0));
+    index.insert(newBlock("c", 1, 0));
+    ByteArray requestedHash = new ByteArray(1L);
+    Collection<Block> blocks = index.getBySequenceHash(requestedHash);
+    assertThat(blocks).hasSize(3);
+    for (Block block : blocks) {
+      assertThat(block.getBlockHash()).isSameAs(requestedHash);
+    }
+  }
+
+  @Test
+  public void blocks_of_resource_inserted_at_different_times() {
+    index.insert(newBlock("a", 1, 0));
+    index.insert(newBlock("b", 2, 0));
+    index.insert(newBlock("a", 3, 1));
+    index.insert(newBlock("a", 4, 2));
+
+    assertThat(index.getByResourceId("a")).containsExactly(newBlock("a", 1, 0), newBlock("a", 3, 1), newBlock("a", 4, 2));
+    assertThat(index.getBySequenceHash(new ByteArray(3L))).containsExactly(newBlock("a", 3, 1));
+  }
+
+  @Test
+  public void insert_after_query() {
+    for (int i = 0; i < 100; i++) {
+      index.insert(newBlock("a", 100 - i, i));
+    }
+    assertThat(index.getBySequenceHash(new ByteArray(50L))).containsExactly(newBlock("a", 50, 50));
+
+    index.insert(newBlock("b", 50, 0));
+
+    assertThat(index.getBySequenceHash(new ByteArray(50L))).containsOnly(newBlock("a", 50, 50), newBlock("b", 50, 0));
+    assertThat(index.getByResourceId("a")).hasSize(100);
+  }
+
+  @Test
+  public void iterate() {
+    index.insert(newBlock("a", 1, 0));
+    index.insert(newBlock("c", 1, 0));
+    index.insert(newBlock("b", 1, 0));
+    index.insert(newBlock("c", 2, 1));
+    index.insert(newBlock("a", 2, 1));
+
+    Iterator<ResourceBlocks> it = index.iterator();
+    List<ResourceBlocks> resourcesBlocks = new ArrayList<>();
+    while (it.hasNext()) {
+      resourcesBlocks.add(it.next());
+    }
+
+    assertThat(resourcesBlocks).hasSize(3);
+    assertThat(resourcesBlocks.get(0).resourceId()).isEqualTo("a");
+    assertThat(resourcesBlocks.get(1).resourceId()).isEqualTo("c");
+    assertThat(resourcesBlocks.get(2).resourceId()).isEqualTo("b");
+    assertThat(resourcesBlocks.get(0).blocks()).hasSize(2);
+    assertThat(resourcesBlocks.get(1).blocks()).hasSize(2);
+    assertThat(resourcesBlocks.get(2).blocks()).hasSize(1);
+  }
+
+  @Test
+  public void close_deletes_files() throws IOException {
+    index.insert(newBlock("a", 1, 0));
+    assertThat(dir.listFiles()).hasSize(2);
+
+    index.close();
+
+    assertThat(dir.listFiles()).isEmpty();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void attempt_to_insert_hash_of_incorrect_size() throws IOException {
+    try (MemoryMappedCloneIndex otherIndex = new MemoryMappedCloneIndex(dir, 4, 16)) {
+      otherIndex.insert(newBlock("a", 1, 0));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void attempt_to_find_hash_of_incorrect_size() throws IOException {
+    try (MemoryMappedCloneIndex otherIndex = new MemoryMappedCloneIndex(dir, 4, 16)) {
+      otherIndex.getBySequenceHash(new ByteArray(1L));
+    }
+  }
+
+  private static Block newBlock(String resourceId, long hash, int indexInFile) {
+    return Block.builder()
+      .setResourceId(resourceId)
+      .setBlockHash(new ByteArray(hash))
+      .setIndexInFile(indexInFile)
+      .setLines(1, 2)
+      .build();
+  }
+
+}
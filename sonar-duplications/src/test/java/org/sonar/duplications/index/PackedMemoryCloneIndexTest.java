@@ -28,6 +28,11 @@ import org.sonar.duplications.index.PackedMemoryCloneIndex.ResourceBlocks;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -109,6 +114,39 @@ public class PackedMemoryCloneIndexTest {
     
   }
 
+  @Test
+  public void query_by_hash_does_not_modify_sorted_index() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      index.insert(newBlock("r" + (i % 10), i % 100 - 50));
+    }
+    index.iterator();
+
+    ExecutorService executorService = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> futures = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        final long hash = i - 50;
+        futures.add(executorService.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            int count = 0;
+            for (int j = 0; j < 100; j++) {
+              count += index.getBySequenceHash(new ByteArray(hash)).size();
+            }
+            return count;
+          }
+        }));
+      }
+      for (Future<Integer> future : futures) {
+        assertThat(future.get()).isEqualTo(1000);
+      }
+    } finally {
+      executorService.shutdown();
+    }
+    assertThat(index.getBySequenceHash(new ByteArray(100L))).isEmpty();
+    assertThat(index.getByResourceId("r1")).hasSize(100);
+  }
+
   /**
    * Given: index with initial capacity 1.
    * Expected: size and capacity should be increased after insertion of two blocks.
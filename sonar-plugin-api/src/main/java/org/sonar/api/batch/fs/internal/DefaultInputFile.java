@@ -24,7 +24,9 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.Arrays;
@@ -53,6 +55,7 @@ public class DefaultInputFile extends DefaultInputComponent implements InputFile
   private String hash;
   private int nonBlankLines;
   private int[] originalLineOffsets;
+  private FileContentProvider contentProvider;
 
   public DefaultInputFile(String moduleKey, String relativePath) {
     this.moduleKey = moduleKey;
@@ -192,6 +195,33 @@ public class DefaultInputFile extends DefaultInputComponent implements InputFile
     return this;
   }
 
+  /**
+   * Reader on the content of the file decoded with {@link #charset()}, without byte order mark. Content is shared
+   * with the other components of the analysis which read the file, when supported by the {@link FileContentProvider}.
+   * The caller must close the reader.
+   *
+   * @since 5.4
+   */
+  public Reader newReader() {
+    try {
+      if (contentProvider == null) {
+        return FileMetadata.newReader(file(), charset);
+      }
+      return contentProvider.newReader(this);
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Fail to read file '%s' with encoding '%s'", absolutePath(), charset), e);
+    }
+  }
+
+  /**
+   * Set by the scanner when the file is indexed. Content is read from disk on each call to {@link #newReader()} when
+   * not set.
+   */
+  public DefaultInputFile setContentProvider(@Nullable FileContentProvider contentProvider) {
+    this.contentProvider = contentProvider;
+    return this;
+  }
+
   public DefaultInputFile setNonBlankLines(int nonBlankLines) {
     this.nonBlankLines = nonBlankLines;
     return this;
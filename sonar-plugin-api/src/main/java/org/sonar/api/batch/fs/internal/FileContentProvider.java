@@ -0,0 +1,39 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.api.batch.fs.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Provides the content of the files returned by {@link DefaultInputFile#newReader()}, so that it can be shared by all
+ * the components of the analysis which read the same file.
+ *
+ * @since 5.4
+ */
+public interface FileContentProvider {
+
+  /**
+   * Reader on the content of the file decoded with {@link DefaultInputFile#charset()}, without byte order mark.
+   * The caller must close it.
+   */
+  Reader newReader(DefaultInputFile inputFile) throws IOException;
+
+}
@@ -19,24 +19,15 @@
  */
 package org.sonar.api.batch.fs.internal;
 
-import com.google.common.primitives.Ints;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.util.ArrayList;
-import java.util.List;
-import javax.annotation.CheckForNull;
+import java.util.Arrays;
 import javax.annotation.Nullable;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -58,294 +49,308 @@ public class FileMetadata {
 
   private static final char LINE_FEED = '\n';
   private static final char CARRIAGE_RETURN = '\r';
+  private static final int BUFFER_SIZE = 8192;
 
-  public abstract static class CharHandler {
-
-    protected void handleAll(char c) {
+  /**
+   * Splits content into lines ended by \n, \r\n or \r. Content is read by blocks of chars and
+   * lines are notified as slices of the block, without line ends. A line spanning two blocks is
+   * notified in two slices.
+   */
+  private abstract static class LineScanner {
+
+    void scan(Reader reader) throws IOException {
+      char[] buffer = new char[BUFFER_SIZE];
+      int offset = 0;
+      boolean afterCR = false;
+      int length = reader.read(buffer);
+      while (length != -1) {
+        int from = 0;
+        if (afterCR && length > 0) {
+          afterCR = false;
+          if (buffer[0] == LINE_FEED) {
+            from = 1;
+          }
+          newLine(offset + from);
+        }
+        for (int i = from; i < length; i++) {
+          char c = buffer[i];
+          if (c <= CARRIAGE_RETURN && (c == LINE_FEED || c == CARRIAGE_RETURN)) {
+            if (i > from) {
+              content(buffer, from, i);
+            }
+            if (c == CARRIAGE_RETURN) {
+              if (i + 1 == length) {
+                // line end is known only when next block is read
+                afterCR = true;
+              } else if (buffer[i + 1] == LINE_FEED) {
+                i++;
+              }
+            }
+            from = i + 1;
+            if (!afterCR) {
+              newLine(offset + from);
+            }
+          }
+        }
+        if (from < length) {
+          content(buffer, from, length);
+        }
+        offset += length;
+        length = reader.read(buffer);
+      }
+      if (afterCR) {
+        newLine(offset);
+      }
+      eof(offset);
     }
 
-    protected void handleIgnoreEoL(char c) {
+    /**
+     * Chars of the current line between indices {@code from} inclusive and {@code to} exclusive
+     */
+    abstract void content(char[] chars, int from, int to);
+
+    /**
+     * @param nextLineOffset offset of the first char of the new line
+     */
+    abstract void newLine(int nextLineOffset);
+
+    /**
+     * @param length number of chars of the content, including line ends
+     */
+    abstract void eof(int length);
+  }
+
+  /**
+   * Feeds a MD5 digest with UTF-8 encoding of chars, without intermediate String nor ByteBuffer.
+   * Malformed surrogates are replaced by '?', as done by {@link java.nio.charset.CharsetEncoder}
+   * configured with {@link java.nio.charset.CodingErrorAction#REPLACE}.
+   */
+  private static class Utf8Digest {
+    private final MessageDigest md5 = DigestUtils.getMd5Digest();
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private int length = 0;
+    private char highSurrogate = 0;
+
+    void update(char[] chars, int from, int to) {
+      for (int i = from; i < to; i++) {
+        update(chars[i]);
+      }
     }
 
-    protected void newLine() {
+    void update(char c) {
+      if (length > bytes.length - 5) {
+        md5.update(bytes, 0, length);
+        length = 0;
+      }
+      if (highSurrogate != 0) {
+        if (Character.isLowSurrogate(c)) {
+          int codePoint = Character.toCodePoint(highSurrogate, c);
+          highSurrogate = 0;
+          bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+          bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+          return;
+        }
+        highSurrogate = 0;
+        bytes[length++] = '?';
+      }
+      if (c < 0x80) {
+        bytes[length++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[length++] = (byte) (0xC0 | (c >> 6));
+        bytes[length++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)) {
+        highSurrogate = c;
+      } else if (Character.isLowSurrogate(c)) {
+        bytes[length++] = '?';
+      } else {
+        bytes[length++] = (byte) (0xE0 | (c >> 12));
+        bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        bytes[length++] = (byte) (0x80 | (c & 0x3F));
+      }
     }
 
-    protected void eof() {
+    /**
+     * Completes the digest, which is then reset
+     */
+    byte[] digest() {
+      if (highSurrogate != 0) {
+        highSurrogate = 0;
+        bytes[length++] = '?';
+      }
+      md5.update(bytes, 0, length);
+      length = 0;
+      return md5.digest();
     }
   }
 
-  private static class LineCounter extends CharHandler {
+  /**
+   * Counts lines and non-blank lines, computes offsets of lines and the hash of the content
+   * with line ends replaced by \n.
+   */
+  private static class MetadataComputer extends LineScanner {
+    private final File file;
+    private final Charset encoding;
+    private final Utf8Digest fileDigest = new Utf8Digest();
     private int lines = 1;
     private int nonBlankLines = 0;
     private boolean blankLine = true;
-    boolean alreadyLoggedInvalidCharacter = false;
-    private final File file;
-    private final Charset encoding;
+    private boolean alreadyLoggedInvalidCharacter = false;
+    private int[] originalLineOffsets = new int[64];
+    private int lastValidOffset = 0;
 
-    LineCounter(File file, Charset encoding) {
+    MetadataComputer(File file, Charset encoding) {
       this.file = file;
       this.encoding = encoding;
     }
 
     @Override
-    protected void handleAll(char c) {
-      if (!alreadyLoggedInvalidCharacter && c == '\ufffd') {
-        LOG.warn("Invalid character encountered in file {} at line {} for encoding {}. Please fix file content or configure the encoding to be used using property '{}'.", file,
-          lines, encoding, CoreProperties.ENCODING_PROPERTY);
-        alreadyLoggedInvalidCharacter = true;
+    void content(char[] chars, int from, int to) {
+      for (int i = from; blankLine && i < to; i++) {
+        if (!Character.isWhitespace(chars[i])) {
+          blankLine = false;
+        }
       }
-    }
-
-    @Override
-    protected void newLine() {
-      lines++;
-      if (!blankLine) {
-        nonBlankLines++;
+      if (!alreadyLoggedInvalidCharacter) {
+        checkInvalidCharacter(chars, from, to);
       }
-      blankLine = true;
+      fileDigest.update(chars, from, to);
     }
 
-    @Override
-    protected void handleIgnoreEoL(char c) {
-      if (!Character.isWhitespace(c)) {
-        blankLine = false;
+    private void checkInvalidCharacter(char[] chars, int from, int to) {
+      for (int i = from; i < to; i++) {
+        if (chars[i] == '\ufffd') {
+          LOG.warn("Invalid character encountered in file {} at line {} for encoding {}. Please fix file content or configure the encoding to be used using property '{}'.", file,
+            lines, encoding, CoreProperties.ENCODING_PROPERTY);
+          alreadyLoggedInvalidCharacter = true;
+          return;
+        }
       }
     }
 
     @Override
-    protected void eof() {
+    void newLine(int nextLineOffset) {
+      fileDigest.update(LINE_FEED);
       if (!blankLine) {
         nonBlankLines++;
       }
-    }
-
-    public int lines() {
-      return lines;
-    }
-
-    public int nonBlankLines() {
-      return nonBlankLines;
-    }
-
-  }
-
-  private static class FileHashComputer extends CharHandler {
-    private MessageDigest globalMd5Digest = DigestUtils.getMd5Digest();
-    private StringBuilder sb = new StringBuilder();
-    private final CharsetEncoder encoder;
-    private final File file;
-
-    public FileHashComputer(File f) {
-      encoder = StandardCharsets.UTF_8.newEncoder()
-        .onMalformedInput(CodingErrorAction.REPLACE)
-        .onUnmappableCharacter(CodingErrorAction.REPLACE);
-      file = f;
-    }
-
-    @Override
-    protected void handleIgnoreEoL(char c) {
-      sb.append(c);
-    }
-
-    @Override
-    protected void newLine() {
-      sb.append(LINE_FEED);
-      processBuffer();
-      sb.setLength(0);
-    }
-
-    @Override
-    protected void eof() {
-      if (sb.length() > 0) {
-        processBuffer();
+      blankLine = true;
+      if (lines == originalLineOffsets.length) {
+        originalLineOffsets = Arrays.copyOf(originalLineOffsets, lines * 2);
       }
+      originalLineOffsets[lines] = nextLineOffset;
+      lines++;
     }
 
-    private void processBuffer() {
-      try {
-        if (sb.length() > 0) {
-          ByteBuffer encoded = encoder.encode(CharBuffer.wrap(sb));
-          globalMd5Digest.update(encoded.array(), 0, encoded.limit());
-        }
-      } catch (CharacterCodingException e) {
-        throw new IllegalStateException("Error encoding line hash in file: " + file.getAbsolutePath(), e);
+    @Override
+    void eof(int length) {
+      if (!blankLine) {
+        nonBlankLines++;
       }
+      lastValidOffset = length;
     }
 
-    @CheckForNull
-    public String getHash() {
-      return Hex.encodeHexString(globalMd5Digest.digest());
+    Metadata toMetadata() {
+      return new Metadata(lines, nonBlankLines, Hex.encodeHexString(fileDigest.digest()), Arrays.copyOf(originalLineOffsets, lines), lastValidOffset);
     }
   }
 
-  private static class LineHashComputer extends CharHandler {
-    private final MessageDigest lineMd5Digest = DigestUtils.getMd5Digest();
-    private final CharsetEncoder encoder;
-    private final StringBuilder sb = new StringBuilder();
+  /**
+   * Computes hash of each line, blank chars being ignored. Blank lines are not notified to consumer.
+   */
+  private static class LineHashComputer extends LineScanner {
+    private final Utf8Digest lineDigest = new Utf8Digest();
     private final LineHashConsumer consumer;
-    private final File file;
     private int line = 1;
+    private boolean blankLine = true;
 
-    public LineHashComputer(LineHashConsumer consumer, File f) {
+    LineHashComputer(LineHashConsumer consumer) {
       this.consumer = consumer;
-      this.file = f;
-      this.encoder = StandardCharsets.UTF_8.newEncoder()
-        .onMalformedInput(CodingErrorAction.REPLACE)
-        .onUnmappableCharacter(CodingErrorAction.REPLACE);
     }
 
     @Override
-    protected void handleIgnoreEoL(char c) {
-      if (!Character.isWhitespace(c)) {
-        sb.append(c);
+    void content(char[] chars, int from, int to) {
+      for (int i = from; i < to; i++) {
+        char c = chars[i];
+        if (!Character.isWhitespace(c)) {
+          lineDigest.update(c);
+          blankLine = false;
+        }
       }
     }
 
     @Override
-    protected void newLine() {
-      processBuffer();
-      sb.setLength(0);
+    void newLine(int nextLineOffset) {
+      processLine();
       line++;
     }
 
     @Override
-    protected void eof() {
-      if (this.line > 0) {
-        processBuffer();
-      }
+    void eof(int length) {
+      processLine();
     }
 
-    private void processBuffer() {
-      try {
-        if (sb.length() > 0) {
-          ByteBuffer encoded = encoder.encode(CharBuffer.wrap(sb));
-          lineMd5Digest.update(encoded.array(), 0, encoded.limit());
-          consumer.consume(line, lineMd5Digest.digest());
-        }
-      } catch (CharacterCodingException e) {
-        throw new IllegalStateException("Error encoding line hash in file: " + file.getAbsolutePath(), e);
+    private void processLine() {
+      if (!blankLine) {
+        consumer.consume(line, lineDigest.digest());
+        blankLine = true;
       }
     }
   }
 
-  private static class LineOffsetCounter extends CharHandler {
-    private int currentOriginalOffset = 0;
-    private List<Integer> originalLineOffsets = new ArrayList<>();
-    private int lastValidOffset = 0;
-
-    public LineOffsetCounter() {
-      originalLineOffsets.add(0);
-    }
-
-    @Override
-    protected void handleAll(char c) {
-      currentOriginalOffset++;
-    }
-
-    @Override
-    protected void newLine() {
-      originalLineOffsets.add(currentOriginalOffset);
-    }
-
-    @Override
-    protected void eof() {
-      lastValidOffset = currentOriginalOffset;
-    }
-
-    public List<Integer> getOriginalLineOffsets() {
-      return originalLineOffsets;
-    }
-
-    public int getLastValidOffset() {
-      return lastValidOffset;
-    }
-
-  }
-
   /**
    * Compute hash of a file ignoring line ends differences.
    * Maximum performance is needed.
    */
   public Metadata readMetadata(File file, Charset encoding) {
-    LineCounter lineCounter = new LineCounter(file, encoding);
-    FileHashComputer fileHashComputer = new FileHashComputer(file);
-    LineOffsetCounter lineOffsetCounter = new LineOffsetCounter();
-    readFile(file, encoding, lineCounter, fileHashComputer, lineOffsetCounter);
-    return new Metadata(lineCounter.lines(), lineCounter.nonBlankLines(), fileHashComputer.getHash(), lineOffsetCounter.getOriginalLineOffsets(),
-      lineOffsetCounter.getLastValidOffset());
+    MetadataComputer computer = new MetadataComputer(file, encoding);
+    scanFile(file, encoding, computer);
+    return computer.toMetadata();
+  }
+
+  /**
+   * Same as {@link #readMetadata(File, Charset)} when content of the file is already decoded, without byte order mark.
+   * Reader is not closed.
+   */
+  public Metadata readMetadata(File file, Charset encoding, Reader reader) {
+    MetadataComputer computer = new MetadataComputer(file, encoding);
+    try {
+      computer.scan(reader);
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Fail to read file '%s' with encoding '%s'", file.getAbsolutePath(), encoding), e);
+    }
+    return computer.toMetadata();
   }
 
   /**
    * For testing purpose
    */
   public Metadata readMetadata(Reader reader) {
-    LineCounter lineCounter = new LineCounter(new File("fromString"), StandardCharsets.UTF_16);
-    FileHashComputer fileHashComputer = new FileHashComputer(new File("fromString"));
-    LineOffsetCounter lineOffsetCounter = new LineOffsetCounter();
+    MetadataComputer computer = new MetadataComputer(new File("fromString"), StandardCharsets.UTF_16);
     try {
-      read(reader, lineCounter, fileHashComputer, lineOffsetCounter);
+      computer.scan(reader);
     } catch (IOException e) {
       throw new IllegalStateException("Should never occurs", e);
     }
-    return new Metadata(lineCounter.lines(), lineCounter.nonBlankLines(), fileHashComputer.getHash(), lineOffsetCounter.getOriginalLineOffsets(),
-      lineOffsetCounter.getLastValidOffset());
+    return computer.toMetadata();
   }
 
-  public static void readFile(File file, Charset encoding, CharHandler... handlers) {
-    try (BOMInputStream bomIn = new BOMInputStream(new FileInputStream(file),
-      ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE, ByteOrderMark.UTF_16BE, ByteOrderMark.UTF_32LE, ByteOrderMark.UTF_32BE);
-      Reader reader = new BufferedReader(new InputStreamReader(bomIn, encoding))) {
-      read(reader, handlers);
+  private static void scanFile(File file, Charset encoding, LineScanner scanner) {
+    try (Reader reader = newReader(file, encoding)) {
+      scanner.scan(reader);
     } catch (IOException e) {
       throw new IllegalStateException(String.format("Fail to read file '%s' with encoding '%s'", file.getAbsolutePath(), encoding), e);
     }
   }
 
-  private static void read(Reader reader, CharHandler... handlers) throws IOException {
-    char c;
-    int i = reader.read();
-    boolean afterCR = false;
-    while (i != -1) {
-      c = (char) i;
-      if (afterCR) {
-        for (CharHandler handler : handlers) {
-          if (c == CARRIAGE_RETURN) {
-            handler.newLine();
-            handler.handleAll(c);
-          } else if (c == LINE_FEED) {
-            handler.handleAll(c);
-            handler.newLine();
-          } else {
-            handler.newLine();
-            handler.handleIgnoreEoL(c);
-            handler.handleAll(c);
-          }
-        }
-        afterCR = c == CARRIAGE_RETURN;
-      } else if (c == LINE_FEED) {
-        for (CharHandler handler : handlers) {
-          handler.handleAll(c);
-          handler.newLine();
-        }
-      } else if (c == CARRIAGE_RETURN) {
-        afterCR = true;
-        for (CharHandler handler : handlers) {
-          handler.handleAll(c);
-        }
-      } else {
-        for (CharHandler handler : handlers) {
-          handler.handleIgnoreEoL(c);
-          handler.handleAll(c);
-        }
-      }
-      i = reader.read();
-    }
-    for (CharHandler handler : handlers) {
-      if (afterCR) {
-        handler.newLine();
-      }
-      handler.eof();
-    }
+  /**
+   * Reader on the content of the file, without byte order mark
+   */
+  static Reader newReader(File file, Charset encoding) throws IOException {
+    BOMInputStream bomIn = new BOMInputStream(new FileInputStream(file),
+      ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE, ByteOrderMark.UTF_16BE, ByteOrderMark.UTF_32LE, ByteOrderMark.UTF_32BE);
+    return new InputStreamReader(bomIn, encoding);
   }
 
   public static class Metadata {
@@ -355,11 +360,11 @@ public class FileMetadata {
     final int[] originalLineOffsets;
     final int lastValidOffset;
 
-    private Metadata(int lines, int nonBlankLines, String hash, List<Integer> originalLineOffsets, int lastValidOffset) {
+    private Metadata(int lines, int nonBlankLines, String hash, int[] originalLineOffsets, int lastValidOffset) {
       this.lines = lines;
       this.nonBlankLines = nonBlankLines;
       this.hash = hash;
-      this.originalLineOffsets = Ints.toArray(originalLineOffsets);
+      this.originalLineOffsets = originalLineOffsets;
       this.lastValidOffset = lastValidOffset;
     }
   }
@@ -374,6 +379,22 @@ public class FileMetadata {
    * Compute a MD5 hash of each line of the file after removing of all blank chars
    */
   public static void computeLineHashesForIssueTracking(DefaultInputFile f, LineHashConsumer consumer) {
-    readFile(f.file(), f.charset(), new LineHashComputer(consumer, f.file()));
+    try (Reader reader = f.newReader()) {
+      computeLineHashesForIssueTracking(f, reader, consumer);
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Fail to read file '%s' with encoding '%s'", f.file().getAbsolutePath(), f.charset()), e);
+    }
+  }
+
+  /**
+   * Same as {@link #computeLineHashesForIssueTracking(DefaultInputFile, LineHashConsumer)} when content of the file
+   * is already decoded, without byte order mark. Reader is not closed.
+   */
+  public static void computeLineHashesForIssueTracking(DefaultInputFile f, Reader reader, LineHashConsumer consumer) {
+    try {
+      new LineHashComputer(consumer).scan(reader);
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Fail to read file '%s' with encoding '%s'", f.file().getAbsolutePath(), f.charset()), e);
+    }
   }
 }
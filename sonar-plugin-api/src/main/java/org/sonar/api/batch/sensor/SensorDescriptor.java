@@ -86,4 +86,13 @@ public interface SensorDescriptor {
    */
   SensorDescriptor disabledInIssues();
 
+  /**
+   * Declares that this {@link Sensor} only reads the file system, the settings and the active rules, and only saves data
+   * through {@link SensorContext}. The platform may then execute it concurrently with other thread-safe sensors
+   * of the same phase, so it must not depend on data saved by other sensors.
+   * Default is to execute sensors one after the other.
+   * @since 5.4
+   */
+  SensorDescriptor threadSafe();
+
 }
@@ -33,6 +33,7 @@ public class DefaultSensorDescriptor implements SensorDescriptor {
   private String[] ruleRepositories = new String[0];
   private String[] properties = new String[0];
   private boolean disabledInIssues = false;
+  private boolean threadSafe = false;
 
   public String name() {
     return name;
@@ -59,6 +60,10 @@ public class DefaultSensorDescriptor implements SensorDescriptor {
     return disabledInIssues;
   }
 
+  public boolean isThreadSafe() {
+    return threadSafe;
+  }
+
   @Override
   public DefaultSensorDescriptor name(String name) {
     this.name = name;
@@ -110,4 +115,10 @@ public class DefaultSensorDescriptor implements SensorDescriptor {
     return this;
   }
 
+  @Override
+  public DefaultSensorDescriptor threadSafe() {
+    this.threadSafe = true;
+    return this;
+  }
+
 }
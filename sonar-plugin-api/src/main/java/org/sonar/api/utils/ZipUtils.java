@@ -165,6 +165,19 @@ public final class ZipUtils {
     }
   }
 
+  /**
+   * Compresses the content of a directory into a stream, for example the body of an HTTP request, without
+   * creating a temporary file. The stream is not closed.
+   *
+   * @since 5.4
+   */
+  public static void zipDir(File dir, OutputStream out) throws IOException {
+    ZipOutputStream zout = new ZipOutputStream(out);
+    doZipDir(dir, zout);
+    zout.finish();
+    zout.flush();
+  }
+
   private static void doZip(String entryName, InputStream in, ZipOutputStream out) throws IOException {
     ZipEntry entry = new ZipEntry(entryName);
     out.putNextEntry(entry);
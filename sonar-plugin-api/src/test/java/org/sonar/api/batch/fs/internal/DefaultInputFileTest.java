@@ -20,7 +20,12 @@
 package org.sonar.api.batch.fs.internal;
 
 import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -57,6 +62,49 @@ public class DefaultInputFileTest {
     assertThat(inputFile.lines()).isEqualTo(42);
   }
 
+  @Test
+  public void read_content_from_disk() throws Exception {
+    Path baseDir = temp.newFolder().toPath();
+    DefaultInputFile inputFile = new DefaultInputFile("ABCDE", "src/Foo.php")
+      .setModuleBaseDir(baseDir)
+      .setCharset(StandardCharsets.UTF_8);
+    FileUtils.writeByteArrayToFile(inputFile.file(), new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'f', 'o', 'o'});
+
+    try (Reader reader = inputFile.newReader()) {
+      assertThat(IOUtils.toString(reader)).isEqualTo("foo");
+    }
+  }
+
+  @Test
+  public void read_content_from_provider() throws Exception {
+    DefaultInputFile inputFile = new DefaultInputFile("ABCDE", "src/Foo.php")
+      .setModuleBaseDir(temp.newFolder().toPath())
+      .setContentProvider(new FileContentProvider() {
+        @Override
+        public Reader newReader(DefaultInputFile inputFile) {
+          return new StringReader("bar");
+        }
+      });
+
+    try (Reader reader = inputFile.newReader()) {
+      assertThat(IOUtils.toString(reader)).isEqualTo("bar");
+    }
+  }
+
+  @Test
+  public void fail_to_read_missing_file() throws Exception {
+    DefaultInputFile inputFile = new DefaultInputFile("ABCDE", "src/Foo.php")
+      .setModuleBaseDir(temp.newFolder().toPath())
+      .setCharset(StandardCharsets.UTF_8);
+
+    try {
+      inputFile.newReader();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Fail to read file '" + inputFile.absolutePath() + "' with encoding 'UTF-8'");
+    }
+  }
+
   @Test
   public void test_equals_and_hashcode() throws Exception {
     DefaultInputFile f1 = new DefaultInputFile("ABCDE", "src/Foo.php");
@@ -20,11 +20,15 @@
 package org.sonar.api.batch.fs.internal;
 
 import java.io.File;
+import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Nullable;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -249,6 +253,63 @@ public class FileMetadataTest {
     });
   }
 
+  @Test
+  public void read_metadata_of_decoded_content() throws Exception {
+    File tempFile = temp.newFile();
+    String content = "foo\r\nbar\r\nbaz";
+    FileUtils.write(tempFile, content, StandardCharsets.UTF_8, true);
+
+    FileMetadata.Metadata fromFile = new FileMetadata().readMetadata(tempFile, StandardCharsets.UTF_8);
+    FileMetadata.Metadata fromContent = new FileMetadata().readMetadata(tempFile, StandardCharsets.UTF_8, new StringReader(content));
+
+    assertThat(fromContent.lines).isEqualTo(fromFile.lines);
+    assertThat(fromContent.nonBlankLines).isEqualTo(fromFile.nonBlankLines);
+    assertThat(fromContent.hash).isEqualTo(fromFile.hash);
+    assertThat(fromContent.originalLineOffsets).isEqualTo(fromFile.originalLineOffsets);
+    assertThat(fromContent.lastValidOffset).isEqualTo(fromFile.lastValidOffset);
+  }
+
+  @Test
+  public void line_ends_across_read_buffers() throws Exception {
+    // CR is the last char of the first buffer of 8192 chars and LF the first one of the second buffer
+    String content = StringUtils.repeat("a", 8191) + "\r\nb";
+
+    FileMetadata.Metadata metadata = new FileMetadata().readMetadata(new StringReader(content));
+
+    assertThat(metadata.lines).isEqualTo(2);
+    assertThat(metadata.originalLineOffsets).containsOnly(0, 8193);
+    assertThat(metadata.lastValidOffset).isEqualTo(8194);
+  }
+
+  @Test
+  public void hash_supplementary_and_malformed_characters_as_utf_8_encoder() throws Exception {
+    // surrogate pair, then lone high and low surrogates
+    String content = "a\uD834\uDD1Eb\n\uD834\r\uDD1E";
+
+    FileMetadata.Metadata metadata = new FileMetadata().readMetadata(new StringReader(content));
+
+    assertThat(metadata.lines).isEqualTo(3);
+    assertThat(metadata.hash).isEqualTo(md5Hex("a\uD834\uDD1Eb\n?\n?".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void compute_line_hashes_of_decoded_content() throws Exception {
+    File tempFile = temp.newFile();
+    DefaultInputFile f = new DefaultInputFile("foo", tempFile.getName());
+    f.setModuleBaseDir(tempFile.getParentFile().toPath());
+    f.setCharset(StandardCharsets.UTF_8);
+    final List<String> hashes = new ArrayList<>();
+    FileMetadata.computeLineHashesForIssueTracking(f, new StringReader(" foo\nb ar\r\n\t"), new LineHashConsumer() {
+      @Override
+      public void consume(int lineIdx, @Nullable byte[] hash) {
+        hashes.add(hash == null ? null : Hex.encodeHexString(hash));
+      }
+    });
+
+    // blank lines are not consumed
+    assertThat(hashes).containsExactly(md5Hex("foo"), md5Hex("bar"));
+  }
+
   @Test
   public void dont_fail_on_empty_file() throws Exception {
     File tempFile = temp.newFile();
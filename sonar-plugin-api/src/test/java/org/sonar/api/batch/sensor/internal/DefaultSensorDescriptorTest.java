@@ -52,4 +52,14 @@ public class DefaultSensorDescriptorTest {
     assertThat(descriptor.isDisabledInIssues()).isTrue();
   }
 
+  @Test
+  public void threadSafe() {
+    DefaultSensorDescriptor descriptor = new DefaultSensorDescriptor();
+    assertThat(descriptor.isThreadSafe()).isFalse();
+
+    descriptor.threadSafe();
+
+    assertThat(descriptor.isThreadSafe()).isTrue();
+  }
+
 }
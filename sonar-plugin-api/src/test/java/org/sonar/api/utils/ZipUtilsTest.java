@@ -25,6 +25,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,6 +35,9 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 public class ZipUtilsTest {
 
@@ -59,6 +64,22 @@ public class ZipUtilsTest {
     assertThat(new File(unzipDir, "dir1/hello.properties")).exists().isFile();
   }
 
+  @Test
+  public void zip_directory_into_stream_without_closing_it() throws IOException {
+    File foo = FileUtils.toFile(getClass().getResource("/org/sonar/api/utils/ZipUtilsTest/shouldZipDirectory/foo.txt"));
+    File dir = foo.getParentFile();
+    ByteArrayOutputStream output = spy(new ByteArrayOutputStream());
+
+    ZipUtils.zipDir(dir, output);
+
+    verify(output, never()).close();
+    File unzipDir = temp.newFolder();
+    ZipUtils.unzip(new ByteArrayInputStream(output.toByteArray()), unzipDir);
+    assertThat(new File(unzipDir, "bar.txt")).exists().isFile();
+    assertThat(new File(unzipDir, "foo.txt")).exists().isFile();
+    assertThat(new File(unzipDir, "dir1/hello.properties")).exists().isFile();
+  }
+
   @Test
   public void shouldUnzipFile() throws IOException {
     File zip = FileUtils.toFile(getClass().getResource("/org/sonar/api/utils/ZipUtilsTest/shouldUnzipFile.zip"));
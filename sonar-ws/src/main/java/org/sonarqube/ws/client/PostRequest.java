@@ -20,8 +20,11 @@
 package org.sonarqube.ws.client;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import javax.annotation.CheckForNull;
 
 /**
  * @since 5.3
@@ -51,19 +54,58 @@ public class PostRequest extends BaseRequest<PostRequest> {
   public static class Part {
     private final String mediaType;
     private final File file;
+    private final ContentWriter contentWriter;
 
     public Part(String mediaType, File file) {
       this.mediaType = mediaType;
       this.file = file;
+      this.contentWriter = null;
+    }
+
+    /**
+     * The content is written into the request body when the request is sent, so its size does not need
+     * to be known in advance.
+     *
+     * @since 5.4
+     */
+    public Part(String mediaType, ContentWriter contentWriter) {
+      this.mediaType = mediaType;
+      this.file = null;
+      this.contentWriter = contentWriter;
     }
 
     public String getMediaType() {
       return mediaType;
     }
 
+    /**
+     * Null if the content is streamed by {@link #getContentWriter()}
+     */
+    @CheckForNull
     public File getFile() {
       return file;
     }
+
+    /**
+     * Null if the content is read from {@link #getFile()}
+     *
+     * @since 5.4
+     */
+    @CheckForNull
+    public ContentWriter getContentWriter() {
+      return contentWriter;
+    }
+  }
+
+  /**
+   * @since 5.4
+   */
+  public interface ContentWriter {
+    /**
+     * Writes the content of the part. The stream must not be closed. This method can be called
+     * several times if the request is retried.
+     */
+    void writeTo(OutputStream output) throws IOException;
   }
 
 }
@@ -27,6 +27,7 @@ import org.junit.rules.TemporaryFolder;
 import org.sonarqube.ws.MediaTypes;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
 
 public class PostRequestTest {
 
@@ -57,4 +58,16 @@ public class PostRequestTest {
     assertThat(part.getMediaType()).isEqualTo(MediaTypes.JSON);
     assertThat(part.getFile()).isSameAs(reportFile);
   }
+
+  @Test
+  public void add_streamed_part() {
+    PostRequest request = new PostRequest("api/issues/search");
+    PostRequest.ContentWriter writer = mock(PostRequest.ContentWriter.class);
+    request.setPart("report", new PostRequest.Part(MediaTypes.ZIP, writer));
+
+    PostRequest.Part part = request.getParts().get("report");
+    assertThat(part.getMediaType()).isEqualTo(MediaTypes.ZIP);
+    assertThat(part.getContentWriter()).isSameAs(writer);
+    assertThat(part.getFile()).isNull();
+  }
 }